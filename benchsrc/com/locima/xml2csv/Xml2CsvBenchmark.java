@@ -0,0 +1,104 @@
+package com.locima.xml2csv;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.locima.xml2csv.benchmark.BenchmarkData;
+import com.locima.xml2csv.generator.CorpusGenerator;
+
+/**
+ * Measures a complete conversion using {@link Xml2Csv#execute(List, Iterable, File, boolean, boolean)}, including loading the configuration, parsing
+ * the input and writing the output, against inputs generated by {@link CorpusGenerator} for the sample configurations in <code>testdata</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class Xml2CsvBenchmark {
+
+	/**
+	 * The name of a sample configuration file in <code>testdata</code>.
+	 */
+	@Param({ "PeopleConfig.xml", "HeavilyNestedConfig.xml", "GroupDemoConfig.xml", "SimplePivotConfig.xml", "FamilyConfigWithNamespaces.xml" })
+	public String configFileName;
+
+	/**
+	 * The approximate size of each input file, in bytes.
+	 */
+	@Param({ "1048576" })
+	public long fileSize;
+
+	/**
+	 * The number of input files converted by each invocation.
+	 */
+	@Param({ "10" })
+	public int fileCount;
+
+	/**
+	 * The seed used to generate the input files, so that every run converts identical data.
+	 */
+	@Param({ "1" })
+	public long seed;
+
+	private List<File> configFiles;
+
+	private File inputDirectory;
+
+	private List<File> inputFiles;
+
+	private File outputDirectory;
+
+	/**
+	 * Converts all the input files.
+	 *
+	 * @throws ProgramException if the conversion fails.
+	 */
+	@Benchmark
+	public void execute() throws ProgramException {
+		new Xml2Csv().execute(this.configFiles, this.inputFiles, this.outputDirectory, false, true);
+	}
+
+	/**
+	 * Generates the input files.
+	 *
+	 * @throws Exception if anything goes wrong.
+	 */
+	@Setup
+	public void setUp() throws Exception {
+		this.configFiles = new ArrayList<File>();
+		this.configFiles.add(new File(BenchmarkData.TEST_DATA_DIR, this.configFileName));
+		this.inputDirectory = BenchmarkData.createTempDirectory("xml2csv-bench-in");
+		this.outputDirectory = BenchmarkData.createTempDirectory("xml2csv-bench-out");
+		CorpusGenerator generator = new CorpusGenerator(BenchmarkData.loadConfiguration(this.configFileName));
+		generator.setSeed(this.seed);
+		generator.setFileCount(this.fileCount);
+		generator.setFileSize(this.fileSize);
+		this.inputFiles = generator.generate(this.inputDirectory);
+	}
+
+	/**
+	 * Deletes all the input and output files.
+	 */
+	@TearDown
+	public void tearDown() {
+		BenchmarkData.deleteDirectory(this.inputDirectory);
+		BenchmarkData.deleteDirectory(this.outputDirectory);
+	}
+}
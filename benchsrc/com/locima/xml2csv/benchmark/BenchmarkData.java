@@ -0,0 +1,148 @@
+package com.locima.xml2csv.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.sf.saxon.s9api.XdmNode;
+
+import com.locima.xml2csv.ProgramException;
+import com.locima.xml2csv.configuration.IMappingContainer;
+import com.locima.xml2csv.configuration.MappingConfiguration;
+import com.locima.xml2csv.configuration.MappingStatistics;
+import com.locima.xml2csv.extractor.XmlDataExtractor;
+import com.locima.xml2csv.inputparser.xml.XmlFileParser;
+import com.locima.xml2csv.output.IExtractionResultsContainer;
+import com.locima.xml2csv.output.IOutputManager;
+import com.locima.xml2csv.util.XmlUtil;
+
+/**
+ * Helper methods for loading the sample configurations and inputs in the <code>testdata</code> directory for use by benchmarks.
+ * <p>
+ * Benchmarks are always run from the root of the project, so that <code>testdata</code> can be found.
+ */
+public final class BenchmarkData {
+
+	/**
+	 * Captures the results of extraction instead of writing them anywhere.
+	 */
+	private static class CapturingOutputManager implements IOutputManager {
+
+		private List<IExtractionResultsContainer> results = new ArrayList<IExtractionResultsContainer>();
+
+		@Override
+		public void abort() {
+		}
+
+		@Override
+		public void close() {
+		}
+
+		@Override
+		public void initialise(File outputDirectory, MappingConfiguration config, boolean appendOutput) {
+		}
+
+		@Override
+		public void writeRecords(String outputName, IExtractionResultsContainer extractionResults) {
+			this.results.add(extractionResults);
+		}
+	}
+
+	/**
+	 * The directory containing all the sample configurations and inputs.
+	 */
+	public static final String TEST_DATA_DIR = "testdata";
+
+	/**
+	 * Creates a temporary directory, which will be deleted when the JVM exits (if it's empty).
+	 *
+	 * @param prefix the prefix of the directory's name.
+	 * @return a new, empty directory.
+	 * @throws IOException if the directory cannot be created.
+	 */
+	public static File createTempDirectory(String prefix) throws IOException {
+		File dir = File.createTempFile(prefix, "");
+		if (!dir.delete() || !dir.mkdir()) {
+			throw new IOException("Unable to create temporary directory " + dir.getAbsolutePath());
+		}
+		dir.deleteOnExit();
+		return dir;
+	}
+
+	/**
+	 * Deletes a directory and all the files within it.
+	 *
+	 * @param dir the directory to delete. Must not contain sub-directories.
+	 */
+	public static void deleteDirectory(File dir) {
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		dir.delete();
+	}
+
+	/**
+	 * Runs a configuration against a document and returns the results for the first container, without writing any output.
+	 *
+	 * @param config the configuration to execute.
+	 * @param document the document to extract data from.
+	 * @param statistics the statistics to merge the extractor's statistics in to, so that the results can be output.
+	 * @return the results of the first container in <code>config</code>.
+	 * @throws ProgramException if extraction fails.
+	 */
+	public static IExtractionResultsContainer extract(MappingConfiguration config, XdmNode document, MappingStatistics statistics)
+					throws ProgramException {
+		XmlDataExtractor extractor = new XmlDataExtractor();
+		extractor.setMappingConfiguration(config);
+		CapturingOutputManager output = new CapturingOutputManager();
+		extractor.extractTo(document, output);
+		statistics.merge(extractor.getStatistics());
+		return output.results.get(0);
+	}
+
+	/**
+	 * Returns the first container defined by a configuration.
+	 *
+	 * @param config the configuration.
+	 * @return the first container, never null.
+	 */
+	public static IMappingContainer getFirstContainer(MappingConfiguration config) {
+		return config.iterator().next();
+	}
+
+	/**
+	 * Loads a configuration file from {@link #TEST_DATA_DIR}.
+	 *
+	 * @param configFileName the name of the configuration file.
+	 * @return the parsed configuration.
+	 * @throws ProgramException if the configuration cannot be loaded.
+	 */
+	public static MappingConfiguration loadConfiguration(String configFileName) throws ProgramException {
+		XmlFileParser parser = new XmlFileParser();
+		List<File> files = new ArrayList<File>();
+		files.add(new File(TEST_DATA_DIR, configFileName));
+		parser.load(files);
+		return parser.getMappings();
+	}
+
+	/**
+	 * Loads an input document from {@link #TEST_DATA_DIR}.
+	 *
+	 * @param inputFileName the name of the XML file.
+	 * @return the parsed document.
+	 * @throws ProgramException if the document cannot be loaded.
+	 */
+	public static XdmNode loadDocument(String inputFileName) throws ProgramException {
+		return XmlUtil.loadXmlFile(new File(TEST_DATA_DIR, inputFileName));
+	}
+
+	/**
+	 * Prevents instantiation.
+	 */
+	private BenchmarkData() {
+	}
+}
@@ -0,0 +1,88 @@
+package com.locima.xml2csv.configuration;
+
+import java.util.concurrent.TimeUnit;
+
+import net.sf.saxon.s9api.XPathExecutable;
+import net.sf.saxon.s9api.XPathSelector;
+import net.sf.saxon.s9api.XdmItem;
+import net.sf.saxon.s9api.XdmNode;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.locima.xml2csv.benchmark.BenchmarkData;
+import com.locima.xml2csv.util.XmlUtil;
+
+/**
+ * Measures the cost of evaluating a simple XPath expression through {@link XPathValue#evaluate(XdmNode)}, which re-uses selectors, against loading
+ * a new selector for every evaluation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class XPathValueBenchmark {
+
+	private XdmNode document;
+
+	private XPathExecutable executable;
+
+	private XPathValue xPath;
+
+	/**
+	 * Evaluates the expression by loading a new selector each time, which is what {@link XPathValue} used to do.
+	 *
+	 * @param blackhole consumes the results.
+	 */
+	@Benchmark
+	public void loadNewSelector(Blackhole blackhole) {
+		XPathSelector selector = this.executable.load();
+		try {
+			selector.setContextItem(this.document);
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+		for (XdmItem item : selector) {
+			blackhole.consume(item.getStringValue());
+		}
+	}
+
+	/**
+	 * Evaluates the expression using {@link XPathValue}.
+	 *
+	 * @param blackhole consumes the results.
+	 * @throws Exception if the evaluation fails.
+	 */
+	@Benchmark
+	public void evaluate(Blackhole blackhole) throws Exception {
+		XPathSelector selector = this.xPath.evaluate(this.document);
+		for (XdmItem item : selector) {
+			blackhole.consume(item.getStringValue());
+		}
+		this.xPath.release(selector);
+	}
+
+	/**
+	 * Loads the document and compiles the expression.
+	 *
+	 * @throws Exception if anything goes wrong.
+	 */
+	@Setup
+	public void setUp() throws Exception {
+		this.document = BenchmarkData.loadDocument("People.xml");
+		String expression = "/people/person[1]/firstname";
+		this.executable = XmlUtil.createXPathExecutable(null, expression);
+		this.xPath = new XPathValue(expression, this.executable);
+	}
+}
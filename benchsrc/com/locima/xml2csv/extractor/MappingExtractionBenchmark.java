@@ -0,0 +1,80 @@
+package com.locima.xml2csv.extractor;
+
+import java.util.concurrent.TimeUnit;
+
+import net.sf.saxon.s9api.XPathSelector;
+import net.sf.saxon.s9api.XdmNode;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.locima.xml2csv.benchmark.BenchmarkData;
+import com.locima.xml2csv.configuration.IMapping;
+import com.locima.xml2csv.configuration.IValueMapping;
+import com.locima.xml2csv.configuration.MappingConfiguration;
+import com.locima.xml2csv.configuration.MappingList;
+import com.locima.xml2csv.configuration.MappingStatistics;
+
+/**
+ * Measures the cost of evaluating a single value mapping against a single mapping root, which is the innermost loop of all extraction.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MappingExtractionBenchmark {
+
+	private IValueMapping mapping;
+
+	private XdmNode mappingRoot;
+
+	private ContainerExtractionContext parent;
+
+	private MappingStatistics statistics;
+
+	/**
+	 * Evaluates the first mapping of the People configuration against the first person.
+	 *
+	 * @return the evaluated context.
+	 * @throws DataExtractorException if evaluation fails.
+	 */
+	@Benchmark
+	public MappingExtractionContext evaluate() throws DataExtractorException {
+		MappingExtractionContext context = new MappingExtractionContext(this.parent, this.mapping, this.statistics, 0, 0);
+		context.evaluate(this.mappingRoot, null);
+		return context;
+	}
+
+	/**
+	 * Loads the configuration and finds the mapping root to evaluate against.
+	 *
+	 * @throws Exception if anything goes wrong.
+	 */
+	@Setup
+	public void setUp() throws Exception {
+		MappingConfiguration config = BenchmarkData.loadConfiguration("PeopleConfig.xml");
+		MappingList container = (MappingList) BenchmarkData.getFirstContainer(config);
+		for (IMapping child : container) {
+			if (child instanceof IValueMapping) {
+				this.mapping = (IValueMapping) child;
+				break;
+			}
+		}
+		this.statistics = new MappingStatistics();
+		this.parent = new ContainerExtractionContext(container, this.statistics, 0, 0);
+		XdmNode document = BenchmarkData.loadDocument("People.xml");
+		XPathSelector selector = container.getMappingRoot().evaluate(document);
+		this.mappingRoot = (XdmNode) selector.iterator().next();
+		container.getMappingRoot().release(selector);
+	}
+}
@@ -0,0 +1,90 @@
+package com.locima.xml2csv.output.direct;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.locima.xml2csv.benchmark.BenchmarkData;
+import com.locima.xml2csv.configuration.MappingConfiguration;
+import com.locima.xml2csv.configuration.MappingStatistics;
+import com.locima.xml2csv.output.GroupState;
+import com.locima.xml2csv.output.IExtractionResultsContainer;
+
+/**
+ * Measures the cost of turning the results of extracting data from a document in to CSV records, using {@link DirectOutputRecordIterator}, and
+ * of walking the {@link GroupState} list that drives it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DirectOutputBenchmark {
+
+	/**
+	 * Pairs of configuration and input file names from <code>testdata</code>, separated by a comma.
+	 */
+	@Param({ "HeavilyNestedConfig.xml,HeavilyNestedInstance.xml", "GroupDemoConfig.xml,GroupDemo.xml", "PeopleConfig.xml,People.xml" })
+	public String sample;
+
+	private OutputPlan plan;
+
+	private IExtractionResultsContainer results;
+
+	/**
+	 * Creates a group state list for the results and iterates over every combination of values, without creating any records.
+	 *
+	 * @return the number of records that would have been created.
+	 */
+	@Benchmark
+	public int groupStateIteration() {
+		GroupState state = GroupState.createGroupStateList(this.results);
+		int count = 0;
+		while (state.hasNext()) {
+			state.increment();
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Creates all the records for the results.
+	 *
+	 * @param blackhole consumes the records.
+	 */
+	@Benchmark
+	public void recordIteration(Blackhole blackhole) {
+		DirectOutputRecordIterator iterator = new DirectOutputRecordIterator(this.plan, this.results);
+		while (iterator.hasNext()) {
+			List<String> record = iterator.next();
+			blackhole.consume(record);
+		}
+	}
+
+	/**
+	 * Extracts the results that will be written.
+	 *
+	 * @throws Exception if anything goes wrong.
+	 */
+	@Setup
+	public void setUp() throws Exception {
+		String[] names = this.sample.split(",");
+		MappingConfiguration config = BenchmarkData.loadConfiguration(names[0]);
+		MappingStatistics statistics = new MappingStatistics();
+		this.results = BenchmarkData.extract(config, BenchmarkData.loadDocument(names[1]), statistics);
+		this.plan = new OutputPlan(BenchmarkData.getFirstContainer(config), statistics);
+	}
+}
@@ -0,0 +1,82 @@
+package com.locima.xml2csv.output.inline;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.locima.xml2csv.benchmark.BenchmarkData;
+import com.locima.xml2csv.configuration.IMappingContainer;
+import com.locima.xml2csv.configuration.MappingConfiguration;
+import com.locima.xml2csv.configuration.MappingStatistics;
+import com.locima.xml2csv.output.IExtractionResultsContainer;
+
+/**
+ * Measures the cost of writing extraction results to a CSI file and reading them back again, which is what {@link InlineCsvWriter} does for every
+ * record of every output that doesn't have a fixed number of fields. The CSI file is held in memory, so disk performance isn't included.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CsiBenchmark {
+
+	/**
+	 * The number of records written and read by each invocation.
+	 */
+	private static final int RECORD_COUNT = 100;
+
+	private IMappingContainer container;
+
+	private ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+	private IExtractionResultsContainer results;
+
+	/**
+	 * Writes {@link #RECORD_COUNT} records to a CSI file, then reads them all back.
+	 *
+	 * @param blackhole consumes the records read.
+	 * @throws Exception if anything goes wrong.
+	 */
+	@Benchmark
+	public void roundTrip(Blackhole blackhole) throws Exception {
+		this.output.reset();
+		CsiWriter writer = new CsiWriter(this.container, this.output);
+		for (int i = 0; i < RECORD_COUNT; i++) {
+			writer.writeRecord(this.results);
+		}
+		writer.close();
+
+		CsiReader reader = new CsiReader(this.container, new ByteArrayInputStream(this.output.toByteArray()));
+		IExtractionResultsContainer record;
+		while ((record = reader.getNextRecord()) != null) {
+			blackhole.consume(record);
+		}
+		reader.close();
+	}
+
+	/**
+	 * Extracts the results that will be written.
+	 *
+	 * @throws Exception if anything goes wrong.
+	 */
+	@Setup
+	public void setUp() throws Exception {
+		MappingConfiguration config = BenchmarkData.loadConfiguration("HeavilyNestedConfig.xml");
+		this.container = BenchmarkData.getFirstContainer(config);
+		this.results = BenchmarkData.extract(config, BenchmarkData.loadDocument("HeavilyNestedInstance.xml"), new MappingStatistics());
+	}
+}
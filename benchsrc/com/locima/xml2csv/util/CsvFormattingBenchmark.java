@@ -0,0 +1,91 @@
+package com.locima.xml2csv.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.locima.xml2csv.output.direct.CsvRecordBuffer;
+
+/**
+ * Measures the cost of escaping CSV fields and building CSV records, using {@link StringUtil} and {@link CsvRecordBuffer}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CsvFormattingBenchmark {
+
+	private CsvRecordBuffer buffer;
+
+	private List<String> record;
+
+	/**
+	 * Builds a record using a {@link CsvRecordBuffer}, as {@link com.locima.xml2csv.output.direct.DirectCsvWriter} does.
+	 *
+	 * @return the number of characters in the record.
+	 */
+	@Benchmark
+	public int csvRecordBuffer() {
+		this.buffer.appendFields(this.record);
+		this.buffer.endRecord();
+		int length = this.buffer.length();
+		this.buffer.clear();
+		return length;
+	}
+
+	/**
+	 * Escapes a field that doesn't need quoting.
+	 *
+	 * @return the escaped field.
+	 */
+	@Benchmark
+	public String escapeForCsvPlain() {
+		return StringUtil.escapeForCsv("A typical field value");
+	}
+
+	/**
+	 * Escapes a field that needs quoting.
+	 *
+	 * @return the escaped field.
+	 */
+	@Benchmark
+	public String escapeForCsvQuoted() {
+		return StringUtil.escapeForCsv("A field, with \"quotes\" in it");
+	}
+
+	/**
+	 * Sets up a typical record.
+	 */
+	@Setup
+	public void setUp() {
+		this.record = new ArrayList<String>();
+		for (int i = 0; i < 20; i++) {
+			this.record.add((i % 5 == 0) ? "Field, " + i : "Field" + i);
+		}
+		this.record.add(null);
+		this.buffer = new CsvRecordBuffer();
+	}
+
+	/**
+	 * Builds a record using {@link StringUtil#toCsvRecord(java.util.Collection)}.
+	 *
+	 * @return the record.
+	 */
+	@Benchmark
+	public String toCsvRecord() {
+		return StringUtil.toCsvRecord(this.record);
+	}
+}
@@ -0,0 +1,135 @@
+package com.locima.xml2csv.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.saxon.s9api.XdmNode;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.locima.xml2csv.benchmark.BenchmarkData;
+import com.locima.xml2csv.extractor.DataExtractorException;
+import com.locima.xml2csv.generator.CorpusGenerator;
+
+/**
+ * Compares each {@link InputStrategy}, both reading the raw bytes of input files and parsing them with
+ * {@link XmlUtil#loadXmlFile(File, InputOptions)}, against inputs generated by {@link CorpusGenerator}.
+ * <p>
+ * The generated files will usually be in the page cache, so this measures the cost of the reads themselves rather than the storage; run against
+ * real storage (with caches dropped) to see the effect of fewer, larger, reads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InputStrategyBenchmark {
+
+	/**
+	 * The size of the buffers used to read input files, in bytes.
+	 */
+	@Param({ "65536", "1048576" })
+	public int bufferSize;
+
+	/**
+	 * The approximate size of each input file, in bytes.
+	 */
+	@Param({ "16777216" })
+	public long fileSize;
+
+	/**
+	 * The number of input files read by each invocation.
+	 */
+	@Param({ "4" })
+	public int fileCount;
+
+	/**
+	 * The name of the {@link InputStrategy} to use.
+	 */
+	@Param({ "BUFFERED", "LARGE_BUFFER", "MEMORY_MAPPED" })
+	public String strategy;
+
+	private File inputDirectory;
+
+	private List<File> inputFiles;
+
+	private InputOptions options;
+
+	/**
+	 * Parses all the input files in to Saxon documents.
+	 *
+	 * @param blackhole consumes the documents, so that parsing isn't optimised away.
+	 * @throws DataExtractorException if a file can't be parsed.
+	 */
+	@Benchmark
+	public void load(Blackhole blackhole) throws DataExtractorException {
+		for (File file : this.inputFiles) {
+			XdmNode document = XmlUtil.loadXmlFile(file, this.options);
+			blackhole.consume(document);
+		}
+	}
+
+	/**
+	 * Reads the raw bytes of all the input files, in the size of blocks that a SAX parser reads.
+	 *
+	 * @return the number of bytes read, so that reading isn't optimised away.
+	 * @throws IOException if a file can't be read.
+	 */
+	@Benchmark
+	public long read() throws IOException {
+		byte[] block = new byte[8192];
+		long total = 0;
+		for (File file : this.inputFiles) {
+			InputStream input = FileUtility.openInput(file, this.options);
+			try {
+				int length;
+				while ((length = input.read(block)) >= 0) {
+					total += length;
+				}
+			} finally {
+				input.close();
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * Generates the input files and selects the strategy.
+	 *
+	 * @throws Exception if anything goes wrong.
+	 */
+	@Setup
+	public void setUp() throws Exception {
+		this.inputDirectory = BenchmarkData.createTempDirectory("xml2csv-bench-in");
+		CorpusGenerator generator = new CorpusGenerator(BenchmarkData.loadConfiguration("PeopleConfig.xml"));
+		generator.setSeed(1);
+		generator.setFileCount(this.fileCount);
+		generator.setFileSize(this.fileSize);
+		this.inputFiles = generator.generate(this.inputDirectory);
+		this.options = new InputOptions(InputStrategy.valueOf(this.strategy), this.bufferSize);
+	}
+
+	/**
+	 * Deletes all the input files.
+	 */
+	@TearDown
+	public void tearDown() {
+		BenchmarkData.deleteDirectory(this.inputDirectory);
+	}
+}
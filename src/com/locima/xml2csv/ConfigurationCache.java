@@ -0,0 +1,101 @@
+package com.locima.xml2csv;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.locima.xml2csv.configuration.MappingConfiguration;
+
+/**
+ * Keeps parsed and compiled mapping configurations, so that a long-running process (see
+ * {@link com.locima.xml2csv.cmdline.ConversionServer}) only pays for parsing configuration files, and compiling the XPath expressions within
+ * them, once.
+ * <p>
+ * Configurations are keyed by the absolute paths of the files they were loaded from. A configuration is reloaded if any of its files have
+ * changed size or last modified time since it was loaded. A {@link MappingConfiguration} holds no state about any conversion, so the same
+ * instance may be used by any number of conversions at once, unless it contains pivot mappings (see {@link MappingConfiguration#hasPivotMappings()}).
+ * The keys found by one conversion would then become extra, empty, fields in the output of every later conversion, so such configurations are
+ * loaded again for every conversion instead of being cached. The XPath expressions within them are still only compiled once, as they are cached by
+ * {@link com.locima.xml2csv.util.XmlUtil}.
+ * <p>
+ * This class is thread-safe.
+ */
+public class ConfigurationCache {
+
+	/**
+	 * A loaded configuration, and the state of the files it was loaded from.
+	 */
+	private static final class Entry {
+
+		/**
+		 * The loaded configuration.
+		 */
+		private MappingConfiguration configuration;
+
+		/**
+		 * The paths, sizes and last modified times of the configuration files when {@link #configuration} was loaded.
+		 */
+		private String description;
+
+		/**
+		 * Creates a new instance.
+		 *
+		 * @param description the state of the configuration files.
+		 * @param configuration the configuration loaded from them.
+		 */
+		public Entry(String description, MappingConfiguration configuration) {
+			this.description = description;
+			this.configuration = configuration;
+		}
+	}
+
+	private static final Logger LOG = LoggerFactory.getLogger(ConfigurationCache.class);
+
+	/**
+	 * The configurations loaded, keyed by the absolute paths of the files they were loaded from.
+	 */
+	private Map<String, Entry> entries = new HashMap<String, Entry>();
+
+	/**
+	 * Discards all the cached configurations.
+	 */
+	public synchronized void clear() {
+		this.entries.clear();
+	}
+
+	/**
+	 * Returns the configuration defined by a set of configuration files, loading it if it hasn't been loaded before or the files have changed.
+	 * <p>
+	 * Loading is done whilst holding this cache's lock, so that concurrent requests for a configuration only load it once.
+	 *
+	 * @param configFiles the configuration files. Must not be null.
+	 * @return the configuration, never null.
+	 * @throws ProgramException if the configuration can't be loaded.
+	 */
+	public synchronized MappingConfiguration get(List<File> configFiles) throws ProgramException {
+		StringBuilder key = new StringBuilder();
+		for (File configFile : configFiles) {
+			key.append(configFile.getAbsolutePath());
+			key.append(File.pathSeparatorChar);
+		}
+		String description = InputManifest.describeConfiguration(configFiles);
+		Entry entry = this.entries.get(key.toString());
+		if ((entry != null) && entry.description.equals(description)) {
+			LOG.debug("Using cached configuration {}", key);
+			return entry.configuration;
+		}
+		LOG.info("Loading configuration {} as it {}", key, (entry == null) ? "isn't cached" : "has changed");
+		MappingConfiguration configuration = Xml2Csv.loadConfiguration(configFiles);
+		if (configuration.hasPivotMappings()) {
+			LOG.debug("Not caching configuration {} as it contains pivot mappings", key);
+			this.entries.remove(key.toString());
+		} else {
+			this.entries.put(key.toString(), new Entry(description, configuration));
+		}
+		return configuration;
+	}
+}
@@ -0,0 +1,588 @@
+package com.locima.xml2csv;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.PatternSyntaxException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.locima.xml2csv.configuration.IMapping;
+import com.locima.xml2csv.configuration.IMappingContainer;
+import com.locima.xml2csv.configuration.Mapping;
+import com.locima.xml2csv.configuration.MappingConfiguration;
+import com.locima.xml2csv.configuration.MappingList;
+import com.locima.xml2csv.configuration.MultiValueBehaviour;
+import com.locima.xml2csv.configuration.NameFormat;
+import com.locima.xml2csv.configuration.PivotMapping;
+import com.locima.xml2csv.configuration.XPathValue;
+import com.locima.xml2csv.configuration.filter.AbstractFilter;
+import com.locima.xml2csv.configuration.filter.FileNameInputFilter;
+import com.locima.xml2csv.configuration.filter.IInputFilter;
+import com.locima.xml2csv.configuration.filter.XPathInputFilter;
+import com.locima.xml2csv.inputparser.FileParserException;
+//CHECKSTYLE:OFF Checkstyle bug, this import is used in javadoc comments.
+import com.locima.xml2csv.inputparser.xml.XmlFileParser;
+//CHECKSTYLE:ON
+import com.locima.xml2csv.util.XmlUtil;
+
+/**
+ * Writes a validated mapping configuration to a binary snapshot file, and reads it back, so that a conversion can start without validating its
+ * configuration files against the schema or parsing them with {@link XmlFileParser}.
+ * <p>
+ * The snapshot contains everything needed to rebuild the {@link MappingConfiguration}: the namespace mappings, the input filters, and the tree of
+ * mappings with their name formats, group numbers, multi-value behaviours, value counts and XPath expressions. Compiled XPath expressions can't be
+ * saved, so each is stored as its source and the names of the variables that were declared when it was compiled, and compiled again when the
+ * snapshot is read (see {@link XmlUtil#createXPathValue(Map, String, String...)}).
+ * <p>
+ * The snapshot also records the absolute path and a SHA-1 hash of the content of each configuration file it was created from. If the files passed
+ * to {@link #read(File, List)} don't match exactly, the snapshot is ignored, so a stale snapshot is never used. Pivot key mappings created during a
+ * conversion (see {@link PivotMapping#getPivotKeyMapping(String)}) aren't written, as they depend on the input files rather than the
+ * configuration.
+ */
+public final class ConfigurationSnapshot {
+
+	/**
+	 * Identifies a snapshot of a {@link FileNameInputFilter}.
+	 */
+	private static final byte FILE_NAME_FILTER = 1;
+
+	/**
+	 * Written at the start of every snapshot file, so that other files aren't mistaken for one.
+	 */
+	private static final String HEADER = "xml2csv configuration snapshot";
+
+	private static final Logger LOG = LoggerFactory.getLogger(ConfigurationSnapshot.class);
+
+	/**
+	 * Identifies a snapshot of a {@link Mapping}.
+	 */
+	private static final byte MAPPING = 1;
+
+	/**
+	 * Identifies a snapshot of a {@link MappingList}.
+	 */
+	private static final byte MAPPING_LIST = 2;
+
+	/**
+	 * Identifies a snapshot of a {@link PivotMapping}.
+	 */
+	private static final byte PIVOT_MAPPING = 3;
+
+	/**
+	 * The version of the snapshot format, which must be incremented whenever the format changes so that snapshots written by other versions of
+	 * xml2csv are ignored rather than misread.
+	 */
+	private static final int VERSION = 1;
+
+	/**
+	 * Identifies a snapshot of an {@link XPathInputFilter}.
+	 */
+	private static final byte XPATH_FILTER = 2;
+
+	/**
+	 * Closes a stream, logging rather than throwing any failure, as this is only done once the stream's data is no longer needed.
+	 *
+	 * @param stream the stream to close, may be null.
+	 * @param file the file that <code>stream</code> was reading or writing, for logging.
+	 */
+	private static void close(Closeable stream, File file) {
+		if (stream != null) {
+			try {
+				stream.close();
+			} catch (IOException ioe) {
+				LOG.warn("Unable to close {}", file.getAbsolutePath(), ioe);
+			}
+		}
+	}
+
+	/**
+	 * Creates a description of the configuration files that a snapshot is created from, so that a change to any of them can be detected.
+	 *
+	 * @param configFiles the configuration files.
+	 * @return the absolute path and SHA-1 hash of each of <code>configFiles</code>.
+	 * @throws ProgramException if any of the files can't be read.
+	 */
+	private static String describeSources(List<File> configFiles) throws ProgramException {
+		StringBuilder sb = new StringBuilder();
+		for (File configFile : configFiles) {
+			if (sb.length() > 0) {
+				sb.append('|');
+			}
+			sb.append(configFile.getAbsolutePath());
+			sb.append('|');
+			sb.append(InputManifest.hash(configFile));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Reads a snapshot written by {@link #write(MappingConfiguration, List, File)}, if it's still valid for the configuration files passed.
+	 * <p>
+	 * A snapshot is treated as stale, and null returned, if it doesn't exist, was written by an incompatible version of xml2csv, can't be read, or
+	 * was created from configuration files different to <code>configFiles</code>; in all these cases the caller should parse the configuration
+	 * files instead.
+	 *
+	 * @param snapshotFile the snapshot file to read. Must not be null.
+	 * @param configFiles the configuration files that the caller would otherwise parse. Must not be null.
+	 * @return the configuration read from the snapshot, or null if the snapshot is stale.
+	 * @throws ProgramException if the configuration files can't be read, or an XPath expression in the snapshot can't be compiled.
+	 */
+	public static MappingConfiguration read(File snapshotFile, List<File> configFiles) throws ProgramException {
+		if (snapshotFile == null) {
+			throw new ArgumentNullException("snapshotFile");
+		}
+		if (configFiles == null) {
+			throw new ArgumentNullException("configFiles");
+		}
+		if (!snapshotFile.isFile()) {
+			LOG.info("No configuration snapshot found at {}", snapshotFile.getAbsolutePath());
+			return null;
+		}
+		DataInputStream input = null;
+		try {
+			input = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)));
+			if (!HEADER.equals(input.readUTF()) || (input.readInt() != VERSION)) {
+				LOG.info("Ignoring configuration snapshot {} as it wasn't written by this version of xml2csv", snapshotFile.getAbsolutePath());
+				return null;
+			}
+			if (!describeSources(configFiles).equals(input.readUTF())) {
+				LOG.info("Ignoring configuration snapshot {} as the configuration has changed since it was written", snapshotFile.getAbsolutePath());
+				return null;
+			}
+			MappingConfiguration configuration = readConfiguration(input);
+			LOG.info("Loaded configuration from snapshot {}", snapshotFile.getAbsolutePath());
+			return configuration;
+		} catch (IOException ioe) {
+			// The snapshot is only ever a copy of the configuration files, so it's always safe to fall back to them
+			LOG.warn("Ignoring configuration snapshot {} as it can't be read", snapshotFile.getAbsolutePath(), ioe);
+			return null;
+		} finally {
+			close(input, snapshotFile);
+		}
+	}
+
+	/**
+	 * Reads a mapping configuration.
+	 *
+	 * @param input the stream to read from.
+	 * @return the configuration, never null.
+	 * @throws IOException if the stream can't be read, or contains data that isn't a valid snapshot.
+	 * @throws ProgramException if an XPath expression can't be compiled.
+	 */
+	private static MappingConfiguration readConfiguration(DataInputStream input) throws IOException, ProgramException {
+		MappingConfiguration configuration = new MappingConfiguration();
+		String defaultBehaviour = readString(input);
+		if (defaultBehaviour != null) {
+			configuration.setDefaultMultiValueBehaviour(readMultiValueBehaviour(defaultBehaviour));
+		}
+		configuration.setDefaultNameFormat(readNameFormat(input));
+
+		// Namespaces must be known before any XPath expressions are compiled
+		int namespaceCount = input.readInt();
+		for (int i = 0; i < namespaceCount; i++) {
+			configuration.addNamespaceMapping(input.readUTF(), input.readUTF());
+		}
+
+		int filterCount = input.readInt();
+		for (int i = 0; i < filterCount; i++) {
+			configuration.addInputFilter(readFilter(input, configuration.getNamespaceMap()));
+		}
+
+		int containerCount = input.readInt();
+		for (int i = 0; i < containerCount; i++) {
+			configuration.addContainer((IMappingContainer) readMapping(input, configuration.getNamespaceMap(), null));
+		}
+		return configuration;
+	}
+
+	/**
+	 * Reads an input filter, and all of its nested filters.
+	 *
+	 * @param input the stream to read from.
+	 * @param namespaceMap the namespace prefix to URI mappings of the configuration.
+	 * @return the filter, never null.
+	 * @throws IOException if the stream can't be read, or contains data that isn't a valid snapshot.
+	 * @throws XMLException if the filter's XPath expression can't be compiled.
+	 */
+	private static IInputFilter readFilter(DataInputStream input, Map<String, String> namespaceMap) throws IOException, XMLException {
+		byte type = input.readByte();
+		IInputFilter filter;
+		switch (type) {
+			case FILE_NAME_FILTER:
+				String regex = input.readUTF();
+				boolean matchLocalFileNameOnly = input.readBoolean();
+				try {
+					filter = new FileNameInputFilter(regex, matchLocalFileNameOnly);
+				} catch (PatternSyntaxException pse) {
+					throw new IOException("Invalid regular expression found in snapshot: " + regex, pse);
+				}
+				break;
+			case XPATH_FILTER:
+				filter = new XPathInputFilter(namespaceMap, input.readUTF());
+				break;
+			default:
+				throw new IOException("Unknown filter type found in snapshot: " + type);
+		}
+		filter.setAlwaysExecute(input.readBoolean());
+		int nestedCount = input.readInt();
+		for (int i = 0; i < nestedCount; i++) {
+			filter.addNestedFilter(readFilter(input, namespaceMap));
+		}
+		return filter;
+	}
+
+	/**
+	 * Reads a mapping, and all of its children if it's a {@link MappingList}.
+	 *
+	 * @param input the stream to read from.
+	 * @param namespaceMap the namespace prefix to URI mappings of the configuration.
+	 * @param parent the container that the mapping is a child of, or null if it's a top level container.
+	 * @return the mapping, never null.
+	 * @throws IOException if the stream can't be read, or contains data that isn't a valid snapshot.
+	 * @throws XMLException if an XPath expression can't be compiled.
+	 */
+	private static IMapping readMapping(DataInputStream input, Map<String, String> namespaceMap, MappingList parent) throws IOException,
+					XMLException {
+		byte type = input.readByte();
+		String name = input.readUTF();
+		NameFormat nameFormat = readNameFormat(input);
+		int groupNumber = input.readInt();
+		MultiValueBehaviour multiValueBehaviour = readMultiValueBehaviour(readString(input));
+		int minValueCount = input.readInt();
+		int maxValueCount = input.readInt();
+		switch (type) {
+			case MAPPING:
+				if (parent == null) {
+					throw new IOException("Value mapping " + name + " found outside of a mapping list in snapshot");
+				}
+				Mapping mapping = new Mapping();
+				mapping.setParent(parent);
+				mapping.setName(name);
+				mapping.setNameFormat(nameFormat);
+				mapping.setGroupNumber(groupNumber);
+				mapping.setMultiValueBehaviour(multiValueBehaviour);
+				mapping.setMinValueCount(minValueCount);
+				mapping.setMaxValueCount(maxValueCount);
+				mapping.setValueXPath(readXPath(input, namespaceMap));
+				return mapping;
+			case MAPPING_LIST:
+				MappingList list = new MappingList();
+				list.setParent(parent);
+				list.setName(name);
+				list.setNameFormat(nameFormat);
+				list.setGroupNumber(groupNumber);
+				list.setMultiValueBehaviour(multiValueBehaviour);
+				list.setMinValueCount(minValueCount);
+				list.setMaxValueCount(maxValueCount);
+				list.setMappingRoot(readXPath(input, namespaceMap));
+				int childCount = input.readInt();
+				for (int i = 0; i < childCount; i++) {
+					list.add(readMapping(input, namespaceMap, list));
+				}
+				return list;
+			case PIVOT_MAPPING:
+				PivotMapping pivot = new PivotMapping();
+				pivot.setParent(parent);
+				pivot.setMappingName(name);
+				pivot.setNameFormat(nameFormat);
+				pivot.setGroupNumber(groupNumber);
+				pivot.setMultiValueBehaviour(multiValueBehaviour);
+				pivot.setMinValueCount(minValueCount);
+				pivot.setMaxValueCount(maxValueCount);
+				pivot.setMappingRoot(readXPath(input, namespaceMap));
+				pivot.setKVPairRoot(readXPath(input, namespaceMap));
+				pivot.setKeyXPath(readXPath(input, namespaceMap));
+				pivot.setValueXPath(readXPath(input, namespaceMap));
+				return pivot;
+			default:
+				throw new IOException("Unknown mapping type found in snapshot: " + type);
+		}
+	}
+
+	/**
+	 * Converts the name of a multi-value behaviour back in to its value.
+	 *
+	 * @param name the name of the behaviour, may be null.
+	 * @return the behaviour, or null if <code>name</code> is null.
+	 * @throws IOException if <code>name</code> isn't the name of a behaviour.
+	 */
+	private static MultiValueBehaviour readMultiValueBehaviour(String name) throws IOException {
+		if (name == null) {
+			return null;
+		}
+		try {
+			return MultiValueBehaviour.valueOf(name);
+		} catch (IllegalArgumentException iae) {
+			throw new IOException("Unknown multi-value behaviour found in snapshot: " + name, iae);
+		}
+	}
+
+	/**
+	 * Reads a name format, re-using the predefined instances (such as {@link NameFormat#NO_COUNTS}) where the format matches one of them.
+	 *
+	 * @param input the stream to read from.
+	 * @return the name format, or null if none was written.
+	 * @throws IOException if the stream can't be read.
+	 */
+	private static NameFormat readNameFormat(DataInputStream input) throws IOException {
+		String format = readString(input);
+		if (format == null) {
+			return null;
+		}
+		// CHECKSTYLE:OFF Workaround for Checkstyle (bug?) expecting no whitespace after an open curly brace.
+		NameFormat[] predefinedFormats =
+						new NameFormat[] { NameFormat.NO_COUNTS, NameFormat.WITH_COUNT, NameFormat.WITH_COUNT_AND_PARENT_COUNT,
+										NameFormat.WITH_PARENT_COUNT };
+		// CHECKSTYLE:ON
+		for (NameFormat predefinedFormat : predefinedFormats) {
+			if (predefinedFormat.getFormat().equals(format)) {
+				return predefinedFormat;
+			}
+		}
+		return new NameFormat(format);
+	}
+
+	/**
+	 * Reads a string that may be null, written by {@link #writeString(DataOutputStream, String)}.
+	 *
+	 * @param input the stream to read from.
+	 * @return the string, which may be null.
+	 * @throws IOException if the stream can't be read.
+	 */
+	private static String readString(DataInputStream input) throws IOException {
+		return input.readBoolean() ? input.readUTF() : null;
+	}
+
+	/**
+	 * Reads the source of an XPath expression and the variables it declares, and compiles it.
+	 *
+	 * @param input the stream to read from.
+	 * @param namespaceMap the namespace prefix to URI mappings of the configuration.
+	 * @return the compiled expression, or null if none was written.
+	 * @throws IOException if the stream can't be read.
+	 * @throws XMLException if the expression can't be compiled.
+	 */
+	private static XPathValue readXPath(DataInputStream input, Map<String, String> namespaceMap) throws IOException, XMLException {
+		String source = readString(input);
+		if (source == null) {
+			return null;
+		}
+		String[] variableNames = new String[input.readInt()];
+		for (int i = 0; i < variableNames.length; i++) {
+			variableNames[i] = input.readUTF();
+		}
+		return XmlUtil.createXPathValue(namespaceMap, source, variableNames);
+	}
+
+	/**
+	 * Writes a snapshot of a mapping configuration, replacing any existing snapshot.
+	 * <p>
+	 * The snapshot is written to a temporary file that then replaces <code>snapshotFile</code>, so that a failure part way through never leaves a
+	 * truncated snapshot behind.
+	 *
+	 * @param configuration the configuration to write, as parsed from <code>configFiles</code>. Must not be null.
+	 * @param configFiles the configuration files that <code>configuration</code> was parsed from. Must not be null.
+	 * @param snapshotFile the file to write the snapshot to. Must not be null.
+	 * @throws ProgramException if the configuration files can't be read or the snapshot can't be written.
+	 */
+	public static void write(MappingConfiguration configuration, List<File> configFiles, File snapshotFile) throws ProgramException {
+		if (configuration == null) {
+			throw new ArgumentNullException("configuration");
+		}
+		if (configFiles == null) {
+			throw new ArgumentNullException("configFiles");
+		}
+		if (snapshotFile == null) {
+			throw new ArgumentNullException("snapshotFile");
+		}
+		String sources = describeSources(configFiles);
+		File tempFile = new File(snapshotFile.getAbsoluteFile().getParentFile(), snapshotFile.getName() + ".tmp");
+		DataOutputStream output = null;
+		try {
+			output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+			output.writeUTF(HEADER);
+			output.writeInt(VERSION);
+			output.writeUTF(sources);
+			writeConfiguration(output, configuration);
+			output.close();
+			output = null;
+		} catch (IOException ioe) {
+			throw new FileParserException(ioe, "Unable to write configuration snapshot %s", snapshotFile.getAbsolutePath());
+		} finally {
+			close(output, tempFile);
+		}
+		// File.renameTo won't replace an existing file on all platforms
+		if (snapshotFile.exists() && !snapshotFile.delete()) {
+			throw new FileParserException("Unable to replace existing configuration snapshot %s", snapshotFile.getAbsolutePath());
+		}
+		if (!tempFile.renameTo(snapshotFile)) {
+			throw new FileParserException("Unable to rename %s to %s", tempFile.getAbsolutePath(), snapshotFile.getAbsolutePath());
+		}
+		LOG.info("Wrote configuration snapshot {}", snapshotFile.getAbsolutePath());
+	}
+
+	/**
+	 * Writes a mapping configuration.
+	 *
+	 * @param output the stream to write to.
+	 * @param configuration the configuration to write.
+	 * @throws IOException if the stream can't be written to.
+	 */
+	private static void writeConfiguration(DataOutputStream output, MappingConfiguration configuration) throws IOException {
+		MultiValueBehaviour defaultBehaviour = configuration.getDefaultMultiValueBehaviour();
+		writeString(output, defaultBehaviour == null ? null : defaultBehaviour.name());
+		writeNameFormat(output, configuration.getDefaultNameFormat());
+
+		Map<String, String> namespaceMap = configuration.getNamespaceMap();
+		output.writeInt(namespaceMap.size());
+		for (Map.Entry<String, String> entry : namespaceMap.entrySet()) {
+			output.writeUTF(entry.getKey());
+			output.writeUTF(entry.getValue());
+		}
+
+		List<IInputFilter> filters = ((AbstractFilter) configuration.getInputFilter()).getNestedFilters();
+		output.writeInt(filters.size());
+		for (IInputFilter filter : filters) {
+			writeFilter(output, filter);
+		}
+
+		output.writeInt(configuration.size());
+		for (IMappingContainer container : configuration) {
+			writeMapping(output, container);
+		}
+	}
+
+	/**
+	 * Writes an input filter, and all of its nested filters.
+	 *
+	 * @param output the stream to write to.
+	 * @param filter the filter to write.
+	 * @throws IOException if the stream can't be written to.
+	 */
+	private static void writeFilter(DataOutputStream output, IInputFilter filter) throws IOException {
+		if (filter instanceof FileNameInputFilter) {
+			FileNameInputFilter fileNameFilter = (FileNameInputFilter) filter;
+			output.writeByte(FILE_NAME_FILTER);
+			output.writeUTF(fileNameFilter.getRegex());
+			output.writeBoolean(fileNameFilter.isMatchLocalFileNameOnly());
+		} else if (filter instanceof XPathInputFilter) {
+			output.writeByte(XPATH_FILTER);
+			output.writeUTF(((XPathInputFilter) filter).getXPath().getSource());
+		} else {
+			throw new BugException("Unable to write filter %s to a configuration snapshot as its type is unknown", filter);
+		}
+		output.writeBoolean(filter.getAlwaysExecute());
+		List<IInputFilter> nestedFilters = ((AbstractFilter) filter).getNestedFilters();
+		output.writeInt(nestedFilters.size());
+		for (IInputFilter nestedFilter : nestedFilters) {
+			writeFilter(output, nestedFilter);
+		}
+	}
+
+	/**
+	 * Writes a mapping, and all of its children if it's a {@link MappingList}.
+	 *
+	 * @param output the stream to write to.
+	 * @param mapping the mapping to write.
+	 * @throws IOException if the stream can't be written to.
+	 */
+	private static void writeMapping(DataOutputStream output, IMapping mapping) throws IOException {
+		byte type;
+		if (mapping instanceof Mapping) {
+			type = MAPPING;
+		} else if (mapping instanceof MappingList) {
+			type = MAPPING_LIST;
+		} else if (mapping instanceof PivotMapping) {
+			type = PIVOT_MAPPING;
+		} else {
+			throw new BugException("Unable to write mapping %s to a configuration snapshot as its type is unknown", mapping);
+		}
+		output.writeByte(type);
+		output.writeUTF(mapping.getName());
+		writeNameFormat(output, mapping.getNameFormat());
+		output.writeInt(mapping.getGroupNumber());
+		MultiValueBehaviour multiValueBehaviour = mapping.getMultiValueBehaviour();
+		writeString(output, multiValueBehaviour == null ? null : multiValueBehaviour.name());
+		output.writeInt(mapping.getMinValueCount());
+		output.writeInt(mapping.getMaxValueCount());
+		switch (type) {
+			case MAPPING:
+				writeXPath(output, ((Mapping) mapping).getValueXPath());
+				break;
+			case MAPPING_LIST:
+				MappingList list = (MappingList) mapping;
+				writeXPath(output, list.getMappingRoot());
+				output.writeInt(list.size());
+				for (IMapping child : list) {
+					writeMapping(output, child);
+				}
+				break;
+			default:
+				PivotMapping pivot = (PivotMapping) mapping;
+				writeXPath(output, pivot.getMappingRoot());
+				writeXPath(output, pivot.getKVPairRoot());
+				writeXPath(output, pivot.getKeyXPath());
+				writeXPath(output, pivot.getValueXPath());
+				break;
+		}
+	}
+
+	/**
+	 * Writes a name format.
+	 *
+	 * @param output the stream to write to.
+	 * @param nameFormat the name format to write, may be null.
+	 * @throws IOException if the stream can't be written to.
+	 */
+	private static void writeNameFormat(DataOutputStream output, NameFormat nameFormat) throws IOException {
+		writeString(output, nameFormat == null ? null : nameFormat.getFormat());
+	}
+
+	/**
+	 * Writes a string that may be null, so that it can be read by {@link #readString(DataInputStream)}.
+	 *
+	 * @param output the stream to write to.
+	 * @param value the string to write, may be null.
+	 * @throws IOException if the stream can't be written to.
+	 */
+	private static void writeString(DataOutputStream output, String value) throws IOException {
+		output.writeBoolean(value != null);
+		if (value != null) {
+			output.writeUTF(value);
+		}
+	}
+
+	/**
+	 * Writes the source of an XPath expression and the variables declared when it was compiled.
+	 *
+	 * @param output the stream to write to.
+	 * @param xPath the expression to write, may be null.
+	 * @throws IOException if the stream can't be written to.
+	 */
+	private static void writeXPath(DataOutputStream output, XPathValue xPath) throws IOException {
+		writeString(output, xPath == null ? null : xPath.getSource());
+		if (xPath != null) {
+			String[] variableNames = xPath.getVariableNames();
+			output.writeInt(variableNames.length);
+			for (String variableName : variableNames) {
+				output.writeUTF(variableName);
+			}
+		}
+	}
+
+	/**
+	 * Prevents instantiation.
+	 */
+	private ConfigurationSnapshot() {
+	}
+}
@@ -0,0 +1,438 @@
+package com.locima.xml2csv;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.locima.xml2csv.util.FileUtility;
+
+/**
+ * Records which input files have already been converted in to an output directory, so that an incremental run only converts input files that are
+ * new or have changed since the previous run.
+ * <p>
+ * Each input file is recorded by its absolute path, size and last modified time and, optionally, a SHA-1 hash of its content. A file is unchanged if
+ * its size and last modified time match what was recorded. If content hashing is enabled, a file of the same size whose last modified time has
+ * changed is also unchanged if its hash matches (e.g. if it was copied or touched), at the cost of reading it.
+ * <p>
+ * The manifest also records the size and last modified time of the configuration files used. If any of these have changed then every input file
+ * is treated as new, because the output it would produce may be different, and the output from previous runs must be replaced rather than
+ * appended to (see {@link #isConfigurationChanged()}).
+ * <p>
+ * The manifest is stored as a UTF-8 text file called {@value #MANIFEST_FILE_NAME} in the output directory, with one tab-separated line per input
+ * file. Files returned by {@link #getChangedFiles(Iterable)} are only recorded by {@link #save()}, which callers must only call once the output
+ * of all of them has been written successfully; if a conversion fails then the next run converts the same files again, so callers must also remove
+ * any output appended by the failed run (see {@link com.locima.xml2csv.output.IOutputManager#abort()}). Files that were recorded by previous runs
+ * but aren't passed to this run are kept, so that a run over a subset of the input files doesn't forget the others.
+ * <p>
+ * Output is only ever appended to, so when a file that was converted by a previous run has changed, the records converted from its new content
+ * are added to the output, and the records converted from its previous content remain. Use a full conversion instead if changed input files must
+ * replace their previous records.
+ */
+public class InputManifest {
+
+	/**
+	 * What was recorded about a single input file.
+	 */
+	private static final class Entry {
+
+		/**
+		 * The hex-encoded SHA-1 hash of the file's content, or null if it wasn't hashed.
+		 */
+		private String hash;
+
+		/**
+		 * The last modified time of the file, in milliseconds since the epoch.
+		 */
+		private long lastModified;
+
+		/**
+		 * The size of the file, in bytes.
+		 */
+		private long size;
+
+		/**
+		 * Creates a new entry.
+		 *
+		 * @param size the size of the file, in bytes.
+		 * @param lastModified the last modified time of the file.
+		 * @param hash the hex-encoded SHA-1 hash of the file's content, or null if it wasn't hashed.
+		 */
+		public Entry(long size, long lastModified, String hash) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.hash = hash;
+		}
+	}
+
+	/**
+	 * The prefix of the line that records the configuration files used.
+	 */
+	private static final String CONFIGURATION_PREFIX = "configuration\t";
+
+	/**
+	 * The first line of every manifest file, so that a different format can be detected in future.
+	 */
+	private static final String HEADER = "# xml2csv input manifest 1";
+
+	private static final Logger LOG = LoggerFactory.getLogger(InputManifest.class);
+
+	/**
+	 * The name of the file, within the output directory, that the manifest is stored in: {@value} .
+	 */
+	public static final String MANIFEST_FILE_NAME = "xml2csv-manifest.txt";
+
+	/**
+	 * Written in place of a hash for files that weren't hashed.
+	 */
+	private static final String NO_HASH = "-";
+
+	/**
+	 * Creates a description of the configuration files used, so that a change to any of them can be detected.
+	 *
+	 * @param configFiles the configuration files.
+	 * @return a description of the paths, sizes and last modified times of all <code>configFiles</code>.
+	 */
+	static String describeConfiguration(List<File> configFiles) {
+		StringBuilder sb = new StringBuilder();
+		for (File configFile : configFiles) {
+			if (sb.length() > 0) {
+				sb.append('|');
+			}
+			sb.append(configFile.getAbsolutePath());
+			sb.append('|');
+			sb.append(configFile.length());
+			sb.append('|');
+			sb.append(configFile.lastModified());
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Calculates a hash of the content of a file. Compressed files and zip archive entries are hashed after decompression, as that's the only
+	 * way to read an archive entry.
+	 *
+	 * @param file the file to hash.
+	 * @return the hex-encoded SHA-1 hash of the content of <code>file</code>.
+	 * @throws ProgramException if the file can't be read.
+	 */
+	static String hash(File file) throws ProgramException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException nsae) {
+			throw new BugException(nsae, "SHA-1 should be supported by all Java platforms");
+		}
+		byte[] buffer = new byte[65536];
+		InputStream input = null;
+		try {
+			input = FileUtility.openInput(file);
+			int length;
+			while ((length = input.read(buffer)) >= 0) {
+				digest.update(buffer, 0, length);
+			}
+		} catch (IOException ioe) {
+			throw new ProgramException(ioe, "Unable to read %s to calculate its hash", file.getAbsolutePath());
+		} finally {
+			if (input != null) {
+				try {
+					input.close();
+				} catch (IOException ioe) {
+					LOG.warn("Unable to close {}", file.getAbsolutePath(), ioe);
+				}
+			}
+		}
+		StringBuilder sb = new StringBuilder();
+		for (byte b : digest.digest()) {
+			sb.append(String.format("%02x", Integer.valueOf(b & 0xff)));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Loads the manifest stored in an output directory, if there is one.
+	 *
+	 * @param outputDirectory the output directory that the manifest is stored in. Must not be null.
+	 * @param configFiles the configuration files being used for this run. Must not be null.
+	 * @param hashContent if true, files are recorded with a hash of their content, which is used to detect files that haven't really changed.
+	 * @return a manifest, which will be empty if there wasn't one or the configuration files have changed. Never null.
+	 * @throws ProgramException if the manifest exists but can't be read.
+	 */
+	public static InputManifest load(File outputDirectory, List<File> configFiles, boolean hashContent) throws ProgramException {
+		if (outputDirectory == null) {
+			throw new ArgumentNullException("outputDirectory");
+		}
+		if (configFiles == null) {
+			throw new ArgumentNullException("configFiles");
+		}
+		InputManifest manifest = new InputManifest(new File(outputDirectory, MANIFEST_FILE_NAME), describeConfiguration(configFiles), hashContent);
+		if (manifest.manifestFile.exists()) {
+			manifest.read();
+		} else {
+			LOG.info("No manifest found at {}, so all input files will be converted", manifest.manifestFile.getAbsolutePath());
+		}
+		return manifest;
+	}
+
+	/**
+	 * The number of input files checked by {@link #recordIfChanged(File)} that were new or had changed.
+	 */
+	private int changedFileCount;
+
+	/**
+	 * The number of input files checked by {@link #recordIfChanged(File)}.
+	 */
+	private int checkedFileCount;
+
+	/**
+	 * The description of the configuration files being used for this run.
+	 */
+	private String configuration;
+
+	/**
+	 * True if a manifest was found, but was discarded because it was written using different configuration files.
+	 */
+	private boolean configurationChanged;
+
+	/**
+	 * True if a manifest written using the same configuration files was found, so this run adds to the output of previous runs.
+	 */
+	private boolean continuingPreviousRun;
+
+	/**
+	 * Every input file recorded, keyed by absolute path.
+	 */
+	private Map<String, Entry> entries = new HashMap<String, Entry>();
+
+	/**
+	 * The input files found by {@link #getChangedFiles(Iterable)}, which are only added to {@link #entries} by {@link #save()}, once their output
+	 * has been written.
+	 */
+	private Map<String, Entry> pendingEntries = new HashMap<String, Entry>();
+
+	/**
+	 * If true, files are recorded with a hash of their content.
+	 */
+	private boolean hashContent;
+
+	/**
+	 * The file that the manifest is stored in.
+	 */
+	private File manifestFile;
+
+	/**
+	 * Creates a new, empty, instance; use {@link #load(File, List, boolean)} to create instances.
+	 *
+	 * @param manifestFile the file that the manifest is stored in.
+	 * @param configuration the description of the configuration files being used for this run.
+	 * @param hashContent if true, files are recorded with a hash of their content.
+	 */
+	private InputManifest(File manifestFile, String configuration, boolean hashContent) {
+		this.manifestFile = manifestFile;
+		this.configuration = configuration;
+		this.hashContent = hashContent;
+	}
+
+	/**
+	 * Lazily filters input files down to those that are new or have changed since they were recorded. As the filtering is lazy, files are only
+	 * checked as the sequence returned is iterated, so an input file walk (e.g. a {@link com.locima.xml2csv.util.FileWalker}) is never collected
+	 * in to a list first. Each file is recorded as it is now by {@link #save()}.
+	 *
+	 * @param xmlInputFiles all the input files for this run. Must not be null.
+	 * @return the input files that need converting, in the same order as <code>xmlInputFiles</code>. Never null.
+	 */
+	public Iterable<File> getChangedFiles(Iterable<File> xmlInputFiles) {
+		return FileUtility.filter(xmlInputFiles, new FileFilter() {
+
+			@Override
+			public boolean accept(File xmlFile) {
+				return recordIfChanged(xmlFile);
+			}
+		});
+	}
+
+	/**
+	 * Determines whether a manifest from a previous run was discarded because the configuration files have changed since. If so, the output of
+	 * previous runs was produced by a different configuration, and is about to be produced again from every input file, so it must be replaced
+	 * rather than appended to.
+	 *
+	 * @return true if the configuration files have changed since the manifest was written.
+	 */
+	public boolean isConfigurationChanged() {
+		return this.configurationChanged;
+	}
+
+	/**
+	 * Determines whether a manifest written by a previous run using the same configuration files was found, so the output of that run must be
+	 * kept and only the files returned by {@link #getChangedFiles(Iterable)} appended to it.
+	 *
+	 * @return true if this run continues from a previous run.
+	 */
+	public boolean isContinuingPreviousRun() {
+		return this.continuingPreviousRun;
+	}
+
+	/**
+	 * Checks whether an input file is new or has changed since it was recorded, and if so notes it to be recorded as it is now by {@link #save()}.
+	 *
+	 * @param xmlFile the input file to check.
+	 * @return true if the file is new or has changed, false if it is unchanged.
+	 */
+	private boolean recordIfChanged(File xmlFile) {
+		this.checkedFileCount++;
+		String path = xmlFile.getAbsolutePath();
+		Entry previous = this.entries.get(path);
+		long size = xmlFile.length();
+		long lastModified = xmlFile.lastModified();
+		if ((previous != null) && (previous.size == size) && (previous.lastModified == lastModified)) {
+			return false;
+		}
+		String hash = null;
+		if (this.hashContent) {
+			try {
+				hash = hash(xmlFile);
+			} catch (ProgramException pe) {
+				// Treat the file as changed, so that converting it reports the problem
+				LOG.warn("Unable to calculate hash of {}", path, pe);
+			}
+		}
+		if ((previous != null) && (hash != null) && (previous.size == size) && hash.equals(previous.hash)) {
+			LOG.debug("{} has been modified, but its content hasn't changed", path);
+			this.pendingEntries.put(path, new Entry(size, lastModified, hash));
+			return false;
+		}
+		this.pendingEntries.put(path, new Entry(size, lastModified, hash));
+		this.changedFileCount++;
+		return true;
+	}
+
+	/**
+	 * Reads the manifest from {@link #manifestFile}, discarding it if the configuration files have changed.
+	 *
+	 * @throws ProgramException if the manifest can't be read.
+	 */
+	private void read() throws ProgramException {
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(this.manifestFile), "UTF-8"));
+			String header = reader.readLine();
+			String configurationLine = reader.readLine();
+			if (!HEADER.equals(header) || (configurationLine == null) || !configurationLine.startsWith(CONFIGURATION_PREFIX)) {
+				throw new ProgramException(null, "%s is not an xml2csv manifest file", this.manifestFile.getAbsolutePath());
+			}
+			if (!this.configuration.equals(configurationLine.substring(CONFIGURATION_PREFIX.length()))) {
+				LOG.info("Configuration files have changed since the manifest was written, so all input files will be converted");
+				this.configurationChanged = true;
+				return;
+			}
+			this.continuingPreviousRun = true;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				readEntry(line);
+			}
+			LOG.info("Read {} entries from manifest {}", this.entries.size(), this.manifestFile.getAbsolutePath());
+		} catch (IOException ioe) {
+			throw new ProgramException(ioe, "Unable to read manifest %s", this.manifestFile.getAbsolutePath());
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (IOException ioe) {
+					LOG.warn("Unable to close manifest {}", this.manifestFile.getAbsolutePath(), ioe);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Parses a single line of the manifest file, adding it to {@link #entries}. Lines that can't be parsed are ignored, which just means that the
+	 * file they describe will be converted again.
+	 *
+	 * @param line a line from the manifest file.
+	 */
+	private void readEntry(String line) {
+		// The path is last, so that it may contain tabs
+		String[] fields = line.split("\t", 4);
+		if (fields.length != 4) {
+			LOG.warn("Ignoring invalid manifest entry: {}", line);
+			return;
+		}
+		try {
+			String hash = NO_HASH.equals(fields[2]) ? null : fields[2];
+			this.entries.put(fields[3], new Entry(Long.parseLong(fields[0]), Long.parseLong(fields[1]), hash));
+		} catch (NumberFormatException nfe) {
+			LOG.warn("Ignoring invalid manifest entry: {}", line);
+		}
+	}
+
+	/**
+	 * Records all the files returned by {@link #getChangedFiles(Iterable)}, and writes the manifest to the output directory, replacing any previous
+	 * version. Must only be called once the output of all those files has been written.
+	 * <p>
+	 * The manifest is written to a temporary file first and then renamed, so that a failure part way through writing never leaves a truncated
+	 * manifest behind.
+	 *
+	 * @throws ProgramException if the manifest can't be written.
+	 */
+	public void save() throws ProgramException {
+		this.entries.putAll(this.pendingEntries);
+		this.pendingEntries.clear();
+		File tempFile = new File(this.manifestFile.getParentFile(), this.manifestFile.getName() + ".tmp");
+		Writer writer = null;
+		try {
+			writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), "UTF-8"));
+			writer.write(HEADER);
+			writer.write('\n');
+			writer.write(CONFIGURATION_PREFIX);
+			writer.write(this.configuration);
+			writer.write('\n');
+			for (Map.Entry<String, Entry> mapEntry : this.entries.entrySet()) {
+				Entry entry = mapEntry.getValue();
+				writer.write(Long.toString(entry.size));
+				writer.write('\t');
+				writer.write(Long.toString(entry.lastModified));
+				writer.write('\t');
+				writer.write(entry.hash == null ? NO_HASH : entry.hash);
+				writer.write('\t');
+				writer.write(mapEntry.getKey());
+				writer.write('\n');
+			}
+			writer.close();
+			writer = null;
+		} catch (IOException ioe) {
+			throw new ProgramException(ioe, "Unable to write manifest %s", tempFile.getAbsolutePath());
+		} finally {
+			if (writer != null) {
+				try {
+					writer.close();
+				} catch (IOException ioe) {
+					LOG.warn("Unable to close manifest {}", tempFile.getAbsolutePath(), ioe);
+				}
+			}
+		}
+		// File.renameTo won't replace an existing file on all platforms
+		if (this.manifestFile.exists() && !this.manifestFile.delete()) {
+			throw new ProgramException(null, "Unable to replace manifest %s", this.manifestFile.getAbsolutePath());
+		}
+		if (!tempFile.renameTo(this.manifestFile)) {
+			throw new ProgramException(null, "Unable to rename %s to %s", tempFile.getAbsolutePath(), this.manifestFile.getAbsolutePath());
+		}
+		LOG.info("{} of {} input files were new or had changed since the last run", this.changedFileCount, this.checkedFileCount);
+		LOG.info("Wrote {} entries to manifest {}", this.entries.size(), this.manifestFile.getAbsolutePath());
+	}
+}
@@ -0,0 +1,358 @@
+package com.locima.xml2csv;
+
+import java.io.File;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.locima.xml2csv.configuration.MappingConfiguration;
+import com.locima.xml2csv.configuration.MappingStatistics;
+import com.locima.xml2csv.extractor.DocumentProjection;
+import com.locima.xml2csv.extractor.XmlDataExtractor;
+import com.locima.xml2csv.output.BufferingOutputManager;
+import com.locima.xml2csv.output.IOutputManager;
+import com.locima.xml2csv.util.InputOptions;
+
+/**
+ * Converts a list of XML files using a pool of worker threads, each of which filters, loads and extracts data from a whole file at a time.
+ * <p>
+ * Workers never write to the real {@link IOutputManager}; instead each one buffers the results for its file in a {@link BufferingOutputManager}.
+ * The calling thread then writes the buffered results, either in input file order or in the order that files complete. To keep memory bounded, only
+ * a fixed number of files (twice the number of threads) may be in progress or waiting to be written at any time.
+ * <p>
+ * Note that the order of fields created by pivot mappings depends on the order in which keys are discovered, so may differ between runs when files
+ * are processed concurrently.
+ */
+public class ParallelDocumentProcessor {
+
+	/**
+	 * Converts a single file, buffering the results.
+	 */
+	private static class DocumentTask implements Callable<BufferingOutputManager> {
+
+		/**
+		 * The mapping configuration to execute.
+		 */
+		private MappingConfiguration config;
+
+		/**
+		 * The projection used to load the file, or null to load the whole file.
+		 */
+		private DocumentProjection projection;
+
+		/**
+		 * The pool used to evaluate the mapping containers of the document concurrently, or null.
+		 */
+		private ExecutorService extractionExecutor;
+
+		/**
+		 * How the file is read from disk.
+		 */
+		private InputOptions inputOptions;
+
+		/**
+		 * The statistics for the whole conversion, which this task's statistics are merged in to once it has finished.
+		 */
+		private MappingStatistics statistics;
+
+		/**
+		 * The file to convert.
+		 */
+		private File xmlFile;
+
+		/**
+		 * Creates a new task.
+		 *
+		 * @param config the mapping configuration to execute.
+		 * @param projection the projection used to load the file, or null to load the whole file.
+		 * @param extractionExecutor the pool used to evaluate the mapping containers of the document concurrently, or null.
+		 * @param inputOptions how the file is read from disk.
+		 * @param statistics the statistics for the whole conversion.
+		 * @param xmlFile the file to convert.
+		 */
+		public DocumentTask(MappingConfiguration config, DocumentProjection projection, ExecutorService extractionExecutor,
+						InputOptions inputOptions, MappingStatistics statistics, File xmlFile) {
+			this.config = config;
+			this.projection = projection;
+			this.extractionExecutor = extractionExecutor;
+			this.inputOptions = inputOptions;
+			this.statistics = statistics;
+			this.xmlFile = xmlFile;
+		}
+
+		@Override
+		public BufferingOutputManager call() throws ProgramException {
+			XmlDataExtractor extractor = new XmlDataExtractor();
+			extractor.setMappingConfiguration(this.config);
+			extractor.setExecutor(this.extractionExecutor);
+			BufferingOutputManager buffer = new BufferingOutputManager();
+			Xml2Csv.convert(this.config, this.projection, extractor, this.xmlFile, this.inputOptions, buffer);
+			this.statistics.merge(extractor.getStatistics());
+			return buffer;
+		}
+	}
+
+	/**
+	 * Creates daemon worker threads with meaningful names, so that an abandoned pool never prevents the JVM from exiting.
+	 */
+	static class WorkerThreadFactory implements ThreadFactory {
+
+		/**
+		 * The prefix of the name of each thread created.
+		 */
+		private String namePrefix;
+
+		/**
+		 * Used to give each thread a unique number.
+		 */
+		private AtomicInteger threadNumber = new AtomicInteger(1);
+
+		/**
+		 * Creates a new factory.
+		 *
+		 * @param namePrefix the prefix of the name of each thread created, which will be followed by a unique number.
+		 */
+		public WorkerThreadFactory(String namePrefix) {
+			this.namePrefix = namePrefix;
+		}
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, this.namePrefix + this.threadNumber.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+	private static final Logger LOG = LoggerFactory.getLogger(ParallelDocumentProcessor.class);
+
+	/**
+	 * The mapping configuration to execute.
+	 */
+	private MappingConfiguration config;
+
+	/**
+	 * The pool used to evaluate the mapping containers of each document concurrently, or null.
+	 */
+	private ExecutorService extractionExecutor;
+
+	/**
+	 * How each file is read from disk.
+	 */
+	private InputOptions inputOptions = InputOptions.DEFAULT;
+
+	/**
+	 * The maximum number of files that may be in progress or waiting to be written at once.
+	 */
+	private int maxFilesInFlight;
+
+	/**
+	 * The projection used to load each file, or null to load whole files.
+	 */
+	private DocumentProjection projection;
+
+	/**
+	 * True if output must be written in input file order.
+	 */
+	private boolean preserveInputOrder;
+
+	/**
+	 * The number of worker threads.
+	 */
+	private int threadCount;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param config the mapping configuration to execute. Must not be null.
+	 * @param threadCount the number of worker threads to use. Must be at least 1.
+	 * @param preserveInputOrder if true, output is written in input file order, otherwise it's written in the order that files are completed.
+	 */
+	public ParallelDocumentProcessor(MappingConfiguration config, int threadCount, boolean preserveInputOrder) {
+		if (config == null) {
+			throw new ArgumentNullException("config");
+		}
+		if (threadCount < 1) {
+			throw new ArgumentException("threadCount", "must be at least 1");
+		}
+		this.config = config;
+		this.threadCount = threadCount;
+		this.preserveInputOrder = preserveInputOrder;
+		this.maxFilesInFlight = threadCount * 2;
+	}
+
+	/**
+	 * Waits for the result of a task submitted to a pool, unwrapping any exception that the task threw.
+	 *
+	 * @param <T> the type of the result.
+	 * @param future the result of the task.
+	 * @return the result of the task.
+	 * @throws ProgramException if the task failed, or the calling thread was interrupted whilst waiting.
+	 */
+	static <T> T getResult(Future<T> future) throws ProgramException {
+		try {
+			return future.get();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new ProgramException(ie, "Interrupted whilst waiting for worker threads to convert input files");
+		} catch (ExecutionException ee) {
+			Throwable cause = ee.getCause();
+			if (cause instanceof ProgramException) {
+				throw (ProgramException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new BugException((Exception) cause, "Unexpected exception thrown by worker thread");
+		}
+	}
+
+	/**
+	 * Waits for the next buffered result from the pool and writes it to the output manager.
+	 *
+	 * @param future the result of a {@link DocumentTask}.
+	 * @param outputManager the output manager to write the results to.
+	 * @throws ProgramException if the task failed, or writing failed.
+	 */
+	private void complete(Future<BufferingOutputManager> future, IOutputManager outputManager) throws ProgramException {
+		getResult(future).writeTo(outputManager);
+	}
+
+	/**
+	 * Converts all the XML files passed, writing the results to <code>outputManager</code>. Only returns once all files have been processed.
+	 *
+	 * @param xmlInputFiles the XML files to convert, which are iterated once by the calling thread as files are submitted to the workers.
+	 * @param outputManager the output manager to write all results to. This is only ever called by the calling thread.
+	 * @param statistics the statistics for the whole conversion, which each worker's statistics are merged in to. Must not be null.
+	 * @throws ProgramException if anything goes wrong with any file. Processing of other files is abandoned.
+	 */
+	public void process(Iterable<File> xmlInputFiles, IOutputManager outputManager, MappingStatistics statistics) throws ProgramException {
+		if (statistics == null) {
+			throw new ArgumentNullException("statistics");
+		}
+		LOG.info("Converting files using {} threads, {}preserving input order", this.threadCount,
+						this.preserveInputOrder ? "" : "not ");
+		ExecutorService pool = Executors.newFixedThreadPool(this.threadCount, new WorkerThreadFactory("xml2csv-worker-"));
+		try {
+			if (this.preserveInputOrder) {
+				processOrdered(pool, xmlInputFiles, outputManager, statistics);
+			} else {
+				processUnordered(pool, xmlInputFiles, outputManager, statistics);
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Converts all the XML files passed, writing each file's results in input file order.
+	 *
+	 * @param pool the pool of worker threads.
+	 * @param xmlInputFiles the XML files to convert.
+	 * @param outputManager the output manager to write all results to.
+	 * @param statistics the statistics for the whole conversion.
+	 * @throws ProgramException if anything goes wrong with any file.
+	 */
+	private void processOrdered(ExecutorService pool, Iterable<File> xmlInputFiles, IOutputManager outputManager, MappingStatistics statistics)
+					throws ProgramException {
+		LinkedList<Future<BufferingOutputManager>> inFlight = new LinkedList<Future<BufferingOutputManager>>();
+		for (File xmlFile : xmlInputFiles) {
+			if (inFlight.size() >= this.maxFilesInFlight) {
+				complete(inFlight.removeFirst(), outputManager);
+			}
+			inFlight.addLast(pool.submit(new DocumentTask(this.config, this.projection, this.extractionExecutor, this.inputOptions, statistics,
+							xmlFile)));
+		}
+		while (!inFlight.isEmpty()) {
+			complete(inFlight.removeFirst(), outputManager);
+		}
+	}
+
+	/**
+	 * Converts all the XML files passed, writing each file's results as soon as it's complete.
+	 *
+	 * @param pool the pool of worker threads.
+	 * @param xmlInputFiles the XML files to convert.
+	 * @param outputManager the output manager to write all results to.
+	 * @param statistics the statistics for the whole conversion.
+	 * @throws ProgramException if anything goes wrong with any file.
+	 */
+	private void processUnordered(ExecutorService pool, Iterable<File> xmlInputFiles, IOutputManager outputManager, MappingStatistics statistics)
+					throws ProgramException {
+		CompletionService<BufferingOutputManager> completionService = new ExecutorCompletionService<BufferingOutputManager>(pool);
+		int inFlight = 0;
+		for (File xmlFile : xmlInputFiles) {
+			if (inFlight >= this.maxFilesInFlight) {
+				complete(take(completionService), outputManager);
+				inFlight--;
+			}
+			completionService.submit(new DocumentTask(this.config, this.projection, this.extractionExecutor, this.inputOptions, statistics,
+							xmlFile));
+			inFlight++;
+		}
+		while (inFlight > 0) {
+			complete(take(completionService), outputManager);
+			inFlight--;
+		}
+	}
+
+	/**
+	 * Configures a projection used to load each file, so that only the parts of each document that the mapping configuration can reach are loaded.
+	 *
+	 * @param projection the projection created for the mapping configuration, or null (the default) to load whole files.
+	 */
+	public void setDocumentProjection(DocumentProjection projection) {
+		this.projection = projection;
+	}
+
+	/**
+	 * Configures a pool of threads used to evaluate the mapping containers of each document concurrently (see
+	 * {@link XmlDataExtractor#setExecutor(ExecutorService)}). This is in addition to the worker threads that process each file.
+	 *
+	 * @param extractionExecutor the pool to use, or null (the default) to evaluate each document entirely on its worker thread.
+	 */
+	public void setExtractionExecutor(ExecutorService extractionExecutor) {
+		this.extractionExecutor = extractionExecutor;
+	}
+
+	/**
+	 * Configures how each file is read from disk.
+	 *
+	 * @param inputOptions the options to use. Must not be null. Defaults to {@link InputOptions#DEFAULT}.
+	 */
+	public void setInputOptions(InputOptions inputOptions) {
+		if (inputOptions == null) {
+			throw new ArgumentNullException("inputOptions");
+		}
+		this.inputOptions = inputOptions;
+	}
+
+	/**
+	 * Waits for the next task to complete.
+	 *
+	 * @param completionService the completion service that tasks were submitted to.
+	 * @return the future for the next task to complete.
+	 * @throws ProgramException if interrupted whilst waiting.
+	 */
+	private Future<BufferingOutputManager> take(CompletionService<BufferingOutputManager> completionService) throws ProgramException {
+		try {
+			return completionService.take();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new ProgramException(ie, "Interrupted whilst waiting for worker threads to convert input files");
+		}
+	}
+}
@@ -0,0 +1,375 @@
+package com.locima.xml2csv;
+
+import java.io.File;
+import java.util.LinkedList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.sf.saxon.s9api.XdmNode;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.locima.xml2csv.ParallelDocumentProcessor.WorkerThreadFactory;
+import com.locima.xml2csv.configuration.MappingConfiguration;
+import com.locima.xml2csv.configuration.MappingStatistics;
+import com.locima.xml2csv.extractor.DocumentProjection;
+import com.locima.xml2csv.extractor.XmlDataExtractor;
+import com.locima.xml2csv.output.BufferingOutputManager;
+import com.locima.xml2csv.output.IOutputManager;
+import com.locima.xml2csv.util.InputOptions;
+
+/**
+ * Converts a list of XML files using a three stage pipeline, so that reading and parsing input, extracting data and writing output all overlap:
+ * <ol>
+ * <li>A pool of parser threads filters and loads documents ahead of the extraction stage.</li>
+ * <li>The calling thread extracts data from each parsed document in input file order, buffering the results for each file in a
+ * {@link BufferingOutputManager}.</li>
+ * <li>A single writer thread writes each file's buffered results to the real {@link IOutputManager}, again in input file order.</li>
+ * </ol>
+ * Each stage is separated from the next by a bounded queue, so memory use is limited to the parsed documents and buffered results that fit in the
+ * queues, plus the ones currently being worked on. This is mostly useful when input files are on slow or network storage, where parsing spends
+ * most of its time waiting for data.
+ * <p>
+ * Unlike {@link ParallelDocumentProcessor}, extraction only ever happens on one thread, so output (including the order in which pivot mapping keys
+ * are discovered) is identical to that of a single threaded conversion.
+ */
+public class PipelinedDocumentProcessor {
+
+	/**
+	 * Filters and loads a single file.
+	 */
+	private static class ParseTask implements Callable<XdmNode> {
+
+		/**
+		 * The mapping configuration whose filters will be applied.
+		 */
+		private MappingConfiguration config;
+
+		/**
+		 * How the file is read from disk.
+		 */
+		private InputOptions inputOptions;
+
+		/**
+		 * The projection used to load the file, or null to load the whole file.
+		 */
+		private DocumentProjection projection;
+
+		/**
+		 * The file to load.
+		 */
+		private File xmlFile;
+
+		/**
+		 * Creates a new task.
+		 *
+		 * @param config the mapping configuration whose filters will be applied.
+		 * @param projection the projection used to load the file, or null to load the whole file.
+		 * @param inputOptions how the file is read from disk.
+		 * @param xmlFile the file to load.
+		 */
+		public ParseTask(MappingConfiguration config, DocumentProjection projection, InputOptions inputOptions, File xmlFile) {
+			this.config = config;
+			this.projection = projection;
+			this.inputOptions = inputOptions;
+			this.xmlFile = xmlFile;
+		}
+
+		/**
+		 * Loads the file, if it passes all the filters.
+		 *
+		 * @return the parsed document, or null if the file was excluded by a filter.
+		 * @throws ProgramException if anything goes wrong loading the file.
+		 */
+		@Override
+		public XdmNode call() throws ProgramException {
+			if (!this.config.include(this.xmlFile)) {
+				LOG.debug("Excluding {} due to file filters", this.xmlFile.getAbsolutePath());
+				return null;
+			}
+			if (this.config.isExcludedByContentPrefix(this.xmlFile)) {
+				LOG.debug("Excluding {} due to document content filters, without loading it", this.xmlFile.getAbsolutePath());
+				return null;
+			}
+			XdmNode document = Xml2Csv.load(this.projection, this.xmlFile, this.inputOptions);
+			if (!this.config.include(document)) {
+				LOG.debug("Excluding {} due to document content filters", this.xmlFile.getAbsolutePath());
+				return null;
+			}
+			return document;
+		}
+	}
+
+	/**
+	 * Takes buffered results from {@link PipelinedDocumentProcessor#outputQueue} and writes them to the output manager, until
+	 * {@link PipelinedDocumentProcessor#END_OF_OUTPUT} is found.
+	 */
+	private class WriterTask implements Runnable {
+
+		/**
+		 * The output manager to write to.
+		 */
+		private IOutputManager outputManager;
+
+		/**
+		 * Creates a new task.
+		 *
+		 * @param outputManager the output manager to write to.
+		 */
+		public WriterTask(IOutputManager outputManager) {
+			this.outputManager = outputManager;
+		}
+
+		@Override
+		public void run() {
+			boolean finished = false;
+			while (!finished) {
+				BufferingOutputManager buffer;
+				try {
+					buffer = PipelinedDocumentProcessor.this.outputQueue.take();
+				} catch (InterruptedException ie) {
+					LOG.warn("Output writer interrupted, abandoning output");
+					PipelinedDocumentProcessor.this.writerException = ie;
+					return;
+				}
+				if (buffer == END_OF_OUTPUT) {
+					finished = true;
+				} else if (PipelinedDocumentProcessor.this.writerException == null) {
+					try {
+						buffer.writeTo(this.outputManager);
+					} catch (Exception e) {
+						// Keep draining the queue, so that the extraction stage never blocks waiting for space.
+						LOG.error("Output writer failed, discarding all further output", e);
+						PipelinedDocumentProcessor.this.writerException = e;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Placed on {@link #outputQueue} to tell the writer thread that there is no more output.
+	 */
+	private static final BufferingOutputManager END_OF_OUTPUT = new BufferingOutputManager();
+
+	private static final Logger LOG = LoggerFactory.getLogger(PipelinedDocumentProcessor.class);
+
+	/**
+	 * The mapping configuration to execute.
+	 */
+	private MappingConfiguration config;
+
+	/**
+	 * The maximum number of documents that may be parsed, or being parsed, ahead of the extraction stage.
+	 */
+	private int documentQueueDepth;
+
+	/**
+	 * The pool used to evaluate the mapping containers of each document concurrently, or null.
+	 */
+	private ExecutorService extractionExecutor;
+
+	/**
+	 * How each file is read from disk.
+	 */
+	private InputOptions inputOptions = InputOptions.DEFAULT;
+
+	/**
+	 * Buffered results waiting to be written by the writer thread.
+	 */
+	private BlockingQueue<BufferingOutputManager> outputQueue;
+
+	/**
+	 * The projection used to load each file, or null to load whole files.
+	 */
+	private DocumentProjection projection;
+
+	/**
+	 * The number of threads used to parse documents.
+	 */
+	private int parserThreadCount;
+
+	/**
+	 * The first exception thrown by the writer thread, or null if it hasn't failed.
+	 */
+	private volatile Exception writerException;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param config the mapping configuration to execute. Must not be null.
+	 * @param parserThreadCount the number of threads to use to parse documents. Must be at least 1.
+	 * @param documentQueueDepth the maximum number of documents that may be parsed ahead of extraction. Must be at least 1.
+	 * @param outputQueueDepth the maximum number of files' results that may be waiting to be written. Must be at least 1.
+	 */
+	public PipelinedDocumentProcessor(MappingConfiguration config, int parserThreadCount, int documentQueueDepth, int outputQueueDepth) {
+		if (config == null) {
+			throw new ArgumentNullException("config");
+		}
+		if (parserThreadCount < 1) {
+			throw new ArgumentException("parserThreadCount", "must be at least 1");
+		}
+		if (documentQueueDepth < 1) {
+			throw new ArgumentException("documentQueueDepth", "must be at least 1");
+		}
+		if (outputQueueDepth < 1) {
+			throw new ArgumentException("outputQueueDepth", "must be at least 1");
+		}
+		this.config = config;
+		this.parserThreadCount = parserThreadCount;
+		this.documentQueueDepth = documentQueueDepth;
+		this.outputQueue = new ArrayBlockingQueue<BufferingOutputManager>(outputQueueDepth);
+	}
+
+	/**
+	 * Throws an exception if the writer thread has failed.
+	 *
+	 * @throws ProgramException if the writer thread has failed.
+	 */
+	private void checkWriter() throws ProgramException {
+		Exception e = this.writerException;
+		if (e instanceof ProgramException) {
+			throw (ProgramException) e;
+		}
+		if (e != null) {
+			throw new ProgramException(e, "Unable to write output");
+		}
+	}
+
+	/**
+	 * Extracts data from a parsed document and queues the results for the writer thread.
+	 *
+	 * @param extractor the extractor to use.
+	 * @param future the result of a {@link ParseTask}.
+	 * @throws ProgramException if parsing or extraction failed, or the writer thread has already failed.
+	 */
+	private void extract(XmlDataExtractor extractor, Future<XdmNode> future) throws ProgramException {
+		XdmNode document = ParallelDocumentProcessor.getResult(future);
+		checkWriter();
+		if (document != null) {
+			BufferingOutputManager buffer = new BufferingOutputManager();
+			extractor.extractTo(document, buffer);
+			putOutput(buffer);
+		}
+	}
+
+	/**
+	 * Converts all the XML files passed, writing the results to <code>outputManager</code>. Only returns once all files have been processed and all
+	 * output has been written.
+	 *
+	 * @param xmlInputFiles the XML files to convert, which are iterated once by the calling thread as files are submitted to the parser threads.
+	 * @param outputManager the output manager to write all results to. This is only ever called by the writer thread.
+	 * @param statistics the statistics for the whole conversion, which the extraction stage's statistics are merged in to. Must not be null.
+	 * @throws ProgramException if anything goes wrong with any file. Processing of other files is abandoned.
+	 */
+	public void process(Iterable<File> xmlInputFiles, IOutputManager outputManager, MappingStatistics statistics) throws ProgramException {
+		if (statistics == null) {
+			throw new ArgumentNullException("statistics");
+		}
+		LOG.info("Converting files using a pipeline with {} parser threads, {} queued documents and {} queued outputs", this.parserThreadCount,
+						this.documentQueueDepth, this.outputQueue.remainingCapacity());
+		this.writerException = null;
+		XmlDataExtractor extractor = new XmlDataExtractor();
+		extractor.setMappingConfiguration(this.config);
+		extractor.setExecutor(this.extractionExecutor);
+
+		ExecutorService parserPool = Executors.newFixedThreadPool(this.parserThreadCount, new WorkerThreadFactory("xml2csv-parser-"));
+		Thread writer = new WorkerThreadFactory("xml2csv-writer-").newThread(new WriterTask(outputManager));
+		writer.start();
+		boolean succeeded = false;
+		try {
+			LinkedList<Future<XdmNode>> parsed = new LinkedList<Future<XdmNode>>();
+			for (File xmlFile : xmlInputFiles) {
+				if (parsed.size() >= this.documentQueueDepth) {
+					extract(extractor, parsed.removeFirst());
+				}
+				parsed.addLast(parserPool.submit(new ParseTask(this.config, this.projection, this.inputOptions, xmlFile)));
+			}
+			while (!parsed.isEmpty()) {
+				extract(extractor, parsed.removeFirst());
+			}
+			statistics.merge(extractor.getStatistics());
+			succeeded = true;
+		} finally {
+			parserPool.shutdownNow();
+			stopWriter(writer, succeeded);
+		}
+		checkWriter();
+	}
+
+	/**
+	 * Adds buffered results to {@link #outputQueue}, waiting for space if necessary.
+	 *
+	 * @param buffer the results to add.
+	 * @throws ProgramException if interrupted whilst waiting.
+	 */
+	private void putOutput(BufferingOutputManager buffer) throws ProgramException {
+		try {
+			this.outputQueue.put(buffer);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new ProgramException(ie, "Interrupted whilst waiting for output to be written");
+		}
+	}
+
+	/**
+	 * Configures a projection used by the parser threads to load each file, so that only the parts of each document that the mapping configuration
+	 * can reach are loaded.
+	 *
+	 * @param projection the projection created for the mapping configuration, or null (the default) to load whole files.
+	 */
+	public void setDocumentProjection(DocumentProjection projection) {
+		this.projection = projection;
+	}
+
+	/**
+	 * Configures a pool of threads used by the extraction stage to evaluate the mapping containers of each document concurrently (see
+	 * {@link XmlDataExtractor#setExecutor(ExecutorService)}).
+	 *
+	 * @param extractionExecutor the pool to use, or null (the default) to evaluate each document entirely on the calling thread.
+	 */
+	public void setExtractionExecutor(ExecutorService extractionExecutor) {
+		this.extractionExecutor = extractionExecutor;
+	}
+
+	/**
+	 * Configures how each file is read by the parser threads from disk.
+	 *
+	 * @param inputOptions the options to use. Must not be null. Defaults to {@link InputOptions#DEFAULT}.
+	 */
+	public void setInputOptions(InputOptions inputOptions) {
+		if (inputOptions == null) {
+			throw new ArgumentNullException("inputOptions");
+		}
+		this.inputOptions = inputOptions;
+	}
+
+	/**
+	 * Tells the writer thread that there is no more output, then waits for it to finish.
+	 *
+	 * @param writer the writer thread.
+	 * @param waitForOutput if true, wait for all queued output to be written, otherwise discard it.
+	 * @throws ProgramException if interrupted whilst waiting for queued output to be written.
+	 */
+	private void stopWriter(Thread writer, boolean waitForOutput) throws ProgramException {
+		if (!waitForOutput) {
+			// Something has gone wrong, so there is no point in writing anything else
+			this.outputQueue.clear();
+		}
+		try {
+			this.outputQueue.put(END_OF_OUTPUT);
+			writer.join();
+		} catch (InterruptedException ie) {
+			writer.interrupt();
+			Thread.currentThread().interrupt();
+			if (waitForOutput) {
+				throw new ProgramException(ie, "Interrupted whilst waiting for output to be written");
+			}
+		}
+	}
+}
@@ -1,18 +1,32 @@
 package com.locima.xml2csv;
 
 import java.io.File;
+import java.io.FileFilter;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import net.sf.saxon.s9api.XdmNode;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.locima.xml2csv.ParallelDocumentProcessor.WorkerThreadFactory;
 import com.locima.xml2csv.configuration.MappingConfiguration;
+import com.locima.xml2csv.extractor.DataExtractorException;
+import com.locima.xml2csv.extractor.DocumentProjection;
+import com.locima.xml2csv.extractor.StreamingXmlDataExtractor;
 import com.locima.xml2csv.extractor.XmlDataExtractor;
 import com.locima.xml2csv.inputparser.IConfigParser;
 import com.locima.xml2csv.inputparser.xml.XmlFileParser;
+import com.locima.xml2csv.output.IOutputManager;
 import com.locima.xml2csv.output.OutputManager;
+import com.locima.xml2csv.util.FileUtility;
+//CHECKSTYLE:OFF Checkstyle bug, this import is used in javadoc comments.
+import com.locima.xml2csv.util.FileWalker;
+//CHECKSTYLE:ON
+import com.locima.xml2csv.util.InputOptions;
+import com.locima.xml2csv.util.InputStrategy;
 import com.locima.xml2csv.util.XmlUtil;
 
 /**
@@ -22,52 +36,443 @@ public class Xml2Csv {
 
 	private static final Logger LOG = LoggerFactory.getLogger(Xml2Csv.class);
 
+	/**
+	 * Filters, loads and extracts data from a single XML file, passing the results to <code>outputManager</code>.
+	 *
+	 * @param mappingConfig the mapping configuration whose filters will be applied.
+	 * @param projection the projection created for <code>mappingConfig</code>, or null to load the whole file.
+	 * @param extractor the extractor, already configured with <code>mappingConfig</code>.
+	 * @param xmlFile the XML file to convert.
+	 * @param inputOptions how to read <code>xmlFile</code> from disk.
+	 * @param outputManager the output manager to send the extracted data to.
+	 * @return true if the file was converted, false if it was excluded by a filter.
+	 * @throws ProgramException if anything goes wrong loading the file, or extracting or writing its data.
+	 */
+	static boolean convert(MappingConfiguration mappingConfig, DocumentProjection projection, XmlDataExtractor extractor, File xmlFile,
+					InputOptions inputOptions, IOutputManager outputManager) throws ProgramException {
+		if (mappingConfig.include(xmlFile)) {
+			if (mappingConfig.isExcludedByContentPrefix(xmlFile)) {
+				LOG.debug("Excluding {} due to document content filters, without loading it", xmlFile.getAbsolutePath());
+				return false;
+			}
+			XdmNode docToConvert = load(projection, xmlFile, inputOptions);
+			if (mappingConfig.include(docToConvert)) {
+				extractor.extractTo(docToConvert, outputManager);
+				return true;
+			} else {
+				LOG.debug("Excluding {} due to document content filters", xmlFile.getAbsolutePath());
+			}
+		} else {
+			LOG.debug("Excluding {} due to file filters", xmlFile.getAbsolutePath());
+		}
+		return false;
+	}
+
+	/**
+	 * Loads an XML file, using a projection if one is available.
+	 *
+	 * @param projection the projection to use, or null to load the whole file.
+	 * @param xmlFile the XML file to load.
+	 * @param inputOptions how to read <code>xmlFile</code> from disk.
+	 * @return the loaded document, never null.
+	 * @throws DataExtractorException if anything goes wrong loading the file.
+	 */
+	static XdmNode load(DocumentProjection projection, File xmlFile, InputOptions inputOptions) throws DataExtractorException {
+		return (projection == null) ? XmlUtil.loadXmlFile(xmlFile, inputOptions) : projection.load(xmlFile, inputOptions);
+	}
+
+	/**
+	 * Holds configurations loaded by previous conversions, or null if the configuration should be loaded by every conversion.
+	 */
+	private ConfigurationCache configurationCache;
+
+	/**
+	 * The snapshot that configurations are loaded from, if it's up to date, or null to always parse the configuration files (see
+	 * {@link ConfigurationSnapshot}).
+	 */
+	private File configurationSnapshot;
+
+	/**
+	 * The number of threads used to evaluate the mapping containers of each document concurrently. Defaults to 1, meaning that each document is
+	 * evaluated entirely by the thread processing it.
+	 */
+	private int extractionThreadCount = 1;
+
+	/**
+	 * If true, a hash of the content of each input file is recorded in the manifest when running incrementally.
+	 */
+	private boolean hashInputContent;
+
+	/**
+	 * If true, only input files that are new or have changed since the last run in to the same output directory are converted (see
+	 * {@link InputManifest}).
+	 */
+	private boolean incremental;
+
+	/**
+	 * How input files are read from disk. Held per conversion, rather than by {@link FileUtility}, so that concurrent conversions don't affect
+	 * each other.
+	 */
+	private InputOptions inputOptions = InputOptions.DEFAULT;
+
+	/**
+	 * The maximum number of parsed documents, and files' extracted results, that may be queued between stages when pipelining. If zero (the
+	 * default), no pipeline is used.
+	 */
+	private int pipelineQueueDepth;
+
+	/**
+	 * If true (the default), output from concurrently processed files is written in the same order as the input files, otherwise it is written in
+	 * the order that files finish processing.
+	 */
+	private boolean preserveInputOrder = true;
+
+	/**
+	 * If true (the default), input files are loaded using a {@link DocumentProjection}, if the mapping configuration allows it.
+	 */
+	private boolean projectDocuments = true;
+
+	/**
+	 * If true, input files are streamed using {@link StreamingXmlDataExtractor} rather than being loaded in to memory in their entirety.
+	 */
+	private boolean streaming;
+
+	/**
+	 * The number of threads to use to process input files concurrently. Defaults to 1, meaning that all files are processed on the calling thread.
+	 */
+	private int threadCount = 1;
+
 	/**
 	 * Entry point for code-based execution with all required inputs precisely defined.
 	 *
 	 * @param configFiles A ist of configuration files that define the mappings from XML to CSV. Must not be null.
-	 * @param xmlInputFiles A list of XML input files that should be processed against the <code>configFiles</code>. Must not be null.
+	 * @param xmlInputFiles The XML input files that should be processed against the <code>configFiles</code>. Must not be null. These are only
+	 *            iterated once, as they are converted, so may be found lazily (e.g. by a {@link FileWalker}).
 	 * @param outputDirectory The directory to which output CSV files should be written. Assumes to exist and be writeable.
 	 * @param trimWhitespace If true, then whitespace at the beginning or end of a value extracted will be trimmed.
 	 * @param appendOutput If true, then all output will be appended to if an output file already exists.
 	 * @throws ProgramException if anything goes wrong that couldn't be recovered.
 	 */
-	public void execute(List<File> configFiles, List<File> xmlInputFiles, File outputDirectory, boolean appendOutput, boolean trimWhitespace)
+	public void execute(List<File> configFiles, Iterable<File> xmlInputFiles, File outputDirectory, boolean appendOutput, boolean trimWhitespace)
 					throws ProgramException {
 
-		LOG.info("Parsing all the input configuration files to create mapping definitions.");
-		IConfigParser configParser = new XmlFileParser();
-		configParser.load(configFiles);
-		MappingConfiguration mappingConfig = configParser.getMappings();
+		final MappingConfiguration mappingConfig =
+						(this.configurationCache == null) ? loadConfiguration(configFiles, this.configurationSnapshot) : this.configurationCache
+										.get(configFiles);
+		if (this.streaming) {
+			// Check before the output files are created, so that existing output isn't replaced by a conversion that can't run
+			String reason = StreamingXmlDataExtractor.getNonStreamableReason(mappingConfig);
+			if (reason != null) {
+				throw new XMLException("Unable to use streaming extraction with this configuration.  %s", reason);
+			}
+		}
+
+		// Apply file filters as input files are found, so that files that will never be converted aren't checked against the manifest or queued
+		Iterable<File> filesToConvert = FileUtility.filter(xmlInputFiles, new FileFilter() {
+
+			@Override
+			public boolean accept(File xmlFile) {
+				boolean include = mappingConfig.include(xmlFile);
+				if (!include) {
+					LOG.debug("Excluding {} due to file filters", xmlFile.getAbsolutePath());
+				}
+				return include;
+			}
+		});
+		InputManifest manifest = null;
+		boolean appendToOutput = appendOutput;
+		if (this.incremental) {
+			manifest = InputManifest.load(outputDirectory, configFiles, this.hashInputContent);
+			filesToConvert = manifest.getChangedFiles(filesToConvert);
+			if (manifest.isContinuingPreviousRun()) {
+				// Output from files converted by previous runs must be kept
+				appendToOutput = true;
+			} else if (manifest.isConfigurationChanged()) {
+				// Every file is about to be converted again, so appending would duplicate the previous output, perhaps under different headers
+				LOG.info("Replacing existing output in {} as the configuration has changed", outputDirectory.getAbsolutePath());
+				appendToOutput = false;
+			}
+		}
 
 		// Create headers for all the output files
 		OutputManager outputMgr = new OutputManager();
+		// The calling (or file worker) thread always takes part in extraction, so one fewer pool thread is needed
+		ExecutorService extractionExecutor =
+						this.extractionThreadCount > 1 ? Executors.newFixedThreadPool(this.extractionThreadCount - 1, new WorkerThreadFactory(
+										"xml2csv-extractor-")) : null;
+		boolean completed = false;
 		try {
-			outputMgr.initialise(outputDirectory, mappingConfig, appendOutput);
-
-			// Parse the input XML files
-			XmlDataExtractor extractor = new XmlDataExtractor();
-			extractor.setMappingConfiguration(mappingConfig);
-
-			// Iterate over all files that pass filters and write out all the records to the output, managed by the OutputManager
-			for (File xmlFile : xmlInputFiles) {
-				if (mappingConfig.include(xmlFile)) {
-					XdmNode docToConvert = XmlUtil.loadXmlFile(xmlFile);
-					if (mappingConfig.include(docToConvert)) {
-						extractor.extractTo(docToConvert, outputMgr);
-					} else {
-						LOG.debug("Excluding {} due to document content filters", xmlFile.getAbsolutePath());
-					}
+			outputMgr.initialise(outputDirectory, mappingConfig, appendToOutput);
+			DocumentProjection projection = (this.projectDocuments && !this.streaming) ? DocumentProjection.create(mappingConfig) : null;
+
+			if (this.streaming) {
+				executeStreaming(mappingConfig, filesToConvert, outputMgr);
+			} else {
+				if (this.pipelineQueueDepth > 0) {
+					PipelinedDocumentProcessor processor =
+									new PipelinedDocumentProcessor(mappingConfig, this.threadCount, this.pipelineQueueDepth, this.pipelineQueueDepth);
+					processor.setExtractionExecutor(extractionExecutor);
+					processor.setDocumentProjection(projection);
+					processor.setInputOptions(this.inputOptions);
+					processor.process(filesToConvert, outputMgr, outputMgr.getStatistics());
+				} else if (this.threadCount > 1) {
+					ParallelDocumentProcessor processor = new ParallelDocumentProcessor(mappingConfig, this.threadCount, this.preserveInputOrder);
+					processor.setExtractionExecutor(extractionExecutor);
+					processor.setDocumentProjection(projection);
+					processor.setInputOptions(this.inputOptions);
+					processor.process(filesToConvert, outputMgr, outputMgr.getStatistics());
 				} else {
-					LOG.debug("Excluding {} due to file filters", xmlFile.getAbsolutePath());
+					// Parse the input XML files
+					XmlDataExtractor extractor = new XmlDataExtractor();
+					extractor.setMappingConfiguration(mappingConfig);
+					extractor.setExecutor(extractionExecutor);
+
+					// Iterate over all files that pass filters and write out all the records to the output, managed by the OutputManager
+					for (File xmlFile : filesToConvert) {
+						convert(mappingConfig, projection, extractor, xmlFile, this.inputOptions, outputMgr);
+					}
+					outputMgr.getStatistics().merge(extractor.getStatistics());
 				}
 			}
+			completed = true;
 		} finally {
-			/*
-			 * No matter what happens, attempt to close all the OutputManager resources so at least we won't leave resources open.
-			 */
-			outputMgr.close();
+			if (extractionExecutor != null) {
+				extractionExecutor.shutdownNow();
+			}
+			if (completed || (manifest == null)) {
+				/*
+				 * No matter what happens, attempt to close all the OutputManager resources so at least we won't leave resources open.
+				 */
+				outputMgr.close();
+			} else {
+				// The manifest won't be saved, so the next run converts the same files again; remove what they appended so it isn't duplicated
+				outputMgr.abort();
+			}
+		}
+		if (manifest != null) {
+			// Only record files once their output has been written successfully
+			manifest.save();
+		}
+	}
+
+	/**
+	 * Parses configuration files to create mapping definitions.
+	 *
+	 * @param configFiles the configuration files to parse. Must not be null.
+	 * @return the mapping configuration they define, never null.
+	 * @throws ProgramException if any of the files can't be read or are invalid.
+	 */
+	static MappingConfiguration loadConfiguration(List<File> configFiles) throws ProgramException {
+		LOG.info("Parsing all the input configuration files to create mapping definitions.");
+		IConfigParser configParser = new XmlFileParser();
+		configParser.load(configFiles);
+		return configParser.getMappings();
+	}
+
+	/**
+	 * Loads the mapping definitions from a configuration snapshot if it's up to date, otherwise parses the configuration files and writes a new
+	 * snapshot of them, so that the next conversion can use it.
+	 *
+	 * @param configFiles the configuration files to load. Must not be null.
+	 * @param snapshotFile the configuration snapshot, which need not exist, or null to always parse the configuration files.
+	 * @return the mapping configuration, never null.
+	 * @throws ProgramException if any of the files can't be read or are invalid.
+	 */
+	static MappingConfiguration loadConfiguration(List<File> configFiles, File snapshotFile) throws ProgramException {
+		if (snapshotFile == null) {
+			return loadConfiguration(configFiles);
+		}
+		MappingConfiguration mappingConfig = ConfigurationSnapshot.read(snapshotFile, configFiles);
+		if (mappingConfig == null) {
+			mappingConfig = loadConfiguration(configFiles);
+			try {
+				ConfigurationSnapshot.write(mappingConfig, configFiles, snapshotFile);
+			} catch (ProgramException pe) {
+				// The conversion doesn't need the snapshot, so don't let a failure to write it stop it
+				LOG.warn("Unable to refresh configuration snapshot {}", snapshotFile.getAbsolutePath(), pe);
+			}
+		}
+		return mappingConfig;
+	}
+
+	/**
+	 * Parses configuration files and writes a snapshot of them, so that later conversions can load the configuration without parsing them (see
+	 * {@link #setConfigurationSnapshot(File)}).
+	 *
+	 * @param configFiles the configuration files to parse. Must not be null.
+	 * @param snapshotFile the file to write the snapshot to, replacing any existing file. Must not be null.
+	 * @throws ProgramException if any of the files can't be read or are invalid, or the snapshot can't be written.
+	 */
+	public static void compileConfiguration(List<File> configFiles, File snapshotFile) throws ProgramException {
+		if (configFiles == null) {
+			throw new ArgumentNullException("configFiles");
+		}
+		if (snapshotFile == null) {
+			throw new ArgumentNullException("snapshotFile");
+		}
+		ConfigurationSnapshot.write(loadConfiguration(configFiles), configFiles, snapshotFile);
+	}
+
+	/**
+	 * Streams all the input files through a {@link StreamingXmlDataExtractor}.
+	 *
+	 * @param mappingConfig the mapping configuration to execute. Must be compatible with streaming.
+	 * @param xmlInputFiles the XML input files to process, which must already have been filtered by the configuration's file filters.
+	 * @param outputMgr the initialised output manager to write results to.
+	 * @throws ProgramException if the configuration can't be streamed, or anything goes wrong reading input or writing output.
+	 */
+	private void executeStreaming(MappingConfiguration mappingConfig, Iterable<File> xmlInputFiles, OutputManager outputMgr) throws ProgramException {
+		StreamingXmlDataExtractor extractor = new StreamingXmlDataExtractor();
+		extractor.setMappingConfiguration(mappingConfig);
+		extractor.setInputOptions(this.inputOptions);
+		for (File xmlFile : xmlInputFiles) {
+			extractor.extractTo(xmlFile, outputMgr);
+		}
+		outputMgr.getStatistics().merge(extractor.getStatistics());
+	}
+
+	/**
+	 * Configures a cache of mapping configurations to use, rather than loading the configuration files every time
+	 * {@link #execute(List, Iterable, File, boolean, boolean)} is called.
+	 *
+	 * @param configurationCache the cache to use, or null (the default) to load the configuration for every conversion.
+	 */
+	public void setConfigurationCache(ConfigurationCache configurationCache) {
+		this.configurationCache = configurationCache;
+	}
+
+	/**
+	 * Configures a snapshot of the configuration files (see {@link #compileConfiguration(List, File)}) to load the configuration from, rather than
+	 * parsing the configuration files. If the snapshot doesn't exist, or the configuration files have changed since it was written, then the
+	 * configuration files are parsed and the snapshot rewritten. Ignored if a configuration cache is being used (see
+	 * {@link #setConfigurationCache(ConfigurationCache)}), as configurations are then only loaded once anyway.
+	 *
+	 * @param snapshotFile the snapshot file, or null (the default) to always parse the configuration files.
+	 */
+	public void setConfigurationSnapshot(File snapshotFile) {
+		this.configurationSnapshot = snapshotFile;
+	}
+
+	/**
+	 * Configures whether input files are projected whilst being loaded, so that the parts of each document that the mapping configuration can't
+	 * reach are discarded before the document's tree is built (see {@link DocumentProjection}). This saves memory and time when documents contain
+	 * large amounts of data that aren't used. If the configuration contains XPath expressions that could read any part of a document, then whole
+	 * documents are always loaded. Ignored when streaming (see {@link #setStreaming(boolean)}).
+	 *
+	 * @param projectDocuments true (the default) to project documents when possible, false to always load whole documents.
+	 */
+	public void setDocumentProjection(boolean projectDocuments) {
+		this.projectDocuments = projectDocuments;
+	}
+
+	/**
+	 * Configures the number of threads used to evaluate the mapping containers of each document concurrently (see
+	 * {@link XmlDataExtractor#setExecutor(ExecutorService)}). This is independent of {@link #setThreadCount(int)}, and is most useful when there
+	 * are a few very large documents and several mapping containers. Ignored when streaming (see {@link #setStreaming(boolean)}).
+	 *
+	 * @param extractionThreadCount the number of threads to use, including the thread processing the document, must be at least 1. Defaults to 1.
+	 */
+	public void setExtractionThreadCount(int extractionThreadCount) {
+		if (extractionThreadCount < 1) {
+			throw new ArgumentException("extractionThreadCount", "must be at least 1");
+		}
+		this.extractionThreadCount = extractionThreadCount;
+	}
+
+	/**
+	 * Configures whether, when running incrementally (see {@link #setIncremental(boolean)}), a hash of each input file's content is recorded. If so,
+	 * files whose last modified time has changed but whose content hasn't (e.g. because they have been copied or restored from an archive) are not
+	 * converted again. This costs a complete read of every new or modified file.
+	 *
+	 * @param hashInputContent true to record and compare hashes of input files' content, false (the default) to rely on size and last modified time
+	 *            only.
+	 */
+	public void setHashInputContent(boolean hashInputContent) {
+		this.hashInputContent = hashInputContent;
+	}
+
+	/**
+	 * Configures whether only input files that are new or have changed since the last run in to the same output directory are converted. Input
+	 * files are recorded in a manifest in the output directory (see {@link InputManifest}) once a run completes successfully. Output is always
+	 * appended to when continuing from a previous run, so that output from files converted by previous runs is kept. This means that the records of
+	 * an input file that has changed since it was converted are appended again, and the records from its previous version remain. If the
+	 * configuration files have changed since the previous run then every input file is converted again and the existing output is replaced. If a
+	 * run fails, then the records it appended are removed, so that the next run can convert the same files again.
+	 *
+	 * @param incremental true to convert only new or changed input files, false (the default) to convert all input files.
+	 */
+	public void setIncremental(boolean incremental) {
+		this.incremental = incremental;
+	}
+
+	/**
+	 * Configures the size of the buffers used to read input files. Larger buffers mean fewer, larger, reads from the operating system.
+	 *
+	 * @param bufferSize the size of each buffer, in bytes, must be at least 1. Defaults to {@link InputOptions#DEFAULT_BUFFER_SIZE}.
+	 */
+	public void setInputBufferSize(int bufferSize) {
+		this.inputOptions = new InputOptions(this.inputOptions.getStrategy(), bufferSize);
+	}
+
+	/**
+	 * Configures how input files are read from disk.
+	 *
+	 * @param strategy the strategy to use. Must not be null. Defaults to {@link InputStrategy#BUFFERED}.
+	 */
+	public void setInputStrategy(InputStrategy strategy) {
+		this.inputOptions = new InputOptions(strategy, this.inputOptions.getBufferSize());
+	}
+
+	/**
+	 * Configures whether input files are converted using a {@link PipelinedDocumentProcessor}, which parses documents on separate threads ahead of
+	 * extraction and writes output on a separate thread behind it. When pipelining, {@link #setThreadCount(int)} sets the number of parser threads
+	 * and output is always written in input file order. Ignored when streaming (see {@link #setStreaming(boolean)}).
+	 *
+	 * @param queueDepth the maximum number of parsed documents, and the maximum number of files' extracted results, that may be queued between
+	 *            stages. Larger values hide more I/O latency at the cost of memory. Zero (the default) disables pipelining.
+	 */
+	public void setPipelineQueueDepth(int queueDepth) {
+		if (queueDepth < 0) {
+			throw new ArgumentException("queueDepth", "must not be negative");
+		}
+		this.pipelineQueueDepth = queueDepth;
+	}
+
+	/**
+	 * Configures whether output from concurrently processed files must be written in the same order as the input files. If false, output for each
+	 * file is written as soon as it is available, which keeps all threads busy when file sizes vary. Only relevant if
+	 * {@link #setThreadCount(int)} has been set to more than 1.
+	 *
+	 * @param preserveInputOrder true (the default) to write output in input file order, false to write it in the order files are completed.
+	 */
+	public void setPreserveInputOrder(boolean preserveInputOrder) {
+		this.preserveInputOrder = preserveInputOrder;
+	}
+
+	/**
+	 * Configures whether input files are streamed, rather than loaded in to memory in their entirety before data is extracted.
+	 * <p>
+	 * Streaming keeps memory usage bounded by the size of the largest mapping root, rather than the largest input file, but only supports
+	 * configurations that meet the restrictions described in {@link StreamingXmlDataExtractor}. Defaults to false.
+	 *
+	 * @param streaming true to stream input files, false to load each one in to memory.
+	 */
+	public void setStreaming(boolean streaming) {
+		this.streaming = streaming;
+	}
+
+	/**
+	 * Configures the number of threads used to process input files concurrently. Each file is still processed by a single thread. When pipelining
+	 * (see {@link #setPipelineQueueDepth(int)}) this is the number of threads used to parse input files. Ignored when streaming (see
+	 * {@link #setStreaming(boolean)}), as buffering a whole file's output would defeat the purpose.
+	 *
+	 * @param threadCount the number of threads to use, must be at least 1. Defaults to 1.
+	 */
+	public void setThreadCount(int threadCount) {
+		if (threadCount < 1) {
+			throw new ArgumentException("threadCount", "must be at least 1");
 		}
+		this.threadCount = threadCount;
 	}
 
 }
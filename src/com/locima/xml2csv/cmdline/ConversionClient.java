@@ -0,0 +1,112 @@
+package com.locima.xml2csv.cmdline;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Arrays;
+
+/**
+ * A thin command line client that sends a conversion job to a {@link ConversionServer}, waits for it to complete and exits with its status.
+ * <p>
+ * Usage: <code>java com.locima.xml2csv.cmdline.ConversionClient &lt;port&gt; &lt;xml2csv arguments&gt;</code>, where the arguments are exactly
+ * those that would be passed to {@link Program}. The client must be run by the same user as the server, so that it can read the server's token file
+ * (see {@link ConversionServer#getDefaultTokenFile(int)}). Only the standard library is needed to run the client, so it starts quickly.
+ */
+public class ConversionClient {
+
+	/**
+	 * The exit status used when the server can't be reached.
+	 */
+	public static final int STATUS_UNREACHABLE = 2;
+
+	/**
+	 * Entry point for the command line execution.
+	 *
+	 * @param args the port of the server, followed by the arguments of the job.
+	 */
+	public static void main(String[] args) {
+		int status;
+		if (args.length == 0) {
+			System.err.println("Usage: java " + ConversionClient.class.getName() + " <port> <xml2csv arguments>");
+			status = ConversionServer.STATUS_FAILURE;
+		} else {
+			try {
+				int port = Integer.parseInt(args[0]);
+				String token = ConversionServer.readToken(ConversionServer.getDefaultTokenFile(port));
+				status = send(port, token, new File(".").getAbsoluteFile(), Arrays.copyOfRange(args, 1, args.length), System.err);
+			} catch (NumberFormatException nfe) {
+				System.err.println("Invalid port: " + args[0]);
+				status = ConversionServer.STATUS_FAILURE;
+			} catch (IOException ioe) {
+				System.err.println("Unable to run job on xml2csv server at port " + args[0] + ": " + ioe.getMessage());
+				status = STATUS_UNREACHABLE;
+			}
+		}
+		System.exit(status);
+	}
+
+	/**
+	 * Sends a job to a server on this machine and waits for it to complete.
+	 *
+	 * @param port the port that the server is listening on.
+	 * @param token the token written by the server to its token file (see {@link ConversionServer#readToken(File)}). Must not be null.
+	 * @param workingDirectory the directory that relative file names in <code>args</code> are relative to. Must not be null.
+	 * @param args the command line arguments of the job. Must not be null, and no argument may be empty or contain a line break.
+	 * @param console where messages from the job are written to. Must not be null.
+	 * @return the status of the job, {@link ConversionServer#STATUS_SUCCESS} if it completed successfully.
+	 * @throws IOException if the server can't be reached, or the connection fails before the job completes.
+	 */
+	public static int send(int port, String token, File workingDirectory, String[] args, PrintStream console) throws IOException {
+		Socket socket = new Socket(InetAddress.getByName(null), port);
+		try {
+			Writer writer = new OutputStreamWriter(socket.getOutputStream(), ConversionServer.ENCODING);
+			writer.write(ConversionServer.PROTOCOL_HEADER);
+			writer.write('\n');
+			writer.write(token);
+			writer.write('\n');
+			writer.write(workingDirectory.getAbsolutePath());
+			writer.write('\n');
+			for (String arg : args) {
+				writer.write(arg);
+				writer.write('\n');
+			}
+			writer.write('\n');
+			writer.flush();
+
+			// The status is always at the end of the last line, which may also end a message that wasn't terminated by a line break
+			BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), ConversionServer.ENCODING));
+			String lastLine = reader.readLine();
+			String line;
+			while ((line = reader.readLine()) != null) {
+				console.println(lastLine);
+				lastLine = line;
+			}
+			int statusIndex = (lastLine == null) ? -1 : lastLine.lastIndexOf(ConversionServer.STATUS_PREFIX);
+			if (statusIndex < 0) {
+				throw new IOException("Connection closed before the job completed");
+			}
+			if (statusIndex > 0) {
+				console.println(lastLine.substring(0, statusIndex));
+			}
+			try {
+				return Integer.parseInt(lastLine.substring(statusIndex + ConversionServer.STATUS_PREFIX.length()));
+			} catch (NumberFormatException nfe) {
+				throw new IOException("Invalid status received: " + lastLine);
+			}
+		} finally {
+			socket.close();
+		}
+	}
+
+	/**
+	 * Prevents instantiation.
+	 */
+	private ConversionClient() {
+	}
+}
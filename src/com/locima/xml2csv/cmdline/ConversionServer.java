@@ -0,0 +1,382 @@
+package com.locima.xml2csv.cmdline;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.locima.xml2csv.ArgumentException;
+import com.locima.xml2csv.ConfigurationCache;
+
+/**
+ * Runs conversion jobs sent by {@link ConversionClient} in a single, long-running, process, so that each job doesn't pay for starting a JVM,
+ * initialising Saxon, compiling the configuration schema, loading its configuration and warming up the JIT compiler.
+ * <p>
+ * Each job is the same as a command line invocation of {@link Program}, run with the client's working directory. Configurations are kept by a
+ * {@link ConfigurationCache} between jobs, and reloaded if their files change. Several jobs may run at once (see
+ * {@link #setMaxConcurrentJobs(int)}).
+ * <p>
+ * The server only listens on the loopback interface. As any local process can connect to it, each job must also present a random token that the
+ * server generates when it starts and writes to a token file (see {@link #setTokenFile(File)}) that only the server's user can read, so only
+ * processes running as that user can run jobs. The protocol, over a plain TCP connection per job, with all text in UTF-8, is:
+ * <ol>
+ * <li>The client sends {@link #PROTOCOL_HEADER}, then the token, then the client's working directory, then each command line argument, each on its
+ * own line, followed by an empty line.</li>
+ * <li>The server sends the messages that {@link Program} would write to the console, followed by {@link #STATUS_PREFIX} and either
+ * {@link #STATUS_SUCCESS} or {@link #STATUS_FAILURE}, then closes the connection. Messages don't always end with a line break, so the status is
+ * at the end of the last line, rather than always being on a line of its own.</li>
+ * </ol>
+ */
+public class ConversionServer {
+
+	/**
+	 * Runs a single job sent by a client.
+	 */
+	private final class Job implements Runnable {
+
+		/**
+		 * The connection to the client.
+		 */
+		private Socket socket;
+
+		/**
+		 * Creates a new job.
+		 *
+		 * @param socket the connection to the client, which is closed once the job is complete.
+		 */
+		public Job(Socket socket) {
+			this.socket = socket;
+		}
+
+		@Override
+		public void run() {
+			try {
+				try {
+					BufferedReader reader = new BufferedReader(new InputStreamReader(this.socket.getInputStream(), ENCODING));
+					PrintStream console = new PrintStream(this.socket.getOutputStream(), false, ENCODING);
+					int status = execute(reader, console);
+					console.println(STATUS_PREFIX + status);
+					console.flush();
+				} finally {
+					this.socket.close();
+				}
+			} catch (IOException ioe) {
+				LOG.warn("Unable to communicate with client {}", this.socket.getRemoteSocketAddress(), ioe);
+			}
+		}
+
+		/**
+		 * Reads a job from the client and runs it.
+		 *
+		 * @param reader reads the job from the client.
+		 * @param console where messages for the client are written to.
+		 * @return the status to return to the client.
+		 * @throws IOException if the job can't be read.
+		 */
+		private int execute(BufferedReader reader, PrintStream console) throws IOException {
+			String header = reader.readLine();
+			if (!PROTOCOL_HEADER.equals(header)) {
+				console.println("Unsupported protocol, expected \"" + PROTOCOL_HEADER + "\" but received \"" + header + "\"");
+				return STATUS_FAILURE;
+			}
+			String token = reader.readLine();
+			if ((token == null) || !MessageDigest.isEqual(token.getBytes(ENCODING), ConversionServer.this.token.getBytes(ENCODING))) {
+				LOG.warn("Rejected job from {} as it did not present the server's token", this.socket.getRemoteSocketAddress());
+				console.println("Job rejected, as it did not present the token in " + ConversionServer.this.tokenFile.getAbsolutePath());
+				return STATUS_FAILURE;
+			}
+			String workingDirectory = reader.readLine();
+			List<String> args = new ArrayList<String>();
+			String line = reader.readLine();
+			while ((line != null) && (line.length() > 0)) {
+				args.add(line);
+				line = reader.readLine();
+			}
+			if ((workingDirectory == null) || (line == null)) {
+				console.println("Incomplete job received");
+				return STATUS_FAILURE;
+			}
+			LOG.info("Running job from {} in {}", this.socket.getRemoteSocketAddress(), workingDirectory);
+			Program program = new Program(new File(workingDirectory), console, ConversionServer.this.configurationCache);
+			try {
+				return program.execute(args.toArray(new String[args.size()])) ? STATUS_SUCCESS : STATUS_FAILURE;
+			} catch (RuntimeException re) {
+				// Don't let a bug in one job take down the server
+				LOG.error("Job failed unexpectedly", re);
+				console.print(program.getAllCauses(re));
+				return STATUS_FAILURE;
+			}
+		}
+	}
+
+	/**
+	 * The default maximum number of jobs that run at once, the number of processors available.
+	 */
+	public static final int DEFAULT_MAX_CONCURRENT_JOBS = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * The character encoding of all text sent in either direction.
+	 */
+	static final String ENCODING = "UTF-8";
+
+	private static final Logger LOG = LoggerFactory.getLogger(ConversionServer.class);
+
+	/**
+	 * The first line sent by a client, identifying the version of the protocol it uses.
+	 */
+	public static final String PROTOCOL_HEADER = "xml2csv job 2";
+
+	/**
+	 * The number of random bytes in each server's token.
+	 */
+	private static final int TOKEN_LENGTH = 32;
+
+	/**
+	 * The status sent when a job fails.
+	 */
+	public static final int STATUS_FAILURE = 1;
+
+	/**
+	 * Prefixes the status of a job, in the last line sent to a client.
+	 */
+	public static final String STATUS_PREFIX = "xml2csv status ";
+
+	/**
+	 * The status sent when a job completes successfully.
+	 */
+	public static final int STATUS_SUCCESS = 0;
+
+	/**
+	 * Holds the configurations loaded by jobs.
+	 */
+	private ConfigurationCache configurationCache = new ConfigurationCache();
+
+	/**
+	 * Runs jobs, created by {@link #start()}.
+	 */
+	private ExecutorService jobExecutor;
+
+	/**
+	 * The maximum number of jobs that run at once.
+	 */
+	private int maxConcurrentJobs = DEFAULT_MAX_CONCURRENT_JOBS;
+
+	/**
+	 * The port to listen on, or 0 for any free port.
+	 */
+	private int port;
+
+	/**
+	 * Accepts connections from clients, created by {@link #start()}.
+	 */
+	private ServerSocket serverSocket;
+
+	/**
+	 * The token that clients must present to run jobs, generated by {@link #start()}.
+	 */
+	private String token;
+
+	/**
+	 * The file that {@link #token} is written to, or null to use {@link #getDefaultTokenFile(int)}.
+	 */
+	private File tokenFile;
+
+	/**
+	 * Creates a new server, which won't accept jobs until {@link #start()} is called.
+	 *
+	 * @param port the local port to listen on, or 0 to use any free port (see {@link #getPort()}).
+	 */
+	public ConversionServer(int port) {
+		this.port = port;
+	}
+
+	/**
+	 * Returns the token file used by a server listening on a port, unless another file is configured with {@link #setTokenFile(File)}.
+	 *
+	 * @param port the port that the server is listening on.
+	 * @return a file in the user's home directory, so that it can be found by clients run by the same user.
+	 */
+	public static File getDefaultTokenFile(int port) {
+		return new File(System.getProperty("user.home"), ".xml2csv-server-" + port + ".token");
+	}
+
+	/**
+	 * Reads the token written by a server.
+	 *
+	 * @param tokenFile the token file of the server. Must not be null.
+	 * @return the token, never null.
+	 * @throws IOException if the token file can't be read, or is empty.
+	 */
+	public static String readToken(File tokenFile) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(tokenFile), ENCODING));
+		try {
+			String token = reader.readLine();
+			if ((token == null) || (token.length() == 0)) {
+				throw new IOException("No token found in " + tokenFile.getAbsolutePath());
+			}
+			return token;
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Writes a new token file that only the current user can read, replacing any existing file.
+	 *
+	 * @param tokenFile the file to write. Must not be null.
+	 * @param token the token to write. Must not be null.
+	 * @throws IOException if the file can't be written, or access to it can't be restricted.
+	 */
+	private static void writeToken(File tokenFile, String token) throws IOException {
+		if (tokenFile.exists() && !tokenFile.delete()) {
+			throw new IOException("Unable to delete existing token file " + tokenFile.getAbsolutePath());
+		}
+		if (!tokenFile.createNewFile()) {
+			throw new IOException("Token file " + tokenFile.getAbsolutePath() + " was created by another process");
+		}
+		// Restrict access before the token is written. Windows doesn't support removing read access this way, but files in a user's profile are
+		// only accessible to that user by default.
+		boolean restricted =
+						tokenFile.setReadable(false, false) && tokenFile.setWritable(false, false) && tokenFile.setReadable(true, true)
+										&& tokenFile.setWritable(true, true);
+		if (!restricted && (File.separatorChar != '\\')) {
+			tokenFile.delete();
+			throw new IOException("Unable to restrict access to token file " + tokenFile.getAbsolutePath());
+		}
+		Writer writer = new OutputStreamWriter(new FileOutputStream(tokenFile), ENCODING);
+		try {
+			writer.write(token);
+			writer.write('\n');
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Returns the port that this server is listening on.
+	 *
+	 * @return the port, which is only known once {@link #start()} has been called if 0 was passed to the constructor.
+	 */
+	public int getPort() {
+		return this.serverSocket == null ? this.port : this.serverSocket.getLocalPort();
+	}
+
+	/**
+	 * Accepts jobs until {@link #stop()} is called, running each on a pool thread.
+	 */
+	public void run() {
+		while (!this.serverSocket.isClosed()) {
+			Socket socket;
+			try {
+				socket = this.serverSocket.accept();
+			} catch (IOException ioe) {
+				if (!this.serverSocket.isClosed()) {
+					LOG.warn("Unable to accept connection", ioe);
+				}
+				continue;
+			}
+			try {
+				this.jobExecutor.execute(new Job(socket));
+			} catch (RejectedExecutionException ree) {
+				// The server has been stopped
+				try {
+					socket.close();
+				} catch (IOException ioe) {
+					LOG.debug("Unable to close rejected connection", ioe);
+				}
+			}
+		}
+		LOG.info("Server on port {} stopped", Integer.valueOf(getPort()));
+	}
+
+	/**
+	 * Configures the maximum number of jobs that run at once. Clients of further jobs wait until a running job has completed.
+	 *
+	 * @param maxConcurrentJobs the maximum number of jobs, must be at least 1. Defaults to {@link #DEFAULT_MAX_CONCURRENT_JOBS}.
+	 */
+	public void setMaxConcurrentJobs(int maxConcurrentJobs) {
+		if (maxConcurrentJobs < 1) {
+			throw new ArgumentException("maxConcurrentJobs", "must be at least 1");
+		}
+		this.maxConcurrentJobs = maxConcurrentJobs;
+	}
+
+	/**
+	 * Configures the file that the token that clients must present is written to. The file is replaced when the server starts, and deleted when it
+	 * stops.
+	 *
+	 * @param tokenFile the token file, or null (the default) to use {@link #getDefaultTokenFile(int)}.
+	 */
+	public void setTokenFile(File tokenFile) {
+		this.tokenFile = tokenFile;
+	}
+
+	/**
+	 * Returns the file that the token that clients must present is written to.
+	 *
+	 * @return the token file, which is only known once {@link #start()} has been called if no file was configured and 0 was passed to the
+	 *         constructor.
+	 */
+	public File getTokenFile() {
+		return this.tokenFile == null ? getDefaultTokenFile(getPort()) : this.tokenFile;
+	}
+
+	/**
+	 * Starts listening for jobs on the loopback interface, and writes the token file that clients need to run jobs. Call {@link #run()} to start
+	 * accepting them.
+	 *
+	 * @throws IOException if the port can't be listened on, or the token file can't be written.
+	 */
+	public void start() throws IOException {
+		this.serverSocket = new ServerSocket(this.port, 0, InetAddress.getByName(null));
+		this.tokenFile = getTokenFile();
+		byte[] random = new byte[TOKEN_LENGTH];
+		new SecureRandom().nextBytes(random);
+		StringBuilder sb = new StringBuilder();
+		for (byte b : random) {
+			sb.append(String.format("%02x", Integer.valueOf(b & 0xff)));
+		}
+		this.token = sb.toString();
+		try {
+			writeToken(this.tokenFile, this.token);
+		} catch (IOException ioe) {
+			this.serverSocket.close();
+			throw ioe;
+		}
+		this.jobExecutor = Executors.newFixedThreadPool(this.maxConcurrentJobs);
+		LOG.info("Listening for jobs on port {}, with token file {}", Integer.valueOf(getPort()), this.tokenFile.getAbsolutePath());
+	}
+
+	/**
+	 * Stops accepting jobs. Jobs already accepted are allowed to complete.
+	 */
+	public void stop() {
+		try {
+			this.serverSocket.close();
+		} catch (IOException ioe) {
+			LOG.warn("Unable to close server socket", ioe);
+		}
+		if (!this.tokenFile.delete()) {
+			LOG.warn("Unable to delete token file {}", this.tokenFile.getAbsolutePath());
+		}
+		this.jobExecutor.shutdown();
+	}
+}
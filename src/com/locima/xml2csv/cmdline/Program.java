@@ -3,17 +3,21 @@ package com.locima.xml2csv.cmdline;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.commons.cli.BasicParser;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.MissingOptionException;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
@@ -22,9 +26,13 @@ import org.slf4j.LoggerFactory;
 
 import com.locima.xml2csv.ArgumentNullException;
 import com.locima.xml2csv.BugException;
+import com.locima.xml2csv.ConfigurationCache;
 import com.locima.xml2csv.ProgramException;
 import com.locima.xml2csv.Xml2Csv;
 import com.locima.xml2csv.util.FileUtility;
+import com.locima.xml2csv.util.FileWalker;
+import com.locima.xml2csv.util.InputOptions;
+import com.locima.xml2csv.util.InputStrategy;
 import com.locima.xml2csv.util.StringUtil;
 
 /**
@@ -58,24 +66,100 @@ public class Program {
 	 */
 	public static final Options MAIN_OPTIONS;
 
+	/**
+	 * The highest port number that a server can listen on: {@value} .
+	 */
+	private static final int MAX_PORT = 65535;
+
 	/**
 	 * Command line option for specifying that existing output files should be appended to: {@value} .
 	 */
 	public static final String OPT_APPEND_OUTPUT = "a";
+	/**
+	 * Command line option for compiling the configuration file to a snapshot, rather than converting any files: {@value} .
+	 */
+	public static final String OPT_COMPILE_CONFIG = "m";
 	/**
 	 * Command line option for specifying a configuration file: {@value} .
 	 */
 	public static final String OPT_CONFIG_FILE = "c";
+
+	/**
+	 * Command line option for specifying a snapshot of the configuration file to load, if it's up to date: {@value} .
+	 */
+	public static final String OPT_CONFIG_SNAPSHOT = "n";
+	/**
+	 * Command line option for specifying the number of threads to use to list input directories ahead of conversion: {@value} .
+	 */
+	public static final String OPT_DIRECTORY_THREADS = "d";
+
+	/**
+	 * Command line option for specifying the number of threads to use to evaluate the mapping containers of each input file concurrently:
+	 * {@value} .
+	 */
+	public static final String OPT_EXTRACTION_THREADS = "x";
+
+	/**
+	 * Command line option for specifying that input files should be loaded in their entirety, rather than projected: {@value} .
+	 */
+	public static final String OPT_FULL_DOCUMENTS = "f";
+
+	/**
+	 * Command line option for specifying that, when running incrementally, a hash of each input file's content should be used to detect changes:
+	 * {@value} .
+	 */
+	public static final String OPT_HASH_INPUTS = "k";
+
 	/**
 	 * Command line option for display help: {@value} .
 	 */
 	public static final String OPT_HELP = "h";
 
+	/**
+	 * Command line option for specifying that only input files that are new or changed since the last run should be converted: {@value} .
+	 */
+	public static final String OPT_INCREMENTAL = "i";
+
+	/**
+	 * Command line option for specifying the size, in bytes, of the buffers used to read input files: {@value} .
+	 */
+	public static final String OPT_INPUT_BUFFER_SIZE = "b";
+
+	/**
+	 * Command line option for specifying how input files are read from disk, one of the {@link InputStrategy} values: {@value} .
+	 */
+	public static final String OPT_INPUT_STRATEGY = "r";
+
+	/**
+	 * Command line option for running as a server that accepts conversion jobs on a local port, rather than converting files itself: {@value} .
+	 */
+	public static final String OPT_LISTEN = "l";
+
 	/**
 	 * Command line option for specifying an output directory for CSV files: {@value} .
 	 */
 	public static final String OPT_OUT_DIR = "o";
 
+	/**
+	 * Command line option for specifying that input files should be processed by a pipeline, and the depth of its queues: {@value} .
+	 */
+	public static final String OPT_PIPELINE = "p";
+
+	/**
+	 * Command line option for specifying that input files should be streamed rather than loaded in to memory: {@value} .
+	 */
+	public static final String OPT_STREAMING = "s";
+
+	/**
+	 * Command line option for specifying the number of threads to use to process input files concurrently: {@value} .
+	 */
+	public static final String OPT_THREADS = "t";
+
+	/**
+	 * Command line option for specifying that output from concurrently processed input files may be written in any order: {@value} .
+	 */
+	public static final String OPT_UNORDERED = "u";
+
 	/**
 	 * Command line option for specifying that whitespace should be preserved: {@value} .
 	 */
@@ -98,14 +182,39 @@ public class Program {
 	 */
 	private static final String PROPERTY_VERSION = "Version";
 
+	/**
+	 * Holds configurations loaded by previous jobs, if this instance is running a job for a {@link ConversionServer}, otherwise null.
+	 */
+	private ConfigurationCache configurationCache;
+
+	/**
+	 * The number of threads used to list input directories ahead of conversion. If 1, directories are listed by the thread converting files.
+	 */
+	private int directoryThreadCount = 1;
+
+	/**
+	 * Where errors and help are written to.
+	 */
+	private PrintStream err;
+
+	/**
+	 * Where version information is written to.
+	 */
+	private PrintStream out;
+
+	/**
+	 * The directory that relative file names are resolved against, or null to use the current directory of this process.
+	 */
+	private File workingDirectory;
+
 	/*
 	 * Sets up MAIN_OPTIONS and HELP_OPTIONS, the options that define the command line arguments to this program.
 	 */
 	static {
 		// mainOptions contains all the options together, including help and version.
 		Options mainOptions = new Options();
+		// Not marked as required, as it isn't needed by --listen; checked by execute instead
 		Option option = new Option(OPT_CONFIG_FILE, "configuration-file", true, "A single file containing the configuration to use.");
-		option.setRequired(true);
 		mainOptions.addOption(option);
 		option =
 						new Option(OPT_OUT_DIR, "output-directory", true, "The directory to which the output CSV files will be written.  "
@@ -120,6 +229,69 @@ public class Program {
 										"If specified, all output will be appended to any existing output files.  If an existing file is"
 														+ " appended to then field names will not be output.");
 		mainOptions.addOption(option);
+		option =
+						new Option(OPT_STREAMING, "streaming", false,
+										"If specified, input files will be streamed rather than loaded in to memory, allowing very large files to be"
+														+ " processed.  Only configurations where each mapping root can be processed in isolation are supported.");
+		mainOptions.addOption(option);
+		option =
+						new Option(OPT_THREADS, "threads", true, "The number of input files to process concurrently.  If not specified, files are"
+										+ " processed one at a time.");
+		mainOptions.addOption(option);
+		option =
+						new Option(OPT_DIRECTORY_THREADS, "directory-threads", true, "The number of threads used to list the contents of input"
+										+ " directories ahead of conversion.  If not specified, each directory is listed when conversion reaches it.");
+		mainOptions.addOption(option);
+		option =
+						new Option(OPT_EXTRACTION_THREADS, "extraction-threads", true, "The number of threads used to evaluate the top-level"
+										+ " mappings of each input file concurrently.  If not specified, each file is evaluated by a single thread.");
+		mainOptions.addOption(option);
+		option =
+						new Option(OPT_FULL_DOCUMENTS, "full-documents", false, "If specified, input files are always loaded in their entirety,"
+										+ " rather than discarding the parts that no mapping or filter can reach.");
+		mainOptions.addOption(option);
+		option =
+						new Option(OPT_PIPELINE, "pipeline", true, "If specified, input files are parsed on separate threads (set by --threads) ahead of"
+										+ " extraction, and output is written on a separate thread.  The value is the maximum number of parsed files, and"
+										+ " of extracted files, waiting between stages.");
+		mainOptions.addOption(option);
+		option =
+						new Option(OPT_INCREMENTAL, "incremental", false, "If specified, only input files that are new or have changed since the last"
+										+ " run in to the same output directory are converted, and output is appended to.  Records from an input file that"
+										+ " has changed are appended again, and the records from its previous version are NOT removed, so changed files"
+										+ " appear twice.  Converted files are recorded in a manifest in the output directory.");
+		mainOptions.addOption(option);
+		option =
+						new Option(OPT_HASH_INPUTS, "hash-inputs", false, "If specified with --incremental, input files whose modification time"
+										+ " has changed are only converted if their content has changed too.");
+		mainOptions.addOption(option);
+		option =
+						new Option(OPT_LISTEN, "listen", true, "If specified, xml2csv runs as a server that accepts conversion jobs, sent by"
+										+ " com.locima.xml2csv.cmdline.ConversionClient run by the same user, on this local port until it is terminated."
+										+ "  Configurations are kept loaded between jobs.  All other options are ignored.");
+		mainOptions.addOption(option);
+		option =
+						new Option(OPT_COMPILE_CONFIG, "compile-config", true, "If specified, the configuration file is validated and written to"
+										+ " this snapshot file, for use with --config-snapshot, and no files are converted.");
+		mainOptions.addOption(option);
+		option =
+						new Option(OPT_CONFIG_SNAPSHOT, "config-snapshot", true, "A snapshot of the configuration file, written by --compile-config,"
+										+ " that is loaded instead of parsing the configuration file.  If the configuration file has changed since"
+										+ " the snapshot was written then it is parsed and the snapshot rewritten.");
+		mainOptions.addOption(option);
+		option =
+						new Option(OPT_INPUT_STRATEGY, "input-strategy", true, "How input files are read from disk: \"buffered\" (the default),"
+										+ " \"large-buffer\" to read through a direct buffer of --input-buffer-size bytes, or \"memory-mapped\" to"
+										+ " memory map each file.");
+		mainOptions.addOption(option);
+		option =
+						new Option(OPT_INPUT_BUFFER_SIZE, "input-buffer-size", true, "The size, in bytes, of the buffers used to read input files."
+										+ "  If not specified, 64KB buffers are used.");
+		mainOptions.addOption(option);
+		option =
+						new Option(OPT_UNORDERED, "unordered-output", false, "If specified with more than one thread, output for each input file"
+										+ " is written as soon as it's ready, rather than in the same order as the input files.");
+		mainOptions.addOption(option);
 
 		// helpOptions contains only the help and version options, it's important that these are both optional.
 		// Note how both mainOptions and helpOptions contains help and verbose options.
@@ -146,6 +318,47 @@ public class Program {
 		new Program().execute(args);
 	}
 
+	/**
+	 * Creates an instance for command line execution, writing to {@link System#out} and {@link System#err}.
+	 */
+	public Program() {
+		this.out = System.out;
+		this.err = System.err;
+	}
+
+	/**
+	 * Creates an instance to run a job sent to a {@link ConversionServer}, as if it had been run from the command line of the client.
+	 *
+	 * @param workingDirectory the working directory of the client, that relative file names are resolved against. Must not be null.
+	 * @param console where all messages for the client are written to. Must not be null.
+	 * @param configurationCache holds configurations loaded by previous jobs. Must not be null.
+	 */
+	Program(File workingDirectory, PrintStream console, ConfigurationCache configurationCache) {
+		this.workingDirectory = workingDirectory;
+		this.out = console;
+		this.err = console;
+		this.configurationCache = configurationCache;
+	}
+
+	/**
+	 * Validates a configuration file and writes a snapshot of it (see {@link Xml2Csv#compileConfiguration(List, File)}).
+	 *
+	 * @param configFileName the configuration file name.
+	 * @param snapshotFileName the name of the snapshot file to write.
+	 * @throws ProgramException if the configuration file can't be read or is invalid, or the snapshot can't be written.
+	 */
+	private void compileConfiguration(String configFileName, String snapshotFileName) throws ProgramException {
+		List<File> configFiles = new ArrayList<File>();
+		try {
+			configFiles.add(FileUtility.getFile(configFileName, FileUtility.CAN_READ));
+		} catch (IOException ioe) {
+			throw new ProgramException(ioe, "Unable to load configuration file \"%s\".", configFileName);
+		}
+		File snapshotFile = new File(snapshotFileName);
+		Xml2Csv.compileConfiguration(configFiles, snapshotFile);
+		this.out.println("Configuration snapshot written to " + snapshotFile.getAbsolutePath());
+	}
+
 	/**
 	 * Creates a header string for all usage and help messages.
 	 *
@@ -173,11 +386,30 @@ public class Program {
 	 */
 	public void execute(String configFileName, String[] xmlInputs, String outputDirectoryName, boolean appendOutput, boolean trimWhitespace)
 					throws ProgramException {
+		execute(new Xml2Csv(), configFileName, xmlInputs, outputDirectoryName, appendOutput, trimWhitespace);
+	}
+
+	/**
+	 * Entry point for code-based execution that just has directory names for configuration and input, using a pre-configured converter.
+	 *
+	 * @param converter the converter to execute, with any optional settings already applied. Must not be null.
+	 * @param configFileName the configuration file name.
+	 * @param xmlInputs a pattern that when expanded will contain a list of files.
+	 * @param outputDirectoryName The directory to which output CSV files should be written.
+	 * @param trimWhitespace If true, then whitespace at the beginning or end of a value extracted will be trimmed.
+	 * @param appendOutput If true, then all output will be appended to if an output file already exists.
+	 * @throws ProgramException if anything goes wrong that couldn't be recovered.
+	 */
+	public void execute(Xml2Csv converter, String configFileName, String[] xmlInputs, String outputDirectoryName, boolean appendOutput,
+					boolean trimWhitespace) throws ProgramException {
+		if (converter == null) {
+			throw new ArgumentNullException("converter");
+		}
 		if (configFileName == null) {
 			throw new ArgumentNullException("configFileName");
 		}
-		List<File> xmlInputFiles;
-		xmlInputFiles = FileUtility.getFiles(xmlInputs);
+		// Input files are found as they are converted, rather than all being found up front
+		FileWalker xmlInputFiles = new FileWalker(xmlInputs);
 		File outputDirectory;
 		try {
 			outputDirectory = FileUtility.getDirectory(outputDirectoryName, FileUtility.CAN_WRITE, true);
@@ -191,15 +423,28 @@ public class Program {
 		} catch (IOException ioe) {
 			throw new ProgramException(ioe, "Unable to load configuration file \"%s\".", configFileName);
 		}
-		new Xml2Csv().execute(configFiles, xmlInputFiles, outputDirectory, appendOutput, trimWhitespace);
+		ExecutorService listingExecutor = null;
+		if (this.directoryThreadCount > 1) {
+			listingExecutor = Executors.newFixedThreadPool(this.directoryThreadCount);
+			xmlInputFiles.setExecutor(listingExecutor);
+		}
+		try {
+			converter.execute(configFiles, xmlInputFiles, outputDirectory, appendOutput, trimWhitespace);
+		} finally {
+			xmlInputFiles.close();
+			if (listingExecutor != null) {
+				listingExecutor.shutdownNow();
+			}
+		}
 	}
 
 	/**
 	 * Instance entry point for command line invocation.
 	 *
 	 * @param args command line arguments
+	 * @return true if the conversion completed (or help, version information or a server was requested), false if it failed.
 	 */
-	public void execute(String[] args) {
+	public boolean execute(String[] args) {
 		if (LOG.isInfoEnabled()) {
 			LOG.info("xml2csv execute invoked {}", StringUtil.toString(args));
 		}
@@ -209,23 +454,61 @@ public class Program {
 				BasicParser parser = new BasicParser();
 				CommandLine cmdLine = parser.parse(MAIN_OPTIONS, args);
 				LOG.info("Successfully parsed main options.");
+				if (cmdLine.hasOption(OPT_LISTEN)) {
+					if (this.configurationCache != null) {
+						throw new ParseException("A server can't be started by a job sent to a server");
+					}
+					listen(parsePort(cmdLine.getOptionValue(OPT_LISTEN)));
+					return true;
+				}
+				if (!cmdLine.hasOption(OPT_CONFIG_FILE)) {
+					throw new MissingOptionException("Missing required option: " + OPT_CONFIG_FILE);
+				}
+				if (cmdLine.hasOption(OPT_COMPILE_CONFIG)) {
+					compileConfiguration(resolve(cmdLine.getOptionValue(OPT_CONFIG_FILE)), resolve(cmdLine.getOptionValue(OPT_COMPILE_CONFIG)));
+					return true;
+				}
 				boolean trimWhitespace = Boolean.parseBoolean(cmdLine.getOptionValue(OPT_TRIM_WHITESPACE));
 				boolean appendOutput = Boolean.parseBoolean(cmdLine.getOptionValue(OPT_APPEND_OUTPUT));
 				String[] xmlInputs = cmdLine.getArgs();
-				String outputDirName = cmdLine.getOptionValue(OPT_OUT_DIR);
-				String configFileName = cmdLine.getOptionValue(OPT_CONFIG_FILE);
-				execute(configFileName, xmlInputs, outputDirName, appendOutput, trimWhitespace);
+				for (int i = 0; i < xmlInputs.length; i++) {
+					xmlInputs[i] = resolve(xmlInputs[i]);
+				}
+				String outputDirName = resolve(cmdLine.getOptionValue(OPT_OUT_DIR));
+				String configFileName = resolve(cmdLine.getOptionValue(OPT_CONFIG_FILE));
+				Xml2Csv converter = new Xml2Csv();
+				converter.setConfigurationCache(this.configurationCache);
+				if (cmdLine.hasOption(OPT_CONFIG_SNAPSHOT)) {
+					converter.setConfigurationSnapshot(new File(resolve(cmdLine.getOptionValue(OPT_CONFIG_SNAPSHOT))));
+				}
+				converter.setStreaming(cmdLine.hasOption(OPT_STREAMING));
+				converter.setDocumentProjection(!cmdLine.hasOption(OPT_FULL_DOCUMENTS));
+				converter.setThreadCount(parsePositiveInteger("Number of threads", cmdLine.getOptionValue(OPT_THREADS), 1));
+				this.directoryThreadCount =
+								parsePositiveInteger("Number of directory threads", cmdLine.getOptionValue(OPT_DIRECTORY_THREADS), 1);
+				converter.setExtractionThreadCount(parsePositiveInteger("Number of extraction threads", cmdLine.getOptionValue(OPT_EXTRACTION_THREADS),
+								1));
+				converter.setPipelineQueueDepth(parsePositiveInteger("Pipeline queue depth", cmdLine.getOptionValue(OPT_PIPELINE), 0));
+				converter.setPreserveInputOrder(!cmdLine.hasOption(OPT_UNORDERED));
+				converter.setIncremental(cmdLine.hasOption(OPT_INCREMENTAL));
+				converter.setHashInputContent(cmdLine.hasOption(OPT_HASH_INPUTS));
+				converter.setInputStrategy(parseInputStrategy(cmdLine.getOptionValue(OPT_INPUT_STRATEGY)));
+				converter.setInputBufferSize(parsePositiveInteger("Input buffer size", cmdLine.getOptionValue(OPT_INPUT_BUFFER_SIZE),
+								InputOptions.DEFAULT_BUFFER_SIZE));
+				execute(converter, configFileName, xmlInputs, outputDirName, appendOutput, trimWhitespace);
 			}
+			return true;
 		} catch (ProgramException pe) {
 			LOG.error("A fatal error caused xml2csv to abort", pe);
 			// All we can do is print out the error and terminate the program
-			System.err.print(getAllCauses(pe));
+			this.err.print(getAllCauses(pe));
 		} catch (ParseException pe) {
 			// Thrown when the command line arguments are invalid
 			LOG.debug("Invalid arguments specified: {}", pe.getMessage());
-			System.err.println("Invalid arguments specified: " + pe.getMessage());
+			this.err.println("Invalid arguments specified: " + pe.getMessage());
 			printHelp();
 		}
+		return false;
 	}
 
 	/**
@@ -329,12 +612,93 @@ public class Program {
 		return path;
 	}
 
+	/**
+	 * Parses the value of the {@link #OPT_LISTEN} option.
+	 *
+	 * @param value the value passed on the command line. Must not be null.
+	 * @return the port, from 0 (meaning any free port) to 65535.
+	 * @throws ParseException if the value is not a valid port number.
+	 */
+	static int parsePort(String value) throws ParseException {
+		int result;
+		try {
+			result = Integer.parseInt(value.trim());
+		} catch (NumberFormatException nfe) {
+			result = -1;
+		}
+		if ((result < 0) || (result > MAX_PORT)) {
+			throw new ParseException("Server port must be an integer from 0 to " + MAX_PORT + ", but was " + value);
+		}
+		return result;
+	}
+
+	/**
+	 * Parses the value of an option that must be a positive integer, such as {@link #OPT_THREADS}.
+	 *
+	 * @param description a description of the option's value, used in error messages.
+	 * @param value the value passed on the command line. May be null if the option wasn't specified.
+	 * @param defaultValue the value to return if <code>value</code> is null.
+	 * @return the value parsed, or <code>defaultValue</code> if <code>value</code> is null.
+	 * @throws ParseException if the value is not a positive integer.
+	 */
+	private int parsePositiveInteger(String description, String value, int defaultValue) throws ParseException {
+		if (value == null) {
+			return defaultValue;
+		}
+		int result;
+		try {
+			result = Integer.parseInt(value.trim());
+		} catch (NumberFormatException nfe) {
+			result = 0;
+		}
+		if (result < 1) {
+			throw new ParseException(description + " must be a positive integer, but was " + value);
+		}
+		return result;
+	}
+
+	/**
+	 * Runs a {@link ConversionServer} until this process is terminated.
+	 *
+	 * @param port the local port to listen on, or 0 to use any free port.
+	 * @throws ProgramException if the server can't be started.
+	 */
+	private void listen(int port) throws ProgramException {
+		ConversionServer server = new ConversionServer(port);
+		try {
+			server.start();
+		} catch (IOException ioe) {
+			throw new ProgramException(ioe, "Unable to listen on port %d", Integer.valueOf(port));
+		}
+		this.out.println("xml2csv server listening on port " + server.getPort() + ", with token file "
+						+ server.getTokenFile().getAbsolutePath());
+		server.run();
+	}
+
+	/**
+	 * Parses the value of the {@link #OPT_INPUT_STRATEGY} option.
+	 *
+	 * @param value the value of the option, may be null if it wasn't specified.
+	 * @return the strategy named by <code>value</code>, or {@link InputStrategy#BUFFERED} if <code>value</code> is null.
+	 * @throws ParseException if <code>value</code> doesn't name a strategy.
+	 */
+	private InputStrategy parseInputStrategy(String value) throws ParseException {
+		if (value == null) {
+			return InputStrategy.BUFFERED;
+		}
+		try {
+			return InputStrategy.parse(value);
+		} catch (IllegalArgumentException iae) {
+			throw new ParseException("Input strategy must be one of buffered, large-buffer or memory-mapped, but was " + value);
+		}
+	}
+
 	/**
 	 * Print help on invocing xml2csv from the command line to the console.
 	 */
 	private void printHelp() {
 		HelpFormatter formatter = new HelpFormatter();
-		formatter.printHelp(new PrintWriter(System.err, true), CONSOLE_WIDTH, "java " + getExecutableName(), createHeader(), MAIN_OPTIONS, 0, 0,
+		formatter.printHelp(new PrintWriter(this.err, true), CONSOLE_WIDTH, "java " + getExecutableName(), createHeader(), MAIN_OPTIONS, 0, 0,
 						null, true);
 	}
 
@@ -342,11 +706,29 @@ public class Program {
 	 * Prints version information to the console.
 	 */
 	private void printVersionInfo() {
-		System.out.println("xml2csv by Locima Ltd.  Maintained at http://github.com/andybrodie/xml2csv.");
+		this.out.println("xml2csv by Locima Ltd.  Maintained at http://github.com/andybrodie/xml2csv.");
 		Properties props = getBuildProperties();
-		System.out.println("Version        : " + props.getProperty(PROPERTY_VERSION));
-		System.out.println("Build Timestamp: " + props.getProperty(PROPERTY_BUILD_TSTAMP));
-		System.out.println("Git Commit Hash: " + props.getProperty(PROPERTY_COMMITHASH));
+		this.out.println("Version        : " + props.getProperty(PROPERTY_VERSION));
+		this.out.println("Build Timestamp: " + props.getProperty(PROPERTY_BUILD_TSTAMP));
+		this.out.println("Git Commit Hash: " + props.getProperty(PROPERTY_COMMITHASH));
+	}
+
+	/**
+	 * Resolves a file name given on the command line against the working directory (see {@link #Program(File, PrintStream, ConfigurationCache)}).
+	 *
+	 * @param name the file name, may be null.
+	 * @return <code>name</code> unchanged if there's no working directory or it's absolute, otherwise <code>name</code> resolved against the
+	 *         working directory. If <code>name</code> is null, the working directory (which may also be null).
+	 */
+	private String resolve(String name) {
+		if (this.workingDirectory == null) {
+			return name;
+		}
+		if (name == null) {
+			return this.workingDirectory.getPath();
+		}
+		File file = new File(name);
+		return file.isAbsolute() ? name : new File(this.workingDirectory, name).getPath();
 	}
 
 	/**
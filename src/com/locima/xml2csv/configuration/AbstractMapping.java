@@ -19,8 +19,6 @@ public abstract class AbstractMapping implements IMapping {
 	 */
 	private int groupNumber;
 
-	private int highestFoundValueCount;
-
 	/**
 	 * Specifies the largest number of values that this mapping should return for a single mapping. If an execution of this mapping yields a number of
 	 * results more than this value then values will be discarded.
@@ -59,21 +57,11 @@ public abstract class AbstractMapping implements IMapping {
 	public AbstractMapping() {
 	}
 
-	@Override
-	public int getFieldCountForSingleRecord() {
-		return getMultiValueBehaviour() == MultiValueBehaviour.LAZY ? 1 : Math.max(getMinValueCount(), getHighestFoundValueCount());
-	}
-
 	@Override
 	public int getGroupNumber() {
 		return getMultiValueBehaviour() == MultiValueBehaviour.GREEDY ? -1 : this.groupNumber;
 	}
 
-	@Override
-	public int getHighestFoundValueCount() {
-		return this.highestFoundValueCount;
-	}
-
 	@Override
 	public int getMaxValueCount() {
 		return this.maxValueCount;
@@ -130,11 +118,6 @@ public abstract class AbstractMapping implements IMapping {
 		this.groupNumber = groupNumber;
 	}
 
-	@Override
-	public void setHighestFoundValueCount(int valueCount) {
-		this.highestFoundValueCount = Math.max(valueCount, this.highestFoundValueCount);
-	}
-
 	/**
 	 * Sets the name given to this pivot mapping, if top-level will be used to generate the output file name.
 	 *
@@ -1,7 +1,5 @@
 package com.locima.xml2csv.configuration;
 
-import com.locima.xml2csv.extractor.AbstractExtractionContext;
-
 /**
  * The basic interface for any kind of mapping (may map single or multiple data items).
  */
@@ -15,14 +13,6 @@ public interface IMapping {
 	 */
 	String getName();
 
-	/**
-	 * Combines the values in {@link #getMinValueCount()} and {@link #getHighestFoundValueCount()} to determine the total number of fields that this
-	 * mapping must output <em>in a single record</em>.
-	 *
-	 * @return a natural number greater than or equal to one.
-	 */
-	int getFieldCountForSingleRecord();
-
 	/**
 	 * The group number of this mapping. Each mapping in the same group is incremented at the same time.<p>
 	 * Greedy groups (where {@link #getMultiValueBehaviour()}=={@link MultiValueBehaviour#GREEDY}) always return -1.
@@ -31,19 +21,6 @@ public interface IMapping {
 	 */
 	int getGroupNumber();
 
-	/**
-	 * Get the most number of results that this mapping has found so far in a single evaluation.
-	 * <p>
-	 * Whilst this isn't static configuration (it's updated as documents are processed during the execution of mappings), I needed somewhere to keep
-	 * track of this that was shared between all {@link AbstractExtractionContext} instances that used the same {@link IMapping}. The alternative was
-	 * to create another shared object between AbstractExtractionContext instances have a common mapping. This would probably involve creating a
-	 * shared factory that needs to be progated throughout all AbstractExtractionContext instances. It was quickest and easiest to break the purity of
-	 * {@link IMapping} to achieve this.
-	 *
-	 * @return the most number of results that this mapping has found so far in a single evaluation.
-	 */
-	int getHighestFoundValueCount();
-
 	/**
 	 * Get the most number of results that this mapping can return. Any found after this number are discarded. Values of 0 means no maximum limit.
 	 *
@@ -91,12 +68,4 @@ public interface IMapping {
 	 */
 	boolean hasFixedOutputCardinality();
 
-	/**
-	 * Sets the most number of results found with this mapping during a single evaluation.
-	 *
-	 * @param valueFound the number of results found in a single evaluation. Will be ignored if a previous call has found a higher value.
-	 * @see IMapping#getHighestFoundValueCount()
-	 */
-	void setHighestFoundValueCount(int valueFound);
-
 }
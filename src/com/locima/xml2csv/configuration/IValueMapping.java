@@ -12,6 +12,14 @@ public interface IValueMapping extends IMapping {
 	 */
 	XPathValue getValueXPath();
 
+	/**
+	 * Returns whether this mapping finds the same values for every mapping root within a document, so that it only needs to be evaluated once per
+	 * document.
+	 *
+	 * @return true if the value XPath of this mapping is document invariant (see {@link XPathValue#isDocumentInvariant()}).
+	 */
+	boolean isDocumentInvariant();
+
 	/**
 	 * Returns whether values found by this mapping should have whitespace trimmed using {@link String#trim()}.
 	 *
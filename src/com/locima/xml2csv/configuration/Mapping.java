@@ -52,6 +52,11 @@ public class Mapping extends AbstractMapping implements IValueMapping {
 		return getName().hashCode();
 	}
 
+	@Override
+	public boolean isDocumentInvariant() {
+		return (this.valueXPath != null) && this.valueXPath.isDocumentInvariant();
+	}
+
 	/**
 	 * Returns whether or not whitespace should be trimmed from found values in the document.
 	 *
@@ -79,8 +84,6 @@ public class Mapping extends AbstractMapping implements IValueMapping {
 		sb.append(getMinValueCount());
 		sb.append(separator);
 		sb.append(getMaxValueCount());
-		sb.append(separator);
-		sb.append(getHighestFoundValueCount());
 		sb.append(')');
 		return sb.toString();
 	}
@@ -152,6 +152,15 @@ public class MappingConfiguration implements Iterable<IMappingContainer> {
 		return this.defaultMultiValueBehaviour;
 	}
 
+	/**
+	 * Gets the default name format for all child value mappings of this configuration.
+	 *
+	 * @return the format to use. May be null.
+	 */
+	public NameFormat getDefaultNameFormat() {
+		return this.defaultNameFormat;
+	}
+
 	/**
 	 * Retrieve the namespace prefix to URI map that's associated with this configuration.
 	 * <p>
@@ -163,6 +172,55 @@ public class MappingConfiguration implements Iterable<IMappingContainer> {
 		return this.namespaceMappings;
 	}
 
+	/**
+	 * Retrieves the filter that contains all the input filters configured for this set of mappings.
+	 *
+	 * @return the filter that contains all the input filters configured, never null.
+	 */
+	public IInputFilter getInputFilter() {
+		return this.filterContainer;
+	}
+
+	/**
+	 * Determines whether a container has a {@link PivotMapping} anywhere beneath it.
+	 *
+	 * @param container the container to search. Must not be null.
+	 * @return true if any descendant of <code>container</code> is a pivot mapping.
+	 */
+	public static boolean containsPivotMapping(IMappingContainer container) {
+		for (IMapping child : container) {
+			if ((child instanceof PivotMapping) || ((child instanceof IMappingContainer) && containsPivotMapping((IMappingContainer) child))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns true if this configuration contains any pivot mappings. The children of a pivot mapping are added as new keys are found in the
+	 * documents being converted (see {@link PivotMapping#getPivotKeyMapping(String)}), so such a configuration holds state about the conversions
+	 * that have used it.
+	 *
+	 * @return true if any container of this configuration is, or contains, a {@link PivotMapping}.
+	 */
+	public boolean hasPivotMappings() {
+		for (IMappingContainer container : this.mappings) {
+			if ((container instanceof PivotMapping) || containsPivotMapping(container)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns true if any of the input filters configured need to inspect the content of a document, rather than just its file name.
+	 *
+	 * @return true if {@link #include(XdmNode)} needs to be called for each document, false if {@link #include(File)} is sufficient.
+	 */
+	public boolean hasDocumentContentFilters() {
+		return this.filterContainer.requiresDocumentContent();
+	}
+
 	/**
 	 * Returns true if this mapping configuration is interested in processing the passed XML file.
 	 *
@@ -184,6 +242,18 @@ public class MappingConfiguration implements Iterable<IMappingContainer> {
 		return this.filterContainer.include(xmlDoc);
 	}
 
+	/**
+	 * Returns true if an input filter that inspects the content of documents can tell that the passed XML file will be excluded by
+	 * {@link #include(XdmNode)} without loading it, usually by reading only the start of the file. Callers should check this before loading each file
+	 * that passes {@link #include(File)}.
+	 *
+	 * @param xmlFile the XML file to test. Must not be null.
+	 * @return true if the file will definitely be excluded, false if it must be loaded to find out.
+	 */
+	public boolean isExcludedByContentPrefix(File xmlFile) {
+		return this.filterContainer.isExcludedByContentPrefix(xmlFile);
+	}
+
 	@Override
 	public Iterator<IMappingContainer> iterator() {
 		return this.mappings.iterator();
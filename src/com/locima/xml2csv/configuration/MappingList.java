@@ -8,6 +8,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.locima.xml2csv.ArgumentNullException;
+import com.locima.xml2csv.extractor.PathTrie;
+import com.locima.xml2csv.extractor.SiblingVariables;
 
 /**
  * Maintains an ordered list of {@link IMapping} instances. 
@@ -19,8 +21,19 @@ public class MappingList extends AbstractMappingContainer implements IMappingCon
 
 	private static final Logger LOG = LoggerFactory.getLogger(MappingList.class);
 
+	/**
+	 * The simple value XPaths of {@link #children}, merged so they can be evaluated together. Created on first use by {@link #getChildPathTrie()}.
+	 */
+	private volatile PathTrie childPathTrie;
+
 	private List<IMapping> children;
 
+	/**
+	 * The variable references between {@link #children}, resolved so that they can be bound by position. Created on first use by
+	 * {@link #getSiblingVariables()}.
+	 */
+	private volatile SiblingVariables siblingVariables;
+
 	/**
 	 * Initialises the internal list of children.
 	 */
@@ -38,6 +51,8 @@ public class MappingList extends AbstractMappingContainer implements IMappingCon
 			throw new ArgumentNullException("Cannot add null to child of this mapping " + this);
 		}
 		this.children.add(mapping);
+		this.childPathTrie = null;
+		this.siblingVariables = null;
 	}
 
 	/**
@@ -50,9 +65,36 @@ public class MappingList extends AbstractMappingContainer implements IMappingCon
 		return this.children.get(index);
 	}
 
-	@Override
-	public int getFieldCountForSingleRecord() {
-		return getMultiValueBehaviour() == MultiValueBehaviour.LAZY ? 1 : Math.max(getMinValueCount(), getHighestFoundValueCount());
+	/**
+	 * Retrieves the value XPaths of the children of this mapping list that are simple relative paths, merged so that they can all be found by walking
+	 * the subtree beneath each mapping root once.
+	 *
+	 * @return a path trie for the current children of this list, never null.
+	 */
+	public PathTrie getChildPathTrie() {
+		PathTrie trie = this.childPathTrie;
+		if (trie == null) {
+			// If two threads get here at once then the trie is created twice, but both are identical so it doesn't matter which is kept
+			trie = new PathTrie(this);
+			this.childPathTrie = trie;
+		}
+		return trie;
+	}
+
+	/**
+	 * Retrieves the variable references that the children of this mapping list make to the values of their previous siblings, resolved to the
+	 * positions of those siblings.
+	 *
+	 * @return the resolved variable references for the current children of this list, never null.
+	 */
+	public SiblingVariables getSiblingVariables() {
+		SiblingVariables variables = this.siblingVariables;
+		if (variables == null) {
+			// As with the path trie, creating this twice is harmless
+			variables = new SiblingVariables(this);
+			this.siblingVariables = variables;
+		}
+		return variables;
 	}
 
 	/**
@@ -103,8 +145,6 @@ public class MappingList extends AbstractMappingContainer implements IMappingCon
 		sb.append(getMinValueCount());
 		sb.append(separator);
 		sb.append(getMaxValueCount());
-		sb.append(separator);
-		sb.append(getHighestFoundValueCount());
 		sb.append(")[");
 		sb.append(size());
 		sb.append(" children]");
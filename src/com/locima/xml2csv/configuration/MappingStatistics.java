@@ -0,0 +1,128 @@
+package com.locima.xml2csv.configuration;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.locima.xml2csv.ArgumentNullException;
+
+/**
+ * Records what was found when executing mappings during a single conversion, so that outputs can be sized to fit the largest set of values found.
+ * <p>
+ * This used to be held on each {@link IMapping}, which meant that a {@link MappingConfiguration} collected state as it was used and could not be
+ * shared between conversions. Instead, each extractor (i.e. each worker thread) records in to its own instance, and these are merged in to the
+ * instance owned by the output manager once the worker has finished. As only ever the highest count is kept, merging is just a max-reduction, so
+ * the order in which workers are merged makes no difference.
+ * <p>
+ * Instances are thread-safe and lock-free: counts are held in {@link AtomicInteger}s and raised with compare-and-set.
+ */
+public class MappingStatistics {
+
+	/**
+	 * Wraps a mapping so that it is compared by identity. Mappings implement {@link Object#equals(Object)} by comparing their configuration, so two
+	 * identical mappings in different containers would otherwise share a count.
+	 */
+	private static final class MappingKey {
+
+		/**
+		 * The mapping being wrapped.
+		 */
+		private final IMapping mapping;
+
+		/**
+		 * Creates a new key.
+		 *
+		 * @param mapping the mapping being wrapped. Must not be null.
+		 */
+		public MappingKey(IMapping mapping) {
+			this.mapping = mapping;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return (obj instanceof MappingKey) && (((MappingKey) obj).mapping == this.mapping);
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(this.mapping);
+		}
+	}
+
+	/**
+	 * The highest number of values found by a single evaluation of each mapping. Mappings that have not been recorded are absent.
+	 */
+	private ConcurrentMap<MappingKey, AtomicInteger> highestFoundValueCounts = new ConcurrentHashMap<MappingKey, AtomicInteger>();
+
+	/**
+	 * Combines the minimum number of values for a mapping with the highest number found to determine the total number of fields that the mapping
+	 * must output <em>in a single record</em>.
+	 *
+	 * @param mapping the mapping to return the field count for. Must not be null.
+	 * @return a natural number greater than or equal to one, unless the mapping is greedy and has not found any values.
+	 */
+	public int getFieldCountForSingleRecord(IMapping mapping) {
+		return mapping.getMultiValueBehaviour() == MultiValueBehaviour.LAZY ? 1 : Math.max(mapping.getMinValueCount(),
+						getHighestFoundValueCount(mapping));
+	}
+
+	/**
+	 * Get the most number of results that a mapping has found so far in a single evaluation.
+	 *
+	 * @param mapping the mapping to return the count for. Must not be null.
+	 * @return the most number of results that <code>mapping</code> has found in a single evaluation, or 0 if it has not been recorded.
+	 */
+	public int getHighestFoundValueCount(IMapping mapping) {
+		AtomicInteger count = this.highestFoundValueCounts.get(new MappingKey(mapping));
+		return (count == null) ? 0 : count.get();
+	}
+
+	/**
+	 * Merges all the counts recorded by another instance in to this one, keeping the highest of each.
+	 *
+	 * @param other the statistics to merge in to this instance. Must not be null. Is not modified.
+	 */
+	public void merge(MappingStatistics other) {
+		if (other == null) {
+			throw new ArgumentNullException("other");
+		}
+		for (Map.Entry<MappingKey, AtomicInteger> entry : other.highestFoundValueCounts.entrySet()) {
+			recordValueCount(entry.getKey(), entry.getValue().get());
+		}
+	}
+
+	/**
+	 * Records the number of values found by a single evaluation of a mapping, keeping only the highest value seen.
+	 *
+	 * @param mapping the mapping that was evaluated. Must not be null.
+	 * @param valueCount the number of values found by a single evaluation of <code>mapping</code>.
+	 */
+	public void recordValueCount(IMapping mapping, int valueCount) {
+		if (mapping == null) {
+			throw new ArgumentNullException("mapping");
+		}
+		recordValueCount(new MappingKey(mapping), valueCount);
+	}
+
+	/**
+	 * Records the number of values found by a single evaluation of a mapping, keeping only the highest value seen.
+	 *
+	 * @param key the key of the mapping that was evaluated.
+	 * @param valueCount the number of values found by a single evaluation of the mapping.
+	 */
+	private void recordValueCount(MappingKey key, int valueCount) {
+		AtomicInteger count = this.highestFoundValueCounts.get(key);
+		if (count == null) {
+			AtomicInteger newCount = new AtomicInteger(valueCount);
+			count = this.highestFoundValueCounts.putIfAbsent(key, newCount);
+			if (count == null) {
+				return;
+			}
+		}
+		int current = count.get();
+		while ((valueCount > current) && !count.compareAndSet(current, valueCount)) {
+			current = count.get();
+		}
+	}
+}
@@ -104,6 +104,15 @@ public class NameFormat {
 		return String.format(this.format, ancestorContext.getFormatArgs(baseFieldName, iterationNumber));
 	}
 
+	/**
+	 * Returns the formatting string of this instance.
+	 *
+	 * @return the formatting string, never null.
+	 */
+	public String getFormat() {
+		return this.format;
+	}
+
 	@Override
 	public String toString() {
 		return "NameFormat(\"" + this.format + "\")";
@@ -71,7 +71,7 @@ public class PivotMapping extends AbstractMappingContainer implements IMappingCo
 	 * @return a {@link Mapping} instance, never returns null.
 	 * @see #findChild(String)
 	 */
-	public Mapping getPivotKeyMapping(String keyName) {
+	public synchronized Mapping getPivotKeyMapping(String keyName) {
 		Mapping pkm = findChild(keyName);
 		if (pkm != null) {
 			if (LOG.isDebugEnabled()) {
@@ -129,8 +129,14 @@ public class PivotMapping extends AbstractMappingContainer implements IMappingCo
 		return getName().hashCode();
 	}
 
+	/**
+	 * Returns an iterator over a snapshot of the pivot key mappings found so far, so that iteration is not affected by other threads discovering new
+	 * keys.
+	 *
+	 * @return an iterator over a snapshot of the child mappings.
+	 */
 	@Override
-	public Iterator<IMapping> iterator() {
+	public synchronized Iterator<IMapping> iterator() {
 		// TODO It can't be this hard, surely?
 		List<IMapping> iterableIMappingInstance = new ArrayList<IMapping>(this.children.size());
 		iterableIMappingInstance.addAll(this.children);
@@ -169,7 +175,7 @@ public class PivotMapping extends AbstractMappingContainer implements IMappingCo
 	}
 
 	@Override
-	public int size() {
+	public synchronized int size() {
 		return this.children.size();
 	}
 
@@ -1,5 +1,10 @@
 package com.locima.xml2csv.configuration;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.s9api.QName;
 import net.sf.saxon.s9api.SaxonApiException;
 import net.sf.saxon.s9api.XPathExecutable;
 import net.sf.saxon.s9api.XPathSelector;
@@ -10,21 +15,60 @@ import org.slf4j.LoggerFactory;
 
 import com.locima.xml2csv.extractor.DataExtractorException;
 import com.locima.xml2csv.extractor.XPathVariableBindings;
+import com.locima.xml2csv.util.ChildPath;
 import com.locima.xml2csv.util.EqualsUtil;
+import com.locima.xml2csv.util.XmlUtil;
 
 /**
  * A tuple structure storing an XPath expression in String form as well as its compiled version.
  * <p>
  * I keep the former for easy logging and debugging and the latter for performance.
+ * <p>
+ * Loading an {@link XPathSelector} from a compiled expression creates a new dynamic context each time, and this happens for every mapping, for every
+ * mapping root, for every document. To avoid this, each thread keeps one selector per instance which is re-used by {@link #evaluate(XdmNode)} once
+ * it's been handed back by {@link #release(XPathSelector)}. Selectors are not thread-safe, but as each thread only ever re-uses its own, instances
+ * of this class may be shared between threads. If a selector is still in use (for example, because the same expression is being evaluated within
+ * the results of an earlier evaluation) then a new one is loaded instead.
+ * <p>
+ * Most expressions are simple paths such as <code>Name</code> or <code>Address/@type</code>, and even a re-used selector is slow compared to
+ * simply walking the tree to find the nodes they select. If {@link ChildPath#parse(String, java.util.Map)} recognised the expression when it was
+ * compiled then {@link #selectNodes(XdmNode)} and {@link #selectValues(XdmNode)} do exactly that.
  */
 public class XPathValue {
 
 	private static final Logger LOG = LoggerFactory.getLogger(XPathValue.class);
+
+	/**
+	 * The parsed form of {@link #xPathExpr}, if it's a simple path, otherwise null.
+	 */
+	private ChildPath childPath;
+
 	/**
 	 * A Saxon-compiled XPath statement.
 	 */
 	private XPathExecutable compiledXPath;
 
+	/**
+	 * True if this expression gives the same result for every context node within a document (see {@link XmlUtil#isDocumentInvariant}).
+	 */
+	private boolean documentInvariant;
+
+	/**
+	 * The names of the variables that {@link #compiledXPath} actually refers to, which are the only ones that need to be bound when it's evaluated.
+	 * These are worked out, and converted to {@link QName} instances, once when the expression is compiled, rather than for every evaluation.
+	 */
+	private QName[] referencedVariables;
+
+	/**
+	 * The selector that each thread will re-use for its next evaluation, or null if that thread doesn't have one available.
+	 */
+	private ThreadLocal<XPathSelector> idleSelector = new ThreadLocal<XPathSelector>();
+
+	/**
+	 * The names of the variables that were declared when {@link #compiledXPath} was compiled.
+	 */
+	private String[] variableNames;
+
 	/**
 	 * The XPath statement that was compiled to {@link #compiledXPath}.
 	 */
@@ -37,8 +81,42 @@ public class XPathValue {
 	 * @param xPath the compiled (Saxon) XPath object.
 	 */
 	public XPathValue(String xPathExpr, XPathExecutable xPath) {
+		this(xPathExpr, xPath, new String[0]);
+	}
+
+	/**
+	 * Constructs a new instance with the source XPath, compiled XPath and the variables declared when it was compiled.
+	 *
+	 * @param xPathExpr the source XPath (string) expression. Used for debug and trace.
+	 * @param xPath the compiled (Saxon) XPath object.
+	 * @param variableNames the names of the variables declared to the compiler, so that the expression can be compiled again from its source (see
+	 *            {@link com.locima.xml2csv.ConfigurationSnapshot}). Must not be null.
+	 */
+	public XPathValue(String xPathExpr, XPathExecutable xPath, String[] variableNames) {
+		this(xPathExpr, xPath, variableNames, null);
+	}
+
+	/**
+	 * Constructs a new instance with the source XPath, compiled XPath, the variables declared when it was compiled and, if it's simple enough, its
+	 * parsed form.
+	 *
+	 * @param xPathExpr the source XPath (string) expression. Used for debug and trace.
+	 * @param xPath the compiled (Saxon) XPath object.
+	 * @param variableNames the names of the variables declared to the compiler. Must not be null.
+	 * @param childPath the parsed form of <code>xPathExpr</code> (see {@link ChildPath#parse(String, java.util.Map)}), or null if it isn't a
+	 *            simple relative path.
+	 */
+	public XPathValue(String xPathExpr, XPathExecutable xPath, String[] variableNames, ChildPath childPath) {
 		this.xPathExpr = xPathExpr;
 		this.compiledXPath = xPath;
+		this.variableNames = variableNames;
+		this.childPath = childPath;
+		this.documentInvariant = (xPath != null) && XmlUtil.isDocumentInvariant(xPath);
+		String[] referencedVariableNames = (xPath == null) ? new String[0] : XmlUtil.getReferencedVariableNames(xPath);
+		this.referencedVariables = new QName[referencedVariableNames.length];
+		for (int i = 0; i < referencedVariableNames.length; i++) {
+			this.referencedVariables[i] = new QName(referencedVariableNames[i]);
+		}
 	}
 
 	@Override
@@ -59,27 +137,39 @@ public class XPathValue {
 	 * variable bindings.
 	 *
 	 * @param element the current node. Must not be null.
-	 * @return an XPathSelector which can be evaluated.
+	 * @return an XPathSelector which can be evaluated, and should be passed to {@link #release(XPathSelector)} once it's no longer needed.
 	 * @throws DataExtractorException if an error occurs executing the XPath or creating the XPathSelector.
 	 */
 	public XPathSelector evaluate(XdmNode element) throws DataExtractorException {
-		return evaluate(element, null);
+		return evaluate(element, null, null);
 	}
 
 	/**
 	 * Generates an XPathSelector (for evaluation) based on this instance, within the context of the passed element (must not be null).
+	 * <p>
+	 * Only the variables that this expression refers to (see {@link #getReferencedVariableNames()}) are bound, whatever else is in
+	 * <code>bindings</code>.
 	 *
 	 * @param element the current node. Must not be null.
 	 * @param bindings a set of variable bindings to apply to this XPath evaluation. May be null or empty.
-	 * @return an XPathSelector which can be evaluated.
+	 * @param variableSlots the slot within <code>bindings</code> of each variable this expression refers to, in the same order as
+	 *            {@link #getReferencedVariableNames()}, or -1 for a variable that isn't in <code>bindings</code>. May only be null if
+	 *            <code>bindings</code> is.
+	 * @return an XPathSelector which can be evaluated, and should be passed to {@link #release(XPathSelector)} once it's no longer needed.
 	 * @throws DataExtractorException if an error occurs executing the XPath or creating the XPathSelector.
 	 */
-	public XPathSelector evaluate(XdmNode element, XPathVariableBindings bindings) throws DataExtractorException {
-		XPathSelector selector = this.compiledXPath.load();
+	public XPathSelector evaluate(XdmNode element, XPathVariableBindings bindings, int[] variableSlots) throws DataExtractorException {
+		XPathSelector selector = this.idleSelector.get();
+		if (selector == null) {
+			selector = this.compiledXPath.load();
+		} else {
+			// Mark the selector as in use, so that a nested evaluation on this thread doesn't re-use it too
+			this.idleSelector.set(null);
+		}
 		try {
-			if (bindings != null) {
+			if ((bindings != null) && (this.referencedVariables.length > 0)) {
 				LOG.debug("Binding variables to \"{}\" evaluation", this.xPathExpr);
-				bindings.bindTo(selector);
+				bindings.bindTo(selector, this.referencedVariables, variableSlots);
 			}
 			selector.setContextItem(element);
 		} catch (SaxonApiException e) {
@@ -88,6 +178,64 @@ public class XPathValue {
 		return selector;
 	}
 
+	/**
+	 * Gets the parsed form of this expression, which allows it to be evaluated without Saxon's XPath machinery.
+	 *
+	 * @return the parsed form, or null if this expression isn't a simple path (see {@link ChildPath}).
+	 */
+	public ChildPath getChildPath() {
+		return this.childPath;
+	}
+
+	/**
+	 * Determines whether this expression gives the same result for every context node within a document, such as <code>/Batch/@id</code>, so only
+	 * needs to be evaluated once per document. This is worked out when the expression is compiled.
+	 *
+	 * @return true if this expression doesn't depend on the context node (other than its document), position, size or any variables.
+	 */
+	public boolean isDocumentInvariant() {
+		return this.documentInvariant;
+	}
+
+	/**
+	 * Finds the nodes selected by this expression by walking the tree directly, without Saxon's XPath machinery, if the expression is simple enough
+	 * (see {@link #getChildPath()}). Simple paths can't refer to variables, so no bindings are needed.
+	 *
+	 * @param element the current node. Must not be null.
+	 * @return the nodes selected, in document order, or null if this expression can't be evaluated directly, in which case
+	 *         {@link #evaluate(XdmNode, XPathVariableBindings, int[])} must be used instead.
+	 */
+	public List<XdmNode> selectNodes(XdmNode element) {
+		List<NodeInfo> nodes = this.childPath == null ? null : this.childPath.select(element.getUnderlyingNode());
+		if (nodes == null) {
+			return null;
+		}
+		List<XdmNode> xdmNodes = new ArrayList<XdmNode>(nodes.size());
+		for (NodeInfo node : nodes) {
+			xdmNodes.add(new XdmNode(node));
+		}
+		return xdmNodes;
+	}
+
+	/**
+	 * Finds the string values of the nodes selected by this expression by walking the tree directly, as {@link #selectNodes(XdmNode)} does.
+	 *
+	 * @param element the current node. Must not be null.
+	 * @return the string values of the nodes selected, in document order, or null if this expression can't be evaluated directly, in which case
+	 *         {@link #evaluate(XdmNode, XPathVariableBindings, int[])} must be used instead.
+	 */
+	public List<String> selectValues(XdmNode element) {
+		List<NodeInfo> nodes = this.childPath == null ? null : this.childPath.select(element.getUnderlyingNode());
+		if (nodes == null) {
+			return null;
+		}
+		List<String> values = new ArrayList<String>(nodes.size());
+		for (NodeInfo node : nodes) {
+			values.add(node.getStringValue());
+		}
+		return values;
+	}
+
 	/**
 	 * Gets the XPath source for this instance.
 	 *
@@ -97,11 +245,48 @@ public class XPathValue {
 		return this.xPathExpr;
 	}
 
+	/**
+	 * Returns the names of the variables that this expression actually refers to, found by analysing the compiled expression.
+	 *
+	 * @return the variable names, each only once, possibly empty but never null. A subset of {@link #getVariableNames()}.
+	 */
+	public String[] getReferencedVariableNames() {
+		String[] names = new String[this.referencedVariables.length];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = this.referencedVariables[i].getLocalName();
+		}
+		return names;
+	}
+
+	/**
+	 * Returns the names of the variables that were declared when this expression was compiled.
+	 *
+	 * @return the variable names, possibly empty but never null.
+	 */
+	public String[] getVariableNames() {
+		return this.variableNames.clone();
+	}
+
 	@Override
 	public int hashCode() {
 		return this.xPathExpr.hashCode();
 	}
 
+	/**
+	 * Hands back a selector returned by {@link #evaluate(XdmNode, XPathVariableBindings, int[])} once the caller has finished iterating over its
+	 * results, so that it can be re-used by the next evaluation on this thread. Failing to release a selector is harmless, but means that the next
+	 * evaluation has to load a new one.
+	 * <p>
+	 * Note that the selector keeps a reference to the last context item and variables it was used with until its next evaluation.
+	 *
+	 * @param selector a selector returned by this instance on the current thread. May be null, in which case this method does nothing.
+	 */
+	public void release(XPathSelector selector) {
+		if ((selector != null) && (this.idleSelector.get() == null)) {
+			this.idleSelector.set(selector);
+		}
+	}
+
 	@Override
 	public String toString() {
 		return "XPathValue(\"" + this.xPathExpr + "\")";
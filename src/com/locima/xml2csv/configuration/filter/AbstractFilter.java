@@ -2,6 +2,7 @@ package com.locima.xml2csv.configuration.filter;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import net.sf.saxon.s9api.XdmNode;
@@ -30,6 +31,18 @@ public abstract class AbstractFilter implements IInputFilter {
 		this.nestedFilters.add(nestedFilter);
 	}
 
+	/**
+	 * Retrieves the filters nested within this one.
+	 *
+	 * @return an unmodifiable, possibly empty, list of the nested filters. Never null.
+	 */
+	public List<IInputFilter> getNestedFilters() {
+		if (this.nestedFilters == null) {
+			return Collections.emptyList();
+		}
+		return Collections.unmodifiableList(this.nestedFilters);
+	}
+
 	/**
 	 * Executes all the nested filters.
 	 *
@@ -71,6 +84,42 @@ public abstract class AbstractFilter implements IInputFilter {
 		return this.alwaysExecute;
 	}
 
+	/**
+	 * Returns true if any nested filter can tell that the file would be excluded without loading it. Subclasses that inspect the document themselves
+	 * should override this.
+	 *
+	 * @param inputXmlFile the file that xml2csv is about to load.
+	 * @return true if any nested filter will definitely exclude the file, false otherwise.
+	 */
+	@Override
+	public boolean isExcludedByContentPrefix(File inputXmlFile) {
+		if (this.nestedFilters != null) {
+			for (IInputFilter filter : this.nestedFilters) {
+				if (filter.isExcludedByContentPrefix(inputXmlFile)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns true if any nested filter requires the document content. Subclasses that inspect the document themselves must override this.
+	 *
+	 * @return true if any nested filter requires the document content, false otherwise.
+	 */
+	@Override
+	public boolean requiresDocumentContent() {
+		if (this.nestedFilters != null) {
+			for (IInputFilter filter : this.nestedFilters) {
+				if (filter.requiresDocumentContent()) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
 	@Override
 	public void setAlwaysExecute(boolean alwaysExecute) {
 		this.alwaysExecute = alwaysExecute;
@@ -82,7 +131,7 @@ public abstract class AbstractFilter implements IInputFilter {
 		sb.append("AlwaysExecute(");
 		sb.append(this.alwaysExecute);
 		sb.append(")");
-		for (IInputFilter nestedFilter : this.nestedFilters) {
+		for (IInputFilter nestedFilter : getNestedFilters()) {
 			sb.append(", ");
 			sb.append(nestedFilter.toString());
 		}
@@ -33,6 +33,24 @@ public class FileNameInputFilter extends FilterContainer {
 		this.matchLocalFileNameOnly = matchLocalFileNameOnly;
 	}
 
+	/**
+	 * Returns the regular expression that file names are matched against.
+	 *
+	 * @return the regular expression passed to the constructor, never null.
+	 */
+	public String getRegex() {
+		return this.pattern.pattern();
+	}
+
+	/**
+	 * Returns whether only the local file name, rather than the absolute path, is matched.
+	 *
+	 * @return true if only the file name (no directory information) is matched.
+	 */
+	public boolean isMatchLocalFileNameOnly() {
+		return this.matchLocalFileNameOnly;
+	}
+
 	/**
 	 * Filters out files that do not match the regular expression passed by {@link FileNameInputFilter#FileNameInputFilter(String)}.
 	 *
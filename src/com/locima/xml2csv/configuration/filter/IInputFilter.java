@@ -45,6 +45,26 @@ public interface IInputFilter {
 	 */
 	boolean include(XdmNode inputXmlFileDocumentNode) throws DataExtractorException;
 
+	/**
+	 * Returns true if this filter (or any nested filter) can tell that a file would be excluded by {@link #include(XdmNode)} by parsing as little of
+	 * it as possible, without loading it. This is an optimisation only: returning false means that the document must be loaded and
+	 * {@link #include(XdmNode)} called, as normal, to decide.
+	 *
+	 * @param inputXmlFile the file that xml2csv is about to load. Will never be null.
+	 * @return true if the file will definitely be excluded, false if it might be included (or this filter doesn't know).
+	 */
+	boolean isExcludedByContentPrefix(File inputXmlFile);
+
+	/**
+	 * Returns whether this filter (or any nested filter) needs to inspect the content of the document, i.e. whether {@link #include(XdmNode)} does
+	 * anything other than return the result of nested filters.
+	 * <p>
+	 * Extraction modes that never build a complete document tree (e.g. streaming) cannot honour filters that need one.
+	 *
+	 * @return true if this filter needs the whole document to make a decision, false if {@link #include(File)} is sufficient.
+	 */
+	boolean requiresDocumentContent();
+
 	/**
 	 * Configures whether this filter must always be executed, or whether it only needs to be executed if all previous filters have agreed to process
 	 * this file.
@@ -1,5 +1,6 @@
 package com.locima.xml2csv.configuration.filter;
 
+import java.io.File;
 import java.util.Map;
 
 import net.sf.saxon.s9api.SaxonApiException;
@@ -24,6 +25,12 @@ import com.locima.xml2csv.util.XmlUtil;
 public class XPathInputFilter extends FilterContainer {
 
 	private static final Logger LOG = LoggerFactory.getLogger(XPathInputFilter.class);
+
+	/**
+	 * Evaluates {@link #xPath} against the start of a file, or null if the expression is too complicated for that.
+	 */
+	private XPathPrefixFilter prefixFilter;
+
 	private XPathValue xPath;
 
 	/**
@@ -36,6 +43,19 @@ public class XPathInputFilter extends FilterContainer {
 	public XPathInputFilter(Map<String, String> namespaceMappings, String xPathExpression) throws XMLException {
 		XPathExecutable xPathExecutable = XmlUtil.createXPathExecutable(namespaceMappings, xPathExpression);
 		this.xPath = new XPathValue(xPathExpression, xPathExecutable);
+		this.prefixFilter = XPathPrefixFilter.create(namespaceMappings, xPathExpression);
+		if (this.prefixFilter == null) {
+			LOG.debug("Filter {} can only be evaluated against whole documents", xPathExpression);
+		}
+	}
+
+	/**
+	 * Retrieves the XPath expression that documents must match to be included.
+	 *
+	 * @return the XPath expression that documents must match to be included, never null.
+	 */
+	public XPathValue getXPath() {
+		return this.xPath;
 	}
 
 	@Override
@@ -53,10 +73,29 @@ public class XPathInputFilter extends FilterContainer {
 			}
 		} catch (SaxonApiException sae) {
 			throw new DataExtractorException(sae, "Error evaluating filter XPath ({}) against input document", this.xPath.getSource());
+		} finally {
+			this.xPath.release(selector);
 		}
 		return match;
 	}
 
+	/**
+	 * Returns true if the XPath expression is simple enough to be evaluated whilst parsing the file (see {@link XPathPrefixFilter}), and doesn't
+	 * match. As with {@link #include(XdmNode)}, nested filters are not executed.
+	 *
+	 * @param inputXmlFile the file that xml2csv is about to load.
+	 * @return true if the file will definitely be excluded, false otherwise.
+	 */
+	@Override
+	public boolean isExcludedByContentPrefix(File inputXmlFile) {
+		return (this.prefixFilter != null) && Boolean.FALSE.equals(this.prefixFilter.matches(inputXmlFile));
+	}
+
+	@Override
+	public boolean requiresDocumentContent() {
+		return true;
+	}
+
 	@Override
 	public String toString() {
 		return "XPathInputFilter(\"" + this.xPath.getSource() + "\")";
@@ -0,0 +1,536 @@
+package com.locima.xml2csv.configuration.filter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import net.sf.saxon.s9api.Axis;
+import net.sf.saxon.s9api.BuildingContentHandler;
+import net.sf.saxon.s9api.ItemType;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XPathExecutable;
+import net.sf.saxon.s9api.XPathSelector;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.s9api.XdmNodeKind;
+import net.sf.saxon.s9api.XdmSequenceIterator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.DefaultHandler;
+import org.xml.sax.helpers.NamespaceSupport;
+
+import com.locima.xml2csv.XMLException;
+import com.locima.xml2csv.configuration.XPathValue;
+import com.locima.xml2csv.extractor.DataExtractorException;
+import com.locima.xml2csv.util.InputOptions;
+import com.locima.xml2csv.util.SimplePath;
+import com.locima.xml2csv.util.XPathAnalyser;
+import com.locima.xml2csv.util.XmlUtil;
+
+/**
+ * Decides whether the XPath expression of an {@link XPathInputFilter} matches a file by parsing only as much of the file as is needed, without
+ * building a tree of the whole document.
+ * <p>
+ * Most filters look at the document element or a header element near the start of a document, so once that has been read there is no need to read
+ * the rest of the document, let alone build a tree for it. Only filters made up of the following are supported:
+ * <ul>
+ * <li>A simple path of child steps (see {@link SimplePath}), e.g. <code>/Order/Header</code>, which matches if any element is found.</li>
+ * <li>A simple path followed by an attribute step, e.g. <code>/Order/@version</code>, which matches if any element found has the attribute.</li>
+ * <li>A simple path followed by a single predicate that is confined to the subtree of the element it filters and can't be positional, e.g.
+ * <code>/Order[@type = 'Retail']</code> or <code>/Order/Header[Status = 'OPEN']</code>. If the predicate only reads attributes then it is
+ * evaluated as soon as the start of each element is read, otherwise each element's subtree is captured (and nothing else) and the predicate is
+ * evaluated when it ends.</li>
+ * </ul>
+ * The parse stops as soon as a matching element is found, or when the document element doesn't match the first step of the path (or the whole
+ * expression, if the path only has one step). Otherwise, the
+ * whole document has to be read to be sure that there isn't a match later on, but even then only the SAX events are processed.
+ */
+class XPathPrefixFilter {
+
+	/**
+	 * Thrown by the {@link PrefixHandler} to stop parsing once the filter's result is known.
+	 */
+	private static class DecidedException extends SAXException {
+
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * The result of the filter.
+		 */
+		private boolean match;
+
+		/**
+		 * Creates a new instance.
+		 *
+		 * @param match the result of the filter.
+		 */
+		public DecidedException(boolean match) {
+			this.match = match;
+		}
+	}
+
+	/**
+	 * Receives the events for a single file, matching each element against the path and throwing a {@link DecidedException} as soon as the
+	 * result is known.
+	 */
+	private class PrefixHandler extends DefaultHandler implements LexicalHandler {
+
+		/**
+		 * The handler building the element currently being captured for evaluating the predicate, or null if nothing is being captured.
+		 */
+		private BuildingContentHandler capture;
+
+		/**
+		 * The depth of the current element, where the document element is at depth 1.
+		 */
+		private int depth;
+
+		/**
+		 * The number of steps of the path matched by the current element and its ancestors.
+		 */
+		private int matchedSteps;
+
+		/**
+		 * True if a namespace context has already been pushed for the next element, because it declares namespace prefixes.
+		 */
+		private boolean namespaceContextPushed;
+
+		/**
+		 * The namespace prefixes in scope for the current element, so that they can be declared at the root of a capture.
+		 */
+		private NamespaceSupport namespaces = new NamespaceSupport();
+
+		@Override
+		public void characters(char[] ch, int start, int length) throws SAXException {
+			if (this.capture != null) {
+				this.capture.characters(ch, start, length);
+			}
+		}
+
+		@Override
+		public void comment(char[] ch, int start, int length) throws SAXException {
+			if ((this.capture != null) && (this.capture instanceof LexicalHandler)) {
+				((LexicalHandler) this.capture).comment(ch, start, length);
+			}
+		}
+
+		@Override
+		public void endCDATA() {
+			// CDATA boundaries make no difference to the predicate
+		}
+
+		/**
+		 * Finishes the current capture and evaluates the predicate against it.
+		 *
+		 * @throws SAXException if the predicate matched (a {@link DecidedException}), or could not be evaluated.
+		 */
+		private void endCapture() throws SAXException {
+			this.capture.endDocument();
+			XdmNode document;
+			try {
+				document = this.capture.getDocumentNode();
+			} catch (SaxonApiException sae) {
+				throw new SAXException(sae);
+			}
+			this.capture = null;
+			if (evaluatePredicate(document)) {
+				throw new DecidedException(true);
+			}
+		}
+
+		@Override
+		public void endDocument() throws SAXException {
+			throw new DecidedException(false);
+		}
+
+		@Override
+		public void endDTD() {
+			// DTDs make no difference to the predicate
+		}
+
+		@Override
+		public void endElement(String uri, String localName, String qName) throws SAXException {
+			if (this.capture != null) {
+				this.capture.endElement(uri, localName, qName);
+				if (this.depth == XPathPrefixFilter.this.path.size()) {
+					endCapture();
+				}
+			}
+			if (this.matchedSteps == this.depth) {
+				this.matchedSteps--;
+			}
+			this.depth--;
+			this.namespaces.popContext();
+		}
+
+		@Override
+		public void endEntity(String name) {
+			// Entity boundaries make no difference to the predicate
+		}
+
+		@Override
+		public void endPrefixMapping(String prefix) throws SAXException {
+			if (this.capture != null) {
+				this.capture.endPrefixMapping(prefix);
+			}
+		}
+
+		@Override
+		public void error(SAXParseException exception) throws SAXException {
+			throw exception;
+		}
+
+		@Override
+		public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+			if (this.capture != null) {
+				this.capture.ignorableWhitespace(ch, start, length);
+			}
+		}
+
+		/**
+		 * Called when an element matches every step of the path.
+		 *
+		 * @param uri the namespace URI of the element.
+		 * @param localName the local name of the element.
+		 * @param qName the qualified name of the element.
+		 * @param atts the attributes of the element.
+		 * @throws SAXException if the element matched (a {@link DecidedException}), or the predicate could not be evaluated.
+		 */
+		private void pathMatched(String uri, String localName, String qName, Attributes atts) throws SAXException {
+			XPathPrefixFilter filter = XPathPrefixFilter.this;
+			if (filter.attributeStep != null) {
+				for (int i = 0; i < atts.getLength(); i++) {
+					if (filter.attributeStep.matches(atts.getURI(i), atts.getLocalName(i))) {
+						throw new DecidedException(true);
+					}
+				}
+			} else if (filter.predicate == null) {
+				throw new DecidedException(true);
+			} else {
+				startCapture();
+				this.capture.startElement(uri, localName, qName, atts);
+				if (filter.predicateReadsOnlyAttributes) {
+					// No need to wait for the content of the element, the predicate can be evaluated now
+					this.capture.endElement(uri, localName, qName);
+					endCapture();
+				}
+			}
+			if ((filter.path.size() == 1) && (this.capture == null)) {
+				// The document element didn't match, and there's nothing else that could
+				throw new DecidedException(false);
+			}
+		}
+
+		@Override
+		public void processingInstruction(String target, String data) throws SAXException {
+			if (this.capture != null) {
+				this.capture.processingInstruction(target, data);
+			}
+		}
+
+		@Override
+		public void startCDATA() {
+			// CDATA boundaries make no difference to the predicate
+		}
+
+		/**
+		 * Starts capturing the current element, declaring all the namespace prefixes in scope for it.
+		 *
+		 * @throws SAXException if a tree builder can't be created.
+		 */
+		private void startCapture() throws SAXException {
+			try {
+				this.capture = XmlUtil.getProcessor().newDocumentBuilder().newBuildingContentHandler();
+			} catch (SaxonApiException sae) {
+				throw new SAXException(sae);
+			}
+			this.capture.startDocument();
+			Enumeration<?> prefixes = this.namespaces.getPrefixes();
+			while (prefixes.hasMoreElements()) {
+				String prefix = (String) prefixes.nextElement();
+				if (!"xml".equals(prefix)) {
+					this.capture.startPrefixMapping(prefix, this.namespaces.getURI(prefix));
+				}
+			}
+			String defaultNamespace = this.namespaces.getURI("");
+			if (defaultNamespace != null) {
+				this.capture.startPrefixMapping("", defaultNamespace);
+			}
+		}
+
+		@Override
+		public void startDTD(String name, String publicId, String systemId) {
+			// DTDs make no difference to the predicate
+		}
+
+		@Override
+		public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+			if (!this.namespaceContextPushed) {
+				this.namespaces.pushContext();
+			}
+			this.namespaceContextPushed = false;
+			this.depth++;
+			if (this.capture != null) {
+				this.capture.startElement(uri, localName, qName, atts);
+				return;
+			}
+			SimplePath path = XPathPrefixFilter.this.path;
+			if ((this.matchedSteps == this.depth - 1) && (this.depth <= path.size()) && path.getStep(this.depth - 1).matches(uri, localName)) {
+				this.matchedSteps = this.depth;
+				if (this.depth == path.size()) {
+					pathMatched(uri, localName, qName, atts);
+				}
+			} else if (this.depth == 1) {
+				// The document element is the only candidate for the first step
+				throw new DecidedException(false);
+			}
+		}
+
+		@Override
+		public void startEntity(String name) {
+			// Entity boundaries make no difference to the predicate
+		}
+
+		@Override
+		public void startPrefixMapping(String prefix, String uri) throws SAXException {
+			if (!this.namespaceContextPushed) {
+				this.namespaces.pushContext();
+				this.namespaceContextPushed = true;
+			}
+			this.namespaces.declarePrefix(prefix, uri);
+			if (this.capture != null) {
+				this.capture.startPrefixMapping(prefix, uri);
+			}
+		}
+	}
+
+	/**
+	 * Matches a path that ends with an attribute step, with an optional prefix. A name or prefix of <code>*</code> is a wildcard.
+	 */
+	private static final Pattern ATTRIBUTE_STEP = Pattern.compile("^(.*)/\\s*(?:attribute::|@)(?:([\\w.\\-]+|\\*):)?([\\w.\\-]+|\\*)$");
+
+	private static final Logger LOG = LoggerFactory.getLogger(XPathPrefixFilter.class);
+
+	/**
+	 * Matches calls to functions that make a predicate positional.
+	 */
+	private static final Pattern POSITIONAL_FUNCTIONS = Pattern.compile("\\b(?:position|last)\\s*\\(");
+
+	/**
+	 * Creates an instance for an XPath filter expression, if the expression is simple enough to be decided without loading the whole document.
+	 *
+	 * @param namespaceMappings the namespace prefix to URI mappings that may be required to execute <code>expression</code>.
+	 * @param expression the XPath expression of an {@link XPathInputFilter}. Must not be null.
+	 * @return a new instance, or null if the expression isn't supported.
+	 */
+	static XPathPrefixFilter create(Map<String, String> namespaceMappings, String expression) {
+		String source = expression.trim();
+		String code = XPathAnalyser.removeStringLiterals(source);
+		String pathSource = code;
+		String predicateSource = null;
+		int predicateStart = XPathAnalyser.findTrailingPredicate(code);
+		if (predicateStart >= 0) {
+			pathSource = code.substring(0, predicateStart);
+			if ((pathSource.indexOf('"') >= 0) || (pathSource.indexOf('\'') >= 0)) {
+				// The path can't be simple, and there's no easy way to find the predicate in the original source
+				return null;
+			}
+			predicateSource = source.substring(predicateStart + 1, source.length() - 1);
+		}
+
+		SimplePath.Step attributeStep = null;
+		Matcher attributeMatcher = ATTRIBUTE_STEP.matcher(pathSource);
+		if ((predicateSource == null) && attributeMatcher.matches()) {
+			pathSource = attributeMatcher.group(1);
+			attributeStep = createAttributeStep(namespaceMappings, attributeMatcher.group(2), attributeMatcher.group(3));
+			if (attributeStep == null) {
+				return null;
+			}
+		}
+
+		SimplePath path = SimplePath.parse(pathSource, namespaceMappings);
+		if (path == null) {
+			return null;
+		}
+		XPathPrefixFilter filter = new XPathPrefixFilter(expression, path, attributeStep);
+		if ((predicateSource != null) && !filter.setPredicate(namespaceMappings, predicateSource)) {
+			return null;
+		}
+		return filter;
+	}
+
+	/**
+	 * Creates a step that matches attribute names.
+	 *
+	 * @param namespaceMappings the namespace prefix to URI mappings in scope.
+	 * @param prefix the prefix of the attribute name, <code>*</code> for any namespace, or null for no namespace.
+	 * @param name the local name of the attribute, or <code>*</code> for any name.
+	 * @return a step, or null if <code>prefix</code> isn't mapped to a namespace.
+	 */
+	private static SimplePath.Step createAttributeStep(Map<String, String> namespaceMappings, String prefix, String name) {
+		String uri;
+		if (prefix == null) {
+			// Unlike element names, unprefixed attribute names are never in the default namespace
+			uri = "";
+		} else if ("*".equals(prefix)) {
+			uri = null;
+		} else {
+			uri = namespaceMappings == null ? null : namespaceMappings.get(prefix);
+			if (uri == null) {
+				return null;
+			}
+		}
+		return new SimplePath.Step(uri, "*".equals(name) ? null : name);
+	}
+
+	/**
+	 * If the expression ends with an attribute step, the step that matches attribute names, otherwise null.
+	 */
+	private SimplePath.Step attributeStep;
+
+	/**
+	 * The elements to find.
+	 */
+	private SimplePath path;
+
+	/**
+	 * The predicate that elements found must satisfy, compiled so that it can be evaluated against each element, or null if there isn't one.
+	 */
+	private XPathValue predicate;
+
+	/**
+	 * True if {@link #predicate} only reads the attributes of each element, so doesn't need the element's content.
+	 */
+	private boolean predicateReadsOnlyAttributes;
+
+	/**
+	 * The full filter expression, kept for logging.
+	 */
+	private String source;
+
+	/**
+	 * Creates a new instance; use {@link #create(Map, String)} to create instances.
+	 *
+	 * @param source the full filter expression, kept for logging.
+	 * @param path the elements to find.
+	 * @param attributeStep the step that matches attribute names, or null if the expression doesn't end with an attribute step.
+	 */
+	private XPathPrefixFilter(String source, SimplePath path, SimplePath.Step attributeStep) {
+		this.source = source;
+		this.path = path;
+		this.attributeStep = attributeStep;
+	}
+
+	/**
+	 * Evaluates the predicate against an element that matched the path.
+	 *
+	 * @param document a document node containing just the element.
+	 * @return the effective boolean value of the predicate.
+	 * @throws SAXException if the predicate could not be evaluated.
+	 */
+	private boolean evaluatePredicate(XdmNode document) throws SAXException {
+		XdmNode element = null;
+		XdmSequenceIterator iterator = document.axisIterator(Axis.CHILD);
+		while ((element == null) && iterator.hasNext()) {
+			XdmNode node = (XdmNode) iterator.next();
+			if (node.getNodeKind() == XdmNodeKind.ELEMENT) {
+				element = node;
+			}
+		}
+		XPathSelector selector;
+		try {
+			selector = this.predicate.evaluate(element);
+		} catch (DataExtractorException dee) {
+			throw new SAXException(dee);
+		}
+		try {
+			return selector.effectiveBooleanValue();
+		} catch (SaxonApiException sae) {
+			throw new SAXException(sae);
+		} finally {
+			this.predicate.release(selector);
+		}
+	}
+
+	/**
+	 * Determines whether the filter expression matches a file, reading as little of the file as possible.
+	 *
+	 * @param xmlFile the file to test. Must not be null.
+	 * @return {@link Boolean#TRUE} if the filter expression matches, {@link Boolean#FALSE} if it doesn't, or null if the file couldn't be parsed
+	 *         (in which case loading the file will report the problem).
+	 */
+	public Boolean matches(File xmlFile) {
+		PrefixHandler handler = new PrefixHandler();
+		SAXParserFactory factory = SAXParserFactory.newInstance();
+		factory.setNamespaceAware(true);
+		try {
+			XMLReader reader = factory.newSAXParser().getXMLReader();
+			reader.setContentHandler(handler);
+			reader.setErrorHandler(handler);
+			try {
+				reader.setProperty("http://xml.org/sax/properties/lexical-handler", handler);
+			} catch (SAXException se) {
+				LOG.debug("SAX parser does not support lexical handlers, so comments will not be available to filters");
+			}
+			XmlUtil.parse(reader, xmlFile, InputOptions.DEFAULT);
+		} catch (DecidedException de) {
+			LOG.debug("Filter {} {} {} without loading it", this.source, de.match ? "matched" : "did not match", xmlFile.getAbsolutePath());
+			return Boolean.valueOf(de.match);
+		} catch (SAXException se) {
+			LOG.debug("Unable to evaluate filter {} against {} without loading it", this.source, xmlFile.getAbsolutePath(), se);
+		} catch (ParserConfigurationException pce) {
+			LOG.debug("Unable to create SAX parser", pce);
+		} catch (IOException ioe) {
+			LOG.debug("Unable to evaluate filter {} against {} without loading it", this.source, xmlFile.getAbsolutePath(), ioe);
+		}
+		return null;
+	}
+
+	/**
+	 * Compiles the predicate that elements found must satisfy, if it can be evaluated against each element in isolation.
+	 *
+	 * @param namespaceMappings the namespace prefix to URI mappings that may be required to execute the predicate.
+	 * @param predicateSource the source of the predicate, without the enclosing brackets.
+	 * @return true if the predicate is supported, false otherwise.
+	 */
+	private boolean setPredicate(Map<String, String> namespaceMappings, String predicateSource) {
+		String code = XPathAnalyser.removeStringLiterals(predicateSource);
+		if (!XPathAnalyser.isConfinedToContextSubtree(predicateSource) || POSITIONAL_FUNCTIONS.matcher(code).find()) {
+			return false;
+		}
+		XPathExecutable executable;
+		try {
+			executable = XmlUtil.createXPathExecutable(namespaceMappings, predicateSource);
+		} catch (XMLException xe) {
+			return false;
+		}
+		// A numeric predicate compares against the position of the element, which can't be known from a single element
+		ItemType resultType = executable.getResultItemType();
+		if (!ItemType.BOOLEAN.subsumes(resultType) && !ItemType.STRING.subsumes(resultType) && !ItemType.ANY_NODE.subsumes(resultType)) {
+			return false;
+		}
+		this.predicateReadsOnlyAttributes = XPathAnalyser.readsOnlyAttributes(predicateSource);
+		if (!this.predicateReadsOnlyAttributes && (this.path.size() == 1)) {
+			// Capturing the document element means building the whole document, so there's nothing to gain
+			return false;
+		}
+		this.predicate = new XPathValue(predicateSource, executable);
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return "XPathPrefixFilter(\"" + this.source + "\")";
+	}
+}
@@ -6,6 +6,7 @@ import com.locima.xml2csv.configuration.IMapping;
 import com.locima.xml2csv.configuration.IMappingContainer;
 import com.locima.xml2csv.configuration.IValueMapping;
 import com.locima.xml2csv.configuration.MappingList;
+import com.locima.xml2csv.configuration.MappingStatistics;
 import com.locima.xml2csv.configuration.MultiValueBehaviour;
 import com.locima.xml2csv.configuration.PivotMapping;
 import com.locima.xml2csv.output.IExtractionResultsContainer;
@@ -15,11 +16,6 @@ import com.locima.xml2csv.output.IExtractionResultsContainer;
  */
 public abstract class AbstractExtractionContext implements IExtractionContext {
 
-	/**
-	 * First version of this class.
-	 */
-	private static final long serialVersionUID = 1L;
-
 	/**
 	 * Factory method to create the right type of {@link AbstractExtractionContext} (either {@link MappingExtractionContext} or
 	 * {@link ContainerExtractionContext}) based on the sub-type of the <code>mapping</code> parameter.
@@ -29,26 +25,31 @@ public abstract class AbstractExtractionContext implements IExtractionContext {
 	 *
 	 * @param parent the parent context (in the same way that an {@link IMapping} has a parent).
 	 * @param mapping the mapping that the new context will be managing.
+	 * @param statistics the statistics that the new context will record what it finds in to.
 	 * @param positionRelativeToOtherRootNodes the index of the new context, with respect to its siblings (first child of the parent has index 0,
 	 *            second has index 1, etc.).
 	 * @param positionRelativeToIMappingSiblings The position of this extraction context with respect to its sibling {@link IMapping} instances
 	 *            beneath the parent.
 	 * @return either a {@link MappingExtractionContext} or {@link ContainerExtractionContext} instance. Never null.
 	 */
-	public static IExtractionContext create(IExtractionResultsContainer parent, IMapping mapping, int positionRelativeToOtherRootNodes,
-					int positionRelativeToIMappingSiblings) {
+	public static IExtractionContext create(IExtractionResultsContainer parent, IMapping mapping, MappingStatistics statistics,
+					int positionRelativeToOtherRootNodes, int positionRelativeToIMappingSiblings) {
 		IExtractionContext ctx;
 		if (mapping == null) {
 			throw new ArgumentNullException("mapping");
 		}
 		if (mapping instanceof IValueMapping) {
-			ctx = new MappingExtractionContext(parent, (IValueMapping) mapping, positionRelativeToOtherRootNodes, positionRelativeToIMappingSiblings);
+			ctx =
+							new MappingExtractionContext(parent, (IValueMapping) mapping, statistics, positionRelativeToOtherRootNodes,
+											positionRelativeToIMappingSiblings);
 		} else if (mapping instanceof MappingList) {
 			ctx =
-							new ContainerExtractionContext(parent, (IMappingContainer) mapping, positionRelativeToOtherRootNodes,
+							new ContainerExtractionContext(parent, (IMappingContainer) mapping, statistics, positionRelativeToOtherRootNodes,
 											positionRelativeToIMappingSiblings);
 		} else if (mapping instanceof PivotMapping) {
-			ctx = new PivotExtractionContext(parent, (PivotMapping) mapping, positionRelativeToOtherRootNodes, positionRelativeToIMappingSiblings);
+			ctx =
+							new PivotExtractionContext(parent, (PivotMapping) mapping, statistics, positionRelativeToOtherRootNodes,
+											positionRelativeToIMappingSiblings);
 		} else {
 			throw new BugException("Passed mapping that is not a value mapping or mapping container: %s", mapping);
 		}
@@ -67,22 +68,27 @@ public abstract class AbstractExtractionContext implements IExtractionContext {
 	private int positionRelativeToOtherRootNodes;
 
 	/**
-	 * Default no-arg constructor required for serialization.
+	 * The statistics that this context, and all the contexts it creates, record what they find in to. These belong to the extractor that created
+	 * the top level context, so are never shared between threads.
 	 */
-	public AbstractExtractionContext() {
-	}
+	private MappingStatistics statistics;
 
 	/**
 	 * Initialises instance variables based on parameters.
 	 *
 	 * @param parent the parent context (may be null if based the top level {@link IMappingContainer}.
+	 * @param statistics the statistics that this context will record what it finds in to. Must not be null.
 	 * @param positionRelativeToOtherRootNodes the position of this extraction context with respect to the other root nodes found when evaluating the
 	 *            parent.
 	 * @param positionRelativeToIMappingSiblings the position of this extraction context with respect to its sibling {@link IMapping} instances
 	 *            beneath the parent.
 	 */
-	protected AbstractExtractionContext(IExtractionResultsContainer parent, int positionRelativeToOtherRootNodes,
+	protected AbstractExtractionContext(IExtractionResultsContainer parent, MappingStatistics statistics, int positionRelativeToOtherRootNodes,
 					int positionRelativeToIMappingSiblings) {
+		if (statistics == null) {
+			throw new ArgumentNullException("statistics");
+		}
+		this.statistics = statistics;
 		this.positionRelativeToIMappingSiblings = positionRelativeToIMappingSiblings;
 		this.positionRelativeToOtherRootNodes = positionRelativeToOtherRootNodes;
 	}
@@ -115,4 +121,13 @@ public abstract class AbstractExtractionContext implements IExtractionContext {
 		return this.positionRelativeToOtherRootNodes;
 	}
 
+	/**
+	 * Retrieves the statistics that this context records what it finds in to.
+	 *
+	 * @return the statistics passed to the constructor, never null.
+	 */
+	protected MappingStatistics getStatistics() {
+		return this.statistics;
+	}
+
 }
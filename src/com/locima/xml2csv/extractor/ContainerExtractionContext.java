@@ -1,11 +1,15 @@
 package com.locima.xml2csv.extractor;
 
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
 
+import net.sf.saxon.om.NodeInfo;
 import net.sf.saxon.s9api.XPathSelector;
 import net.sf.saxon.s9api.XdmItem;
 import net.sf.saxon.s9api.XdmNode;
@@ -13,23 +17,71 @@ import net.sf.saxon.s9api.XdmNode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.locima.xml2csv.BugException;
 import com.locima.xml2csv.configuration.IMapping;
 import com.locima.xml2csv.configuration.IMappingContainer;
+import com.locima.xml2csv.configuration.IValueMapping;
+import com.locima.xml2csv.configuration.MappingConfiguration;
 import com.locima.xml2csv.configuration.MappingList;
+import com.locima.xml2csv.configuration.MappingStatistics;
 import com.locima.xml2csv.configuration.XPathValue;
 import com.locima.xml2csv.output.IExtractionResults;
 import com.locima.xml2csv.output.IExtractionResultsContainer;
-import com.locima.xml2csv.output.inline.CsiInputStream;
+import com.locima.xml2csv.util.Tuple;
 
 /**
  * Used to manage the evaluation and storage of results of an {@link MappingList} instance.
  */
 public class ContainerExtractionContext extends AbstractExtractionContext implements IExtractionResultsContainer {
 
-	private static final Logger LOG = LoggerFactory.getLogger(ContainerExtractionContext.class);
+	/**
+	 * Evaluates the children of this container against a contiguous range of mapping roots.
+	 */
+	private class ChunkTask implements Callable<List<List<IExtractionResults>>> {
+
+		/**
+		 * The index (within {@link #roots}) of the first mapping root that this task evaluates.
+		 */
+		private int firstRootIndex;
+
+		/**
+		 * The index (within {@link #roots}) after the last mapping root that this task evaluates.
+		 */
+		private int lastRootIndex;
+
+		/**
+		 * All the items found by the mapping root expression.
+		 */
+		private List<XdmItem> roots;
 
-	private static final long serialVersionUID = 1L;
+		/**
+		 * Creates a new task.
+		 *
+		 * @param roots all the items found by the mapping root expression.
+		 * @param firstRootIndex the index of the first mapping root that this task evaluates.
+		 * @param lastRootIndex the index after the last mapping root that this task evaluates.
+		 */
+		public ChunkTask(List<XdmItem> roots, int firstRootIndex, int lastRootIndex) {
+			this.roots = roots;
+			this.firstRootIndex = firstRootIndex;
+			this.lastRootIndex = lastRootIndex;
+		}
+
+		@Override
+		public List<List<IExtractionResults>> call() throws DataExtractorException {
+			List<List<IExtractionResults>> chunkChildren = new ArrayList<List<IExtractionResults>>(this.lastRootIndex - this.firstRootIndex);
+			for (int i = this.firstRootIndex; i < this.lastRootIndex; i++) {
+				XdmItem item = this.roots.get(i);
+				if (item instanceof XdmNode) {
+					chunkChildren.add(evaluateChildren((XdmNode) item, i));
+				} else {
+					LOG.warn("Expected to find only elements after executing XPath on mapping list, got {}", item.getClass().getName());
+				}
+			}
+			return chunkChildren;
+		}
+	}
+
+	private static final Logger LOG = LoggerFactory.getLogger(ContainerExtractionContext.class);
 
 	/**
 	 * A list of all the child contexts (also a list) found as a result of evaluating the {@link ContainerExtractionContext#mapping}'s
@@ -37,45 +89,77 @@ public class ContainerExtractionContext extends AbstractExtractionContext implem
 	 */
 	private List<List<IExtractionResults>> children;
 
+	/**
+	 * The minimum number of mapping roots that are evaluated by a single task when using {@link #executor}.
+	 */
+	private int chunkSize;
+
+	/**
+	 * The values found by document invariant child mappings (see {@link IValueMapping#isDocumentInvariant()}), along with the root of the tree
+	 * (normally the document node) that they were found in, so that they're only evaluated once per document rather than once per mapping root.
+	 * <p>
+	 * This is shared by all the nested containers beneath a top level container, and keyed by identity as mappings are only equal by name. It's
+	 * synchronized as chunks of mapping roots may be evaluated concurrently; if two threads evaluate the same mapping at once then they'll find the
+	 * same values, so it doesn't matter which is kept.
+	 */
+	private Map<IValueMapping, Tuple<NodeInfo, List<String>>> documentInvariantValues;
+
+	/**
+	 * Used to evaluate chunks of mapping roots concurrently, or null if they are all evaluated on the calling thread.
+	 */
+	private ExecutorService executor;
+
 	/**
 	 * The mapping that this extraction context is representing the evaluation of.
 	 */
-	private transient IMappingContainer mapping;
+	private IMappingContainer mapping;
 
 	/**
-	 * Default no-arg constructor required for serialization.
+	 * The resolved variable references between the children of {@link #mapping}, shared by the evaluation of every mapping root. Each root is given
+	 * its own {@link EvaluationContext}, so that no variable bindings are carried over from one root to the next.
 	 */
-	public ContainerExtractionContext() {
-	}
+	private SiblingVariables siblingVariables;
 
 	/**
 	 * Constructs a new instance to manage the evaluation of the <code>mapping</code> passed.
 	 *
 	 * @param mapping the mapping configuration that this context is responsible for evaluating.
 	 * @param parent the parent for this context (should be null if this is a top-level mapping on the configuration).
+	 * @param statistics the statistics that this context will record what it finds in to. Must not be null.
 	 * @param positionRelativeToOtherRootNodes the index of the new context, with respect to its siblings (first child of the parent has index 0,
 	 *            second has index 1, etc.).
 	 * @param positionRelativeToIMappingSiblings The position of this extraction context with respect to its sibling {@link IMapping} instances
 	 *            beneath the parent.
 	 */
-	public ContainerExtractionContext(IExtractionResultsContainer parent, IMappingContainer mapping, int positionRelativeToOtherRootNodes,
-					int positionRelativeToIMappingSiblings) {
-		super(parent, positionRelativeToOtherRootNodes, positionRelativeToIMappingSiblings);
+	public ContainerExtractionContext(IExtractionResultsContainer parent, IMappingContainer mapping, MappingStatistics statistics,
+					int positionRelativeToOtherRootNodes, int positionRelativeToIMappingSiblings) {
+		super(parent, statistics, positionRelativeToOtherRootNodes, positionRelativeToIMappingSiblings);
 		this.mapping = mapping;
 		this.children = new ArrayList<List<IExtractionResults>>();
+		// Mapping lists cache their sibling variables, but any other container's are resolved once for this evaluation, rather than for every root
+		this.siblingVariables =
+						(mapping instanceof MappingList) ? ((MappingList) mapping).getSiblingVariables() : new SiblingVariables(mapping);
+		if (parent instanceof ContainerExtractionContext) {
+			this.documentInvariantValues = ((ContainerExtractionContext) parent).documentInvariantValues;
+		} else {
+			this.documentInvariantValues =
+							Collections.synchronizedMap(new IdentityHashMap<IValueMapping, Tuple<NodeInfo, List<String>>>());
+		}
 	}
 
 	/**
 	 * Used to construct a root instance with no parent.
 	 *
 	 * @param mapping the mapping configuration that this context is responsible for evaluating.
+	 * @param statistics the statistics that this context will record what it finds in to. Must not be null.
 	 * @param positionRelativeToOtherRootNodes the index of the new context, with respect to its siblings (first child of the parent has index 0,
 	 *            second has index 1, etc.).
 	 * @param positionRelativeToIMappingSiblings The position of this extraction context with respect to its sibling {@link IMapping} instances
 	 *            beneath the parent.
 	 */
-	public ContainerExtractionContext(MappingList mapping, int positionRelativeToOtherRootNodes, int positionRelativeToIMappingSiblings) {
-		this(null, mapping, positionRelativeToOtherRootNodes, positionRelativeToIMappingSiblings);
+	public ContainerExtractionContext(MappingList mapping, MappingStatistics statistics, int positionRelativeToOtherRootNodes,
+					int positionRelativeToIMappingSiblings) {
+		this(null, mapping, statistics, positionRelativeToOtherRootNodes, positionRelativeToIMappingSiblings);
 	}
 
 	/**
@@ -99,51 +183,163 @@ public class ContainerExtractionContext extends AbstractExtractionContext implem
 		int rootCount = 0;
 		if (mappingRoot != null) {
 			LOG.debug("Executing mappingRoot {} for {}", mappingRoot, this.mapping);
-			XPathSelector rootIterator = mappingRoot.evaluate(rootNode);
-			for (XdmItem item : rootIterator) {
-				if (item instanceof XdmNode) {
-					// All evaluations have to be done in terms of nodes, so if the XPath returns something like a value then warn and move on.
-					evaluateChildren((XdmNode) item, rootCount);
+			// Simple paths are found by walking the tree, rather than by Saxon
+			List<XdmNode> roots = mappingRoot.selectNodes(rootNode);
+			if (roots != null) {
+				if (this.executor != null) {
+					rootCount = evaluateConcurrently(new ArrayList<XdmItem>(roots));
 				} else {
-					LOG.warn("Expected to find only elements after executing XPath on mapping list, got {}", item.getClass().getName());
+					for (XdmNode root : roots) {
+						this.children.add(evaluateChildren(root, rootCount));
+						rootCount++;
+					}
+				}
+			} else {
+				XPathSelector rootIterator = mappingRoot.evaluate(rootNode);
+				try {
+					if (this.executor != null) {
+						// The whole document is already in memory, so holding on to references to all the roots costs very little
+						List<XdmItem> items = new ArrayList<XdmItem>();
+						for (XdmItem item : rootIterator) {
+							items.add(item);
+						}
+						rootCount = evaluateConcurrently(items);
+					} else {
+						for (XdmItem item : rootIterator) {
+							if (item instanceof XdmNode) {
+								// All evaluations have to be done in terms of nodes, so if the XPath returns something like a value then warn and move on.
+								this.children.add(evaluateChildren((XdmNode) item, rootCount));
+							} else {
+								LOG.warn("Expected to find only elements after executing XPath on mapping list, got {}", item.getClass().getName());
+							}
+							rootCount++;
+						}
+					}
+				} finally {
+					mappingRoot.release(rootIterator);
 				}
-				rootCount++;
 			}
 		} else {
 			// If there is no root specified by the contextual context, then use "." , or current node passed as rootNode parameter.
 			if (LOG.isDebugEnabled()) {
 				LOG.debug("No mapping root specified for {}, so executing against passed context node", mappingRoot, this.mapping);
 			}
-			evaluateChildren(rootNode, rootCount);
+			this.children.add(evaluateChildren(rootNode, rootCount));
 			rootCount = 1;
 		}
 
 		// Keep track of the most number of results we've found for a single invocation of the mapping root.
-		getMapping().setHighestFoundValueCount(rootCount);
+		getStatistics().recordValueCount(getMapping(), rootCount);
+	}
+
+	/**
+	 * Evaluates the children of this container against a mapping root node that has already been found by the caller, rather than by executing this
+	 * container's mapping root expression.
+	 * <p>
+	 * This is used by {@link StreamingXmlDataExtractor}, which finds mapping roots itself whilst parsing the document.
+	 *
+	 * @param mappingRootNode a node that this container's mapping root expression would have selected. Must not be null.
+	 * @throws DataExtractorException if an error occurred whilst extracting data (typically this would be caused by bad XPath, or XPath invalid from
+	 *             the <code>mappingRootNode</code> specified).
+	 */
+	void evaluateMappingRoot(XdmNode mappingRootNode) throws DataExtractorException {
+		this.children.add(evaluateChildren(mappingRootNode, this.children.size()));
+		getStatistics().recordValueCount(getMapping(), this.children.size());
+	}
+
+	/**
+	 * Evaluates the children of this container against every item found by the mapping root expression, splitting the items in to chunks that are
+	 * evaluated concurrently using {@link #executor}. The results of each chunk are then added to {@link #children} in document order, so the results
+	 * are identical to those of evaluating every mapping root in turn.
+	 * <p>
+	 * If this container contains any pivot mappings, at any depth, then every mapping root is evaluated in turn on the calling thread instead, as
+	 * the order in which pivot keys are discovered determines the order of their fields, which must be the same as for a sequential evaluation.
+	 *
+	 * @param roots all the items found by the mapping root expression.
+	 * @return the number of items found by the mapping root expression.
+	 * @throws DataExtractorException if an error occurred whilst extracting data from any mapping root.
+	 */
+	private int evaluateConcurrently(List<XdmItem> roots) throws DataExtractorException {
+		int rootCount = roots.size();
+		if ((rootCount < this.chunkSize * 2) || MappingConfiguration.containsPivotMapping(this.mapping)) {
+			this.children.addAll(new ChunkTask(roots, 0, rootCount).call());
+			return rootCount;
+		}
+
+		List<FutureTask<List<List<IExtractionResults>>>> tasks = new ArrayList<FutureTask<List<List<IExtractionResults>>>>();
+		for (int firstRootIndex = 0; firstRootIndex < rootCount; firstRootIndex += this.chunkSize) {
+			FutureTask<List<List<IExtractionResults>>> task =
+							new FutureTask<List<List<IExtractionResults>>>(new ChunkTask(roots, firstRootIndex, Math.min(rootCount, firstRootIndex
+											+ this.chunkSize)));
+			tasks.add(task);
+			// The calling thread will run the first chunk itself, so no point in giving it to the pool
+			if (firstRootIndex > 0) {
+				this.executor.execute(task);
+			}
+		}
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Evaluating {} mapping roots of {} in {} chunks", rootCount, this.mapping, tasks.size());
+		}
+		try {
+			for (FutureTask<List<List<IExtractionResults>>> task : tasks) {
+				this.children.addAll(XmlDataExtractor.runOrWait(task));
+			}
+		} finally {
+			// If anything failed then don't waste time on work that will never be used
+			for (FutureTask<List<List<IExtractionResults>>> task : tasks) {
+				task.cancel(false);
+			}
+		}
+		return rootCount;
 	}
 
 	/**
-	 * Evaluates a nested mapping, appending the results to the output line passed.
+	 * Evaluates a nested mapping, returning the results for a single mapping root.
+	 * <p>
+	 * If more than one of the children of a {@link MappingList} have simple relative value XPaths, then the values of all of them are found by a
+	 * single walk of the subtree beneath <code>node</code> (see {@link PathTrie}), rather than a separate query each. Every child is still evaluated
+	 * in order, so that variable bindings are made available to later siblings exactly as they would be otherwise.
+	 * <p>
+	 * Children that are document invariant (see {@link IValueMapping#isDocumentInvariant()}) are only evaluated against the first mapping root in
+	 * each document, and their values are shared by all the others.
 	 *
 	 * @param node the node from which all mappings will be based on.
 	 * @param positionRelativeToOtherRootNodes the position of this set of children relative to all the other roots found by this container's
 	 *            evaluation of the mapping root.
+	 * @return the non-empty contexts created by evaluating each child mapping of this container against <code>node</code>.
 	 * @throws DataExtractorException if an error occurred whilst extracting data (typically this would be caused by bad XPath, or XPath invalid from
 	 *             the <code>mappingRoot</code> specified).
 	 */
-	private void evaluateChildren(XdmNode node, int positionRelativeToOtherRootNodes) throws DataExtractorException {
+	private List<IExtractionResults> evaluateChildren(XdmNode node, int positionRelativeToOtherRootNodes) throws DataExtractorException {
 		if (LOG.isDebugEnabled()) {
 			LOG.debug("Executing {} child mappings of {}", this.mapping.size(), this.mapping);
 		}
 		int positionRelativeToIMappingSiblings = 0;
 		List<IExtractionResults> iterationECs = new ArrayList<IExtractionResults>(size());
-		
-		EvaluationContext childECtx = new EvaluationContext();
-		
+		EvaluationContext childECtx = new EvaluationContext(this.siblingVariables);
+
+		PathTrie trie = null;
+		List<List<String>> trieValues = null;
+		if (this.mapping instanceof MappingList) {
+			trie = ((MappingList) this.mapping).getChildPathTrie();
+			// A single path is no faster in the trie than in Saxon, so don't bother
+			if (trie.size() > 1) {
+				trieValues = trie.evaluate(node);
+			}
+		}
+
 		for (IMapping childMapping : this.mapping) {
 			IExtractionContext childCtx =
-							AbstractExtractionContext.create(this, childMapping, positionRelativeToOtherRootNodes, positionRelativeToIMappingSiblings);
-			childCtx.evaluate(node, childECtx);
+							AbstractExtractionContext.create(this, childMapping, getStatistics(), positionRelativeToOtherRootNodes,
+											positionRelativeToIMappingSiblings);
+			int slot = trieValues == null ? -1 : trie.getSlot(positionRelativeToIMappingSiblings);
+			if (slot >= 0) {
+				((MappingExtractionContext) childCtx).evaluateFoundValues(trieValues.get(slot), childECtx);
+			} else if ((childMapping instanceof IValueMapping) && ((IValueMapping) childMapping).isDocumentInvariant()) {
+				evaluateDocumentInvariant((MappingExtractionContext) childCtx, node, childECtx);
+			} else {
+				childCtx.evaluate(node, childECtx);
+			}
 
 			// Only add a CEC or MEC to the collection if it's not empty.
 			if (childCtx.size() > 0) {
@@ -151,7 +347,29 @@ public class ContainerExtractionContext extends AbstractExtractionContext implem
 			}
 			positionRelativeToIMappingSiblings++;
 		}
-		this.children.add(iterationECs);
+		return iterationECs;
+	}
+
+	/**
+	 * Evaluates a document invariant child mapping, re-using the values found by an earlier evaluation of the same mapping in the same document if
+	 * there was one.
+	 *
+	 * @param childCtx the context of the child mapping to evaluate.
+	 * @param node the mapping root to evaluate the child against, if it hasn't already been evaluated in this document.
+	 * @param childECtx the evaluation context shared by the children of this container.
+	 * @throws DataExtractorException if an error occurred whilst extracting data.
+	 */
+	private void evaluateDocumentInvariant(MappingExtractionContext childCtx, XdmNode node, EvaluationContext childECtx)
+					throws DataExtractorException {
+		IValueMapping childMapping = childCtx.getMapping();
+		NodeInfo treeRoot = node.getUnderlyingNode().getRoot();
+		Tuple<NodeInfo, List<String>> shared = this.documentInvariantValues.get(childMapping);
+		if ((shared != null) && shared.getFirst().isSameNodeInfo(treeRoot)) {
+			childCtx.evaluateSharedValues(shared.getSecond(), childECtx);
+		} else {
+			childCtx.evaluate(node, childECtx);
+			this.documentInvariantValues.put(childMapping, new Tuple<NodeInfo, List<String>>(treeRoot, childCtx.getResults()));
+		}
 	}
 
 	@Override
@@ -179,39 +397,6 @@ public class ContainerExtractionContext extends AbstractExtractionContext implem
 		return (this.children.size() > valueIndex) ? this.children.get(valueIndex) : null;
 	}
 
-	/**
-	 * Overridden to manage not writing {@link #mapping} to the output stream.
-	 *
-	 * @param rawInputStream target stream for serialized state.
-	 * @throws IOException if any issues occur during writing.
-	 * @throws ClassNotFoundException if an unexpected class instance appears in the CSI file, should never, ever happen.
-	 */
-	@SuppressWarnings("unchecked")
-	private void readObject(ObjectInputStream rawInputStream) throws IOException, ClassNotFoundException {
-		if (!(rawInputStream instanceof CsiInputStream)) {
-			throw new BugException("Bug found when deserializing PEC.  I've been given a %s instead of a CsiInputStream", rawInputStream.getClass());
-		}
-		CsiInputStream stream = (CsiInputStream) rawInputStream;
-		Object readObject = stream.readObject();
-		try {
-			this.children = (ArrayList<List<IExtractionResults>>) readObject;
-		} catch (ClassCastException cce) {
-			throw new IOException("Unexpected object type found in stream.  Expected List<List<IExtractionResults>> but got "
-							+ readObject.getClass().getName());
-		}
-		readObject = stream.readObject();
-		String mappingName;
-		try {
-			mappingName = (String) readObject;
-		} catch (ClassCastException cce) {
-			throw new IOException("Unexpected object type found in stream.  Expected String but got " + readObject.getClass().getName());
-		}
-		this.mapping = stream.getMappingContainer(mappingName);
-		if (this.mapping == null) {
-			throw new IOException("Unable to restore link to IMappingContainer " + mappingName + " as it was not found");
-		}
-	}
-
 	/**
 	 * Returns the number of mapping roots found for this object to evaluate against.
 	 *
@@ -222,6 +407,18 @@ public class ContainerExtractionContext extends AbstractExtractionContext implem
 		return this.children.size();
 	}
 
+	/**
+	 * Configures a pool of threads used to evaluate the mapping roots found by this container concurrently, in chunks. Nested containers are always
+	 * evaluated by the thread evaluating their parent's mapping root.
+	 *
+	 * @param executor the pool to use, or null (the default) to evaluate every mapping root on the calling thread.
+	 * @param chunkSize the number of mapping roots evaluated by a single task. Must be at least 1.
+	 */
+	void setExecutor(ExecutorService executor, int chunkSize) {
+		this.executor = executor;
+		this.chunkSize = chunkSize;
+	}
+
 	@Override
 	public String toString() {
 		StringBuilder sb = new StringBuilder("CEC(");
@@ -233,21 +430,4 @@ public class ContainerExtractionContext extends AbstractExtractionContext implem
 		sb.append(")");
 		return sb.toString();
 	}
-
-	/**
-	 * Overridden to manage not writing {@link #mapping} to the output stream.
-	 *
-	 * @param stream target stream for serialized state.
-	 * @throws IOException if any issues occur during writing.
-	 */
-	private void writeObject(ObjectOutputStream stream) throws IOException {
-		String mappingName = getMappingContainer().getName();
-		int size = this.children.size();
-		if (LOG.isInfoEnabled()) {
-			LOG.info("Writing {} results to the CSI file for {}", size, mappingName);
-		}
-		stream.writeObject(this.children);
-		stream.writeObject(mappingName);
-	}
-
 }
@@ -0,0 +1,490 @@
+package com.locima.xml2csv.extractor;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import net.sf.saxon.s9api.BuildingContentHandler;
+import net.sf.saxon.s9api.DocumentBuilder;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XdmNode;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+import com.locima.xml2csv.configuration.IMapping;
+import com.locima.xml2csv.configuration.IMappingContainer;
+import com.locima.xml2csv.configuration.IValueMapping;
+import com.locima.xml2csv.configuration.MappingConfiguration;
+import com.locima.xml2csv.configuration.PivotMapping;
+import com.locima.xml2csv.configuration.XPathValue;
+import com.locima.xml2csv.configuration.filter.AbstractFilter;
+import com.locima.xml2csv.configuration.filter.IInputFilter;
+import com.locima.xml2csv.configuration.filter.XPathInputFilter;
+import com.locima.xml2csv.util.EqualsUtil;
+import com.locima.xml2csv.util.InputOptions;
+import com.locima.xml2csv.util.SimplePath;
+import com.locima.xml2csv.util.SimplePath.Step;
+import com.locima.xml2csv.util.XPathAnalyser;
+import com.locima.xml2csv.util.XmlUtil;
+
+/**
+ * Loads XML documents so that the Saxon tree only contains the nodes that a mapping configuration can reach, discarding everything else (e.g.
+ * large embedded attachments or audit trails that no mapping reads) whilst the document is being parsed, before the tree is built.
+ * <p>
+ * Which nodes can be reached is worked out by analysing the source of every XPath expression in the configuration (including XPath input filters),
+ * relative to the element paths that it is evaluated against. Expressions that are {@link SimplePath}s, optionally preceded by <code>..</code>
+ * steps, and optionally followed by an attribute step, <code>text()</code> step or a single predicate, are understood precisely. Anything else
+ * that is confined to its context node's subtree (see {@link XPathAnalyser#isConfinedToContextSubtree(String)}) keeps that whole subtree. If any
+ * expression could read from anywhere else, no projection is possible and {@link #create(MappingConfiguration)} returns null.
+ * <p>
+ * The analysis is deliberately conservative: a projection may keep more than is needed, but never less, so the results of executing the
+ * configuration against a projected document are always the same as against the whole document.
+ */
+public class DocumentProjection {
+
+	/**
+	 * Describes a set of elements that must be kept, by the path from the document node to them.
+	 */
+	static class Pattern {
+
+		/**
+		 * The steps from the document node to the elements to keep.
+		 */
+		private List<Step> steps;
+
+		/**
+		 * True if everything beneath the elements must be kept, false if only the elements themselves and their attributes are needed.
+		 */
+		private boolean subtreeRequired;
+
+		/**
+		 * Creates a new pattern.
+		 *
+		 * @param steps the steps from the document node to the elements to keep.
+		 * @param subtreeRequired true if everything beneath the elements must be kept.
+		 */
+		public Pattern(List<Step> steps, boolean subtreeRequired) {
+			this.steps = steps;
+			this.subtreeRequired = subtreeRequired;
+		}
+
+		/**
+		 * Retrieves a single step of this pattern.
+		 *
+		 * @param index the index of the step, where 0 matches the document element.
+		 * @return the step at <code>index</code>.
+		 */
+		public Step getStep(int index) {
+			return this.steps.get(index);
+		}
+
+		/**
+		 * Determines whether everything beneath the elements matched by this pattern must be kept.
+		 *
+		 * @return true if everything beneath the elements must be kept, false if only the elements themselves and their attributes are needed.
+		 */
+		public boolean isSubtreeRequired() {
+			return this.subtreeRequired;
+		}
+
+		/**
+		 * Retrieves the number of steps in this pattern.
+		 *
+		 * @return the number of steps in this pattern.
+		 */
+		public int size() {
+			return this.steps.size();
+		}
+
+		@Override
+		public String toString() {
+			return "Pattern(" + this.steps + (this.subtreeRequired ? ", subtree)" : ")");
+		}
+	}
+
+	/**
+	 * Thrown internally when an expression might reach any node in the document, so no projection is possible.
+	 */
+	private static class NotProjectableException extends Exception {
+
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * Creates a new exception.
+		 *
+		 * @param reason a message explaining why no projection is possible.
+		 */
+		public NotProjectableException(String reason) {
+			super(reason);
+		}
+	}
+
+	/**
+	 * Matches an expression that ends with an attribute step, capturing everything before that step.
+	 */
+	private static final java.util.regex.Pattern ATTRIBUTE_STEP = java.util.regex.Pattern
+					.compile("^(?:(.*)/)?(?:@|attribute::)(?:[\\w.\\-]+:)?(?:[\\w.\\-]+|\\*)$");
+
+	private static final Logger LOG = LoggerFactory.getLogger(DocumentProjection.class);
+
+	/**
+	 * Matches an expression that ends with a <code>text()</code> step, capturing everything before that step.
+	 */
+	private static final java.util.regex.Pattern TEXT_STEP = java.util.regex.Pattern.compile("^(?:(.*)/)?text\\(\\s*\\)$");
+
+	/**
+	 * Analyses the mapping configuration passed and creates a projection that keeps only what its mappings and filters can reach.
+	 *
+	 * @param config the mapping configuration that will be executed against the projected documents. Must not be null.
+	 * @return a projection, or null if the configuration might read any part of a document, so nothing can be discarded.
+	 */
+	public static DocumentProjection create(MappingConfiguration config) {
+		DocumentProjection projection = new DocumentProjection(config.getNamespaceMap());
+		try {
+			List<Step> documentNode = Collections.emptyList();
+			for (IMappingContainer container : config) {
+				projection.addContainer(container, documentNode);
+			}
+			projection.addFilter(config.getInputFilter());
+		} catch (NotProjectableException npe) {
+			LOG.info("Input documents will be loaded in full: {}", npe.getMessage());
+			return null;
+		}
+		if (LOG.isInfoEnabled()) {
+			LOG.info("Input documents will be projected using {}", projection.patterns);
+		}
+		return projection;
+	}
+
+	/**
+	 * Creates a new path made up of the steps of an existing path followed by more steps.
+	 *
+	 * @param first the steps to start with.
+	 * @param second the steps to append.
+	 * @return a new list, never null.
+	 */
+	private static List<Step> join(List<Step> first, List<Step> second) {
+		List<Step> steps = new ArrayList<Step>(first.size() + second.size());
+		steps.addAll(first);
+		steps.addAll(second);
+		return steps;
+	}
+
+	/**
+	 * Determines whether two paths match exactly the same elements.
+	 *
+	 * @param first the first path.
+	 * @param second the second path.
+	 * @return true if both paths have the same steps.
+	 */
+	private static boolean isSamePath(List<Step> first, List<Step> second) {
+		if (first.size() != second.size()) {
+			return false;
+		}
+		for (int i = 0; i < first.size(); i++) {
+			Step firstStep = first.get(i);
+			Step secondStep = second.get(i);
+			if (!EqualsUtil.areEqual(firstStep.getNamespaceUri(), secondStep.getNamespaceUri())
+							|| !EqualsUtil.areEqual(firstStep.getLocalName(), secondStep.getLocalName())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * The namespace prefix to URI mappings in scope for all expressions.
+	 */
+	private Map<String, String> namespaceMappings;
+
+	/**
+	 * The patterns describing which elements are reachable.
+	 */
+	private List<Pattern> patterns = new ArrayList<Pattern>();
+
+	/**
+	 * Creates a new, empty, projection. Use {@link #create(MappingConfiguration)} to create instances.
+	 *
+	 * @param namespaceMappings the namespace prefix to URI mappings in scope for all expressions.
+	 */
+	private DocumentProjection(Map<String, String> namespaceMappings) {
+		this.namespaceMappings = namespaceMappings;
+	}
+
+	/**
+	 * Adds everything that a container and all its descendants can reach.
+	 *
+	 * @param container the container to add.
+	 * @param context the path of the nodes that the container's mapping root is evaluated against.
+	 * @throws NotProjectableException if any expression might read any part of a document.
+	 */
+	private void addContainer(IMappingContainer container, List<Step> context) throws NotProjectableException {
+		XPathValue mappingRoot = container.getMappingRoot();
+		List<Step> rootContext = (mappingRoot == null) ? context : addExpression(mappingRoot, context, false);
+		if (rootContext == null) {
+			// The whole subtree of the context is kept, so all that matters is that nothing within the container escapes it
+			requireConfined(container);
+			return;
+		}
+		if (container instanceof PivotMapping) {
+			PivotMapping pivot = (PivotMapping) container;
+			List<Step> kvContext = addExpression(pivot.getKVPairRoot(), rootContext, false);
+			if (kvContext == null) {
+				requireConfined(pivot.getKeyXPath());
+				requireConfined(pivot.getValueXPath());
+			} else {
+				addExpression(pivot.getKeyXPath(), kvContext, true);
+				addExpression(pivot.getValueXPath(), kvContext, true);
+			}
+			return;
+		}
+		for (IMapping child : container) {
+			if (child instanceof IMappingContainer) {
+				addContainer((IMappingContainer) child, rootContext);
+			} else if (child instanceof IValueMapping) {
+				addExpression(((IValueMapping) child).getValueXPath(), rootContext, true);
+			} else {
+				throw new NotProjectableException("Unknown type of mapping " + child);
+			}
+		}
+	}
+
+	/**
+	 * Adds the patterns needed to evaluate a single expression.
+	 *
+	 * @param xPath the expression to add. May be null, in which case nothing is added.
+	 * @param context the path of the nodes that the expression is evaluated against.
+	 * @param valueRequired true if the string value of the nodes selected is used, false if only the nodes themselves are used (e.g. as the context
+	 *            for further expressions).
+	 * @return the path of the nodes selected by the expression, or null if the expression was too complex to understand (in which case the whole
+	 *         subtree of <code>context</code> has been kept).
+	 * @throws NotProjectableException if the expression might read any part of a document.
+	 */
+	private List<Step> addExpression(XPathValue xPath, List<Step> context, boolean valueRequired) throws NotProjectableException {
+		if (xPath == null) {
+			return context;
+		}
+		String source = xPath.getSource().trim();
+		String code = XPathAnalyser.removeStringLiterals(source);
+		boolean subtreeRequired = valueRequired;
+
+		// A single trailing predicate is fine as long as it only looks beneath the nodes it filters, which must then be kept in their entirety
+		int predicateStart = XPathAnalyser.findTrailingPredicate(code);
+		if (predicateStart > 0) {
+			if (!XPathAnalyser.isConfinedToContextSubtree(code.substring(predicateStart + 1, code.length() - 1))) {
+				return addUnknownExpression(source, context);
+			}
+			// Removing string literals only shortens the expression after the first one, so if there are none before the predicate then it starts at
+			// the same index in the source
+			source = code.substring(0, predicateStart).trim();
+			subtreeRequired = true;
+		}
+
+		Matcher matcher = ATTRIBUTE_STEP.matcher(source);
+		if (matcher.matches()) {
+			// Attributes are always kept along with their element
+			source = (matcher.group(1) == null) ? "." : matcher.group(1);
+			subtreeRequired = false;
+		} else {
+			matcher = TEXT_STEP.matcher(source);
+			if (matcher.matches()) {
+				source = (matcher.group(1) == null) ? "." : matcher.group(1);
+				subtreeRequired = true;
+			}
+		}
+
+		List<Step> base = context;
+		while (source.equals("..") || source.startsWith("../")) {
+			if (base.isEmpty()) {
+				throw new NotProjectableException("\"" + xPath.getSource() + "\" refers to the parent of the document node");
+			}
+			base = base.subList(0, base.size() - 1);
+			source = source.length() > 2 ? source.substring(3).trim() : ".";
+		}
+		if (source.startsWith("./")) {
+			source = source.substring(2).trim();
+		}
+
+		List<Step> selected;
+		if (source.equals(".") || (source.length() == 0)) {
+			selected = base;
+		} else {
+			SimplePath path = SimplePath.parse(source, this.namespaceMappings);
+			if (path == null) {
+				return addUnknownExpression(xPath.getSource(), context);
+			}
+			selected = path.isAbsolute() ? path.getSteps() : join(base, path.getSteps());
+		}
+		addPattern(selected, subtreeRequired, xPath.getSource());
+		return selected;
+	}
+
+	/**
+	 * Adds all the XPath expressions used by an input filter, and any filters nested within it.
+	 *
+	 * @param filter the filter to add.
+	 * @throws NotProjectableException if any filter might read any part of a document.
+	 */
+	private void addFilter(IInputFilter filter) throws NotProjectableException {
+		if (filter instanceof XPathInputFilter) {
+			// Filters only care whether anything is selected, not its value
+			addExpression(((XPathInputFilter) filter).getXPath(), Collections.<Step> emptyList(), false);
+		}
+		if (filter instanceof AbstractFilter) {
+			for (IInputFilter nestedFilter : ((AbstractFilter) filter).getNestedFilters()) {
+				addFilter(nestedFilter);
+			}
+		} else if (filter.requiresDocumentContent()) {
+			throw new NotProjectableException("Filter " + filter + " can't be analysed");
+		}
+	}
+
+	/**
+	 * Adds a new pattern.
+	 *
+	 * @param steps the steps from the document node to the elements to keep.
+	 * @param subtreeRequired true if everything beneath the elements must be kept.
+	 * @param source the expression that the pattern was created for, for error messages.
+	 * @throws NotProjectableException if the whole document must be kept.
+	 */
+	private void addPattern(List<Step> steps, boolean subtreeRequired, String source) throws NotProjectableException {
+		if (steps.isEmpty()) {
+			if (subtreeRequired) {
+				throw new NotProjectableException("\"" + source + "\" reads the whole document");
+			}
+			// The document node is always there
+			return;
+		}
+		for (int i = 0; i < this.patterns.size(); i++) {
+			Pattern existing = this.patterns.get(i);
+			if (isSamePath(existing.steps, steps)) {
+				if (subtreeRequired && !existing.isSubtreeRequired()) {
+					this.patterns.set(i, new Pattern(existing.steps, true));
+				}
+				return;
+			}
+		}
+		this.patterns.add(new Pattern(new ArrayList<Step>(steps), subtreeRequired));
+	}
+
+	/**
+	 * Adds an expression that is too complex to analyse, by keeping the whole subtree of its context, providing that it can't read anything outside
+	 * of that subtree.
+	 *
+	 * @param source the expression.
+	 * @param context the path of the nodes that the expression is evaluated against.
+	 * @return null, to indicate that the nodes selected by the expression are unknown.
+	 * @throws NotProjectableException if the expression might read anything outside its context's subtree.
+	 */
+	private List<Step> addUnknownExpression(String source, List<Step> context) throws NotProjectableException {
+		if (!XPathAnalyser.isConfinedToContextSubtree(source)) {
+			throw new NotProjectableException("\"" + source + "\" might refer to anywhere in the document");
+		}
+		addPattern(context, true, source);
+		return null;
+	}
+
+	/**
+	 * Loads the XML file specified, keeping only the parts that this projection says can be reached.
+	 *
+	 * @param xmlFile The XML file to read data from, must be a valid file.
+	 * @return The loaded XML document, never returns null.
+	 * @throws DataExtractorException If an error occurs reading or parsing the file.
+	 */
+	public XdmNode load(File xmlFile) throws DataExtractorException {
+		return load(xmlFile, InputOptions.DEFAULT);
+	}
+
+	/**
+	 * Loads the XML file specified, keeping only the parts that this projection says can be reached.
+	 *
+	 * @param xmlFile The XML file to read data from, must be a valid file.
+	 * @param options how to read the file from disk. Must not be null.
+	 * @return The loaded XML document, never returns null.
+	 * @throws DataExtractorException If an error occurs reading or parsing the file.
+	 */
+	public XdmNode load(File xmlFile, InputOptions options) throws DataExtractorException {
+		LOG.debug("Loading, parsing and projecting XML file {}", xmlFile.getAbsolutePath());
+		try {
+			DocumentBuilder documentBuilder = XmlUtil.getProcessor().newDocumentBuilder();
+			documentBuilder.setBaseURI(URI.create(XmlUtil.getSystemId(xmlFile)));
+			BuildingContentHandler builder = documentBuilder.newBuildingContentHandler();
+			ProjectionHandler handler = new ProjectionHandler(this.patterns, builder);
+			SAXParserFactory factory = SAXParserFactory.newInstance();
+			factory.setNamespaceAware(true);
+			XMLReader reader = factory.newSAXParser().getXMLReader();
+			reader.setContentHandler(handler);
+			reader.setErrorHandler(handler);
+			try {
+				reader.setProperty("http://xml.org/sax/properties/lexical-handler", handler);
+			} catch (SAXException se) {
+				LOG.debug("SAX parser does not support lexical handlers, so comments will not be available to mappings");
+			}
+			XmlUtil.parse(reader, xmlFile, options);
+			XdmNode document = builder.getDocumentNode();
+			LOG.info("XML file {} loaded succesfully", xmlFile.getAbsolutePath());
+			return document;
+		} catch (SaxonApiException sae) {
+			throw new DataExtractorException(sae, "Unable to read XML file %s", xmlFile.getAbsolutePath());
+		} catch (ParserConfigurationException pce) {
+			throw new DataExtractorException(pce, "Unable to create SAX parser");
+		} catch (SAXException se) {
+			throw new DataExtractorException(se, "Unable to read XML file %s", xmlFile.getAbsolutePath());
+		} catch (IOException ioe) {
+			throw new DataExtractorException(ioe, "Unable to read XML file %s", xmlFile.getAbsolutePath());
+		}
+	}
+
+	/**
+	 * Ensures that no expression within a container, or any of its descendants, can read anything outside the subtree of the node that it is
+	 * evaluated against.
+	 *
+	 * @param container the container to check.
+	 * @throws NotProjectableException if any expression might read anything outside its context's subtree.
+	 */
+	private void requireConfined(IMappingContainer container) throws NotProjectableException {
+		if (container instanceof PivotMapping) {
+			PivotMapping pivot = (PivotMapping) container;
+			requireConfined(pivot.getKVPairRoot());
+			requireConfined(pivot.getKeyXPath());
+			requireConfined(pivot.getValueXPath());
+			return;
+		}
+		for (IMapping child : container) {
+			if (child instanceof IMappingContainer) {
+				requireConfined(((IMappingContainer) child).getMappingRoot());
+				requireConfined((IMappingContainer) child);
+			} else if (child instanceof IValueMapping) {
+				requireConfined(((IValueMapping) child).getValueXPath());
+			}
+		}
+	}
+
+	/**
+	 * Ensures that an expression can't read anything outside the subtree of the node that it is evaluated against.
+	 *
+	 * @param xPath the expression to check. May be null.
+	 * @throws NotProjectableException if the expression might read anything outside its context's subtree.
+	 */
+	private void requireConfined(XPathValue xPath) throws NotProjectableException {
+		if ((xPath != null) && !XPathAnalyser.isConfinedToContextSubtree(xPath.getSource())) {
+			throw new NotProjectableException("\"" + xPath.getSource() + "\" might refer to anywhere in the document");
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "DocumentProjection(" + this.patterns + ")";
+	}
+}
@@ -8,16 +8,36 @@ public class EvaluationContext {
 
 	private XPathVariableBindings bindings;
 
+	private SiblingVariables siblingVariables;
+
 	/**
-	 * Create a new, empty instance.
+	 * Create a new, empty instance, with no variables available.
 	 */
 	public EvaluationContext() {
-		this.bindings = new XPathVariableBindings();
+	}
+
+	/**
+	 * Create a new instance for evaluating the children of a container, that makes the values found by each child available to its later siblings.
+	 *
+	 * @param siblingVariables the resolved variable references between the children of the container. Must not be null.
+	 */
+	public EvaluationContext(SiblingVariables siblingVariables) {
+		this.siblingVariables = siblingVariables;
+		this.bindings = new XPathVariableBindings(siblingVariables.getSlotNames());
+	}
+
+	/**
+	 * Retrieve the resolved variable references between the mappings being evaluated.
+	 *
+	 * @return the resolved variable references, or null if no variables are available.
+	 */
+	public SiblingVariables getSiblingVariables() {
+		return this.siblingVariables;
 	}
 
 	/**
 	 * Retrieve the current set of variable bindings.
-	 * @return the current set of variable bindings.
+	 * @return the current set of variable bindings, or null if no variables are available.
 	 */
 	public XPathVariableBindings getVariableBindings() {
 		return this.bindings;
@@ -1,7 +1,5 @@
 package com.locima.xml2csv.extractor;
 
-import java.io.Serializable;
-
 import net.sf.saxon.s9api.XdmNode;
 
 import com.locima.xml2csv.configuration.IMapping;
@@ -26,7 +24,7 @@ import com.locima.xml2csv.output.direct.DirectOutputRecordIterator;
  * How these tree-structured sets of values are then flattened in to a CSV file is performed in {@link DirectOutputRecordIterator} and dependent on
  * the configuration of the {@link IMapping} instance, specifically the {@link IMapping#getMultiValueBehaviour()} value.
  */
-public interface IExtractionContext extends IExtractionResults, Serializable {
+public interface IExtractionContext extends IExtractionResults {
 
 	/**
 	 * Evaluates this context against the passed XML node to generate results.
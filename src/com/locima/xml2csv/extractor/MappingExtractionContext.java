@@ -1,8 +1,5 @@
 package com.locima.xml2csv.extractor;
 
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -15,15 +12,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.locima.xml2csv.ArgumentNullException;
-import com.locima.xml2csv.BugException;
 // CHECKSTYLE:OFF Checkstyle bug, this import is used in javadoc
 import com.locima.xml2csv.configuration.IMapping;
 // CHECKSTYLE:ON
 import com.locima.xml2csv.configuration.IValueMapping;
+import com.locima.xml2csv.configuration.MappingStatistics;
 import com.locima.xml2csv.configuration.XPathValue;
 import com.locima.xml2csv.output.IExtractionResultsContainer;
 import com.locima.xml2csv.output.IExtractionResultsValues;
-import com.locima.xml2csv.output.inline.CsiInputStream;
 import com.locima.xml2csv.util.StringUtil;
 
 /**
@@ -33,15 +29,10 @@ public class MappingExtractionContext extends AbstractExtractionContext implemen
 
 	private static final Logger LOG = LoggerFactory.getLogger(MappingExtractionContext.class);
 
-	/**
-	 * Default value (1)L.
-	 */
-	private static final long serialVersionUID = 1L;
-
 	/**
 	 * The mapping that should be used to evaluate input documents against.
 	 */
-	private transient IValueMapping mapping;
+	private IValueMapping mapping;
 
 	/**
 	 * The set of values extracted as a result of executing this mapping within the context of a single root of the parent. E.g. if the parent found 3
@@ -49,26 +40,20 @@ public class MappingExtractionContext extends AbstractExtractionContext implemen
 	 */
 	private List<String> results;
 
-	/**
-	 * Default no-arg constructor required for serialization.
-	 */
-	public MappingExtractionContext() {
-
-	}
-
 	/**
 	 * Create a new instance.
 	 *
 	 * @param parent the parent container's evaluation. Must never be null.
 	 * @param mapping the mapping that this MEC is going to be evaluating.
+	 * @param statistics the statistics that this context will record what it finds in to. Must not be null.
 	 * @param positionRelativeToOtherRootNodes the index of the new context, with respect to its siblings (first child of the parent has index 0,
 	 *            second has index 1, etc.).
 	 * @param positionRelativeToIMappingSiblings The position of this extraction context with respect to its sibling {@link IMapping} instances
 	 *            beneath the parent.
 	 */
-	public MappingExtractionContext(IExtractionResultsContainer parent, IValueMapping mapping, int positionRelativeToOtherRootNodes,
-					int positionRelativeToIMappingSiblings) {
-		super(parent, positionRelativeToOtherRootNodes, positionRelativeToIMappingSiblings);
+	public MappingExtractionContext(IExtractionResultsContainer parent, IValueMapping mapping, MappingStatistics statistics,
+					int positionRelativeToOtherRootNodes, int positionRelativeToIMappingSiblings) {
+		super(parent, statistics, positionRelativeToOtherRootNodes, positionRelativeToIMappingSiblings);
 		if (mapping == null) {
 			throw new ArgumentNullException("mapping");
 		}
@@ -100,56 +85,120 @@ public class MappingExtractionContext extends AbstractExtractionContext implemen
 			LOG.trace("Extracting value for \"{}\" using XPath \"{}\"", fieldName, xPath.getSource());
 		}
 
+		// Simple paths are found by walking the tree, rather than by Saxon
+		List<String> foundValues = xPath.selectValues(mappingRoot);
+		if (foundValues != null) {
+			evaluateFoundValues(foundValues, eCtx);
+			return;
+		}
+
 		// Typically there is only one result, so use that as the normal case
 		// CHECKSTYLE:OFF I want to use trimToSize later, so need to refer to ArrayList
 		ArrayList<String> values = new ArrayList<String>(1);
 		// CHECKSTYLE:ON
 		int maxValueCount = thisMapping.getMaxValueCount();
+		boolean trimWhitespace = thisMapping.requiresTrimWhitespace();
 
-		XPathSelector selector = xPath.evaluate(mappingRoot, eCtx == null ? null : eCtx.getVariableBindings());
-		Iterator<XdmItem> resultIter = selector.iterator();
-		while (resultIter.hasNext()) {
-			// Add the next result to the list of values found, trimming whitespace if configured to do so.
-			String value = resultIter.next().getStringValue();
-			if ((value != null) && thisMapping.requiresTrimWhitespace()) {
-				value = value.trim();
-			}
-			values.add(value);
-
-			// Add the found value to the list of variable bindings, so this value can be used by other sibling mappings evaluated after this one.
-			if (eCtx != null) {
-				eCtx.getVariableBindings().addVariable(fieldName, value);
-			}
+		XPathVariableBindings bindings = (eCtx == null) ? null : eCtx.getVariableBindings();
+		int[] variableSlots = (bindings == null) ? null : eCtx.getSiblingVariables().getReferencedSlots(getPositionRelativeToIMappingSiblings());
+		XPathSelector selector = xPath.evaluate(mappingRoot, bindings, variableSlots);
+		try {
+			Iterator<XdmItem> resultIter = selector.iterator();
+			while (resultIter.hasNext()) {
+				// Add the next result to the list of values found, trimming whitespace if configured to do so.
+				String value = resultIter.next().getStringValue();
+				if ((value != null) && trimWhitespace) {
+					value = value.trim();
+				}
+				values.add(value);
 
-			if (LOG.isDebugEnabled()) {
-				LOG.debug("Field \"{}\" found value({}) \"{}\" found after executing XPath \"{}\" (max: {})", fieldName, values.size(), value,
-								xPath.getSource(), maxValueCount);
-			}
+				if (LOG.isDebugEnabled()) {
+					LOG.debug("Field \"{}\" found value({}) \"{}\" found after executing XPath \"{}\" (max: {})", fieldName, values.size(), value,
+									xPath.getSource(), maxValueCount);
+				}
 
-			// If maxValueCount applies, then break out of the while loop once we've found the most number of values permitted.
-			if ((maxValueCount > 0) && ((values.size()) == maxValueCount)) {
-				if (LOG.isInfoEnabled()) {
-					if (resultIter.hasNext()) {
-						LOG.info("Discarded at least 1 value from mapping {} as maxValueCount reached limit of {}", this, maxValueCount);
+				// If maxValueCount applies, then break out of the while loop once we've found the most number of values permitted.
+				if ((maxValueCount > 0) && ((values.size()) == maxValueCount)) {
+					if (LOG.isInfoEnabled()) {
+						if (resultIter.hasNext()) {
+							LOG.info("Discarded at least 1 value from mapping {} as maxValueCount reached limit of {}", this, maxValueCount);
+						}
 					}
+					break;
 				}
-				break;
+
 			}
+		} finally {
+			xPath.release(selector);
+		}
+		values.trimToSize();
+		setResults(values, eCtx);
+	}
 
+	/**
+	 * Sets the values found by this mapping from values that have already been found by the caller, rather than by executing this mapping's value
+	 * XPath. Whitespace trimming and the maximum value count are applied exactly as they would be by {@link #evaluate(XdmNode, EvaluationContext)}.
+	 * <p>
+	 * This is used when the value XPath is a simple path that can be evaluated by walking the tree directly (see
+	 * {@link XPathValue#selectValues(XdmNode)}), and by {@link ContainerExtractionContext}, which finds the values of several sibling mappings at
+	 * once using a {@link PathTrie}.
+	 *
+	 * @param foundValues all the values found by this mapping's value XPath, in document order. Must not be null.
+	 * @param eCtx the evaluation context from the container, as would be passed to {@link #evaluate(XdmNode, EvaluationContext)}. May be null.
+	 */
+	void evaluateFoundValues(List<String> foundValues, EvaluationContext eCtx) {
+		IValueMapping thisMapping = getMapping();
+		int maxValueCount = thisMapping.getMaxValueCount();
+		int valueCount = ((maxValueCount > 0) && (foundValues.size() > maxValueCount)) ? maxValueCount : foundValues.size();
+		if (LOG.isInfoEnabled() && (valueCount < foundValues.size())) {
+			LOG.info("Discarded at least 1 value from mapping {} as maxValueCount reached limit of {}", this, maxValueCount);
 		}
+		boolean trimWhitespace = thisMapping.requiresTrimWhitespace();
+		List<String> values = new ArrayList<String>(valueCount);
+		for (int i = 0; i < valueCount; i++) {
+			String value = foundValues.get(i);
+			values.add(((value != null) && trimWhitespace) ? value.trim() : value);
+		}
+		setResults(values, eCtx);
+	}
 
-		// Keep track of the most number of results we've found for a single invocation
-		thisMapping.setHighestFoundValueCount(values.size());
+	/**
+	 * Sets the values found by this mapping to those already found by another evaluation of the same document invariant mapping (see
+	 * {@link IValueMapping#isDocumentInvariant()}) within the same document, rather than executing its value XPath again.
+	 *
+	 * @param sharedValues the results of the other evaluation, which will be shared with it, so must not be modified. Must not be null.
+	 * @param eCtx the evaluation context from the container, as would be passed to {@link #evaluate(XdmNode, EvaluationContext)}. May be null.
+	 */
+	void evaluateSharedValues(List<String> sharedValues, EvaluationContext eCtx) {
+		if (LOG.isTraceEnabled()) {
+			LOG.trace("Re-using document invariant values of {}", getMapping());
+		}
+		setResults(sharedValues, eCtx);
+	}
 
-		// If no values were found by this mapping then I still need to add the variable with an empty value, or Saxon crashes.
-		if (values.isEmpty() && (eCtx != null)) {
-			eCtx.getVariableBindings().addVariable(fieldName);
+	/**
+	 * Stores the values found by a single evaluation of this mapping, and makes them available to the sibling mappings evaluated after this one.
+	 *
+	 * @param values the values found, already trimmed and limited to the maximum value count. Must not be null, and must not be modified afterwards,
+	 *            as it may be shared with other contexts.
+	 * @param eCtx the evaluation context from the container. May be null.
+	 */
+	private void setResults(List<String> values, EvaluationContext eCtx) {
+		IValueMapping thisMapping = getMapping();
+
+		// Add the first found value to the variable bindings, so it can be used by other sibling mappings evaluated after this one. If no values were
+		// found by this mapping then I still need to add the variable with an empty value, or Saxon crashes.
+		XPathVariableBindings bindings = (eCtx == null) ? null : eCtx.getVariableBindings();
+		if (bindings != null) {
+			bindings.addVariable(getPositionRelativeToIMappingSiblings(), values.isEmpty() ? null : values.get(0));
 		}
 
+		// Keep track of the most number of results we've found for a single invocation
+		getStatistics().recordValueCount(thisMapping, values.size());
+
 		if (LOG.isTraceEnabled()) {
 			LOG.trace("Adding values to {}: {}", thisMapping, StringUtil.collectionToString(values, ",", "\""));
 		}
-		values.trimToSize();
 		this.results = values;
 	}
 
@@ -184,38 +233,6 @@ public class MappingExtractionContext extends AbstractExtractionContext implemen
 		return this.mapping;
 	}
 
-	/**
-	 * Overridden to manage not writing {@link #mapping} to the output stream.
-	 *
-	 * @param rawInputStream target stream for serialized state.
-	 * @throws IOException if any issues occur during writing.
-	 * @throws ClassNotFoundException if an unexpected class instance appears in the CSI file, should never, ever happen.
-	 */
-	@SuppressWarnings("unchecked")
-	private void readObject(ObjectInputStream rawInputStream) throws IOException, ClassNotFoundException {
-		if (!(rawInputStream instanceof CsiInputStream)) {
-			throw new BugException("Bug found when deserializing MEC.  I've been given an ObjectInputStream instead of a CsiInputStream!");
-		}
-		CsiInputStream stream = (CsiInputStream) rawInputStream;
-		Object readObject = stream.readObject();
-		try {
-			this.results = (List<String>) readObject;
-		} catch (ClassCastException cce) {
-			throw new IOException("Unexpected object type found in stream.  Expected List<String> but got " + readObject.getClass().getName());
-		}
-		readObject = stream.readObject();
-		String mappingName;
-		try {
-			mappingName = (String) readObject;
-		} catch (ClassCastException cce) {
-			throw new IOException("Unexpected object type found in stream.  Expected String but got " + readObject.getClass().getName());
-		}
-		this.mapping = stream.getIValueMapping(mappingName);
-		if (this.mapping == null) {
-			throw new IOException("Unable to deserialize MEC because serialized IValueMapping link not found: " + mappingName);
-		}
-	}
-
 	@Override
 	public int size() {
 		return this.results.size();
@@ -232,21 +249,4 @@ public class MappingExtractionContext extends AbstractExtractionContext implemen
 		sb.append(")");
 		return sb.toString();
 	}
-
-	/**
-	 * Overridden to manage not writing {@link #mapping} to the output stream.
-	 *
-	 * @param stream target stream for serialized state.
-	 * @throws IOException if any issues occur during writing.
-	 */
-	private void writeObject(ObjectOutputStream stream) throws IOException {
-		String mappingName = getMapping().getName();
-		int size = this.results.size();
-		if (LOG.isInfoEnabled()) {
-			LOG.info("Writing {} results to the CSI file for {}", size, mappingName);
-		}
-		stream.writeObject(this.results);
-		stream.writeObject(mappingName);
-	}
-
 }
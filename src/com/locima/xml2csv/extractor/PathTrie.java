@@ -0,0 +1,262 @@
+package com.locima.xml2csv.extractor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.sf.saxon.om.AxisInfo;
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.pattern.NodeKindTest;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.tree.iter.AxisIterator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.locima.xml2csv.configuration.IMapping;
+import com.locima.xml2csv.configuration.IValueMapping;
+import com.locima.xml2csv.configuration.MappingList;
+import com.locima.xml2csv.util.ChildPath;
+import com.locima.xml2csv.util.SimplePath;
+
+/**
+ * Merges the value XPaths of the sibling mappings of a {@link MappingList} that are simple relative paths (see {@link ChildPath}) in to a tree of
+ * element steps, so that all of them can be evaluated by walking the subtree beneath a mapping root once, rather than running a separate Saxon XPath
+ * query per mapping.
+ * <p>
+ * For example, the paths <code>Name</code>, <code>Address/Line1</code>, <code>Address/Line2</code> and <code>Address/@type</code> are merged in to
+ * a trie with two children of the root, <code>Name</code> and <code>Address</code>, so the <code>Address</code> elements are only found once.
+ * <p>
+ * Each mapping in the trie has a <em>slot</em>, which is the index of its values in the list returned by {@link #evaluate(XdmNode)}. Mappings that
+ * aren't in the trie (such as nested containers, absolute paths, or mappings using predicates, functions or variables) are evaluated separately.
+ * Instances are immutable once created, so may be shared by threads evaluating different mapping roots concurrently.
+ */
+public class PathTrie {
+
+	/**
+	 * A single element step in the trie, along with the values that should be extracted from the elements that it matches.
+	 */
+	private static class Node {
+
+		/**
+		 * The local names of the attributes whose values are extracted from each element matched by this node, in the same order as
+		 * {@link #attributeSlots}.
+		 */
+		private List<String> attributeNames = new ArrayList<String>();
+
+		/**
+		 * The slots that receive the values of {@link #attributeNames}.
+		 */
+		private List<Integer> attributeSlots = new ArrayList<Integer>();
+
+		/**
+		 * The namespace URIs of {@link #attributeNames}, the empty string for no namespace.
+		 */
+		private List<String> attributeUris = new ArrayList<String>();
+
+		/**
+		 * The child steps of this node, in the order they were first added.
+		 */
+		private List<Node> children = new ArrayList<Node>();
+
+		/**
+		 * The step that an element must match, or null for the root of the trie, which matches the mapping root.
+		 */
+		private SimplePath.Step step;
+
+		/**
+		 * The slots that receive the string value of each text node child of each element matched by this node.
+		 */
+		private List<Integer> textSlots = new ArrayList<Integer>();
+
+		/**
+		 * The slots that receive the string value of each element matched by this node.
+		 */
+		private List<Integer> valueSlots = new ArrayList<Integer>();
+
+		/**
+		 * Creates a new node.
+		 *
+		 * @param step the step that an element must match, or null for the root of the trie.
+		 */
+		public Node(SimplePath.Step step) {
+			this.step = step;
+		}
+
+		/**
+		 * Finds the child node for a step, creating it if there isn't one already. Steps are only merged if they match exactly the same elements.
+		 *
+		 * @param childStep the step to find. Must not be null.
+		 * @return the child node for the step, never null.
+		 */
+		public Node getOrAddChild(SimplePath.Step childStep) {
+			for (Node child : this.children) {
+				if (equals(child.step.getNamespaceUri(), childStep.getNamespaceUri())
+								&& equals(child.step.getLocalName(), childStep.getLocalName())) {
+					return child;
+				}
+			}
+			Node child = new Node(childStep);
+			this.children.add(child);
+			return child;
+		}
+
+		/**
+		 * Compares two strings that may be null.
+		 *
+		 * @param s1 the first string.
+		 * @param s2 the second string.
+		 * @return true if both strings are null, or both are equal.
+		 */
+		private boolean equals(String s1, String s2) {
+			return s1 == null ? s2 == null : s1.equals(s2);
+		}
+	}
+
+	private static final Logger LOG = LoggerFactory.getLogger(PathTrie.class);
+
+	/**
+	 * The root of the trie, which matches the mapping root itself.
+	 */
+	private Node root;
+
+	/**
+	 * The total number of slots in the trie.
+	 */
+	private int size;
+
+	/**
+	 * The slot of each child of the mapping list, indexed by position, or -1 if the child isn't in the trie.
+	 */
+	private int[] slotsByChild;
+
+	/**
+	 * Creates a trie containing all the children of a mapping list that are value mappings with simple relative value XPaths.
+	 *
+	 * @param mappingList the mapping list whose children should be merged. Must not be null.
+	 */
+	public PathTrie(MappingList mappingList) {
+		this.root = new Node(null);
+		this.slotsByChild = new int[mappingList.size()];
+		Arrays.fill(this.slotsByChild, -1);
+		int childIndex = 0;
+		for (IMapping child : mappingList) {
+			ChildPath path = null;
+			if ((child instanceof IValueMapping) && (((IValueMapping) child).getValueXPath() != null)) {
+				path = ((IValueMapping) child).getValueXPath().getChildPath();
+			}
+			// Absolute paths don't start from the mapping root, so can't share its walk
+			if ((path != null) && !path.isAbsolute()) {
+				add(path, this.size);
+				this.slotsByChild[childIndex] = this.size;
+				this.size++;
+			}
+			childIndex++;
+		}
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Merged {} of {} child mappings of {} in to a path trie", this.size, mappingList.size(), mappingList);
+		}
+	}
+
+	/**
+	 * Adds a path to the trie.
+	 *
+	 * @param path the path to add. Must not be null.
+	 * @param slot the slot that the values found by the path will be returned in.
+	 */
+	private void add(ChildPath path, int slot) {
+		Node node = this.root;
+		for (SimplePath.Step step : path.getSteps()) {
+			node = node.getOrAddChild(step);
+		}
+		if (path.isSelectingText()) {
+			node.textSlots.add(Integer.valueOf(slot));
+		} else if (path.getAttributeName() == null) {
+			node.valueSlots.add(Integer.valueOf(slot));
+		} else {
+			node.attributeUris.add(path.getAttributeUri());
+			node.attributeNames.add(path.getAttributeName());
+			node.attributeSlots.add(Integer.valueOf(slot));
+		}
+	}
+
+	/**
+	 * Walks the subtree beneath a mapping root once, finding the values of every path in the trie.
+	 *
+	 * @param mappingRoot the node that all the paths are relative to. Must not be null.
+	 * @return a list of values for each slot, each in document order. Values are exactly the string values of the nodes found, so have not been
+	 *         trimmed or limited to any maximum number of values.
+	 */
+	public List<List<String>> evaluate(XdmNode mappingRoot) {
+		List<List<String>> values = new ArrayList<List<String>>(this.size);
+		for (int i = 0; i < this.size; i++) {
+			values.add(new ArrayList<String>(1));
+		}
+		evaluate(this.root, mappingRoot.getUnderlyingNode(), values);
+		return values;
+	}
+
+	/**
+	 * Extracts the values for a trie node from an element that it has matched, then recurses in to the child elements that its children match.
+	 *
+	 * @param node the trie node that matched <code>element</code>.
+	 * @param element the element (or, for the root of the trie, the mapping root) matched by <code>node</code>.
+	 * @param values the values found so far, indexed by slot.
+	 */
+	private void evaluate(Node node, NodeInfo element, List<List<String>> values) {
+		for (Integer slot : node.valueSlots) {
+			values.get(slot.intValue()).add(element.getStringValue());
+		}
+		for (int i = 0; i < node.attributeSlots.size(); i++) {
+			String value = element.getAttributeValue(node.attributeUris.get(i), node.attributeNames.get(i));
+			if (value != null) {
+				values.get(node.attributeSlots.get(i).intValue()).add(value);
+			}
+		}
+		if (!node.textSlots.isEmpty()) {
+			AxisIterator<?> textIterator = element.iterateAxis(AxisInfo.CHILD, NodeKindTest.TEXT);
+			NodeInfo text = textIterator.next();
+			while (text != null) {
+				for (Integer slot : node.textSlots) {
+					values.get(slot.intValue()).add(text.getStringValue());
+				}
+				text = textIterator.next();
+			}
+		}
+		if (node.children.isEmpty()) {
+			return;
+		}
+		AxisIterator<?> childIterator = element.iterateAxis(AxisInfo.CHILD, NodeKindTest.ELEMENT);
+		NodeInfo child = childIterator.next();
+		while (child != null) {
+			String uri = child.getURI();
+			String localName = child.getLocalPart();
+			for (Node childNode : node.children) {
+				if (childNode.step.matches(uri, localName)) {
+					evaluate(childNode, child, values);
+				}
+			}
+			child = childIterator.next();
+		}
+	}
+
+	/**
+	 * Retrieves the slot of a child of the mapping list that this trie was created from.
+	 *
+	 * @param childIndex the position of the child within the mapping list.
+	 * @return the index of the child's values within the list returned by {@link #evaluate(XdmNode)}, or -1 if the child isn't in this trie and must
+	 *         be evaluated separately.
+	 */
+	public int getSlot(int childIndex) {
+		return this.slotsByChild[childIndex];
+	}
+
+	/**
+	 * Retrieves the number of mappings merged in to this trie.
+	 *
+	 * @return the number of mappings merged in to this trie, which may be 0.
+	 */
+	public int size() {
+		return this.size;
+	}
+}
@@ -1,8 +1,5 @@
 package com.locima.xml2csv.extractor;
 
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -14,17 +11,16 @@ import net.sf.saxon.s9api.XdmNode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.locima.xml2csv.BugException;
 // CHECKSTYLE:OFF Checkstyle bug, this is referenced in Javadoc.
 import com.locima.xml2csv.configuration.IMapping;
 // CHECKSTYLE:ON
 import com.locima.xml2csv.configuration.IMappingContainer;
 import com.locima.xml2csv.configuration.Mapping;
+import com.locima.xml2csv.configuration.MappingStatistics;
 import com.locima.xml2csv.configuration.PivotMapping;
 import com.locima.xml2csv.configuration.XPathValue;
 import com.locima.xml2csv.output.IExtractionResults;
 import com.locima.xml2csv.output.IExtractionResultsContainer;
-import com.locima.xml2csv.output.inline.CsiInputStream;
 import com.locima.xml2csv.util.StringUtil;
 
 /**
@@ -36,23 +32,23 @@ public class PivotExtractionContext extends AbstractExtractionContext implements
 
 	private static final Logger LOG = LoggerFactory.getLogger(PivotExtractionContext.class);
 
-	private static final long serialVersionUID = 1L;
 	private List<List<IExtractionResults>> children;
-	private transient PivotMapping mapping;
+	private PivotMapping mapping;
 
 	/**
 	 * Constructs a new instance to manage the evaluation of the <code>mapping</code> passed.
 	 *
 	 * @param pivotMapping the mapping configuration that this context is responsible for evaluating.
 	 * @param parent the parent for this context (should be null if this is a top-level mapping on the configuration).
+	 * @param statistics the statistics that this context will record what it finds in to. Must not be null.
 	 * @param positionRelativeToOtherRootNodes the index of the new context, with respect to its siblings (first child of the parent has index 0,
 	 *            second has index 1, etc.).
 	 * @param positionRelativeToIMappingSiblings The position of this extraction context with respect to its sibling {@link IMapping} instances
 	 *            beneath the parent.
 	 */
-	public PivotExtractionContext(IExtractionResultsContainer parent, PivotMapping pivotMapping, int positionRelativeToOtherRootNodes,
-					int positionRelativeToIMappingSiblings) {
-		super(parent, positionRelativeToOtherRootNodes, positionRelativeToIMappingSiblings);
+	public PivotExtractionContext(IExtractionResultsContainer parent, PivotMapping pivotMapping, MappingStatistics statistics,
+					int positionRelativeToOtherRootNodes, int positionRelativeToIMappingSiblings) {
+		super(parent, statistics, positionRelativeToOtherRootNodes, positionRelativeToIMappingSiblings);
 		this.mapping = pivotMapping;
 	}
 
@@ -60,13 +56,15 @@ public class PivotExtractionContext extends AbstractExtractionContext implements
 	 * Constructs a new instance to manage the evaluation of the <code>mapping</code> passed with no parent.
 	 *
 	 * @param pivotMapping the mapping configuration that this context is responsible for evaluating.
+	 * @param statistics the statistics that this context will record what it finds in to. Must not be null.
 	 * @param positionRelativeToOtherRootNodes the index of the new context, with respect to its siblings (first child of the parent has index 0,
 	 *            second has index 1, etc.).
 	 * @param positionRelativeToIMappingSiblings The position of this extraction context with respect to its sibling {@link IMapping} instances
 	 *            beneath the parent.
 	 */
-	public PivotExtractionContext(PivotMapping pivotMapping, int positionRelativeToOtherRootNodes, int positionRelativeToIMappingSiblings) {
-		this(null, pivotMapping, positionRelativeToOtherRootNodes, positionRelativeToIMappingSiblings);
+	public PivotExtractionContext(PivotMapping pivotMapping, MappingStatistics statistics, int positionRelativeToOtherRootNodes,
+					int positionRelativeToIMappingSiblings) {
+		this(null, pivotMapping, statistics, positionRelativeToOtherRootNodes, positionRelativeToIMappingSiblings);
 	}
 
 	/**
@@ -84,7 +82,8 @@ public class PivotExtractionContext extends AbstractExtractionContext implements
 		LOG.info("Creating new MEC for {}", baseName);
 		Mapping keyMapping = this.mapping.getPivotKeyMapping(baseName);
 		MappingExtractionContext mec =
-						new MappingExtractionContext(this, keyMapping, positionRelativeToOtherRootNodes, positionRelativeToIMappingSiblings);
+						new MappingExtractionContext(this, keyMapping, getStatistics(), positionRelativeToOtherRootNodes,
+										positionRelativeToIMappingSiblings);
 		return mec;
 	}
 
@@ -105,14 +104,18 @@ public class PivotExtractionContext extends AbstractExtractionContext implements
 		if (mappingRoot != null) {
 			LOG.debug("Executing mappingRoot {} for {}", mappingRoot, this.mapping);
 			XPathSelector rootIterator = mappingRoot.evaluate(rootNode);
-			for (XdmItem item : rootIterator) {
-				if (item instanceof XdmNode) {
-					// All evaluations have to be done in terms of nodes, so if the XPath returns something like a value then warn and move on.
-					evaluateKVPairs((XdmNode) item, rootCount);
-				} else {
-					LOG.warn("Expected to find only elements after executing XPath on mapping list, got {}", item.getClass().getName());
+			try {
+				for (XdmItem item : rootIterator) {
+					if (item instanceof XdmNode) {
+						// All evaluations have to be done in terms of nodes, so if the XPath returns something like a value then warn and move on.
+						evaluateKVPairs((XdmNode) item, rootCount);
+					} else {
+						LOG.warn("Expected to find only elements after executing XPath on mapping list, got {}", item.getClass().getName());
+					}
+					rootCount++;
 				}
-				rootCount++;
+			} finally {
+				mappingRoot.release(rootIterator);
 			}
 			if ((rootCount == 0) && LOG.isDebugEnabled()) {
 				LOG.debug("No results found for executing mapping root {} on {}", mappingRoot, this);
@@ -127,7 +130,7 @@ public class PivotExtractionContext extends AbstractExtractionContext implements
 		}
 
 		// Keep track of the most number of results we've found for a single invocation of the mapping root.
-		getMapping().setHighestFoundValueCount(rootCount);
+		getStatistics().recordValueCount(getMapping(), rootCount);
 	}
 
 	/**
@@ -150,24 +153,28 @@ public class PivotExtractionContext extends AbstractExtractionContext implements
 		List<IExtractionResults> iterationECs = new ArrayList<IExtractionResults>();
 
 		XPathSelector kvIterator = kvPairRoot.evaluate(node);
-		for (XdmItem kvItem : kvIterator) {
-			if (!(kvItem instanceof XdmNode)) {
-				LOG.warn("KVPair Root yielded a {} ({}) instead of XdmNode.  Cannot find keys/values from here!", kvItem, kvItem.getClass());
-				continue;
-			}
+		try {
+			for (XdmItem kvItem : kvIterator) {
+				if (!(kvItem instanceof XdmNode)) {
+					LOG.warn("KVPair Root yielded a {} ({}) instead of XdmNode.  Cannot find keys/values from here!", kvItem, kvItem.getClass());
+					continue;
+				}
 
-			XdmNode kvNode = (XdmNode) kvItem;
-			String keyName = getKey(kvNode, keyXPath);
-			if (keyName == null) {
-				LOG.info("No key could be found for {} on {}.  Moving on.", keyXPath, this.mapping);
-			} else {
-				LOG.debug("Found pivot mapping key {}", keyName);
-				MappingExtractionContext childCtx = ensureMec(keyName, positionRelativeToOtherRootNodes, positionRelativeToIMappingSiblings);
-				// TODO Decide whether there is a case for passing a context through to KVNode
-				childCtx.evaluate(kvNode, null);
-				positionRelativeToIMappingSiblings++;
-				iterationECs.add(childCtx);
+				XdmNode kvNode = (XdmNode) kvItem;
+				String keyName = getKey(kvNode, keyXPath);
+				if (keyName == null) {
+					LOG.info("No key could be found for {} on {}.  Moving on.", keyXPath, this.mapping);
+				} else {
+					LOG.debug("Found pivot mapping key {}", keyName);
+					MappingExtractionContext childCtx = ensureMec(keyName, positionRelativeToOtherRootNodes, positionRelativeToIMappingSiblings);
+					// TODO Decide whether there is a case for passing a context through to KVNode
+					childCtx.evaluate(kvNode, null);
+					positionRelativeToIMappingSiblings++;
+					iterationECs.add(childCtx);
+				}
 			}
+		} finally {
+			kvPairRoot.release(kvIterator);
 		}
 
 		if (iterationECs.size() > 0) {
@@ -202,20 +209,24 @@ public class PivotExtractionContext extends AbstractExtractionContext implements
 	private String getKey(XdmNode kvNode, XPathValue keyXPath) throws DataExtractorException {
 		String keyName;
 		XPathSelector keyIterator = keyXPath.evaluate(kvNode);
-		Iterator<XdmItem> items = keyIterator.iterator();
-		if (!items.hasNext()) {
-			LOG.warn("KVPair key XPath {} yielded no results", keyXPath);
-			keyName = null;
-		} else {
-			XdmItem keyItem = items.next();
-			String baseName = keyItem.getStringValue();
-			if (StringUtil.isNullOrEmpty(baseName)) {
-				LOG.debug("Found XML node for key {} but had null/empty value", keyXPath);
+		try {
+			Iterator<XdmItem> items = keyIterator.iterator();
+			if (!items.hasNext()) {
+				LOG.warn("KVPair key XPath {} yielded no results", keyXPath);
 				keyName = null;
 			} else {
-				keyName = baseName.trim();
-				LOG.debug("Found key name {} from {}", keyName, keyXPath);
+				XdmItem keyItem = items.next();
+				String baseName = keyItem.getStringValue();
+				if (StringUtil.isNullOrEmpty(baseName)) {
+					LOG.debug("Found XML node for key {} but had null/empty value", keyXPath);
+					keyName = null;
+				} else {
+					keyName = baseName.trim();
+					LOG.debug("Found key name {} from {}", keyName, keyXPath);
+				}
 			}
+		} finally {
+			keyXPath.release(keyIterator);
 		}
 		return keyName;
 	}
@@ -240,39 +251,6 @@ public class PivotExtractionContext extends AbstractExtractionContext implements
 		return (this.children.size() > valueIndex) ? this.children.get(valueIndex) : null;
 	}
 
-	/**
-	 * Overridden to manage not writing {@link #mapping} to the output stream.
-	 *
-	 * @param rawInputStream target stream for serialized state.
-	 * @throws IOException if any issues occur during writing.
-	 * @throws ClassNotFoundException if an unexpected class instance appears in the CSI file, should never, ever happen.
-	 */
-	@SuppressWarnings("unchecked")
-	private void readObject(ObjectInputStream rawInputStream) throws IOException, ClassNotFoundException {
-		if (!(rawInputStream instanceof CsiInputStream)) {
-			throw new BugException("Bug found when deserializing PEC.  I've been given a %s instead of a CsiInputStream", rawInputStream.getClass());
-		}
-		CsiInputStream stream = (CsiInputStream) rawInputStream;
-		Object readObject = stream.readObject();
-		try {
-			this.children = (List<List<IExtractionResults>>) readObject;
-		} catch (ClassCastException cce) {
-			throw new IOException("Unexpected object type found in stream.  Expected List<List<IExtractionResults>> but got "
-							+ readObject.getClass().getName());
-		}
-		readObject = stream.readObject();
-		String mappingName;
-		try {
-			mappingName = (String) readObject;
-		} catch (ClassCastException cce) {
-			throw new IOException("Unexpected object type found in stream.  Expected String but got " + readObject.getClass().getName());
-		}
-		this.mapping = (PivotMapping) stream.getMappingContainer(mappingName);
-		if (this.mapping == null) {
-			throw new IOException("Unable to restore link to IMappingContainer " + mappingName + " as it was not found");
-		}
-	}
-
 	@Override
 	public int size() {
 		return this.children.size();
@@ -289,21 +267,4 @@ public class PivotExtractionContext extends AbstractExtractionContext implements
 		sb.append(")");
 		return sb.toString();
 	}
-
-	/**
-	 * Overridden to manage not writing {@link #mapping} to the output stream.
-	 *
-	 * @param stream target stream for serialized state.
-	 * @throws IOException if any issues occur during writing.
-	 */
-	private void writeObject(ObjectOutputStream stream) throws IOException {
-		String mappingName = getMapping().getName();
-		int size = this.children.size();
-		if (LOG.isInfoEnabled()) {
-			LOG.info("Writing {} results to the CSI file for {}", size, mappingName);
-		}
-		stream.writeObject(this.children);
-		stream.writeObject(mappingName);
-	}
-
 }
@@ -0,0 +1,238 @@
+package com.locima.xml2csv.extractor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.sf.saxon.s9api.BuildingContentHandler;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.DefaultHandler;
+
+import com.locima.xml2csv.extractor.DocumentProjection.Pattern;
+
+/**
+ * Sits between a SAX parser and a Saxon tree builder, passing on only the events for nodes that a {@link DocumentProjection} says can be reached.
+ * <p>
+ * Each pattern is matched against the path of every element, one step at a time, in the same way that {@link StreamingXmlDataExtractor} matches
+ * mapping roots. An element is kept if it matches at least the first part of any pattern, in which case its attributes are kept too. Text,
+ * comments and processing instructions are only kept beneath an element that matches the whole of a pattern that needs its subtree. Everything
+ * beneath an element that matches no pattern at all is skipped without any further matching.
+ * <p>
+ * The document element is always kept, so that the result is always a well-formed document.
+ */
+class ProjectionHandler extends DefaultHandler implements LexicalHandler {
+
+	/**
+	 * The handler that builds the projected tree.
+	 */
+	private BuildingContentHandler builder;
+
+	/**
+	 * If greater than zero, the depth of the current element within a subtree that is being kept in its entirety.
+	 */
+	private int keepDepth;
+
+	/**
+	 * True if the last element to end was skipped, so its namespace prefix mappings must be skipped too.
+	 */
+	private boolean lastElementSkipped;
+
+	/**
+	 * For each element currently open (and not within a skipped or kept subtree), the number of steps of each pattern that have been matched.
+	 */
+	private List<int[]> matchedSteps = new ArrayList<int[]>();
+
+	/**
+	 * The patterns describing which elements are reachable.
+	 */
+	private List<Pattern> patterns;
+
+	/**
+	 * Namespace prefix mappings (prefix and URI pairs) for the next element, which can't be passed on until I know whether it's being kept.
+	 */
+	private List<String[]> pendingPrefixMappings = new ArrayList<String[]>();
+
+	/**
+	 * If greater than zero, the depth of the current element within a subtree that is being skipped.
+	 */
+	private int skipDepth;
+
+	/**
+	 * Creates a new handler.
+	 *
+	 * @param patterns the patterns describing which elements are reachable.
+	 * @param builder the handler that builds the projected tree.
+	 */
+	public ProjectionHandler(List<Pattern> patterns, BuildingContentHandler builder) {
+		this.patterns = patterns;
+		this.builder = builder;
+	}
+
+	@Override
+	public void characters(char[] ch, int start, int length) throws SAXException {
+		if (this.keepDepth > 0) {
+			this.builder.characters(ch, start, length);
+		}
+	}
+
+	@Override
+	public void comment(char[] ch, int start, int length) throws SAXException {
+		if ((this.keepDepth > 0) && (this.builder instanceof LexicalHandler)) {
+			((LexicalHandler) this.builder).comment(ch, start, length);
+		}
+	}
+
+	@Override
+	public void endCDATA() {
+		// CDATA boundaries make no difference to the values extracted
+	}
+
+	@Override
+	public void endDocument() throws SAXException {
+		this.builder.endDocument();
+	}
+
+	@Override
+	public void endDTD() {
+		// DTDs are not kept
+	}
+
+	@Override
+	public void endElement(String uri, String localName, String qName) throws SAXException {
+		if (this.skipDepth > 0) {
+			this.skipDepth--;
+			this.lastElementSkipped = true;
+			return;
+		}
+		this.lastElementSkipped = false;
+		this.builder.endElement(uri, localName, qName);
+		if (this.keepDepth > 0) {
+			this.keepDepth--;
+			// The element that started the kept subtree pushed an entry on to matchedSteps, as that was decided before it was kept
+			if (this.keepDepth > 0) {
+				return;
+			}
+		}
+		this.matchedSteps.remove(this.matchedSteps.size() - 1);
+	}
+
+	@Override
+	public void endEntity(String name) {
+		// Entity boundaries make no difference to the values extracted
+	}
+
+	@Override
+	public void endPrefixMapping(String prefix) throws SAXException {
+		if (!this.lastElementSkipped) {
+			this.builder.endPrefixMapping(prefix);
+		}
+	}
+
+	@Override
+	public void error(SAXParseException exception) throws SAXException {
+		throw exception;
+	}
+
+	@Override
+	public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+		if (this.keepDepth > 0) {
+			this.builder.ignorableWhitespace(ch, start, length);
+		}
+	}
+
+	@Override
+	public void processingInstruction(String target, String data) throws SAXException {
+		if (this.keepDepth > 0) {
+			this.builder.processingInstruction(target, data);
+		}
+	}
+
+	@Override
+	public void setDocumentLocator(Locator locator) {
+		this.builder.setDocumentLocator(locator);
+	}
+
+	@Override
+	public void startCDATA() {
+		// CDATA boundaries make no difference to the values extracted
+	}
+
+	@Override
+	public void startDocument() throws SAXException {
+		this.builder.startDocument();
+		this.matchedSteps.add(new int[this.patterns.size()]);
+	}
+
+	@Override
+	public void startDTD(String name, String publicId, String systemId) {
+		// DTDs are not kept
+	}
+
+	@Override
+	public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+		if (this.skipDepth > 0) {
+			this.skipDepth++;
+			return;
+		}
+		if (this.keepDepth > 0) {
+			this.keepDepth++;
+			startKeptElement(uri, localName, qName, atts);
+			return;
+		}
+
+		int[] parentMatches = this.matchedSteps.get(this.matchedSteps.size() - 1);
+		int[] matches = new int[parentMatches.length];
+		int depth = this.matchedSteps.size();
+		boolean keep = depth == 1;
+		for (int i = 0; i < parentMatches.length; i++) {
+			Pattern pattern = this.patterns.get(i);
+			if ((parentMatches[i] == depth - 1) && (depth <= pattern.size()) && pattern.getStep(depth - 1).matches(uri, localName)) {
+				matches[i] = depth;
+				keep = true;
+				if ((depth == pattern.size()) && pattern.isSubtreeRequired()) {
+					this.keepDepth = 1;
+				}
+			}
+		}
+		if (keep) {
+			this.matchedSteps.add(matches);
+			startKeptElement(uri, localName, qName, atts);
+		} else {
+			this.pendingPrefixMappings.clear();
+			this.skipDepth = 1;
+		}
+	}
+
+	@Override
+	public void startEntity(String name) {
+		// Entity boundaries make no difference to the values extracted
+	}
+
+	/**
+	 * Passes on the start of an element that is being kept, along with any namespace prefix mappings that it declares.
+	 *
+	 * @param uri the namespace URI of the element.
+	 * @param localName the local name of the element.
+	 * @param qName the qualified name of the element.
+	 * @param atts the attributes of the element.
+	 * @throws SAXException if the tree builder rejects any event.
+	 */
+	private void startKeptElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+		for (String[] mapping : this.pendingPrefixMappings) {
+			this.builder.startPrefixMapping(mapping[0], mapping[1]);
+		}
+		this.pendingPrefixMappings.clear();
+		this.builder.startElement(uri, localName, qName, atts);
+	}
+
+	@Override
+	public void startPrefixMapping(String prefix, String uri) {
+		if (this.skipDepth == 0) {
+			this.pendingPrefixMappings.add(new String[] { prefix, uri });
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package com.locima.xml2csv.extractor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.sf.saxon.s9api.QName;
+
+import com.locima.xml2csv.configuration.IMapping;
+import com.locima.xml2csv.configuration.IMappingContainer;
+import com.locima.xml2csv.configuration.IValueMapping;
+import com.locima.xml2csv.configuration.XPathValue;
+
+/**
+ * Resolves, once per container, the XPath variables that each child mapping of a container uses to refer to the values found by its previous
+ * siblings, so that evaluating a child only binds the variables its value XPath actually references.
+ * <p>
+ * Every value mapping child is given a slot in the {@link XPathVariableBindings} of each evaluation of the container, equal to its position within
+ * the container. A variable reference is resolved to the first previous sibling with the same name, which is the sibling whose value would have
+ * been bound first. Instances are immutable once created, so may be shared by threads evaluating different mapping roots concurrently.
+ */
+public class SiblingVariables {
+
+	/**
+	 * Shared by all children that don't reference any variables.
+	 */
+	private static final int[] NO_SLOTS = new int[0];
+
+	/**
+	 * For each child, the slot of each of the variables referenced by its value XPath, aligned with {@link XPathValue#getReferencedVariableNames()}.
+	 */
+	private int[][] referencedSlots;
+
+	/**
+	 * The variable name of each slot, or null for children that aren't value mappings.
+	 */
+	private QName[] slotNames;
+
+	/**
+	 * Resolves the variable references of all the children of a container.
+	 *
+	 * @param container the container whose children should be resolved. Must not be null.
+	 */
+	public SiblingVariables(IMappingContainer container) {
+		List<IMapping> children = new ArrayList<IMapping>();
+		for (IMapping child : container) {
+			children.add(child);
+		}
+		this.slotNames = new QName[children.size()];
+		this.referencedSlots = new int[children.size()][];
+		for (int childIndex = 0; childIndex < children.size(); childIndex++) {
+			IMapping child = children.get(childIndex);
+			this.referencedSlots[childIndex] = NO_SLOTS;
+			if (child instanceof IValueMapping) {
+				IValueMapping valueMapping = (IValueMapping) child;
+				this.slotNames[childIndex] = new QName(valueMapping.getName());
+				XPathValue xPath = valueMapping.getValueXPath();
+				if (xPath != null) {
+					this.referencedSlots[childIndex] = resolve(xPath.getReferencedVariableNames(), childIndex);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Retrieves the slots of the variables referenced by a child.
+	 *
+	 * @param childIndex the position of the child within the container.
+	 * @return the slot of each variable in the child's {@link XPathValue#getReferencedVariableNames()}, in the same order, or -1 for a variable that
+	 *         isn't the name of a previous sibling. Never null, and must not be modified.
+	 */
+	public int[] getReferencedSlots(int childIndex) {
+		return this.referencedSlots[childIndex];
+	}
+
+	/**
+	 * Retrieves the variable name of each slot, for creating the {@link XPathVariableBindings} of an evaluation of the container.
+	 *
+	 * @return the variable name of each slot, or null for children that aren't value mappings. Must not be modified.
+	 */
+	public QName[] getSlotNames() {
+		return this.slotNames;
+	}
+
+	/**
+	 * Finds the slots of the previous siblings that a child's variable references refer to.
+	 *
+	 * @param variableNames the names of the variables referenced by the child.
+	 * @param childIndex the position of the child within the container.
+	 * @return the slot of each variable, or -1 if no previous sibling has that name.
+	 */
+	private int[] resolve(String[] variableNames, int childIndex) {
+		if (variableNames.length == 0) {
+			return NO_SLOTS;
+		}
+		int[] slots = new int[variableNames.length];
+		for (int i = 0; i < variableNames.length; i++) {
+			slots[i] = -1;
+			for (int slot = 0; slot < childIndex; slot++) {
+				if ((this.slotNames[slot] != null) && this.slotNames[slot].getLocalName().equals(variableNames[i])) {
+					slots[i] = slot;
+					break;
+				}
+			}
+		}
+		return slots;
+	}
+}
@@ -0,0 +1,546 @@
+package com.locima.xml2csv.extractor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import net.sf.saxon.s9api.Axis;
+import net.sf.saxon.s9api.BuildingContentHandler;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.s9api.XdmNodeKind;
+import net.sf.saxon.s9api.XdmSequenceIterator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.DefaultHandler;
+import org.xml.sax.helpers.NamespaceSupport;
+
+import com.locima.xml2csv.ArgumentNullException;
+import com.locima.xml2csv.XMLException;
+import com.locima.xml2csv.configuration.IMapping;
+import com.locima.xml2csv.configuration.IMappingContainer;
+import com.locima.xml2csv.configuration.IValueMapping;
+import com.locima.xml2csv.configuration.MappingConfiguration;
+import com.locima.xml2csv.configuration.MappingList;
+import com.locima.xml2csv.configuration.MappingStatistics;
+import com.locima.xml2csv.configuration.MultiValueBehaviour;
+import com.locima.xml2csv.configuration.PivotMapping;
+import com.locima.xml2csv.configuration.XPathValue;
+import com.locima.xml2csv.output.IOutputManager;
+// CHECKSTYLE:OFF Checkstyle bug, this import is used in javadoc
+import com.locima.xml2csv.output.OutputManager;
+// CHECKSTYLE:ON
+import com.locima.xml2csv.output.OutputManagerException;
+import com.locima.xml2csv.util.InputOptions;
+import com.locima.xml2csv.util.SimplePath;
+import com.locima.xml2csv.util.XPathAnalyser;
+import com.locima.xml2csv.util.XmlUtil;
+
+/**
+ * Extracts data from XML files without ever building a tree for the whole document, so that files far larger than the available heap can be
+ * processed.
+ * <p>
+ * The file is read using SAX. Whilst parsing, I track which elements match the mapping root of each top-level {@link MappingList}. When a mapping
+ * root element starts, I start building a small Saxon tree for just that element and its descendants. When it ends, the child mappings are
+ * evaluated against that tree exactly as {@link XmlDataExtractor} would, the results are written to the {@link IOutputManager} and the tree is
+ * discarded. Peak memory is therefore bounded by the size of the largest mapping root subtree, not the size of the file.
+ * <p>
+ * This only works for configurations where that is guaranteed to produce the same values, so {@link #setMappingConfiguration(MappingConfiguration)}
+ * rejects any configuration where:
+ * <ul>
+ * <li>a top-level container is not a {@link MappingList} (pivot mappings need their key/value pairs from the whole document);</li>
+ * <li>a top-level container doesn't have a mapping root that is a simple path of child steps (e.g. <code>/people/person</code>);</li>
+ * <li>a top-level container is {@link MultiValueBehaviour#GREEDY}, as that requires every mapping root in the document in a single record;</li>
+ * <li>a descendant of a top-level container is in the same group as it, as the n<sup>th</sup> value of the descendant is then output alongside the
+ * n<sup>th</sup> mapping root in the document;</li>
+ * <li>any nested XPath might reach outside of the mapping root's subtree (e.g. uses <code>..</code>, reverse axes or absolute paths);</li>
+ * <li>there are input filters that need the content of the document.</li>
+ * </ul>
+ * Note that records are written once per mapping root, rather than once per document. For most configurations this makes no difference to the
+ * output. However, where a lazy container contains several multi-valued mappings in different groups, the non-streaming extractor pads every root
+ * to the largest number of values found in any root in the document, whereas this extractor only uses the values found within each root.
+ */
+public class StreamingXmlDataExtractor {
+
+	/**
+	 * Tracks the capture of a single mapping root element in to a Saxon tree.
+	 */
+	private static class Capture {
+
+		/**
+		 * The index of the container within {@link StreamingXmlDataExtractor#containers}.
+		 */
+		private int containerIndex;
+
+		/**
+		 * The element depth at which the mapping root element was found (the document element has depth 1).
+		 */
+		private int depth;
+
+		/**
+		 * Receives all the SAX events for the mapping root element and its descendants.
+		 */
+		private BuildingContentHandler handler;
+
+		/**
+		 * Creates a new capture.
+		 *
+		 * @param containerIndex the index of the container within {@link StreamingXmlDataExtractor#containers}.
+		 * @param depth the element depth at which the mapping root element was found.
+		 * @param handler the handler that will build the tree for the mapping root element.
+		 */
+		public Capture(int containerIndex, int depth, BuildingContentHandler handler) {
+			this.containerIndex = containerIndex;
+			this.depth = depth;
+			this.handler = handler;
+		}
+	}
+
+	/**
+	 * The SAX handler that tracks where we are in the document, builds trees for mapping roots and triggers evaluation when each one is complete.
+	 * <p>
+	 * Any exception thrown during evaluation is wrapped in a {@link SAXException} to get it out of the parser, then unwrapped by
+	 * {@link StreamingXmlDataExtractor#extractTo(File, IOutputManager)}.
+	 */
+	private class StreamingHandler extends DefaultHandler implements LexicalHandler {
+
+		/**
+		 * All the mapping roots that are currently being captured, outermost first.
+		 */
+		private List<Capture> activeCaptures = new ArrayList<Capture>();
+
+		/**
+		 * The current element depth (the document element has depth 1).
+		 */
+		private int depth;
+
+		/**
+		 * For each container, the number of steps of its mapping root path that are matched by the elements currently open.
+		 */
+		private int[] matchedSteps = new int[StreamingXmlDataExtractor.this.containers.size()];
+
+		/**
+		 * Keeps track of the namespace prefixes in scope, so they can be declared at the start of every captured tree.
+		 */
+		private NamespaceSupport namespaces = new NamespaceSupport();
+
+		/**
+		 * True if the namespace context for the next element has already been pushed by a prefix mapping event.
+		 */
+		private boolean namespaceContextPushed;
+
+		/**
+		 * The output manager that all results are sent to.
+		 */
+		private IOutputManager outputManager;
+
+		/**
+		 * Creates a new handler that will send all results to <code>outputManager</code>.
+		 *
+		 * @param outputManager the output manager that all results are sent to.
+		 */
+		public StreamingHandler(IOutputManager outputManager) {
+			this.outputManager = outputManager;
+		}
+
+		@Override
+		public void characters(char[] ch, int start, int length) throws SAXException {
+			for (Capture capture : this.activeCaptures) {
+				capture.handler.characters(ch, start, length);
+			}
+		}
+
+		@Override
+		public void comment(char[] ch, int start, int length) throws SAXException {
+			for (Capture capture : this.activeCaptures) {
+				if (capture.handler instanceof LexicalHandler) {
+					((LexicalHandler) capture.handler).comment(ch, start, length);
+				}
+			}
+		}
+
+		/**
+		 * Completes the tree for the passed capture and evaluates the container against it.
+		 *
+		 * @param capture the capture that has just received the end of its mapping root element.
+		 * @throws SAXException wrapping any exception thrown during evaluation or output.
+		 */
+		private void completeCapture(Capture capture) throws SAXException {
+			capture.handler.endDocument();
+			try {
+				XdmNode mappingRootNode = getDocumentElement(capture.handler.getDocumentNode());
+				MappingList container = StreamingXmlDataExtractor.this.containers.get(capture.containerIndex);
+				ContainerExtractionContext ctx = new ContainerExtractionContext(container, StreamingXmlDataExtractor.this.statistics, 0,
+								capture.containerIndex);
+				ctx.evaluateMappingRoot(mappingRootNode);
+				this.outputManager.writeRecords(container.getName(), ctx);
+				if (LOG.isTraceEnabled()) {
+					XmlDataExtractor.logResults(ctx, 0, 0);
+				}
+			} catch (SaxonApiException sae) {
+				throw new SAXException(new DataExtractorException(sae, "Unable to build tree for mapping root"));
+			} catch (DataExtractorException dee) {
+				throw new SAXException(dee);
+			} catch (OutputManagerException ome) {
+				throw new SAXException(ome);
+			}
+		}
+
+		@Override
+		public void endCDATA() {
+			// CDATA boundaries make no difference to the values extracted
+		}
+
+		@Override
+		public void endDTD() {
+			// DTDs are not captured
+		}
+
+		@Override
+		public void endElement(String uri, String localName, String qName) throws SAXException {
+			for (int i = this.activeCaptures.size() - 1; i >= 0; i--) {
+				Capture capture = this.activeCaptures.get(i);
+				capture.handler.endElement(uri, localName, qName);
+				if (capture.depth == this.depth) {
+					this.activeCaptures.remove(i);
+					completeCapture(capture);
+				}
+			}
+			for (int i = 0; i < this.matchedSteps.length; i++) {
+				if (this.matchedSteps[i] == this.depth) {
+					this.matchedSteps[i]--;
+				}
+			}
+			this.namespaces.popContext();
+			this.depth--;
+		}
+
+		@Override
+		public void endEntity(String name) {
+			// Entity boundaries make no difference to the values extracted
+		}
+
+		@Override
+		public void endPrefixMapping(String prefix) throws SAXException {
+			for (Capture capture : this.activeCaptures) {
+				capture.handler.endPrefixMapping(prefix);
+			}
+		}
+
+		@Override
+		public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+			for (Capture capture : this.activeCaptures) {
+				capture.handler.ignorableWhitespace(ch, start, length);
+			}
+		}
+
+		@Override
+		public void processingInstruction(String target, String data) throws SAXException {
+			for (Capture capture : this.activeCaptures) {
+				capture.handler.processingInstruction(target, data);
+			}
+		}
+
+		@Override
+		public void startCDATA() {
+			// CDATA boundaries make no difference to the values extracted
+		}
+
+		/**
+		 * Starts a new capture for the element that is about to be started, declaring all the namespace prefixes that are currently in scope.
+		 *
+		 * @param containerIndex the index of the container whose mapping root has just been matched.
+		 * @throws SAXException if the tree builder rejects any event.
+		 */
+		private void startCapture(int containerIndex) throws SAXException {
+			BuildingContentHandler handler;
+			try {
+				handler = XmlUtil.getProcessor().newDocumentBuilder().newBuildingContentHandler();
+			} catch (SaxonApiException sae) {
+				throw new SAXException(new DataExtractorException(sae, "Unable to create tree builder for mapping root"));
+			}
+			handler.startDocument();
+			Enumeration<?> prefixes = this.namespaces.getPrefixes();
+			while (prefixes.hasMoreElements()) {
+				String prefix = (String) prefixes.nextElement();
+				if (!"xml".equals(prefix)) {
+					handler.startPrefixMapping(prefix, this.namespaces.getURI(prefix));
+				}
+			}
+			String defaultNamespace = this.namespaces.getURI("");
+			if (defaultNamespace != null) {
+				handler.startPrefixMapping("", defaultNamespace);
+			}
+			this.activeCaptures.add(new Capture(containerIndex, this.depth, handler));
+		}
+
+		@Override
+		public void startDTD(String name, String publicId, String systemId) {
+			// DTDs are not captured
+		}
+
+		@Override
+		public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+			if (!this.namespaceContextPushed) {
+				this.namespaces.pushContext();
+			}
+			this.namespaceContextPushed = false;
+			this.depth++;
+			for (int i = 0; i < this.matchedSteps.length; i++) {
+				SimplePath path = StreamingXmlDataExtractor.this.mappingRootPaths.get(i);
+				if ((this.matchedSteps[i] == this.depth - 1) && (this.depth <= path.size()) && path.getStep(this.depth - 1).matches(uri, localName)) {
+					this.matchedSteps[i] = this.depth;
+					if (this.depth == path.size()) {
+						startCapture(i);
+					}
+				}
+			}
+			for (Capture capture : this.activeCaptures) {
+				capture.handler.startElement(uri, localName, qName, atts);
+			}
+		}
+
+		@Override
+		public void startEntity(String name) {
+			// Entity boundaries make no difference to the values extracted
+		}
+
+		@Override
+		public void startPrefixMapping(String prefix, String uri) throws SAXException {
+			if (!this.namespaceContextPushed) {
+				this.namespaces.pushContext();
+				this.namespaceContextPushed = true;
+			}
+			this.namespaces.declarePrefix(prefix, uri);
+			for (Capture capture : this.activeCaptures) {
+				capture.handler.startPrefixMapping(prefix, uri);
+			}
+		}
+	}
+
+	private static final Logger LOG = LoggerFactory.getLogger(StreamingXmlDataExtractor.class);
+
+	/**
+	 * Finds the first element child of a document node.
+	 *
+	 * @param documentNode a document node, built from a single mapping root element.
+	 * @return the element, never null.
+	 */
+	private static XdmNode getDocumentElement(XdmNode documentNode) {
+		XdmSequenceIterator iterator = documentNode.axisIterator(Axis.CHILD);
+		while (iterator.hasNext()) {
+			XdmNode node = (XdmNode) iterator.next();
+			if (node.getNodeKind() == XdmNodeKind.ELEMENT) {
+				return node;
+			}
+		}
+		return documentNode;
+	}
+
+	/**
+	 * Determines why a configuration can't be used with streaming extraction.
+	 *
+	 * @param config the configuration to check. Must not be null.
+	 * @return a message explaining why the configuration can't be streamed, or null if it can.
+	 */
+	public static String getNonStreamableReason(MappingConfiguration config) {
+		if (config.hasDocumentContentFilters()) {
+			return "XPath input filters need the whole document to be loaded.";
+		}
+		for (IMappingContainer container : config) {
+			if (!(container instanceof MappingList)) {
+				return String.format("Top-level container %s is not a mapping list, so needs the whole document to be loaded.", container.getName());
+			}
+			if (container.getMultiValueBehaviour() == MultiValueBehaviour.GREEDY) {
+				return String.format("Top-level container %s is greedy, so requires all mapping roots in a document to be in a single record.",
+								container.getName());
+			}
+			XPathValue mappingRoot = container.getMappingRoot();
+			if (mappingRoot == null || SimplePath.parse(mappingRoot.getSource(), config.getNamespaceMap()) == null) {
+				return String.format("Top-level container %s does not have a mapping root made up only of simple child steps.", container.getName());
+			}
+			String reason = getNonStreamableReason(container, container.getGroupNumber());
+			if (reason != null) {
+				return reason;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Determines whether any XPath expression within the children of <code>container</code> might read from outside of a mapping root's subtree,
+	 * or whether any child shares a group with the top-level container.
+	 *
+	 * @param container the container to check recursively.
+	 * @param topLevelGroup the group number of the top-level container that <code>container</code> is within.
+	 * @return a message explaining why the container can't be streamed, or null if it can.
+	 */
+	private static String getNonStreamableReason(IMappingContainer container, int topLevelGroup) {
+		for (IMapping child : container) {
+			if (child.getGroupNumber() == topLevelGroup) {
+				return String.format("%s is in the same group as its top-level container, so its values are indexed across all mapping roots.",
+								child.getName());
+			}
+			List<XPathValue> xPaths = new ArrayList<XPathValue>();
+			if (child instanceof IValueMapping) {
+				xPaths.add(((IValueMapping) child).getValueXPath());
+			}
+			if (child instanceof IMappingContainer) {
+				xPaths.add(((IMappingContainer) child).getMappingRoot());
+			}
+			if (child instanceof PivotMapping) {
+				PivotMapping pivot = (PivotMapping) child;
+				xPaths.add(pivot.getKVPairRoot());
+				xPaths.add(pivot.getKeyXPath());
+				xPaths.add(pivot.getValueXPath());
+			}
+			for (XPathValue xPath : xPaths) {
+				if (xPath != null && !XPathAnalyser.isConfinedToContextSubtree(xPath.getSource())) {
+					return String.format("XPath \"%s\" in %s might refer to data outside of its mapping root.", xPath.getSource(), child.getName());
+				}
+			}
+			if (child instanceof IMappingContainer) {
+				String reason = getNonStreamableReason((IMappingContainer) child, topLevelGroup);
+				if (reason != null) {
+					return reason;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * The top-level containers of the configuration being executed.
+	 */
+	private List<MappingList> containers;
+
+	/**
+	 * How input files are read from disk.
+	 */
+	private InputOptions inputOptions = InputOptions.DEFAULT;
+
+	/**
+	 * The parsed mapping root of each of {@link #containers}, in the same order.
+	 */
+	private List<SimplePath> mappingRootPaths;
+
+	/**
+	 * The statistics that all extractions performed by this extractor are recorded in to.
+	 */
+	private MappingStatistics statistics = new MappingStatistics();
+
+	/**
+	 * Streams the passed XML file, executing the configuration set by {@link #setMappingConfiguration(MappingConfiguration)} against each mapping
+	 * root as it is found, and passes the results to <code>outputManager</code>.
+	 * <p>
+	 * Note that file name filtering (application of {@link MappingConfiguration#include(File)}) should be done by the caller before executing this
+	 * method.
+	 *
+	 * @param xmlFile The XML file to extract information from.
+	 * @param outputManager The output manager to send the extracted data to.
+	 * @throws DataExtractorException If an error occurred reading or extracting data from the XML file.
+	 * @throws OutputManagerException If an error occurred writing data to the output manager.
+	 */
+	public void extractTo(File xmlFile, IOutputManager outputManager) throws DataExtractorException, OutputManagerException {
+		LOG.info("Streaming {} through {} mapping containers", xmlFile.getAbsolutePath(), this.containers.size());
+		StreamingHandler handler = new StreamingHandler(outputManager);
+		try {
+			XMLReader reader = createXmlReader(handler);
+			XmlUtil.parse(reader, xmlFile, this.inputOptions);
+		} catch (SAXException se) {
+			Exception cause = se.getException();
+			if (cause instanceof DataExtractorException) {
+				throw (DataExtractorException) cause;
+			}
+			if (cause instanceof OutputManagerException) {
+				throw (OutputManagerException) cause;
+			}
+			throw new DataExtractorException(se, "Unable to read XML file %s", xmlFile.getAbsolutePath());
+		} catch (IOException ioe) {
+			throw new DataExtractorException(ioe, "Unable to read XML file %s", xmlFile.getAbsolutePath());
+		}
+		LOG.info("XML file {} streamed succesfully", xmlFile.getAbsolutePath());
+	}
+
+	/**
+	 * Creates a namespace-aware SAX parser that sends all events to <code>handler</code>.
+	 *
+	 * @param handler the handler to receive content and lexical events.
+	 * @return a SAX parser, never null.
+	 * @throws DataExtractorException if a parser could not be created.
+	 */
+	private XMLReader createXmlReader(DefaultHandler handler) throws DataExtractorException {
+		SAXParserFactory factory = SAXParserFactory.newInstance();
+		factory.setNamespaceAware(true);
+		XMLReader reader;
+		try {
+			reader = factory.newSAXParser().getXMLReader();
+		} catch (ParserConfigurationException pce) {
+			throw new DataExtractorException(pce, "Unable to create SAX parser");
+		} catch (SAXException se) {
+			throw new DataExtractorException(se, "Unable to create SAX parser");
+		}
+		reader.setContentHandler(handler);
+		reader.setErrorHandler(handler);
+		try {
+			reader.setProperty("http://xml.org/sax/properties/lexical-handler", handler);
+		} catch (SAXException se) {
+			LOG.debug("SAX parser does not support lexical handlers, so comments will not be available to mappings");
+		}
+		return reader;
+	}
+
+	/**
+	 * Retrieves the statistics recorded by every extraction performed by this extractor, which must be merged in to the output manager's statistics
+	 * (see {@link OutputManager#getStatistics()}) before it is closed. Each extractor has its own instance, so that extractors used by different
+	 * threads never contend with each other.
+	 *
+	 * @return the statistics recorded by this extractor, never null.
+	 */
+	public MappingStatistics getStatistics() {
+		return this.statistics;
+	}
+
+	/**
+	 * Configures how input files are read from disk.
+	 *
+	 * @param inputOptions the options to use. Must not be null. Defaults to {@link InputOptions#DEFAULT}.
+	 */
+	public void setInputOptions(InputOptions inputOptions) {
+		if (inputOptions == null) {
+			throw new ArgumentNullException("inputOptions");
+		}
+		this.inputOptions = inputOptions;
+	}
+
+	/**
+	 * Configure this extractor with the mapping configuration specified.
+	 *
+	 * @param mappingConfiguration the mapping configuration that defines how to extract data from the XML when {@link #extractTo} is called.
+	 * @throws XMLException if the configuration can't be executed in a streaming fashion (see class description for details).
+	 */
+	public void setMappingConfiguration(MappingConfiguration mappingConfiguration) throws XMLException {
+		String reason = getNonStreamableReason(mappingConfiguration);
+		if (reason != null) {
+			throw new XMLException("Unable to use streaming extraction with this configuration.  %s", reason);
+		}
+		Map<String, String> namespaceMap = mappingConfiguration.getNamespaceMap();
+		this.containers = new ArrayList<MappingList>();
+		this.mappingRootPaths = new ArrayList<SimplePath>();
+		for (IMappingContainer container : mappingConfiguration) {
+			this.containers.add((MappingList) container);
+			this.mappingRootPaths.add(SimplePath.parse(container.getMappingRoot().getSource(), namespaceMap));
+		}
+	}
+}
@@ -1,9 +1,5 @@
 package com.locima.xml2csv.extractor;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Map.Entry;
-
 import net.sf.saxon.s9api.QName;
 import net.sf.saxon.s9api.SaxonApiException;
 import net.sf.saxon.s9api.XPathSelector;
@@ -20,104 +16,98 @@ import com.locima.xml2csv.util.StringUtil;
  * Keeps track of variables that are passed to {@link IExtractionContext} values for use in XPath expressions executed by the underlying
  * {@link IMapping} implementations.
  * <p>
- * Variables are multi-valued.
+ * Each variable is held in a numbered <em>slot</em>, which is the position of the mapping that found its value within its parent (see
+ * {@link SiblingVariables}), so binding and looking up values needs no hashing and no new {@link QName} instances. A variable is bound to the first
+ * value added to it; later values are ignored.
  */
 public class XPathVariableBindings {
 
-	private static final Logger LOG = LoggerFactory.getLogger(XPathVariableBindings.class);
+	/**
+	 * The value bound to variables of mappings that didn't find any values.
+	 */
+	private static final XdmAtomicValue EMPTY_VALUE = new XdmAtomicValue(StringUtil.EMPTY_STRING);
 
-	private Map<QName, XdmValue> bindings;
+	private static final Logger LOG = LoggerFactory.getLogger(XPathVariableBindings.class);
 
 	/**
-	 * Create a new empty set of bindings.
+	 * The name of the variable in each slot, or null if no variable uses the slot. Only used for logging.
 	 */
-	public XPathVariableBindings() {
-		this.bindings = new HashMap<QName, XdmValue>();
-	}
+	private QName[] names;
 
 	/**
-	 * Add a new value to the variable with the given name. Variables are multi-valued, so if the variable name already exists, then the new value
-	 * will be appended (similar to array behaviour).
-	 *
-	 * @param qName the name of the variable. Must not be null.
-	 * @param xdmValue the value to associate with the variable name, or appended to an existing value. May be null.
+	 * The value of the variable in each slot, or null if no value has been added yet.
 	 */
-	public void addVariable(QName qName, XdmValue xdmValue) {
-		if (this.bindings.containsKey(qName)) {
-			XdmValue boundValue = this.bindings.get(qName);
-			boundValue.append(xdmValue);
-		} else {
-			this.bindings.put(qName, xdmValue);
-		}
-
-	}
+	private XdmValue[] values;
 
 	/**
-	 * Add an empty value to the variable with the given name. Variables are multi-valued, so if the variable name already exists, then the new value
-	 * will be appended (similar to array behaviour).
+	 * Create a new empty set of bindings.
 	 *
-	 * @param name the name of the variable. Will be converted to a {@link QName}. Must not be null.
+	 * @param names the name of the variable in each slot, or null if no variable uses the slot. Must not be null, and must not be modified
+	 *            afterwards.
 	 */
-	public void addVariable(String name) {
-		addVariable(new QName(name), new XdmAtomicValue(StringUtil.EMPTY_STRING));
+	public XPathVariableBindings(QName[] names) {
+		this.names = names;
+		this.values = new XdmValue[names.length];
 	}
 
 	/**
-	 * Add a new value to the variable with the given name. Variables are multi-valued, so if the variable name already exists, then the new value
-	 * will be appended (similar to array behaviour).
+	 * Add an empty value to the variable in the given slot, unless it already has a value.
 	 *
-	 * @param name the name of the variable. Will be converted to a {@link QName}. Must not be null.
-	 * @param value the value to associate with the variable name, or appended to an existing value. Will be converted to an {@link XdmAtomicValue}.
-	 *            May be null.
+	 * @param slot the slot of the variable.
 	 */
-	public void addVariable(String name, String value) {
-		if (value == null) {
-			addVariable(name);
-		} else {
-			addVariable(new QName(name), new XdmAtomicValue(value));
-		}
+	public void addVariable(int slot) {
+		addVariable(slot, null);
 	}
 
 	/**
-	 * Add a new value to the variable with the given name. Variables are multi-valued, so if the variable name already exists, then the new value
-	 * will be appended (similar to array behaviour).
+	 * Add a new value to the variable in the given slot, unless it already has a value.
 	 *
-	 * @param name the name of the variable. Will be converted to a {@link QName}. Must not be null.
-	 * @param xdmValue the value to associate with the variable name, or appended to an existing value. May be null.
+	 * @param slot the slot of the variable.
+	 * @param value the value to associate with the variable. Will be converted to an {@link XdmAtomicValue}. May be null, in which case the variable
+	 *            is bound to an empty string.
 	 */
-	public void addVariable(String name, XdmValue xdmValue) {
-		addVariable(new QName(name), xdmValue);
+	public void addVariable(int slot, String value) {
+		if (this.values[slot] == null) {
+			this.values[slot] = (value == null) ? EMPTY_VALUE : new XdmAtomicValue(value);
+		}
 	}
 
 	/**
-	 * Binds a set of variables in to the passed selector.
+	 * Binds a set of variables in to the passed selector. Variables that don't have a value yet are not bound.
 	 *
 	 * @param selector the selector to bind the variable values to. Must not be null.
+	 * @param variableNames the names of the variables to bind, as declared to the compiled expression. Must not be null.
+	 * @param slots the slot of each variable in <code>variableNames</code>, or -1 if the variable isn't held by these bindings. Must not be null.
 	 * @throws SaxonApiException if any errors occur during binding (for example, attempting to bind an undeclared variable.
 	 */
-	public void bindTo(XPathSelector selector) throws SaxonApiException {
+	public void bindTo(XPathSelector selector, QName[] variableNames, int[] slots) throws SaxonApiException {
 		if (LOG.isTraceEnabled()) {
 			LOG.trace(dumpContents());
 		}
-		for (Entry<QName, XdmValue> binding : this.bindings.entrySet()) {
-			selector.setVariable(binding.getKey(), binding.getValue());
+		for (int i = 0; i < slots.length; i++) {
+			int slot = slots[i];
+			if ((slot >= 0) && (this.values[slot] != null)) {
+				selector.setVariable(variableNames[i], this.values[slot]);
+			}
 		}
 	}
 
 	/**
 	 * Creates a string version of the all the variable bindings.
-	 * 
+	 *
 	 * @return a string version of all the variable bindings (<code>name = value</code> pairs).
 	 */
 	public String dumpContents() {
 		StringBuilder sb = new StringBuilder();
 		sb.append("XPath variable bindings as follows:");
 		sb.append(StringUtil.LINE_SEPARATOR);
-		for (Entry<QName, XdmValue> entry : this.bindings.entrySet()) {
-			sb.append(entry.getKey().getLocalName());
-			sb.append(" = ");
-			sb.append(entry.getValue());
-			sb.append(StringUtil.LINE_SEPARATOR);
+		for (int slot = 0; slot < this.values.length; slot++) {
+			if (this.values[slot] != null) {
+				sb.append(this.names[slot] == null ? Integer.toString(slot) : this.names[slot].getLocalName());
+				sb.append(" = ");
+				sb.append(this.values[slot]);
+				sb.append(StringUtil.LINE_SEPARATOR);
+			}
 		}
 		return sb.toString();
 	}
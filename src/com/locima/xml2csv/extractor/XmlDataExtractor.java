@@ -1,21 +1,31 @@
 package com.locima.xml2csv.extractor;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
 
 import net.sf.saxon.s9api.XdmNode;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.locima.xml2csv.ArgumentException;
 import com.locima.xml2csv.configuration.IMappingContainer;
 import com.locima.xml2csv.configuration.Mapping;
 import com.locima.xml2csv.configuration.MappingConfiguration;
 import com.locima.xml2csv.configuration.MappingList;
+import com.locima.xml2csv.configuration.MappingStatistics;
 import com.locima.xml2csv.configuration.PivotMapping;
 import com.locima.xml2csv.output.IExtractionResults;
 import com.locima.xml2csv.output.IExtractionResultsContainer;
 import com.locima.xml2csv.output.IExtractionResultsValues;
 import com.locima.xml2csv.output.IOutputManager;
+// CHECKSTYLE:OFF Checkstyle bug, this import is used in javadoc
+import com.locima.xml2csv.output.OutputManager;
+// CHECKSTYLE:ON
 import com.locima.xml2csv.output.OutputManagerException;
 import com.locima.xml2csv.util.StringUtil;
 
@@ -30,6 +40,50 @@ import com.locima.xml2csv.util.StringUtil;
  */
 public class XmlDataExtractor {
 
+	/**
+	 * Evaluates a single top-level mapping container against a document.
+	 */
+	private class ContainerTask implements Callable<IExtractionContext> {
+
+		/**
+		 * The mapping container to evaluate.
+		 */
+		private IMappingContainer container;
+
+		/**
+		 * The index of the container within the mapping configuration.
+		 */
+		private int containerIndex;
+
+		/**
+		 * The document to evaluate the container against.
+		 */
+		private XdmNode xmlDoc;
+
+		/**
+		 * Creates a new task.
+		 *
+		 * @param container the mapping container to evaluate.
+		 * @param containerIndex the index of the container within the mapping configuration.
+		 * @param xmlDoc the document to evaluate the container against.
+		 */
+		public ContainerTask(IMappingContainer container, int containerIndex, XdmNode xmlDoc) {
+			this.container = container;
+			this.containerIndex = containerIndex;
+			this.xmlDoc = xmlDoc;
+		}
+
+		@Override
+		public IExtractionContext call() throws DataExtractorException {
+			return evaluate(this.container, this.containerIndex, this.xmlDoc);
+		}
+	}
+
+	/**
+	 * The default number of mapping roots of a top-level container evaluated by a single task: {@value} .
+	 */
+	public static final int DEFAULT_MAPPING_ROOT_CHUNK_SIZE = 256;
+
 	private static final Logger LOG = LoggerFactory.getLogger(XmlDataExtractor.class);
 
 	/**
@@ -66,11 +120,60 @@ public class XmlDataExtractor {
 		}
 	}
 
+	/**
+	 * Waits for a task to complete, running it on the calling thread if no other thread has started it yet.
+	 * <p>
+	 * Running unstarted tasks here means that the calling thread is never idle waiting for a busy pool, and that it is safe for a pool thread to call
+	 * {@link #extractTo(XdmNode, IOutputManager)} using the same pool, as there is always at least one thread making progress.
+	 *
+	 * @param <T> the type of the result of the task.
+	 * @param task the task to wait for.
+	 * @return the result of the task.
+	 * @throws DataExtractorException if the task threw an exception, or the calling thread was interrupted whilst waiting.
+	 */
+	static <T> T runOrWait(FutureTask<T> task) throws DataExtractorException {
+		// Does nothing if the task has already been started by another thread
+		task.run();
+		try {
+			return task.get();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new DataExtractorException(ie, "Interrupted whilst waiting for extraction to complete");
+		} catch (ExecutionException ee) {
+			Throwable cause = ee.getCause();
+			if (cause instanceof DataExtractorException) {
+				throw (DataExtractorException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new DataExtractorException((Exception) cause, "Unexpected exception thrown during concurrent extraction");
+		}
+	}
+
+	/**
+	 * Used to evaluate mapping containers, and chunks of their mapping roots, concurrently, or null if everything is evaluated on the calling thread.
+	 */
+	private ExecutorService executor;
+
+	/**
+	 * The number of mapping roots of a top-level container evaluated by a single task when using {@link #executor}.
+	 */
+	private int mappingRootChunkSize = DEFAULT_MAPPING_ROOT_CHUNK_SIZE;
+
 	/**
 	 * Stores the mapping configuration to be used by this extractor.
 	 */
 	private MappingConfiguration mappingConfiguration;
 
+	/**
+	 * The statistics that all extractions performed by this extractor are recorded in to.
+	 */
+	private MappingStatistics statistics = new MappingStatistics();
+
 	/**
 	 * Executes the mappingConfiguration set by {@link #setMappingConfiguration(MappingConfiguration)} against a document <code>xmlDoc</code> and
 	 * passes the results to <code>outputManager</code>.
@@ -86,24 +189,116 @@ public class XmlDataExtractor {
 	public void extractTo(XdmNode xmlDoc, IOutputManager outputManager) throws DataExtractorException, OutputManagerException {
 		LOG.info("Executing {} sets of mappingConfiguration", this.mappingConfiguration.size());
 		this.mappingConfiguration.log();
+		if ((this.executor != null) && (this.mappingConfiguration.size() > 1)) {
+			extractConcurrently(xmlDoc, outputManager);
+			return;
+		}
 		int mappingSiblingIndex = 0;
 		for (IMappingContainer mapping : this.mappingConfiguration) {
-			IExtractionContext ctx;
-			if (mapping instanceof MappingList) {
-				ctx = new ContainerExtractionContext((MappingList) mapping, 0, mappingSiblingIndex);
-			} else {
-				ctx = new PivotExtractionContext((PivotMapping) mapping, 0, mappingSiblingIndex);
-			}
-			ctx.evaluate(xmlDoc, null);
-			IExtractionResultsContainer results = (IExtractionResultsContainer) ctx;
-			outputManager.writeRecords(mapping.getName(), results);
-			if (LOG.isTraceEnabled()) {
-				LOG.trace("START RESULTS OUTPUT after completed mapping container {} against document", mapping);
-				logResults(ctx, 0, 0);
-				LOG.trace("END RESULTS OUTPUT");
+			IExtractionContext ctx = evaluate(mapping, mappingSiblingIndex, xmlDoc);
+			write(mapping, ctx, outputManager);
+			mappingSiblingIndex++;
+		}
+	}
+
+	/**
+	 * Evaluates every top-level mapping container against a document concurrently, using {@link #executor}, then writes the results for each
+	 * container in configuration order. As each container writes to a different output and shares nothing but the (read-only) document, no
+	 * co-ordination between them is required. All writes happen on the calling thread, so <code>outputManager</code> need not be thread-safe.
+	 *
+	 * @param xmlDoc The XML document to extract information from.
+	 * @param outputManager The output manager to send the extracted data to.
+	 * @throws DataExtractorException If an error occurred extracting data from the XML document.
+	 * @throws OutputManagerException If an error occurred writing data to the output manager.
+	 */
+	private void extractConcurrently(XdmNode xmlDoc, IOutputManager outputManager) throws DataExtractorException, OutputManagerException {
+		List<FutureTask<IExtractionContext>> tasks = new ArrayList<FutureTask<IExtractionContext>>(this.mappingConfiguration.size());
+		int mappingSiblingIndex = 0;
+		for (IMappingContainer mapping : this.mappingConfiguration) {
+			FutureTask<IExtractionContext> task = new FutureTask<IExtractionContext>(new ContainerTask(mapping, mappingSiblingIndex, xmlDoc));
+			tasks.add(task);
+			// The calling thread will run the first task itself, so no point in giving it to the pool
+			if (mappingSiblingIndex > 0) {
+				this.executor.execute(task);
 			}
 			mappingSiblingIndex++;
 		}
+		try {
+			mappingSiblingIndex = 0;
+			for (IMappingContainer mapping : this.mappingConfiguration) {
+				write(mapping, runOrWait(tasks.get(mappingSiblingIndex)), outputManager);
+				mappingSiblingIndex++;
+			}
+		} finally {
+			// If anything failed then don't waste time on work that will never be written
+			for (FutureTask<IExtractionContext> task : tasks) {
+				task.cancel(false);
+			}
+		}
+	}
+
+	/**
+	 * Evaluates a single top-level mapping container against a document.
+	 *
+	 * @param mapping the mapping container to evaluate.
+	 * @param mappingSiblingIndex the index of the container within the mapping configuration.
+	 * @param xmlDoc The XML document to extract information from.
+	 * @return the evaluated context, containing all the results.
+	 * @throws DataExtractorException If an error occurred extracting data from the XML document.
+	 */
+	private IExtractionContext evaluate(IMappingContainer mapping, int mappingSiblingIndex, XdmNode xmlDoc) throws DataExtractorException {
+		IExtractionContext ctx;
+		if (mapping instanceof MappingList) {
+			ContainerExtractionContext containerCtx = new ContainerExtractionContext((MappingList) mapping, this.statistics, 0, mappingSiblingIndex);
+			containerCtx.setExecutor(this.executor, this.mappingRootChunkSize);
+			ctx = containerCtx;
+		} else {
+			ctx = new PivotExtractionContext((PivotMapping) mapping, this.statistics, 0, mappingSiblingIndex);
+		}
+		ctx.evaluate(xmlDoc, null);
+		return ctx;
+	}
+
+	/**
+	 * Retrieves the statistics recorded by every extraction performed by this extractor, which must be merged in to the output manager's statistics
+	 * (see {@link OutputManager#getStatistics()}) before it is closed. Each extractor has its own instance, so that extractors used by different
+	 * threads never contend with each other.
+	 *
+	 * @return the statistics recorded by this extractor, never null.
+	 */
+	public MappingStatistics getStatistics() {
+		return this.statistics;
+	}
+
+	/**
+	 * Configures a pool of threads that this extractor may use to evaluate the top-level mapping containers of each document concurrently. This is
+	 * useful when a configuration has several containers and documents are very large, as a single document can then use more than one core.
+	 * <p>
+	 * The pool is also used to split the mapping roots found by each top-level {@link MappingList} in to chunks (see
+	 * {@link #setMappingRootChunkSize(int)}), which are evaluated concurrently then combined in document order. This allows a single very large
+	 * document to use more than one core even if it has only one mapping container.
+	 * <p>
+	 * The calling thread always takes part in evaluation, so it is safe to share a pool between several extractors, even when they are themselves
+	 * running on that pool.
+	 *
+	 * @param executor the pool to use, or null (the default) to evaluate everything on the calling thread.
+	 */
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Configures how many mapping roots of a top-level container are evaluated by a single task, when a pool has been set by
+	 * {@link #setExecutor(ExecutorService)}. Containers that find fewer than twice this number of mapping roots are not split. Smaller chunks spread
+	 * work more evenly, larger ones have less overhead.
+	 *
+	 * @param mappingRootChunkSize the number of mapping roots per task, must be at least 1. Defaults to {@link #DEFAULT_MAPPING_ROOT_CHUNK_SIZE}.
+	 */
+	public void setMappingRootChunkSize(int mappingRootChunkSize) {
+		if (mappingRootChunkSize < 1) {
+			throw new ArgumentException("mappingRootChunkSize", "must be at least 1");
+		}
+		this.mappingRootChunkSize = mappingRootChunkSize;
 	}
 
 	/**
@@ -114,4 +309,22 @@ public class XmlDataExtractor {
 	public void setMappingConfiguration(MappingConfiguration mappingConfiguration) {
 		this.mappingConfiguration = mappingConfiguration;
 	}
+
+	/**
+	 * Writes the results of evaluating a single top-level mapping container to an output manager.
+	 *
+	 * @param mapping the mapping container that was evaluated.
+	 * @param ctx the evaluated context, containing all the results.
+	 * @param outputManager The output manager to send the extracted data to.
+	 * @throws OutputManagerException If an error occurred writing data to the output manager.
+	 */
+	private void write(IMappingContainer mapping, IExtractionContext ctx, IOutputManager outputManager) throws OutputManagerException {
+		IExtractionResultsContainer results = (IExtractionResultsContainer) ctx;
+		outputManager.writeRecords(mapping.getName(), results);
+		if (LOG.isTraceEnabled()) {
+			LOG.trace("START RESULTS OUTPUT after completed mapping container {} against document", mapping);
+			logResults(ctx, 0, 0);
+			LOG.trace("END RESULTS OUTPUT");
+		}
+	}
 }
@@ -0,0 +1,737 @@
+package com.locima.xml2csv.generator;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.locima.xml2csv.ArgumentException;
+import com.locima.xml2csv.ArgumentNullException;
+import com.locima.xml2csv.configuration.IMapping;
+import com.locima.xml2csv.configuration.IMappingContainer;
+import com.locima.xml2csv.configuration.IValueMapping;
+import com.locima.xml2csv.configuration.MappingConfiguration;
+import com.locima.xml2csv.configuration.PivotMapping;
+import com.locima.xml2csv.configuration.XPathValue;
+import com.locima.xml2csv.generator.ElementTemplate.Content;
+import com.locima.xml2csv.generator.ElementTemplate.Repeat;
+
+/**
+ * Generates synthetic XML input documents, of any size and number, that a {@link MappingConfiguration} will extract data from. This is used to
+ * create realistic inputs for benchmarks and scaling tests without having to check large files in to the repository.
+ * <p>
+ * The generator works backwards from the XPath expressions in the configuration: every mapping root, value, pivot key/value pair root, key and
+ * value expression is turned in to the elements and attributes that it would select, and random values are written in to them. Only simple
+ * expressions can be followed like this: child element steps (with namespace prefixes), <code>.</code>, <code>..</code>, and a trailing attribute
+ * or <code>text()</code> step. Mappings that use anything else (predicates, functions, other axes) are ignored, with a warning.
+ * <p>
+ * Generation is deterministic: the same configuration and settings always produce exactly the same files, and each file is generated from its own
+ * seed, so files can be generated in any order or in parallel. The following settings control the shape of the output:
+ * <ul>
+ * <li>{@link #setFileCount(int)} and {@link #setFileSize(long)} control the number and approximate size of files. Each file contains a single
+ * document element, whose contents are repeated until the file is big enough.</li>
+ * <li>{@link #setRootFanOut(int)} controls how many mapping roots of nested containers are found beneath each parent mapping root.</li>
+ * <li>{@link #setValueFanOut(int)} controls the maximum number of values found by each value mapping (multi-value fan-out).</li>
+ * <li>{@link #setPivotKeyCardinality(int)} controls the number of distinct keys found by pivot mappings.</li>
+ * <li>{@link #setNestingDepth(int)} adds a subtree of this depth, which no mapping refers to, beneath every mapping root.</li>
+ * <li>{@link #setRandomisePrefixes(boolean)} controls whether the namespace prefixes in the configuration are used, or different ones.</li>
+ * </ul>
+ */
+public class CorpusGenerator {
+
+	/**
+	 * Writes a single document. A new instance is used for each document, so that a single generator can be used by multiple threads.
+	 */
+	private class DocumentWriter {
+
+		/**
+		 * The number of characters written so far.
+		 */
+		private long count;
+
+		/**
+		 * The pivot key that the key/value pair currently being written is for.
+		 */
+		private String currentPivotKey;
+
+		/**
+		 * The prefix to use for each namespace URI.
+		 */
+		private Map<String, String> prefixes;
+
+		/**
+		 * The source of all randomness in this document.
+		 */
+		private Random random;
+
+		/**
+		 * The writer that the document is written to.
+		 */
+		private Writer writer;
+
+		/**
+		 * Creates a new instance.
+		 *
+		 * @param writer the writer that the document is written to.
+		 * @param random the source of all randomness in this document.
+		 */
+		public DocumentWriter(Writer writer, Random random) {
+			this.writer = writer;
+			this.random = random;
+			this.prefixes = createPrefixes();
+		}
+
+		/**
+		 * Generates a random number between 1 and <code>max</code> inclusive.
+		 *
+		 * @param max the maximum number to generate.
+		 * @return a random number.
+		 */
+		private int nextCount(int max) {
+			return 1 + this.random.nextInt(max);
+		}
+
+		/**
+		 * Generates a random value to put in an attribute or text node. Some values contain characters that need escaping in a CSV file.
+		 *
+		 * @return a random value, never null.
+		 */
+		private String nextValue() {
+			int length = 3 + this.random.nextInt(8);
+			StringBuilder value = new StringBuilder(length + 2);
+			for (int i = 0; i < length; i++) {
+				value.append(VALUE_CHARACTERS.charAt(this.random.nextInt(VALUE_CHARACTERS.length())));
+			}
+			if (this.random.nextInt(16) == 0) {
+				value.insert(length / 2, ", ");
+			}
+			return value.toString();
+		}
+
+		/**
+		 * Generates the content of an attribute or text node.
+		 *
+		 * @param content what to generate.
+		 * @return the generated content.
+		 */
+		private String getContent(Content content) {
+			return content == Content.PIVOT_KEY ? this.currentPivotKey : nextValue();
+		}
+
+		/**
+		 * Writes a string.
+		 *
+		 * @param s the string to write.
+		 * @throws IOException if the underlying writer fails.
+		 */
+		private void write(String s) throws IOException {
+			this.writer.write(s);
+			this.count += s.length();
+		}
+
+		/**
+		 * Writes the whole document.
+		 *
+		 * @throws IOException if the underlying writer fails.
+		 */
+		public void writeDocument() throws IOException {
+			write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+			ElementTemplate documentElement = CorpusGenerator.this.documentTemplate.getChildren().get(0);
+			writeStartTag(documentElement, true);
+			List<ElementTemplate> children = documentElement.getChildren();
+			do {
+				for (ElementTemplate child : children) {
+					writeRepeated(child, 1);
+				}
+			} while (!children.isEmpty() && (this.count < CorpusGenerator.this.fileSize));
+			if (!children.isEmpty()) {
+				writeIndent(0);
+			}
+			writeEndTag(documentElement);
+			write("\n");
+		}
+
+		/**
+		 * Writes a single instance of an element and all its descendants.
+		 *
+		 * @param template the element to write.
+		 * @param depth the depth of the element within the document, used for indentation.
+		 * @throws IOException if the underlying writer fails.
+		 */
+		private void writeElement(ElementTemplate template, int depth) throws IOException {
+			writeIndent(depth);
+			writeStartTag(template, false);
+			if (template.getText() != null) {
+				write(getContent(template.getText()));
+			}
+			List<ElementTemplate> children = template.getChildren();
+			for (ElementTemplate child : children) {
+				writeRepeated(child, depth + 1);
+			}
+			if (template.isMappingRoot() && (CorpusGenerator.this.nestingDepth > 0)) {
+				writePadding(depth + 1, CorpusGenerator.this.nestingDepth);
+			}
+			if (!children.isEmpty() || (template.isMappingRoot() && (CorpusGenerator.this.nestingDepth > 0))) {
+				writeIndent(depth);
+			}
+			writeEndTag(template);
+		}
+
+		/**
+		 * Writes an end tag.
+		 *
+		 * @param template the element to write the end tag of.
+		 * @throws IOException if the underlying writer fails.
+		 */
+		private void writeEndTag(ElementTemplate template) throws IOException {
+			write("</");
+			writeName(template.getNamespaceUri(), template.getLocalName());
+			write(">");
+		}
+
+		/**
+		 * Starts a new line and indents it.
+		 *
+		 * @param depth the number of tabs to indent by.
+		 * @throws IOException if the underlying writer fails.
+		 */
+		private void writeIndent(int depth) throws IOException {
+			write("\n");
+			for (int i = 0; i < depth; i++) {
+				write("\t");
+			}
+		}
+
+		/**
+		 * Writes a qualified name.
+		 *
+		 * @param uri the namespace URI, or the empty string for no namespace.
+		 * @param localName the local name.
+		 * @throws IOException if the underlying writer fails.
+		 */
+		private void writeName(String uri, String localName) throws IOException {
+			if (uri.length() > 0) {
+				write(this.prefixes.get(uri));
+				write(":");
+			}
+			write(localName);
+		}
+
+		/**
+		 * Writes a chain of nested elements that no mapping refers to.
+		 *
+		 * @param depth the depth of the first element within the document, used for indentation.
+		 * @param remaining the number of nested elements to write.
+		 * @throws IOException if the underlying writer fails.
+		 */
+		private void writePadding(int depth, int remaining) throws IOException {
+			writeIndent(depth);
+			write("<" + PADDING_ELEMENT + " level=\"" + remaining + "\">");
+			if (remaining > 1) {
+				writePadding(depth + 1, remaining - 1);
+				writeIndent(depth);
+			} else {
+				write(nextValue());
+			}
+			write("</" + PADDING_ELEMENT + ">");
+		}
+
+		/**
+		 * Writes all the instances of an element required by its repeat setting.
+		 *
+		 * @param template the element to write.
+		 * @param depth the depth of the element within the document, used for indentation.
+		 * @throws IOException if the underlying writer fails.
+		 */
+		private void writeRepeated(ElementTemplate template, int depth) throws IOException {
+			switch (template.getRepeat()) {
+				case MAPPING_ROOT:
+					for (int i = nextCount(CorpusGenerator.this.rootFanOut); i > 0; i--) {
+						writeElement(template, depth);
+					}
+					break;
+				case VALUE:
+					for (int i = nextCount(CorpusGenerator.this.valueFanOut); i > 0; i--) {
+						writeElement(template, depth);
+					}
+					break;
+				case PIVOT_PAIR:
+					int cardinality = CorpusGenerator.this.pivotKeyCardinality;
+					int pairCount = nextCount(Math.min(cardinality, MAX_PIVOT_PAIRS));
+					Set<Integer> usedKeys = new HashSet<Integer>();
+					while (usedKeys.size() < pairCount) {
+						Integer key = Integer.valueOf(this.random.nextInt(cardinality));
+						if (usedKeys.add(key)) {
+							this.currentPivotKey = "Key" + key;
+							writeElement(template, depth);
+						}
+					}
+					break;
+				default:
+					writeElement(template, depth);
+					break;
+			}
+		}
+
+		/**
+		 * Writes a start tag, including all attributes.
+		 *
+		 * @param template the element to write the start tag of.
+		 * @param declareNamespaces if true, declare all the namespace prefixes used in the document.
+		 * @throws IOException if the underlying writer fails.
+		 */
+		private void writeStartTag(ElementTemplate template, boolean declareNamespaces) throws IOException {
+			write("<");
+			writeName(template.getNamespaceUri(), template.getLocalName());
+			if (declareNamespaces) {
+				for (Map.Entry<String, String> entry : this.prefixes.entrySet()) {
+					write(" xmlns:" + entry.getValue() + "=\"" + entry.getKey() + "\"");
+				}
+			}
+			for (Map.Entry<String, Content> attribute : template.getAttributes().entrySet()) {
+				String key = attribute.getKey();
+				int separator = key.indexOf(' ');
+				write(" ");
+				writeName(key.substring(0, separator), key.substring(separator + 1));
+				write("=\"");
+				write(getContent(attribute.getValue()));
+				write("\"");
+			}
+			write(">");
+		}
+	}
+
+	private static final Logger LOG = LoggerFactory.getLogger(CorpusGenerator.class);
+
+	/**
+	 * The maximum number of key/value pairs written beneath a single pivot mapping root.
+	 */
+	private static final int MAX_PIVOT_PAIRS = 10;
+
+	/**
+	 * The name of the elements written by {@link #setNestingDepth(int)}.
+	 */
+	private static final String PADDING_ELEMENT = "padding";
+
+	/**
+	 * Matches a name test, with an optional namespace prefix.
+	 */
+	private static final Pattern QNAME_PATTERN = Pattern.compile("(?:([A-Za-z_][\\w.\\-]*):)?([A-Za-z_][\\w.\\-]*)");
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * The characters that random values are made from.
+	 */
+	private static final String VALUE_CHARACTERS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+
+	/**
+	 * The template for the document node, whose only child is the document element.
+	 */
+	private ElementTemplate documentTemplate = new ElementTemplate(null, "", "");
+
+	/**
+	 * The number of files that {@link #generate(File)} creates.
+	 */
+	private int fileCount = 1;
+
+	/**
+	 * The approximate size of each file, in bytes.
+	 */
+	private long fileSize = 1024 * 1024;
+
+	/**
+	 * The namespace prefix to URI mappings of the configuration.
+	 */
+	private Map<String, String> namespaceMappings;
+
+	/**
+	 * The depth of the unmapped subtree added beneath each mapping root.
+	 */
+	private int nestingDepth;
+
+	/**
+	 * The number of distinct keys used by pivot mappings.
+	 */
+	private int pivotKeyCardinality = 10;
+
+	/**
+	 * If true, namespace prefixes that differ from the configuration's are used.
+	 */
+	private boolean randomisePrefixes;
+
+	/**
+	 * The maximum number of mapping roots of a nested container beneath each parent.
+	 */
+	private int rootFanOut = 3;
+
+	/**
+	 * The seed from which each file's random number generator is derived.
+	 */
+	private long seed;
+
+	/**
+	 * The maximum number of values found by each value mapping.
+	 */
+	private int valueFanOut = 2;
+
+	/**
+	 * Creates a new generator for the configuration passed.
+	 *
+	 * @param config the configuration that generated documents will be processed with. Must not be null.
+	 * @throws ArgumentException if none of the mappings in the configuration can be used to generate a document.
+	 */
+	public CorpusGenerator(MappingConfiguration config) {
+		if (config == null) {
+			throw new ArgumentNullException("config");
+		}
+		this.namespaceMappings = config.getNamespaceMap();
+		for (IMappingContainer container : config) {
+			addContainer(this.documentTemplate, container);
+		}
+		if (this.documentTemplate.getChildren().isEmpty()) {
+			throw new ArgumentException("config", "contains no mappings that can be used to generate documents");
+		}
+	}
+
+	/**
+	 * Adds the elements and attributes required by a container, and all its descendants, to the templates.
+	 *
+	 * @param context the template that the container's mapping root is relative to.
+	 * @param container the container to add.
+	 */
+	private void addContainer(ElementTemplate context, IMappingContainer container) {
+		ElementTemplate root = context;
+		XPathValue mappingRoot = container.getMappingRoot();
+		if (mappingRoot != null) {
+			root = addPath(context, mappingRoot.getSource(), Repeat.MAPPING_ROOT, null);
+			if (root == null) {
+				return;
+			}
+			root.setMappingRoot();
+		}
+		if (container instanceof PivotMapping) {
+			PivotMapping pivot = (PivotMapping) container;
+			ElementTemplate pair = addPath(root, pivot.getKVPairRoot().getSource(), Repeat.PIVOT_PAIR, null);
+			if (pair != null) {
+				addPath(pair, pivot.getKeyXPath().getSource(), null, Content.PIVOT_KEY);
+				addPath(pair, pivot.getValueXPath().getSource(), null, Content.VALUE);
+			}
+		} else {
+			for (IMapping child : container) {
+				if (child instanceof IMappingContainer) {
+					addContainer(root, (IMappingContainer) child);
+				} else {
+					addPath(root, ((IValueMapping) child).getValueXPath().getSource(), Repeat.VALUE, Content.VALUE);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds the elements and attributes that an XPath expression would select to the templates.
+	 *
+	 * @param context the template that the expression is relative to.
+	 * @param expression the XPath expression.
+	 * @param elementRepeat how many times the last element created by the expression should be repeated, or null to leave it alone.
+	 * @param content what the attribute or text selected by the expression should contain, or null if it selects an element.
+	 * @return the last element template that the expression refers to, or null if the expression is too complex to be followed.
+	 */
+	// CHECKSTYLE:OFF Cyclomatic complexity is high, but splitting this up would only make it harder to follow.
+	private ElementTemplate addPath(ElementTemplate context, String expression, Repeat elementRepeat, Content content) {
+		// CHECKSTYLE:ON
+		String path = expression.trim();
+		ElementTemplate current = context;
+		if (path.startsWith("/")) {
+			current = this.documentTemplate;
+			path = path.substring(1);
+		}
+		String[] steps = path.split("/", -1);
+		ElementTemplate lastCreated = null;
+		boolean isLeafElement = true;
+		for (int i = 0; i < steps.length; i++) {
+			String step = steps[i].trim();
+			boolean isLast = i == steps.length - 1;
+			if (".".equals(step)) {
+				continue;
+			}
+			if ("..".equals(step)) {
+				current = current.getParent();
+				lastCreated = null;
+				if (current == null) {
+					return unsupported(expression);
+				}
+			} else if (isLast && "text()".equals(step) && (current != this.documentTemplate)) {
+				if (content != null) {
+					current.setText(content);
+				}
+				isLeafElement = false;
+			} else if (isLast && step.startsWith("@") && (current != this.documentTemplate)) {
+				String[] name = resolveName(step.substring(1), false);
+				if (name == null) {
+					return unsupported(expression);
+				}
+				current.addAttribute(name[0], name[1], content == null ? Content.VALUE : content);
+				isLeafElement = false;
+			} else {
+				String[] name = resolveName(step, true);
+				if (name == null) {
+					return unsupported(expression);
+				}
+				if ((current == this.documentTemplate) && !current.getChildren().isEmpty()) {
+					ElementTemplate documentElement = current.getChildren().get(0);
+					if (!documentElement.getNamespaceUri().equals(name[0]) || !documentElement.getLocalName().equals(name[1])) {
+						LOG.warn("Ignoring {} as a document can only have one document element, which is already {}", expression, documentElement);
+						return null;
+					}
+				}
+				current = current.getChild(name[0], name[1]);
+				// The document element can never be repeated
+				lastCreated = (current.getParent() == this.documentTemplate) ? null : current;
+			}
+		}
+		if (current == this.documentTemplate) {
+			return unsupported(expression);
+		}
+		if (isLeafElement && (content != null)) {
+			current.setText(content);
+		}
+		if ((elementRepeat != null) && (lastCreated != null)) {
+			lastCreated.setRepeat(elementRepeat);
+		}
+		return current;
+	}
+
+	/**
+	 * Works out the namespace prefix to use for every namespace URI in the templates.
+	 *
+	 * @return a map of namespace URI to prefix.
+	 */
+	private Map<String, String> createPrefixes() {
+		Set<String> uris = new HashSet<String>();
+		findNamespaces(this.documentTemplate, uris);
+		Map<String, String> prefixes = new HashMap<String, String>();
+		int generatedCount = 0;
+		for (String uri : uris) {
+			String prefix = null;
+			if (!this.randomisePrefixes && (this.namespaceMappings != null)) {
+				for (Map.Entry<String, String> entry : this.namespaceMappings.entrySet()) {
+					if (uri.equals(entry.getValue()) && (entry.getKey() != null) && (entry.getKey().length() > 0)) {
+						prefix = entry.getKey();
+						break;
+					}
+				}
+			}
+			if (prefix == null) {
+				prefix = "ns" + generatedCount++;
+			}
+			prefixes.put(uri, prefix);
+		}
+		return prefixes;
+	}
+
+	/**
+	 * Finds all the namespace URIs used by a template and its descendants.
+	 *
+	 * @param template the template to search.
+	 * @param uris the set to add the URIs found to.
+	 */
+	private void findNamespaces(ElementTemplate template, Set<String> uris) {
+		if (template.getNamespaceUri().length() > 0) {
+			uris.add(template.getNamespaceUri());
+		}
+		for (String key : template.getAttributes().keySet()) {
+			String uri = key.substring(0, key.indexOf(' '));
+			if (uri.length() > 0) {
+				uris.add(uri);
+			}
+		}
+		for (ElementTemplate child : template.getChildren()) {
+			findNamespaces(child, uris);
+		}
+	}
+
+	/**
+	 * Generates all the files, named <code>corpus00000.xml</code>, <code>corpus00001.xml</code> and so on.
+	 *
+	 * @param outputDirectory the directory to write the files to. Must exist. Existing files are overwritten.
+	 * @return the files generated, in order.
+	 * @throws IOException if any file cannot be written.
+	 */
+	public List<File> generate(File outputDirectory) throws IOException {
+		List<File> files = new ArrayList<File>(this.fileCount);
+		for (int i = 0; i < this.fileCount; i++) {
+			File file = new File(outputDirectory, String.format("corpus%05d.xml", i));
+			OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(file), 65536);
+			try {
+				generate(i, outputStream);
+			} finally {
+				outputStream.close();
+			}
+			files.add(file);
+		}
+		LOG.info("Generated {} files in {}", this.fileCount, outputDirectory.getAbsolutePath());
+		return files;
+	}
+
+	/**
+	 * Generates a single file. The content of each file depends only on the configuration, the settings and <code>fileIndex</code>.
+	 *
+	 * @param fileIndex the index of the file to generate.
+	 * @param outputStream the stream to write the file to. This is flushed, but not closed.
+	 * @throws IOException if the file cannot be written.
+	 */
+	public void generate(int fileIndex, OutputStream outputStream) throws IOException {
+		Random random = new Random(this.seed + (fileIndex * 0x9E3779B97F4A7C15L));
+		Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, UTF8), 65536);
+		new DocumentWriter(writer, random).writeDocument();
+		writer.flush();
+	}
+
+	/**
+	 * Resolves a name test to a namespace URI and local name.
+	 *
+	 * @param qName the name test, with an optional prefix.
+	 * @param isElement true if this is an element name, so uses the default element namespace if unprefixed.
+	 * @return an array containing the namespace URI (or the empty string) and the local name, or null if the name is invalid or uses an undeclared
+	 *         prefix.
+	 */
+	private String[] resolveName(String qName, boolean isElement) {
+		Matcher matcher = QNAME_PATTERN.matcher(qName);
+		if (!matcher.matches()) {
+			return null;
+		}
+		String prefix = matcher.group(1);
+		String uri;
+		if (prefix == null) {
+			uri = isElement && (this.namespaceMappings != null) ? this.namespaceMappings.get("") : null;
+		} else {
+			uri = this.namespaceMappings == null ? null : this.namespaceMappings.get(prefix);
+			if (uri == null) {
+				return null;
+			}
+		}
+		return new String[] {uri == null ? "" : uri, matcher.group(2)};
+	}
+
+	/**
+	 * Sets the number of files that {@link #generate(File)} creates.
+	 *
+	 * @param fileCount the number of files. Must be at least 1. Defaults to 1.
+	 */
+	public void setFileCount(int fileCount) {
+		if (fileCount < 1) {
+			throw new ArgumentException("fileCount", "must be at least 1");
+		}
+		this.fileCount = fileCount;
+	}
+
+	/**
+	 * Sets the approximate size of each file. Files are always slightly bigger than this, as the contents of the document element are repeated until
+	 * this size is reached.
+	 *
+	 * @param fileSize the approximate size of each file in bytes. Must not be negative. Defaults to 1MB.
+	 */
+	public void setFileSize(long fileSize) {
+		if (fileSize < 0) {
+			throw new ArgumentException("fileSize", "must not be negative");
+		}
+		this.fileSize = fileSize;
+	}
+
+	/**
+	 * Sets the depth of an extra subtree of elements, which no mapping refers to, added beneath every mapping root. This increases the amount of
+	 * work that parsers have to do without changing the output.
+	 *
+	 * @param nestingDepth the depth of the subtree. Must not be negative. Defaults to 0 (no subtree).
+	 */
+	public void setNestingDepth(int nestingDepth) {
+		if (nestingDepth < 0) {
+			throw new ArgumentException("nestingDepth", "must not be negative");
+		}
+		this.nestingDepth = nestingDepth;
+	}
+
+	/**
+	 * Sets the number of distinct keys that are used by pivot mappings, across all files. Each pivot mapping root contains up to 10 distinct keys.
+	 *
+	 * @param pivotKeyCardinality the number of distinct keys. Must be at least 1. Defaults to 10.
+	 */
+	public void setPivotKeyCardinality(int pivotKeyCardinality) {
+		if (pivotKeyCardinality < 1) {
+			throw new ArgumentException("pivotKeyCardinality", "must be at least 1");
+		}
+		this.pivotKeyCardinality = pivotKeyCardinality;
+	}
+
+	/**
+	 * Sets whether generated documents use the namespace prefixes declared by the configuration, or different ones. As XPath matches namespaces by
+	 * URI, the results should be identical either way.
+	 *
+	 * @param randomisePrefixes true to use generated prefixes (<code>ns0</code>, <code>ns1</code>, etc.). Defaults to false.
+	 */
+	public void setRandomisePrefixes(boolean randomisePrefixes) {
+		this.randomisePrefixes = randomisePrefixes;
+	}
+
+	/**
+	 * Sets the maximum number of mapping roots of a nested container that are generated beneath each instance of its parent.
+	 *
+	 * @param rootFanOut the maximum number of mapping roots. Must be at least 1. Defaults to 3.
+	 */
+	public void setRootFanOut(int rootFanOut) {
+		if (rootFanOut < 1) {
+			throw new ArgumentException("rootFanOut", "must be at least 1");
+		}
+		this.rootFanOut = rootFanOut;
+	}
+
+	/**
+	 * Sets the seed that all random content is derived from.
+	 *
+	 * @param seed the seed. Defaults to 0.
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Sets the maximum number of values generated for each value mapping, each time its mapping root is written.
+	 *
+	 * @param valueFanOut the maximum number of values. Must be at least 1. Defaults to 2.
+	 */
+	public void setValueFanOut(int valueFanOut) {
+		if (valueFanOut < 1) {
+			throw new ArgumentException("valueFanOut", "must be at least 1");
+		}
+		this.valueFanOut = valueFanOut;
+	}
+
+	/**
+	 * Logs a warning that an expression is too complex to be followed.
+	 *
+	 * @param expression the expression.
+	 * @return null, always.
+	 */
+	private ElementTemplate unsupported(String expression) {
+		LOG.warn("Unable to generate content for XPath {} as it isn't a simple path", expression);
+		return null;
+	}
+}
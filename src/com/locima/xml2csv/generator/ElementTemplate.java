@@ -0,0 +1,247 @@
+package com.locima.xml2csv.generator;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Describes an element that {@link CorpusGenerator} will write, built up from the paths used by a mapping configuration.
+ * <p>
+ * Every path that refers to the same element, from the same parent, shares a single template, so that the generated documents contain everything
+ * that every mapping is looking for.
+ */
+class ElementTemplate {
+
+	/**
+	 * Describes what an attribute or text node contains.
+	 */
+	enum Content {
+		/**
+		 * A pivot mapping key, chosen from a fixed set of keys.
+		 */
+		PIVOT_KEY,
+
+		/**
+		 * A random value.
+		 */
+		VALUE
+	}
+
+	/**
+	 * Describes how many times an element is repeated each time its parent is written.
+	 */
+	enum Repeat {
+		/**
+		 * A mapping root of a nested container, repeated up to {@link CorpusGenerator#setRootFanOut(int)} times.
+		 */
+		MAPPING_ROOT,
+
+		/**
+		 * Written exactly once.
+		 */
+		ONCE,
+
+		/**
+		 * A key/value pair root of a pivot mapping, repeated once for each of a number of distinct keys.
+		 */
+		PIVOT_PAIR,
+
+		/**
+		 * The element a value mapping selects, repeated up to {@link CorpusGenerator#setValueFanOut(int)} times.
+		 */
+		VALUE
+	}
+
+	/**
+	 * The attributes of this element, keyed by namespace URI and local name (separated by a space).
+	 */
+	private Map<String, Content> attributes = new LinkedHashMap<String, Content>();
+
+	/**
+	 * The child elements of this element, keyed by namespace URI and local name (separated by a space).
+	 */
+	private Map<String, ElementTemplate> children = new LinkedHashMap<String, ElementTemplate>();
+
+	/**
+	 * True if this element is the mapping root of a container, so should have padding added beneath it.
+	 */
+	private boolean isMappingRoot;
+
+	/**
+	 * The local name of this element.
+	 */
+	private String localName;
+
+	/**
+	 * The namespace URI of this element, or the empty string if it has no namespace.
+	 */
+	private String namespaceUri;
+
+	/**
+	 * The parent of this element, or null if this is the template for the document node.
+	 */
+	private ElementTemplate parent;
+
+	/**
+	 * How many times this element is repeated each time its parent is written.
+	 */
+	private Repeat repeat = Repeat.ONCE;
+
+	/**
+	 * What the text content of this element is, or null if it has none.
+	 */
+	private Content text;
+
+	/**
+	 * Creates a new template.
+	 *
+	 * @param parent the parent of this element, or null if this is the template for the document node.
+	 * @param namespaceUri the namespace URI of this element, or the empty string if it has no namespace.
+	 * @param localName the local name of this element.
+	 */
+	ElementTemplate(ElementTemplate parent, String namespaceUri, String localName) {
+		this.parent = parent;
+		this.namespaceUri = namespaceUri;
+		this.localName = localName;
+	}
+
+	/**
+	 * Adds an attribute to this element, unless it already has one with the same name.
+	 *
+	 * @param uri the namespace URI of the attribute, or the empty string if it has no namespace.
+	 * @param name the local name of the attribute.
+	 * @param content what the attribute contains. A pivot key always takes priority over a value.
+	 */
+	void addAttribute(String uri, String name, Content content) {
+		String key = uri + " " + name;
+		if (this.attributes.get(key) != Content.PIVOT_KEY) {
+			this.attributes.put(key, content);
+		}
+	}
+
+	/**
+	 * Retrieves the attributes of this element.
+	 *
+	 * @return a map of namespace URI and local name (separated by a space) to the content of each attribute.
+	 */
+	Map<String, Content> getAttributes() {
+		return this.attributes;
+	}
+
+	/**
+	 * Retrieves a child element, creating it if it doesn't already exist.
+	 *
+	 * @param uri the namespace URI of the child, or the empty string if it has no namespace.
+	 * @param name the local name of the child.
+	 * @return the child's template, never null.
+	 */
+	ElementTemplate getChild(String uri, String name) {
+		String key = uri + " " + name;
+		ElementTemplate child = this.children.get(key);
+		if (child == null) {
+			child = new ElementTemplate(this, uri, name);
+			this.children.put(key, child);
+		}
+		return child;
+	}
+
+	/**
+	 * Retrieves all the child elements of this element, in the order that they were first referred to.
+	 *
+	 * @return a new list of child templates.
+	 */
+	List<ElementTemplate> getChildren() {
+		return new ArrayList<ElementTemplate>(this.children.values());
+	}
+
+	/**
+	 * Retrieves the local name of this element.
+	 *
+	 * @return the local name of this element.
+	 */
+	String getLocalName() {
+		return this.localName;
+	}
+
+	/**
+	 * Retrieves the namespace URI of this element.
+	 *
+	 * @return the namespace URI of this element, or the empty string if it has no namespace.
+	 */
+	String getNamespaceUri() {
+		return this.namespaceUri;
+	}
+
+	/**
+	 * Retrieves the parent of this element.
+	 *
+	 * @return the parent, or null if this is the template for the document node.
+	 */
+	ElementTemplate getParent() {
+		return this.parent;
+	}
+
+	/**
+	 * Retrieves how many times this element is repeated each time its parent is written.
+	 *
+	 * @return how many times this element is repeated, never null.
+	 */
+	Repeat getRepeat() {
+		return this.repeat;
+	}
+
+	/**
+	 * Retrieves what the text content of this element is.
+	 *
+	 * @return the text content, or null if the element has none.
+	 */
+	Content getText() {
+		return this.text;
+	}
+
+	/**
+	 * Determines whether this element is the mapping root of a container.
+	 *
+	 * @return true if this element is the mapping root of a container.
+	 */
+	boolean isMappingRoot() {
+		return this.isMappingRoot;
+	}
+
+	/**
+	 * Marks this element as the mapping root of a container.
+	 */
+	void setMappingRoot() {
+		this.isMappingRoot = true;
+	}
+
+	/**
+	 * Sets how many times this element is repeated. Mapping roots and pivot pairs are never downgraded to values, as they affect the structure of
+	 * the output more.
+	 *
+	 * @param repeat how many times this element is repeated.
+	 */
+	void setRepeat(Repeat repeat) {
+		if ((repeat == Repeat.VALUE) && (this.repeat != Repeat.ONCE)) {
+			return;
+		}
+		this.repeat = repeat;
+	}
+
+	/**
+	 * Sets the text content of this element. A pivot key always takes priority over a value.
+	 *
+	 * @param text what the text content of this element is.
+	 */
+	void setText(Content text) {
+		if (this.text != Content.PIVOT_KEY) {
+			this.text = text;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "ElementTemplate(" + this.namespaceUri + ":" + this.localName + ", " + this.repeat + ")";
+	}
+}
@@ -0,0 +1,4 @@
+/**
+ * Generates synthetic XML input documents from a mapping configuration, for benchmarking and scaling tests.
+ */
+package com.locima.xml2csv.generator;
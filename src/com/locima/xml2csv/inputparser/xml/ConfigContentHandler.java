@@ -1,9 +1,13 @@
 package com.locima.xml2csv.inputparser.xml;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Stack;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
 import javax.xml.XMLConstants;
@@ -57,6 +61,20 @@ public class ConfigContentHandler extends DefaultHandler {
 	private static final String KEY_XPATH_ATTR = "keyXPath";
 	private static final String KVPAIR_ROOT_XPATH_ATTR = "kvPairRoot";
 	private static final Logger LOG = LoggerFactory.getLogger(ConfigContentHandler.class);
+	/**
+	 * The characters that may start an XML NCName, which is what a variable name must be, as a regular expression character class body. The
+	 * supplementary characters U+10000 to U+EFFFF are given as surrogate pairs, which the regular expression engine treats as code points.
+	 */
+	private static final String NCNAME_START_CHARS = "A-Z_a-z\\u00C0-\\u00D6\\u00D8-\\u00F6\\u00F8-\\u02FF\\u0370-\\u037D\\u037F-\\u1FFF"
+					+ "\\u200C-\\u200D\\u2070-\\u218F\\u2C00-\\u2FEF\\u3001-\\uD7FF\\uF900-\\uFDCF\\uFDF0-\\uFFFD\uD800\uDC00-\uDB7F\uDFFF";
+
+	/**
+	 * Matches a variable reference in an XPath expression, capturing the variable name if it's an NCName. If the group doesn't match then the
+	 * reference is in a form I don't recognise.
+	 */
+	private static final Pattern VARIABLE_REFERENCE = Pattern.compile("\\$\\s*([" + NCNAME_START_CHARS + "][" + NCNAME_START_CHARS
+					+ "\\-.0-9\\u00B7\\u0300-\\u036F\\u203F-\\u2040]*)?");
+
 	private static final String MAPPING_NAMESPACE = "http://locima.com/xml2csv/MappingConfiguration";
 	private static final String MAPPING_ROOT_ATTR = "mappingRoot";
 	private static final String MAX_VALUES_ATTR = "minOccurs";
@@ -121,7 +139,7 @@ public class ConfigContentHandler extends DefaultHandler {
 			fieldName = name;
 		}
 		XPathValue compiledXPath;
-		String[] availableVariables = getPreviousSiblingNames();
+		String[] availableVariables = getReferencedSiblingNames(xPath);
 		try {
 			compiledXPath = XmlUtil.createXPathValue(this.mappingConfiguration.getNamespaceMap(), xPath, availableVariables);
 		} catch (XMLException e) {
@@ -415,18 +433,41 @@ public class ConfigContentHandler extends DefaultHandler {
 	}
 
 	/**
-	 * Gets a list of the known child names of the parent container. These are used as variable names, available in the XPath evaluation of subsequent
-	 * mappings with the same parent.
+	 * Gets a list of the known child names of the parent container that are referred to by an XPath expression. These are used as variable names,
+	 * available in the XPath evaluation of subsequent mappings with the same parent.
+	 * <p>
+	 * Only the names that appear after a <code>$</code> in the expression are returned, so that expressions that don't use variables (by far the
+	 * most common case) aren't compiled with a declaration for every previous sibling, which made loading large configurations quadratic. A name
+	 * that only appears in a string literal is returned unnecessarily, but that's harmless. If a <code>$</code> is followed by anything other than
+	 * an NCName then I can't tell what it refers to, so all the previous siblings are returned, as
+	 * {@link XmlUtil#createXPathValue(Map, String, String...)} only declares the ones that are actually used.
 	 *
-	 * @return an array, possibly empty, of known siblings of the current mapping (as determined by the top of {@link #mappingListStack}.
+	 * @param xPath the XPath expression that the variables will be declared for. May be null.
+	 * @return an array, possibly empty, of known siblings of the current mapping (as determined by the top of {@link #mappingListStack}) that are
+	 *         referred to by <code>xPath</code>.
 	 */
-	private String[] getPreviousSiblingNames() {
+	private String[] getReferencedSiblingNames(String xPath) {
+		if ((xPath == null) || (xPath.indexOf('$') < 0)) {
+			return new String[0];
+		}
+		Set<String> referencedNames = new HashSet<String>();
+		boolean allSiblings = false;
+		Matcher matcher = VARIABLE_REFERENCE.matcher(xPath);
+		while (matcher.find()) {
+			if (matcher.group(1) == null) {
+				allSiblings = true;
+			} else {
+				referencedNames.add(matcher.group(1));
+			}
+		}
 		List<String> variables = new ArrayList<String>();
 		MappingList currentContainer = this.mappingListStack.peek();
 		for (IMapping m : currentContainer) {
 			if (m instanceof IValueMapping) {
 				IValueMapping vm = (IValueMapping) m;
-				variables.add(vm.getName());
+				if ((allSiblings || referencedNames.contains(vm.getName())) && !variables.contains(vm.getName())) {
+					variables.add(vm.getName());
+				}
 			}
 		}
 		String[] varArray = variables.toArray(new String[0]);
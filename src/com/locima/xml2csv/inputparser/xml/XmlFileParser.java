@@ -10,6 +10,7 @@ import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 import javax.xml.transform.Source;
 import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
 
 import org.xml.sax.SAXException;
@@ -43,6 +44,12 @@ public class XmlFileParser implements IConfigParser {
 		return "file:" + path;
 	}
 
+	/**
+	 * The compiled configuration schema, shared by all parsers as compiling it is expensive and {@link Schema} instances are immutable. Null until
+	 * the first configuration is parsed.
+	 */
+	private static volatile Schema schema;
+
 	private MappingConfiguration mappings;
 
 	@Override
@@ -58,12 +65,6 @@ public class XmlFileParser implements IConfigParser {
 	 * @throws ParserConfigurationException If unable to create the parser.
 	 */
 	private SAXParser getParser() throws SAXException, ParserConfigurationException {
-
-		// Where the XSD file is within my application resources, just one so far, but others will follow.
-		// CHECKSTYLE:OFF Workaround for Checkstyle (bug?) expecting no whitespace after an open curly brace.
-		final String[] schemaResourceNames = new String[] { "com/locima/xml2csv/inputparser/xml/MappingConfiguration.xsd" };
-		// CHECKSTYLE:ON
-
 		// So far, so good.
 		SAXParserFactory factory = SAXParserFactory.newInstance();
 
@@ -73,18 +74,39 @@ public class XmlFileParser implements IConfigParser {
 		// Apparently, namespaces are a bit complicated, so override the default to ignore them.
 		factory.setNamespaceAware(true);
 
-		// Now tell it what language (using a magic string), as the parser can't work it out for itself,
-		// as if XML files could declare what they are...
-		SchemaFactory schemaFactory = SchemaFactory.newInstance("http://www.w3.org/2001/XMLSchema");
-
-		// Pass a set of schemas (schemata if you're feeling pedantic) to a method called setSchema <-- singular.
-		factory.setSchema(schemaFactory.newSchema(getSchemasFromResourceNames(schemaResourceNames)));
+		factory.setSchema(getSchema());
 
 		SAXParser parser = factory.newSAXParser();
 
 		return parser;
 	}
 
+	/**
+	 * Returns the compiled schema that configuration files are validated against, compiling it the first time it's needed.
+	 *
+	 * @return the compiled schema, never null.
+	 * @throws SAXException If unable to compile the schema.
+	 */
+	private Schema getSchema() throws SAXException {
+		Schema compiledSchema = schema;
+		if (compiledSchema == null) {
+			// Where the XSD file is within my application resources, just one so far, but others will follow.
+			// CHECKSTYLE:OFF Workaround for Checkstyle (bug?) expecting no whitespace after an open curly brace.
+			final String[] schemaResourceNames = new String[] { "com/locima/xml2csv/inputparser/xml/MappingConfiguration.xsd" };
+			// CHECKSTYLE:ON
+
+			// Now tell it what language (using a magic string), as the parser can't work it out for itself,
+			// as if XML files could declare what they are...
+			SchemaFactory schemaFactory = SchemaFactory.newInstance("http://www.w3.org/2001/XMLSchema");
+
+			// Pass a set of schemas (schemata if you're feeling pedantic) to a method called newSchema <-- singular.
+			// Two threads may both compile the schema the first time, which is harmless.
+			compiledSchema = schemaFactory.newSchema(getSchemasFromResourceNames(schemaResourceNames));
+			schema = compiledSchema;
+		}
+		return compiledSchema;
+	}
+
 	/**
 	 * Given an array of resource names for XSD files, this retrieves {@link Source} versions of all of them, by opening all the resources in turn.
 	 *
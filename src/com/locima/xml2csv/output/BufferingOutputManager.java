@@ -0,0 +1,87 @@
+package com.locima.xml2csv.output;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.locima.xml2csv.configuration.MappingConfiguration;
+import com.locima.xml2csv.util.Tuple;
+
+/**
+ * An output manager that doesn't write anything, but keeps all the results it's given so that they can be passed on to another output manager
+ * later using {@link #writeTo(IOutputManager)}.
+ * <p>
+ * This allows documents to be extracted concurrently on different threads, with only one thread writing to the real output manager (which, like
+ * the {@link IOutputWriter} instances it manages, is not thread-safe). Writes are synchronized so that one buffer may be shared by several threads
+ * working on the same document.
+ */
+public class BufferingOutputManager implements IOutputManager {
+
+	private static final Logger LOG = LoggerFactory.getLogger(BufferingOutputManager.class);
+
+	/**
+	 * The results buffered so far, in the order they were received, paired with the name of the output they were written to.
+	 */
+	private List<Tuple<String, IExtractionResultsContainer>> buffer = new ArrayList<Tuple<String, IExtractionResultsContainer>>();
+
+	/**
+	 * Discards all buffered results.
+	 */
+	@Override
+	public synchronized void abort() {
+		this.buffer.clear();
+	}
+
+	/**
+	 * Does nothing, as there are no resources to release. Call {@link #writeTo(IOutputManager)} to pass buffered results on.
+	 */
+	@Override
+	public void close() {
+		// Nothing to close
+	}
+
+	/**
+	 * Does nothing, as the real output manager that results will be passed on to is responsible for initialising outputs.
+	 *
+	 * @param outputDirectory ignored.
+	 * @param config ignored.
+	 * @param appendOutput ignored.
+	 */
+	@Override
+	public void initialise(File outputDirectory, MappingConfiguration config, boolean appendOutput) {
+		// Nothing to initialise
+	}
+
+	/**
+	 * Returns the number of results buffered.
+	 *
+	 * @return the number of calls made to {@link #writeRecords(String, IExtractionResultsContainer)} since this instance was created.
+	 */
+	public synchronized int size() {
+		return this.buffer.size();
+	}
+
+	@Override
+	public synchronized void writeRecords(String outputName, IExtractionResultsContainer extractionResults) {
+		this.buffer.add(new Tuple<String, IExtractionResultsContainer>(outputName, extractionResults));
+	}
+
+	/**
+	 * Passes all the buffered results on to <code>outputManager</code>, in the order that they were received, then empties this buffer.
+	 *
+	 * @param outputManager the output manager to write all the buffered results to. Must not be null.
+	 * @throws OutputManagerException if <code>outputManager</code> throws an exception whilst writing.
+	 */
+	public synchronized void writeTo(IOutputManager outputManager) throws OutputManagerException {
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Writing {} buffered results to {}", this.buffer.size(), outputManager);
+		}
+		for (Tuple<String, IExtractionResultsContainer> entry : this.buffer) {
+			outputManager.writeRecords(entry.getFirst(), entry.getSecond());
+		}
+		this.buffer.clear();
+	}
+}
@@ -4,7 +4,6 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.SortedMap;
-import java.util.Stack;
 import java.util.TreeMap;
 
 import org.slf4j.Logger;
@@ -65,13 +64,13 @@ public class GroupState {
 		 * without a recursive method. After processing each node, push all the children to the "to do" stack. This is safe because this is a strict
 		 * tree, not a graph.
 		 */
-		Stack<IExtractionResults> remainingContexts = new Stack<IExtractionResults>();
-		remainingContexts.push(rootContext);
+		List<IExtractionResults> remainingContexts = new ArrayList<IExtractionResults>();
+		remainingContexts.add(rootContext);
 
 		SortedMap<Integer, GroupState> groupStates = new TreeMap<Integer, GroupState>();
 
 		while (remainingContexts.size() > 0) {
-			IExtractionResults current = remainingContexts.pop();
+			IExtractionResults current = remainingContexts.remove(remainingContexts.size() - 1);
 			int groupNumber = current.getGroupNumber();
 			GroupState state = groupStates.get(groupNumber);
 			if (state == null) {
@@ -85,10 +84,16 @@ public class GroupState {
 			state.addContext(current);
 
 			// Now push all the children to our "to do" stack to ensure that we deal with every results container.
+			// This is done for every set of results written, so index the lists of children rather than iterating over or copying them.
 			if (current instanceof IExtractionResultsContainer) {
-				IExtractionResultsContainer cec = (IExtractionResultsContainer) current;
-				for (List<IExtractionResults> child : cec.getChildren()) {
-					remainingContexts.addAll(child);
+				List<List<IExtractionResults>> children = ((IExtractionResultsContainer) current).getChildren();
+				int rootCount = children.size();
+				for (int i = 0; i < rootCount; i++) {
+					List<IExtractionResults> resultsForSingleRoot = children.get(i);
+					int resultsCount = resultsForSingleRoot.size();
+					for (int j = 0; j < resultsCount; j++) {
+						remainingContexts.add(resultsForSingleRoot.get(j));
+					}
 				}
 			}
 		}
@@ -166,8 +171,6 @@ public class GroupState {
 	protected GroupState next;
 	protected GroupState prev;
 
-	private List<IExtractionResults> records;
-
 	/**
 	 * Creates a new instance with a specific group number and initial associated set of results.
 	 *
@@ -175,7 +178,6 @@ public class GroupState {
 	 */
 	public GroupState(int groupNumber) {
 		this.groupNumber = groupNumber;
-		this.records = new ArrayList<IExtractionResults>(1);
 		if (LOG.isDebugEnabled()) {
 			LOG.debug("Creating new group state {}", groupNumber);
 		}
@@ -183,7 +185,7 @@ public class GroupState {
 	}
 
 	/**
-	 * Associates the <code>record</code> passed with this group.
+	 * Associates the <code>record</code> passed with this group, by making sure that the group is large enough to output all its values.
 	 *
 	 * @param record the set of results to associated with this group.
 	 */
@@ -191,7 +193,6 @@ public class GroupState {
 		if (LOG.isDebugEnabled()) {
 			LOG.debug("Adding {} ({} elements) to existing group state {}", record, record.size(), this);
 		}
-		this.records.add(record);
 		this.groupSize = Math.max(this.groupSize, Math.max(record.size(), record.getMinCount()));
 	}
 
@@ -244,17 +245,25 @@ public class GroupState {
 	 */
 	public void increment() {
 		this.currentIndex++;
+		// Called for every record, so check the log level before boxing the arguments
+		boolean isDebugEnabled = LOG.isDebugEnabled();
 		if (this.currentIndex < (this.groupSize)) {
-			LOG.debug("Incremented group {} to {} out of {}", this.groupNumber, this.currentIndex, this.groupSize);
+			if (isDebugEnabled) {
+				LOG.debug("Incremented group {} to {} out of {}", this.groupNumber, this.currentIndex, this.groupSize);
+			}
 			GroupState prevState = this.prev;
 			while (prevState != null) {
-				LOG.debug("Resetting group {} from {} as higher group {} has just incremented.", prevState.groupNumber, prevState.currentIndex,
-								this.groupNumber);
+				if (isDebugEnabled) {
+					LOG.debug("Resetting group {} from {} as higher group {} has just incremented.", prevState.groupNumber, prevState.currentIndex,
+									this.groupNumber);
+				}
 				prevState.currentIndex = 0;
 				prevState = prevState.prev;
 			}
 		} else {
-			LOG.debug("Cannot increment group {} as currentIndex={} and groupSize={}", this.groupNumber, this.currentIndex, this.groupSize);
+			if (isDebugEnabled) {
+				LOG.debug("Cannot increment group {} as currentIndex={} and groupSize={}", this.groupNumber, this.currentIndex, this.groupSize);
+			}
 			if (this.next != null) {
 				this.next.increment();
 			}
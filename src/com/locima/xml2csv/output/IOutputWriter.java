@@ -3,6 +3,7 @@ package com.locima.xml2csv.output;
 import java.io.File;
 
 import com.locima.xml2csv.configuration.IMappingContainer;
+import com.locima.xml2csv.configuration.MappingStatistics;
 import com.locima.xml2csv.output.inline.InlineCsvWriter;
 
 /**
@@ -30,11 +31,14 @@ public interface IOutputWriter {
 	 * Initialises this output manager so that it's ready to receive outputs via {@link #writeRecords(IExtractionResultsContainer)}.
 	 *
 	 * @param configuration the mapping configuration that determines what fields will be written to the CSV file.
+	 * @param statistics the statistics for the current conversion, which determine how many fields each mapping outputs. These are still being
+	 *            updated whilst records are written, and are only complete when {@link #close()} is called.
 	 * @param appendOutput true if output should be appended to an existing files (if present), false if we should overwrite an existing file.
 	 * @param outputDirectory the name of the output directory. Directory must exist and be writeable.
 	 * @throws OutputManagerException if an unrecoverable error occurs whilst initialising the output file.
 	 */
-	void initialise(File outputDirectory, IMappingContainer configuration, boolean appendOutput) throws OutputManagerException;
+	void initialise(File outputDirectory, IMappingContainer configuration, MappingStatistics statistics, boolean appendOutput)
+					throws OutputManagerException;
 
 	/**
 	 * Writes the records created by the XML data extractor to the output file managed by this instance.
@@ -11,6 +11,7 @@ import org.slf4j.LoggerFactory;
 import com.locima.xml2csv.BugException;
 import com.locima.xml2csv.configuration.IMappingContainer;
 import com.locima.xml2csv.configuration.MappingConfiguration;
+import com.locima.xml2csv.configuration.MappingStatistics;
 import com.locima.xml2csv.output.direct.DirectCsvWriter;
 import com.locima.xml2csv.output.inline.InlineCsvWriter;
 
@@ -31,8 +32,18 @@ public class OutputManager implements IOutputManager {
 	 */
 	private Map<String, IOutputWriter> outputToWriter;
 
+	/**
+	 * The statistics for the conversion that this output manager is writing, which all extractors' statistics must be merged in to before
+	 * {@link #close()} is called.
+	 */
+	private MappingStatistics statistics = new MappingStatistics();
+
 	@Override
 	public void abort() {
+		if (this.outputToWriter == null) {
+			// Never successfully initialised, so there's nothing to abort
+			return;
+		}
 		LOG.info("Aborting {} ICsvWriters", this.outputToWriter.size());
 		for (Entry<String, IOutputWriter> entry : this.outputToWriter.entrySet()) {
 			LOG.info("Aborting {} {} ({})", entry.getKey().getClass().getName(), entry.getKey(), entry.getValue());
@@ -54,6 +65,17 @@ public class OutputManager implements IOutputManager {
 		}
 	}
 
+	/**
+	 * Retrieves the statistics for the conversion that this output manager is writing. Extractors record their own statistics, which must be merged
+	 * in to these (using {@link MappingStatistics#merge(MappingStatistics)}) before {@link #close()} is called, as that is when the number of fields
+	 * required by mappings with a variable number of values is finally decided.
+	 *
+	 * @return the statistics for this conversion, never null.
+	 */
+	public MappingStatistics getStatistics() {
+		return this.statistics;
+	}
+
 	/**
 	 * Creates an appropriate {@link IOutputManager} based on the mapping configuration provided. The decision logic for which implementation to use
 	 * is based on whether a mapping configuration contains any unbounded inline mappings. These produce a variable number of field values in any
@@ -80,7 +102,7 @@ public class OutputManager implements IOutputManager {
 				LOG.info("Unbounded inline detected for {}, therefore creating InlineCsvWriter", outputName);
 				writer = new InlineCsvWriter();
 			}
-			writer.initialise(outputDirectory, mappingContainer, appendOutput);
+			writer.initialise(outputDirectory, mappingContainer, this.statistics, appendOutput);
 			this.outputToWriter.put(outputName, writer);
 		}
 	}
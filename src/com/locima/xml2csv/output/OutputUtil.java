@@ -19,6 +19,7 @@ import com.locima.xml2csv.configuration.IMapping;
 import com.locima.xml2csv.configuration.IMappingContainer;
 import com.locima.xml2csv.configuration.IValueMapping;
 import com.locima.xml2csv.configuration.MappingIndexAncestors;
+import com.locima.xml2csv.configuration.MappingStatistics;
 import com.locima.xml2csv.util.StringUtil;
 
 /**
@@ -74,13 +75,15 @@ public class OutputUtil {
 	 * <code>appendOutput</code> is false.
 	 *
 	 * @param container the mapping container for which we're initialising the CSV file writer
+	 * @param statistics the statistics that determine how many fields each mapping outputs.
 	 * @param file the file that should be created or appended to.
 	 * @param appendOutput whether any existing file should be appended to (if there is no existing file method will behave as if parameter was
 	 *            false).
 	 * @return a writer to the CSV file.
 	 * @throws OutputManagerException if any unexpected errors occur whilst initialising the CSV file.
 	 */
-	public static Writer createCsvWriter(IMappingContainer container, File file, boolean appendOutput) throws OutputManagerException {
+	public static Writer createCsvWriter(IMappingContainer container, MappingStatistics statistics, File file, boolean appendOutput)
+					throws OutputManagerException {
 		LOG.info("Creating writer for {}", file.getAbsolutePath());
 		try {
 			boolean createdNew = !file.exists();
@@ -88,7 +91,7 @@ public class OutputUtil {
 			if (appendOutput && !createdNew) {
 				LOG.info("Existing file will be appended to, therefore not writing field names", file.getAbsolutePath());
 			} else {
-				OutputUtil.writeFieldNames(container, writer);
+				OutputUtil.writeFieldNames(container, statistics, writer);
 			}
 			LOG.info("Successfully opened output file for writer {}", file.getAbsolutePath());
 			return writer;
@@ -126,12 +129,13 @@ public class OutputUtil {
 	 * Retrieve the field names for the mapping container passed.
 	 *
 	 * @param container the contains for which to generate the field names.
+	 * @param statistics the statistics that determine how many fields each mapping outputs.
 	 * @return the number of field names that this method added.
 	 */
-	private static List<String> getFieldNames(IMappingContainer container) {
+	private static List<String> getFieldNames(IMappingContainer container, MappingStatistics statistics) {
 		List<String> fieldNames = new ArrayList<String>();
 		MappingIndexAncestors parentContext = new MappingIndexAncestors();
-		getFieldNames(fieldNames, parentContext, container);
+		getFieldNames(fieldNames, parentContext, container, statistics);
 		return fieldNames;
 	}
 
@@ -141,14 +145,16 @@ public class OutputUtil {
 	 * @param fieldNames the list of field names that is being built up.
 	 * @param parentContext a stack of parent name/iteration pairs that form the ancestor chain of this mapping.
 	 * @param container the container from which to generate the field names.
+	 * @param statistics the statistics that determine how many fields each mapping outputs.
 	 * @return the number of fields added to <code>fieldNames</code>.
 	 */
-	private static int getFieldNames(List<String> fieldNames, MappingIndexAncestors parentContext, IMappingContainer container) {
+	private static int getFieldNames(List<String> fieldNames, MappingIndexAncestors parentContext, IMappingContainer container,
+					MappingStatistics statistics) {
 		/*
 		 * If this is a non-nested MappingList, i.e. a direct child of MappingConfiguration then the instance count refers to the number of records
 		 * output, not the number of fields (as a nested, in-line MappingList would indicate. Therefore, only process as in-line if nested.
 		 */
-		int repeats = container.getFieldCountForSingleRecord();
+		int repeats = statistics.getFieldCountForSingleRecord(container);
 		LOG.info("Generating field names for {} ({} iteration(s))", container, repeats);
 		String name = container.getName();
 		int fieldCount = 0;
@@ -157,9 +163,9 @@ public class OutputUtil {
 			for (IMapping mapping : container) {
 				int extraFieldCount;
 				if (mapping instanceof IMappingContainer) {
-					extraFieldCount = getFieldNames(fieldNames, parentContext, (IMappingContainer) mapping);
+					extraFieldCount = getFieldNames(fieldNames, parentContext, (IMappingContainer) mapping, statistics);
 				} else {
-					extraFieldCount = getFieldNames(fieldNames, parentContext, (IValueMapping) mapping);
+					extraFieldCount = getFieldNames(fieldNames, parentContext, (IValueMapping) mapping, statistics);
 				}
 				fieldCount += extraFieldCount;
 				LOG.debug("Added {} fields to fieldCount making a total of {} fields", extraFieldCount, fieldCount);
@@ -175,15 +181,17 @@ public class OutputUtil {
 	 * @param fieldNames the list of field names that is being built up.
 	 * @param parentContext a stack of parent name/iteration pairs that form the ancestor chain of this mapping.
 	 * @param mapping the mapping from which to generate field names.
+	 * @param statistics the statistics that determine how many fields each mapping outputs.
 	 * @return the number of fields added by this invocation.
 	 */
-	private static int getFieldNames(List<String> fieldNames, MappingIndexAncestors parentContext, IValueMapping mapping) {
+	private static int getFieldNames(List<String> fieldNames, MappingIndexAncestors parentContext, IValueMapping mapping,
+					MappingStatistics statistics) {
 		/*
 		 * The number of fields output is the maximum number of values found in a single execution of this mapping, constrained by this.minValueCount
 		 * and this.maxValueCount. Don't need to consider maxValueCount here though as evaluation is halted once we have enough values to meet
 		 * maxValueCount.
 		 */
-		int repeats = mapping.getFieldCountForSingleRecord();
+		int repeats = statistics.getFieldCountForSingleRecord(mapping);
 		LOG.info("Generating field names for {} ({} repeats)", mapping, repeats);
 		int fieldCount;
 		switch (mapping.getMultiValueBehaviour()) {
@@ -207,12 +215,13 @@ public class OutputUtil {
 	 * Writes the field names that exist within <code>container</code> to the <code>writer</code> passed.
 	 *
 	 * @param container the mapping container that we are wanting to write the field names for.
+	 * @param statistics the statistics that determine how many fields each mapping outputs.
 	 * @param writer the writer to write the field names to.
 	 * @throws OutputManagerException if any unexpected errors occur whilst writing the field names to the <code>writer</code> passed.
 	 */
-	public static void writeFieldNames(IMappingContainer container, Writer writer) throws OutputManagerException {
+	public static void writeFieldNames(IMappingContainer container, MappingStatistics statistics, Writer writer) throws OutputManagerException {
 		try {
-			List<String> fieldNames = getFieldNames(container);
+			List<String> fieldNames = getFieldNames(container, statistics);
 			String escapedFieldNames = StringUtil.toCsvRecord(fieldNames);
 			LOG.info("Writing field names to {}: {}", container.getName(), escapedFieldNames);
 			writer.write(escapedFieldNames);
@@ -0,0 +1,157 @@
+package com.locima.xml2csv.output.direct;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+import com.locima.xml2csv.util.StringUtil;
+
+/**
+ * A re-usable buffer that CSV records are built up in, field by field, before being written to a {@link Writer}.
+ * <p>
+ * This does exactly the same job as {@link StringUtil#toCsvRecord(java.util.Collection)}, but escapes each field in a single scan directly in to
+ * a character array that is kept between records. Once the buffer has grown to fit the longest record, building and writing records creates no
+ * objects at all, which matters when writing millions of records.
+ * <p>
+ * Instances are not thread-safe.
+ */
+public class CsvRecordBuffer {
+
+	/**
+	 * The initial size of {@link #buffer}, which is big enough for most records.
+	 */
+	private static final int INITIAL_CAPACITY = 1024;
+
+	/**
+	 * The characters of the record being built.
+	 */
+	private char[] buffer = new char[INITIAL_CAPACITY];
+
+	/**
+	 * True if no fields have been added to the current record, so the next field doesn't need a separator.
+	 */
+	private boolean isFirstField = true;
+
+	/**
+	 * The number of characters of {@link #buffer} currently in use.
+	 */
+	private int length;
+
+	/**
+	 * The characters written at the end of each record by {@link #endRecord()}.
+	 */
+	private char[] lineSeparator = StringUtil.LINE_SEPARATOR.toCharArray();
+
+	/**
+	 * Appends a single field to the current record, escaping it if required in the same way as {@link StringUtil#escapeForCsv(Object)}.
+	 *
+	 * @param value the value to append. If null, an empty field is appended.
+	 */
+	public void appendField(String value) {
+		int valueLength = (value == null) ? 0 : value.length();
+		// Worst case is every character being a double-quote, plus the separator and the quotes around the field
+		ensureCapacity((valueLength * 2) + 3);
+		char[] buf = this.buffer;
+		int pos = this.length;
+		if (this.isFirstField) {
+			this.isFirstField = false;
+		} else {
+			buf[pos++] = ',';
+		}
+		int start = pos;
+		boolean quotesRequired = false;
+		for (int i = 0; i < valueLength; i++) {
+			char ch = value.charAt(i);
+			buf[pos++] = ch;
+			if (ch == '\"') {
+				buf[pos++] = ch;
+				quotesRequired = true;
+			} else if ((ch == '\n') || (ch == '\r') || (ch == ',') || (ch == ';')) {
+				quotesRequired = true;
+			}
+		}
+		// Quoting is rare, so rather than scanning every field twice, the few fields that need it are shifted along to make room for the opening quote
+		if (quotesRequired) {
+			System.arraycopy(buf, start, buf, start + 1, pos - start);
+			buf[start] = '\"';
+			pos++;
+			buf[pos++] = '\"';
+		}
+		this.length = pos;
+	}
+
+	/**
+	 * Appends all the fields passed to the current record.
+	 *
+	 * @param values the values to append, any of which may be null. Must not be null.
+	 */
+	public void appendFields(List<String> values) {
+		int size = values.size();
+		for (int i = 0; i < size; i++) {
+			appendField(values.get(i));
+		}
+	}
+
+	/**
+	 * Empties the buffer, ready for the next record. The memory used is retained.
+	 */
+	public void clear() {
+		this.length = 0;
+		this.isFirstField = true;
+	}
+
+	/**
+	 * Ends the current record by appending a line separator. Further fields appended will start a new record, so several records may be built up
+	 * before calling {@link #writeTo(Writer)}.
+	 */
+	public void endRecord() {
+		ensureCapacity(this.lineSeparator.length);
+		System.arraycopy(this.lineSeparator, 0, this.buffer, this.length, this.lineSeparator.length);
+		this.length += this.lineSeparator.length;
+		this.isFirstField = true;
+	}
+
+	/**
+	 * Makes sure that {@link #buffer} has room for at least <code>required</code> more characters.
+	 *
+	 * @param required the number of characters about to be written.
+	 */
+	private void ensureCapacity(int required) {
+		int minimum = this.length + required;
+		if (minimum > this.buffer.length) {
+			char[] newBuffer = new char[Math.max(minimum, this.buffer.length * 2)];
+			System.arraycopy(this.buffer, 0, newBuffer, 0, this.length);
+			this.buffer = newBuffer;
+		}
+	}
+
+	/**
+	 * Returns the number of characters in the buffer.
+	 *
+	 * @return the number of characters that {@link #writeTo(Writer)} would write.
+	 */
+	public int length() {
+		return this.length;
+	}
+
+	/**
+	 * Returns the contents of the buffer as a string. This creates a new string, so should only be used for logging and error reporting.
+	 *
+	 * @return the contents of the buffer.
+	 */
+	@Override
+	public String toString() {
+		return new String(this.buffer, 0, this.length);
+	}
+
+	/**
+	 * Writes the contents of the buffer to <code>writer</code>, then clears it.
+	 *
+	 * @param writer the writer to write to. Must not be null.
+	 * @throws IOException if <code>writer</code> throws it.
+	 */
+	public void writeTo(Writer writer) throws IOException {
+		writer.write(this.buffer, 0, this.length);
+		clear();
+	}
+}
@@ -2,13 +2,14 @@ package com.locima.xml2csv.output.direct;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.io.Writer;
-import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.locima.xml2csv.configuration.IMappingContainer;
+import com.locima.xml2csv.configuration.MappingStatistics;
 import com.locima.xml2csv.output.IExtractionResultsContainer;
 import com.locima.xml2csv.output.IOutputManager;
 import com.locima.xml2csv.output.IOutputWriter;
@@ -16,7 +17,6 @@ import com.locima.xml2csv.output.OutputManagerException;
 import com.locima.xml2csv.output.OutputUtil;
 import com.locima.xml2csv.output.inline.InlineCsvWriter;
 import com.locima.xml2csv.util.FileUtility;
-import com.locima.xml2csv.util.StringUtil;
 
 /**
  * Manages the output of a single CSV file where the results of conversion from XML when the mapping configuration prohibits a variable number of
@@ -30,18 +30,48 @@ public class DirectCsvWriter implements IOutputWriter {
 
 	private static final Logger LOG = LoggerFactory.getLogger(DirectCsvWriter.class);
 
+	/**
+	 * The length of the existing output file that is being appended to, so that {@link #abort()} can remove everything appended, or -1 if a new
+	 * file is being written.
+	 */
+	private long appendedFileLength = -1;
+
+	/**
+	 * The buffer that each record is built up in before being written, re-used for every record written.
+	 */
+	private CsvRecordBuffer recordBuffer = new CsvRecordBuffer();
+
 	private File outputFile;
 
 	private String outputName;
 
+	/**
+	 * The compiled plan used to turn results in to records, created when this writer is initialised.
+	 */
+	private OutputPlan plan;
+
 	private Writer writer;
 
 	/**
-	 * In the case of a direct CSV writer, all we can do is attempt to close the file.
+	 * Closes the file and, if an existing file was being appended to, truncates it back to its original length, so that a failed conversion
+	 * doesn't leave a partial set of records behind to be duplicated when the conversion is retried.
 	 */
 	@Override
 	public void abort() {
 		close();
+		if (this.appendedFileLength >= 0) {
+			LOG.info("Removing records appended to {}", this.outputFile.getAbsolutePath());
+			try {
+				RandomAccessFile file = new RandomAccessFile(this.outputFile, "rw");
+				try {
+					file.setLength(this.appendedFileLength);
+				} finally {
+					file.close();
+				}
+			} catch (IOException ioe) {
+				LOG.error("Unable to remove records appended to {}", this.outputFile.getAbsolutePath(), ioe);
+			}
+		}
 	}
 
 	@Override
@@ -60,15 +90,20 @@ public class DirectCsvWriter implements IOutputWriter {
 	 *
 	 * @param outputDirectory the directory to write the output CSV file to.
 	 * @param container the mapping container that determines what outputs will be written. Must not be null.
+	 * @param statistics the statistics that determine how many fields each mapping outputs. As this writer is only used for containers with fixed
+	 *            output cardinality, these only need to be complete when used by {@link InlineCsvWriter}. Must not be null.
 	 * @param appendOutput true if output should be appended to existing files, false if new files should overwrite existing ones.
 	 * @throws OutputManagerException if an unrecoverable error occurs whilst creating the output files or writing to them.
 	 */
 	@Override
-	public void initialise(File outputDirectory, IMappingContainer container, boolean appendOutput) throws OutputManagerException {
+	public void initialise(File outputDirectory, IMappingContainer container, MappingStatistics statistics, boolean appendOutput)
+					throws OutputManagerException {
 		this.outputName = container.getName();
 		String fileNameBasis = this.outputName;
 		this.outputFile = new File(outputDirectory, FileUtility.convertToPOSIXCompliantFileName(fileNameBasis, ".csv", true));
-		this.writer = OutputUtil.createCsvWriter(container, this.outputFile, appendOutput);
+		this.appendedFileLength = (appendOutput && this.outputFile.exists()) ? this.outputFile.length() : -1;
+		this.writer = OutputUtil.createCsvWriter(container, statistics, this.outputFile, appendOutput);
+		this.plan = new OutputPlan(container, statistics);
 	}
 
 	@Override
@@ -84,23 +119,27 @@ public class DirectCsvWriter implements IOutputWriter {
 
 	/**
 	 * Writes a set of values out to the specified writer using CSV notation.
+	 * <p>
+	 * Each record is escaped directly in to {@link #recordBuffer} and written from there, so no objects are created per field or per record.
 	 *
 	 * @param resultsContainer the results to write to the CSV file.
 	 * @throws OutputManagerException if an error occurred writing the files.
 	 */
 	@Override
 	public void writeRecords(IExtractionResultsContainer resultsContainer) throws OutputManagerException {
-		DirectOutputRecordIterator iter = new DirectOutputRecordIterator(resultsContainer);
+		DirectOutputRecordIterator iter = new DirectOutputRecordIterator(this.plan, resultsContainer);
+		CsvRecordBuffer buffer = this.recordBuffer;
 		while (iter.hasNext()) {
-			List<String> record = iter.next();
-			String outputLine = StringUtil.toCsvRecord(record);
+			buffer.appendFields(iter.next());
+			if (LOG.isTraceEnabled()) {
+				LOG.trace("Writing output {}: {}", this.outputFile.getAbsolutePath(), buffer);
+			}
+			buffer.endRecord();
 			try {
-				if (LOG.isTraceEnabled()) {
-					LOG.trace("Writing output {}: {}", this.outputFile.getAbsolutePath(), outputLine);
-				}
-				this.writer.write(outputLine);
-				this.writer.write(StringUtil.LINE_SEPARATOR);
+				buffer.writeTo(this.writer);
 			} catch (IOException ioe) {
+				String outputLine = buffer.toString();
+				buffer.clear();
 				throw new OutputManagerException(ioe, "Unable to write to %1$s(%2$s): %3$s", this.outputName, this.outputFile.getAbsolutePath(),
 								outputLine);
 			}
@@ -0,0 +1,383 @@
+package com.locima.xml2csv.output.direct;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.locima.xml2csv.ArgumentNullException;
+import com.locima.xml2csv.BugException;
+import com.locima.xml2csv.configuration.IMapping;
+import com.locima.xml2csv.configuration.IMappingContainer;
+import com.locima.xml2csv.configuration.MappingStatistics;
+import com.locima.xml2csv.configuration.MultiValueBehaviour;
+import com.locima.xml2csv.output.GroupState;
+import com.locima.xml2csv.output.IExtractionResults;
+import com.locima.xml2csv.output.IExtractionResultsContainer;
+import com.locima.xml2csv.output.IExtractionResultsValues;
+
+/**
+ * A top level {@link IMappingContainer} compiled in to a form that allows CSV records to be generated from {@link IExtractionResultsContainer}
+ * instances as quickly as possible.
+ * <p>
+ * Every mapping in the tree becomes a node held in a flat, pre-ordered array. Each container node knows its children by position and can find the
+ * position of a child's results using an identity lookup, rather than scanning with {@link IMapping#equals(Object)}. The number of empty fields that
+ * each node needs to output when it has no results, and the group state that each node reads its current index from, are worked out once per set of
+ * results by {@link #prepare(GroupState)}, rather than recursively for every record.
+ * <p>
+ * Pivot mappings gain children as new keys are found, so the plan is recompiled if any container's number of children has changed since it was
+ * compiled.
+ * <p>
+ * Instances hold state whilst generating records, so are not thread-safe. Each {@link DirectCsvWriter} has its own.
+ */
+class OutputPlan {
+
+	/**
+	 * A single mapping within the plan.
+	 */
+	private static final class Node {
+
+		/**
+		 * For containers, the empty fields output for a single iteration of all the children.
+		 */
+		private int childEmptyFieldCount;
+
+		/**
+		 * For containers, the child nodes in the same order as the mapping's children.
+		 */
+		private Node[] children;
+
+		/**
+		 * For containers, maps each child mapping to its position in {@link #children}.
+		 */
+		private Map<IMapping, Integer> childIndexes;
+
+		/**
+		 * The number of empty fields output when there are no results for this mapping.
+		 */
+		private int emptyFieldCount;
+
+		/**
+		 * The value of {@link MappingStatistics#getFieldCountForSingleRecord(IMapping)}, as at the last call to {@link OutputPlan#prepare(GroupState)}.
+		 */
+		private int fieldCount;
+
+		/**
+		 * For containers, the results found for each child whilst processing a single root. Only ever non-null whilst the root is being processed.
+		 */
+		private IExtractionResults[] foundResults;
+
+		/**
+		 * The group number of the mapping.
+		 */
+		private int groupNumber;
+
+		/**
+		 * The state of the group that this mapping belongs to, for the results currently being output. May be null if no results in the group
+		 * were found.
+		 */
+		private GroupState groupState;
+
+		/**
+		 * True if {@link #mapping} is an {@link IMappingContainer}.
+		 */
+		private boolean isContainer;
+
+		/**
+		 * The mapping that this node represents.
+		 */
+		private IMapping mapping;
+
+		/**
+		 * The multi-value behaviour of the mapping.
+		 */
+		private MultiValueBehaviour multiValueBehaviour;
+
+		/**
+		 * Creates a new node for a mapping.
+		 *
+		 * @param mapping the mapping that this node represents.
+		 */
+		public Node(IMapping mapping) {
+			this.mapping = mapping;
+			this.isContainer = mapping instanceof IMappingContainer;
+			this.groupNumber = mapping.getGroupNumber();
+			this.multiValueBehaviour = mapping.getMultiValueBehaviour();
+			if ((this.multiValueBehaviour != MultiValueBehaviour.GREEDY) && (this.multiValueBehaviour != MultiValueBehaviour.LAZY)) {
+				throw new BugException("Found unexpected (%s) value in Mapping.getMultiValueBehaviour() for %s", this.multiValueBehaviour, mapping);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "Node(" + this.mapping + ")";
+		}
+	}
+
+	private static final Logger LOG = LoggerFactory.getLogger(OutputPlan.class);
+
+	/**
+	 * Adds <code>count</code> empty fields to <code>csvFields</code>.
+	 *
+	 * @param csvFields the list of fields to add to.
+	 * @param count the number of empty fields to add.
+	 */
+	private static void addEmptyFields(List<String> csvFields, int count) {
+		for (int i = 0; i < count; i++) {
+			csvFields.add(null);
+		}
+	}
+
+	/**
+	 * The top level container that this plan was compiled from.
+	 */
+	private IMappingContainer container;
+
+	/**
+	 * All the nodes of the plan, parents before their children.
+	 */
+	private Node[] nodes;
+
+	/**
+	 * The node for {@link #container}.
+	 */
+	private Node rootNode;
+
+	/**
+	 * The statistics that determine how many fields each mapping outputs.
+	 */
+	private MappingStatistics statistics;
+
+	/**
+	 * Compiles a new plan for the container passed.
+	 *
+	 * @param container the top level container that records will be generated for. Must not be null.
+	 * @param statistics the statistics that determine how many fields each mapping outputs, which are read each time the plan is prepared. Must not
+	 *            be null.
+	 */
+	public OutputPlan(IMappingContainer container, MappingStatistics statistics) {
+		if (container == null) {
+			throw new ArgumentNullException("container");
+		}
+		if (statistics == null) {
+			throw new ArgumentNullException("statistics");
+		}
+		this.container = container;
+		this.statistics = statistics;
+		compile();
+	}
+
+	/**
+	 * Adds the fields for a set of container results to <code>csvFields</code>.
+	 *
+	 * @param csvFields the fields of the record being built.
+	 * @param node the plan node for the container.
+	 * @param results the results of the container.
+	 */
+	private void addContainerFields(List<String> csvFields, Node node, IExtractionResultsContainer results) {
+		if (node.multiValueBehaviour == MultiValueBehaviour.GREEDY) {
+			// Greedy containers output every root, then pad out to the number of iterations required by other records
+			List<List<IExtractionResults>> resultsForAllRoots = results.getChildren();
+			int rootCount = resultsForAllRoots.size();
+			for (int i = 0; i < rootCount; i++) {
+				addRootFields(csvFields, node, resultsForAllRoots.get(i));
+			}
+			int iterationsRequired = node.fieldCount - rootCount;
+			if (iterationsRequired > 0) {
+				addEmptyFields(csvFields, iterationsRequired * node.childEmptyFieldCount);
+			}
+		} else {
+			// Lazy containers only output the root indicated by the current index of their group
+			addRootFields(csvFields, node, results.getResultsSetAt(getIndexForGroup(node)));
+		}
+	}
+
+	/**
+	 * Adds the fields for either a set of container or value results.
+	 *
+	 * @param csvFields the fields of the record being built.
+	 * @param node the plan node for the mapping that <code>results</code> were created by.
+	 * @param results the results to output.
+	 */
+	private void addFields(List<String> csvFields, Node node, IExtractionResults results) {
+		if (node.isContainer) {
+			addContainerFields(csvFields, node, (IExtractionResultsContainer) results);
+		} else {
+			addValueFields(csvFields, node, (IExtractionResultsValues) results);
+		}
+	}
+
+	/**
+	 * Adds the fields for all the children of a container, for a single root found by that container.
+	 * <p>
+	 * It's the mapping configuration that defines which fields are output, rather than the results. <code>resultsForSingleRoot</code> won't contain
+	 * results for children that found nothing, so empty fields are output for those. If there are several results for the same child then only the
+	 * first is used.
+	 *
+	 * @param csvFields the fields of the record being built.
+	 * @param node the plan node for the container.
+	 * @param resultsForSingleRoot the results of each child for a single root. May be null, in which case all the fields will be empty.
+	 */
+	private void addRootFields(List<String> csvFields, Node node, List<IExtractionResults> resultsForSingleRoot) {
+		IExtractionResults[] found = node.foundResults;
+		if (resultsForSingleRoot != null) {
+			int resultsCount = resultsForSingleRoot.size();
+			for (int i = 0; i < resultsCount; i++) {
+				IExtractionResults results = resultsForSingleRoot.get(i);
+				Integer childIndex = node.childIndexes.get(results.getMapping());
+				if ((childIndex != null) && (found[childIndex.intValue()] == null)) {
+					found[childIndex.intValue()] = results;
+				}
+			}
+		}
+		Node[] children = node.children;
+		for (int i = 0; i < children.length; i++) {
+			IExtractionResults childResults = found[i];
+			if (childResults == null) {
+				addEmptyFields(csvFields, children[i].emptyFieldCount);
+			} else {
+				found[i] = null;
+				addFields(csvFields, children[i], childResults);
+			}
+		}
+	}
+
+	/**
+	 * Adds the fields for a set of value results.
+	 *
+	 * @param csvFields the fields of the record being built.
+	 * @param node the plan node for the value mapping.
+	 * @param results the values found.
+	 */
+	private void addValueFields(List<String> csvFields, Node node, IExtractionResultsValues results) {
+		if (node.multiValueBehaviour == MultiValueBehaviour.GREEDY) {
+			// Greedy mappings output all their values, padded out for alignment with other records
+			List<String> values = results.getResults();
+			int valueCount = values.size();
+			for (int i = 0; i < valueCount; i++) {
+				csvFields.add(values.get(i));
+			}
+			addEmptyFields(csvFields, node.fieldCount - valueCount);
+		} else {
+			// Lazy mappings just output the value indicated by the current index of their group
+			csvFields.add(results.getValueAt(getIndexForGroup(node)));
+		}
+	}
+
+	/**
+	 * Adds all the fields for a single record to <code>csvFields</code>, based on the current state of the groups passed to the last call to
+	 * {@link #prepare(GroupState)}.
+	 *
+	 * @param csvFields the list to add the fields of the record to.
+	 * @param rootResults the results of the top level container that this plan was compiled from. Must be the same results that the group states
+	 *            passed to {@link #prepare(GroupState)} were created from.
+	 */
+	public void addRecordFields(List<String> csvFields, IExtractionResultsContainer rootResults) {
+		if (rootResults.getMappingContainer() != this.container) {
+			throw new BugException("Output plan for %s asked to output results for %s", this.container, rootResults.getMappingContainer());
+		}
+		addContainerFields(csvFields, this.rootNode, rootResults);
+	}
+
+	/**
+	 * Compiles the plan from the current state of {@link #container}.
+	 */
+	private void compile() {
+		List<Node> allNodes = new ArrayList<Node>();
+		this.rootNode = compile(this.container, allNodes);
+		this.nodes = allNodes.toArray(new Node[allNodes.size()]);
+		if (LOG.isInfoEnabled()) {
+			LOG.info("Compiled output plan for {} with {} nodes", this.container, this.nodes.length);
+		}
+	}
+
+	/**
+	 * Creates a node for the mapping passed, and all its descendants.
+	 *
+	 * @param mapping the mapping to create a node for.
+	 * @param allNodes the list of all the nodes in the plan, which all the new nodes are added to.
+	 * @return the new node.
+	 */
+	private Node compile(IMapping mapping, List<Node> allNodes) {
+		Node node = new Node(mapping);
+		allNodes.add(node);
+		if (node.isContainer) {
+			List<Node> children = new ArrayList<Node>();
+			node.childIndexes = new IdentityHashMap<IMapping, Integer>();
+			for (IMapping child : (IMappingContainer) mapping) {
+				node.childIndexes.put(child, Integer.valueOf(children.size()));
+				children.add(compile(child, allNodes));
+			}
+			node.children = children.toArray(new Node[children.size()]);
+			node.foundResults = new IExtractionResults[node.children.length];
+		}
+		return node;
+	}
+
+	/**
+	 * Returns the current index of the group that a node belongs to.
+	 *
+	 * @param node the node to find the current group index for.
+	 * @return the index of the result to output, as determined by the group state.
+	 */
+	private int getIndexForGroup(Node node) {
+		if (node.groupState == null) {
+			throw new BugException("Tried to get index for non-existant group %d", node.groupNumber);
+		}
+		return node.groupState.getCurrentIndex();
+	}
+
+	/**
+	 * Determines whether any container in the plan has gained children since the plan was compiled, which happens when pivot mappings find new keys.
+	 *
+	 * @return true if the plan needs to be recompiled.
+	 */
+	private boolean isStale() {
+		for (Node node : this.nodes) {
+			if (node.isContainer && (((IMappingContainer) node.mapping).size() != node.children.length)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Prepares the plan to generate records for a new set of results, by working out how many empty fields each mapping requires and binding each
+	 * mapping to the state of its group.
+	 *
+	 * @param baseGroupState the head of the list of group states that will be used to generate records. May be null if there are no groups.
+	 */
+	public void prepare(GroupState baseGroupState) {
+		if (isStale()) {
+			LOG.info("Recompiling output plan for {} as its mappings have changed", this.container);
+			compile();
+		}
+		// Working backwards means that all children are prepared before their parents
+		for (int i = this.nodes.length - 1; i >= 0; i--) {
+			Node node = this.nodes[i];
+			IMapping mapping = node.mapping;
+			node.fieldCount = this.statistics.getFieldCountForSingleRecord(mapping);
+			node.groupState = (baseGroupState == null) ? null : baseGroupState.findGroup(node.groupNumber);
+			if (node.isContainer) {
+				int childEmptyFieldCount = 0;
+				for (Node child : node.children) {
+					childEmptyFieldCount += child.emptyFieldCount;
+				}
+				node.childEmptyFieldCount = childEmptyFieldCount;
+				node.emptyFieldCount = node.fieldCount * childEmptyFieldCount;
+				Arrays.fill(node.foundResults, null);
+			} else {
+				node.emptyFieldCount = node.fieldCount;
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "OutputPlan(" + this.container + ")";
+	}
+}
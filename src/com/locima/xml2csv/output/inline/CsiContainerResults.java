@@ -0,0 +1,86 @@
+package com.locima.xml2csv.output.inline;
+
+import java.util.List;
+
+import com.locima.xml2csv.configuration.IMapping;
+import com.locima.xml2csv.configuration.IMappingContainer;
+import com.locima.xml2csv.configuration.MultiValueBehaviour;
+import com.locima.xml2csv.output.IExtractionResults;
+import com.locima.xml2csv.output.IExtractionResultsContainer;
+
+/**
+ * The results of a single evaluation of an {@link IMappingContainer}, as read back from a CSI file by {@link CsiReader}.
+ */
+class CsiContainerResults implements IExtractionResultsContainer {
+
+	/**
+	 * The results of each child mapping, for each mapping root found.
+	 */
+	private List<List<IExtractionResults>> children;
+
+	/**
+	 * The container that these results are for.
+	 */
+	private IMappingContainer mapping;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param mapping the container that these results are for.
+	 * @param children the results of each child mapping, for each mapping root found.
+	 */
+	public CsiContainerResults(IMappingContainer mapping, List<List<IExtractionResults>> children) {
+		this.mapping = mapping;
+		this.children = children;
+	}
+
+	@Override
+	public List<List<IExtractionResults>> getChildren() {
+		return this.children;
+	}
+
+	@Override
+	public int getGroupNumber() {
+		return this.mapping.getGroupNumber();
+	}
+
+	@Override
+	public IMapping getMapping() {
+		return this.mapping;
+	}
+
+	@Override
+	public IMappingContainer getMappingContainer() {
+		return this.mapping;
+	}
+
+	@Override
+	public int getMinCount() {
+		return this.mapping.getMinValueCount();
+	}
+
+	@Override
+	public MultiValueBehaviour getMultiValueBehaviour() {
+		return this.mapping.getMultiValueBehaviour();
+	}
+
+	@Override
+	public List<IExtractionResults> getResultsSetAt(int valueIndex) {
+		return (this.children.size() > valueIndex) ? this.children.get(valueIndex) : null;
+	}
+
+	@Override
+	public int size() {
+		return this.children.size();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("CsiContainerResults(");
+		sb.append(this.mapping);
+		sb.append(", ");
+		sb.append(this.children.size());
+		sb.append(")");
+		return sb.toString();
+	}
+}
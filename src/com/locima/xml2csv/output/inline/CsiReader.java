@@ -0,0 +1,302 @@
+package com.locima.xml2csv.output.inline;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.locima.xml2csv.ArgumentNullException;
+import com.locima.xml2csv.configuration.IMapping;
+import com.locima.xml2csv.configuration.IMappingContainer;
+import com.locima.xml2csv.configuration.IValueMapping;
+import com.locima.xml2csv.extractor.XmlDataExtractor;
+import com.locima.xml2csv.output.IExtractionResults;
+import com.locima.xml2csv.output.IExtractionResultsContainer;
+
+/**
+ * Reads records from a CSI file written by {@link CsiWriter}, one at a time.
+ * <p>
+ * Each record is read in to a re-usable buffer in a single operation, then decoded in to lightweight {@link IExtractionResultsContainer} instances
+ * that refer back to the mappings of the configuration that the CSI file was created with.
+ */
+public class CsiReader implements Closeable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(CsiReader.class);
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * The body of the record currently being decoded.
+	 */
+	private byte[] buffer = new byte[8192];
+
+	/**
+	 * The number of bytes of {@link #buffer} that belong to the current record.
+	 */
+	private int bufferLength;
+
+	/**
+	 * The position in {@link #buffer} of the next byte to decode.
+	 */
+	private int bufferPosition;
+
+	/**
+	 * The stream that the CSI file is being read from.
+	 */
+	private InputStream inputStream;
+
+	/**
+	 * The mappings defined so far in the CSI file, indexed by their ID.
+	 */
+	private List<IMapping> mappings = new ArrayList<IMapping>();
+
+	/**
+	 * Records how many records have been read by {@link #getNextRecord()}.
+	 */
+	private int readCount;
+
+	/**
+	 * Creates a new reader and checks the CSI file header.
+	 *
+	 * @param container the top level container that the CSI file was written for. Must not be null.
+	 * @param inputStream the stream to read from. Should be buffered. Must not be null.
+	 * @throws IOException if the header cannot be read, or is not a CSI file of a version that this reader understands.
+	 */
+	public CsiReader(IMappingContainer container, InputStream inputStream) throws IOException {
+		if (container == null) {
+			throw new ArgumentNullException("container");
+		}
+		if (inputStream == null) {
+			throw new ArgumentNullException("inputStream");
+		}
+		this.inputStream = inputStream;
+		this.mappings.add(container);
+		for (byte expected : CsiWriter.MAGIC) {
+			if (inputStream.read() != expected) {
+				throw new IOException("Input is not a CSI file, incorrect header found");
+			}
+		}
+		int version = readStreamVarInt(false);
+		if (version != CsiWriter.VERSION) {
+			throw new IOException("Unsupported CSI file version " + version + ", only version " + CsiWriter.VERSION + " is supported");
+		}
+	}
+
+	/**
+	 * Closes the underlying input stream.
+	 *
+	 * @throws IOException if the stream cannot be closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		this.inputStream.close();
+	}
+
+	/**
+	 * Returns the next record from the CSI file.
+	 *
+	 * @return the next record, or null if the end of the file has been reached.
+	 * @throws IOException if the underlying stream cannot be read or the record is corrupt or truncated.
+	 */
+	public IExtractionResultsContainer getNextRecord() throws IOException {
+		int length = readStreamVarInt(true);
+		if (length < 0) {
+			LOG.info("Reached end of CSI after {} records", this.readCount);
+			return null;
+		}
+		if (length > this.buffer.length) {
+			this.buffer = new byte[Math.max(length, this.buffer.length * 2)];
+		}
+		int read = 0;
+		while (read < length) {
+			int count = this.inputStream.read(this.buffer, read, length - read);
+			if (count < 0) {
+				throw new EOFException("CSI file truncated in record " + this.readCount);
+			}
+			read += count;
+		}
+		this.bufferLength = length;
+		this.bufferPosition = 0;
+		IExtractionResultsContainer record = readContainer((IMappingContainer) this.mappings.get(0));
+		if (this.bufferPosition != this.bufferLength) {
+			throw new IOException("CSI record " + this.readCount + " contains " + (this.bufferLength - this.bufferPosition) + " unexpected bytes");
+		}
+		this.readCount++;
+		XmlDataExtractor.logResults(record, 0, 0);
+		return record;
+	}
+
+	/**
+	 * Returns the number of records read so far.
+	 *
+	 * @return the number of records returned by {@link #getNextRecord()}.
+	 */
+	public int getReadCount() {
+		return this.readCount;
+	}
+
+	/**
+	 * Decodes a single byte of the current record.
+	 *
+	 * @return the byte, as an unsigned value.
+	 * @throws IOException if the end of the record has been reached.
+	 */
+	private int readByte() throws IOException {
+		if (this.bufferPosition >= this.bufferLength) {
+			throw new IOException("CSI record " + this.readCount + " is shorter than expected");
+		}
+		return this.buffer[this.bufferPosition++] & 0xFF;
+	}
+
+	/**
+	 * Decodes the results of a container from the current record.
+	 *
+	 * @param mapping the container that the results are for.
+	 * @return the results, never null.
+	 * @throws IOException if the record is corrupt.
+	 */
+	private IExtractionResultsContainer readContainer(IMappingContainer mapping) throws IOException {
+		int rootCount = readVarInt();
+		List<List<IExtractionResults>> roots = new ArrayList<List<IExtractionResults>>(rootCount);
+		for (int rootIndex = 0; rootIndex < rootCount; rootIndex++) {
+			int childCount = readVarInt();
+			List<IExtractionResults> children = new ArrayList<IExtractionResults>(childCount);
+			for (int childIndex = 0; childIndex < childCount; childIndex++) {
+				IMapping childMapping = readMappingRef();
+				if (childMapping instanceof IMappingContainer) {
+					children.add(readContainer((IMappingContainer) childMapping));
+				} else {
+					children.add(readValues((IValueMapping) childMapping));
+				}
+			}
+			roots.add(children);
+		}
+		return new CsiContainerResults(mapping, roots);
+	}
+
+	/**
+	 * Decodes a reference to a mapping, processing the definition of that mapping first if necessary.
+	 *
+	 * @return the mapping referred to, never null.
+	 * @throws IOException if the reference is to an undefined mapping, or the definition cannot be resolved against the configuration.
+	 */
+	private IMapping readMappingRef() throws IOException {
+		int ref = readVarInt();
+		if (ref > 0) {
+			if (ref > this.mappings.size()) {
+				throw new IOException("CSI record " + this.readCount + " refers to undefined mapping " + (ref - 1));
+			}
+			return this.mappings.get(ref - 1);
+		}
+		int parentId = readVarInt();
+		int index = readVarInt();
+		if (parentId >= this.mappings.size() || !(this.mappings.get(parentId) instanceof IMappingContainer)) {
+			throw new IOException("CSI record " + this.readCount + " defines a mapping beneath invalid parent " + parentId);
+		}
+		IMappingContainer parent = (IMappingContainer) this.mappings.get(parentId);
+		IMapping mapping = null;
+		int i = 0;
+		for (IMapping candidate : parent) {
+			if (i++ == index) {
+				mapping = candidate;
+				break;
+			}
+		}
+		if (mapping == null) {
+			throw new IOException("CSI record " + this.readCount + " refers to child " + index + " of " + parent + ", which does not exist");
+		}
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Mapping {} in CSI resolved to {}", this.mappings.size(), mapping);
+		}
+		this.mappings.add(mapping);
+		return mapping;
+	}
+
+	/**
+	 * Reads a variable length integer directly from the underlying stream, used outside of records.
+	 *
+	 * @param allowEndOfFile if true then -1 is returned if the end of the stream is found before the first byte.
+	 * @return the integer read, or -1 at the end of the stream.
+	 * @throws IOException if the stream cannot be read or ends part way through the integer.
+	 */
+	private int readStreamVarInt(boolean allowEndOfFile) throws IOException {
+		int value = 0;
+		int shift = 0;
+		int b;
+		do {
+			b = this.inputStream.read();
+			if (b < 0) {
+				if (allowEndOfFile && shift == 0) {
+					return -1;
+				}
+				throw new EOFException("CSI file truncated after record " + this.readCount);
+			}
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0 && shift < 35);
+		return value;
+	}
+
+	/**
+	 * Decodes a string from the current record.
+	 *
+	 * @return the string, which may be null.
+	 * @throws IOException if the record is corrupt.
+	 */
+	private String readString() throws IOException {
+		int lengthPlusOne = readVarInt();
+		if (lengthPlusOne == 0) {
+			return null;
+		}
+		int length = lengthPlusOne - 1;
+		if (length > this.bufferLength - this.bufferPosition) {
+			throw new IOException("CSI record " + this.readCount + " contains a value longer than the record");
+		}
+		String value = new String(this.buffer, this.bufferPosition, length, UTF8);
+		this.bufferPosition += length;
+		return value;
+	}
+
+	/**
+	 * Decodes the results of a value mapping from the current record.
+	 *
+	 * @param mapping the mapping that the values are for.
+	 * @return the values, never null.
+	 * @throws IOException if the record is corrupt.
+	 */
+	private CsiValueResults readValues(IValueMapping mapping) throws IOException {
+		int count = readVarInt();
+		List<String> values = new ArrayList<String>(count);
+		for (int i = 0; i < count; i++) {
+			values.add(readString());
+		}
+		return new CsiValueResults(mapping, values);
+	}
+
+	/**
+	 * Decodes a variable length integer from the current record.
+	 *
+	 * @return the integer, always non-negative.
+	 * @throws IOException if the record is corrupt.
+	 */
+	private int readVarInt() throws IOException {
+		int value = 0;
+		int shift = 0;
+		int b;
+		do {
+			b = readByte();
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0 && shift < 35);
+		if (value < 0) {
+			throw new IOException("CSI record " + this.readCount + " contains an invalid integer");
+		}
+		return value;
+	}
+}
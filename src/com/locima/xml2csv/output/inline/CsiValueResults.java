@@ -0,0 +1,85 @@
+package com.locima.xml2csv.output.inline;
+
+import java.util.List;
+
+import com.locima.xml2csv.configuration.IMapping;
+import com.locima.xml2csv.configuration.IValueMapping;
+import com.locima.xml2csv.configuration.MultiValueBehaviour;
+import com.locima.xml2csv.output.IExtractionResultsValues;
+
+/**
+ * The values found by a single evaluation of an {@link IValueMapping}, as read back from a CSI file by {@link CsiReader}.
+ */
+class CsiValueResults implements IExtractionResultsValues {
+
+	/**
+	 * The mapping that these values were found by.
+	 */
+	private IValueMapping mapping;
+
+	/**
+	 * The values found.
+	 */
+	private List<String> results;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param mapping the mapping that these values were found by.
+	 * @param results the values found.
+	 */
+	public CsiValueResults(IValueMapping mapping, List<String> results) {
+		this.mapping = mapping;
+		this.results = results;
+	}
+
+	@Override
+	public int getGroupNumber() {
+		return this.mapping.getGroupNumber();
+	}
+
+	@Override
+	public IMapping getMapping() {
+		return this.mapping;
+	}
+
+	@Override
+	public int getMinCount() {
+		return this.mapping.getMinValueCount();
+	}
+
+	@Override
+	public MultiValueBehaviour getMultiValueBehaviour() {
+		return this.mapping.getMultiValueBehaviour();
+	}
+
+	@Override
+	public List<String> getResults() {
+		return this.results;
+	}
+
+	@Override
+	public String getValueAt(int index) {
+		return (this.results.size() > index) ? this.results.get(index) : null;
+	}
+
+	@Override
+	public IValueMapping getValueMapping() {
+		return this.mapping;
+	}
+
+	@Override
+	public int size() {
+		return this.results.size();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("CsiValueResults(");
+		sb.append(this.mapping);
+		sb.append(", ");
+		sb.append(this.results);
+		sb.append(")");
+		return sb.toString();
+	}
+}
@@ -0,0 +1,338 @@
+package com.locima.xml2csv.output.inline;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.locima.xml2csv.ArgumentNullException;
+import com.locima.xml2csv.BugException;
+import com.locima.xml2csv.configuration.IMapping;
+import com.locima.xml2csv.configuration.IMappingContainer;
+import com.locima.xml2csv.output.IExtractionResults;
+import com.locima.xml2csv.output.IExtractionResultsContainer;
+import com.locima.xml2csv.output.IExtractionResultsValues;
+
+/**
+ * Writes {@link IExtractionResultsContainer} instances to a CSI file using a compact, length-prefixed binary format, which can be read back using
+ * {@link CsiReader}.
+ * <p>
+ * The format is as follows, where <code>varint</code> is an unsigned integer written 7 bits at a time, least significant first, with the top bit of
+ * each byte set if more bytes follow:
+ *
+ * <pre>
+ * file       := magic version record*
+ * record     := varint(length of body in bytes) container
+ * container  := varint(number of roots) (varint(number of children) child*)*
+ * child      := mappingRef (container | values)
+ * mappingRef := varint(mapping ID + 1) | 0 varint(parent mapping ID) varint(index of mapping within parent)
+ * values     := varint(number of values) value*
+ * value      := 0 (a null value) | varint(length in bytes + 1) UTF-8 bytes
+ * </pre>
+ * <p>
+ * Rather than writing mapping names, each mapping is given a small integer ID the first time it's written. The top level container always has ID
+ * 0. The first reference to any other mapping is a definition that identifies the mapping by its position within its parent, which is stable for the
+ * lifetime of a configuration (pivot mappings only ever add new children to the end). Whether a child is a container or a set of values is not
+ * written, as the reader can work this out from the mapping.
+ * <p>
+ * Each record is encoded to a re-usable buffer before being written, so that the writer creates very little garbage however many records are
+ * written.
+ */
+public class CsiWriter implements Closeable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(CsiWriter.class);
+
+	/**
+	 * The bytes written at the start of every CSI file.
+	 */
+	static final byte[] MAGIC = new byte[] {'C', 'S', 'I', 0};
+
+	/**
+	 * The version of the CSI format written by this class.
+	 */
+	static final int VERSION = 1;
+
+	/**
+	 * Calculates the number of bytes required to encode <code>value</code> using UTF-8.
+	 *
+	 * @param value the string to measure. Must not be null.
+	 * @return the number of bytes required.
+	 */
+	private static int getUtf8Length(String value) {
+		int length = 0;
+		int charCount = value.length();
+		for (int i = 0; i < charCount; i++) {
+			char ch = value.charAt(i);
+			if (ch < 0x80) {
+				length++;
+			} else if (ch < 0x800) {
+				length += 2;
+			} else if (Character.isHighSurrogate(ch) && (i + 1 < charCount) && Character.isLowSurrogate(value.charAt(i + 1))) {
+				length += 4;
+				i++;
+			} else if (isSurrogate(ch)) {
+				// Unpaired surrogates are replaced with a '?', in the same way as String.getBytes(...)
+				length++;
+			} else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * Determines whether a character is a high or low surrogate (<code>Character.isSurrogate</code> isn't available in Java 6).
+	 *
+	 * @param ch the character to test.
+	 * @return true if <code>ch</code> is a surrogate.
+	 */
+	private static boolean isSurrogate(char ch) {
+		return (ch >= Character.MIN_SURROGATE) && (ch <= Character.MAX_SURROGATE);
+	}
+
+	/**
+	 * The body of the record currently being written.
+	 */
+	private byte[] buffer = new byte[8192];
+
+	/**
+	 * The number of bytes of {@link #buffer} currently in use.
+	 */
+	private int bufferLength;
+
+	/**
+	 * The ID that will be given to the next mapping defined.
+	 */
+	private int nextMappingId;
+
+	/**
+	 * Maps each mapping that has been written so far to its ID. Mapping instances don't override equals and hashCode consistently, so identity is
+	 * used.
+	 */
+	private Map<IMapping, Integer> mappingIds = new IdentityHashMap<IMapping, Integer>();
+
+	/**
+	 * The output stream that the CSI file is written to.
+	 */
+	private OutputStream outputStream;
+
+	/**
+	 * The number of records written so far.
+	 */
+	private int recordCount;
+
+	/**
+	 * Creates a new writer and writes the CSI file header.
+	 *
+	 * @param container the top level container that all records written will be for. Must not be null.
+	 * @param outputStream the stream to write to. Should be buffered. Must not be null.
+	 * @throws IOException if the header cannot be written.
+	 */
+	public CsiWriter(IMappingContainer container, OutputStream outputStream) throws IOException {
+		if (container == null) {
+			throw new ArgumentNullException("container");
+		}
+		if (outputStream == null) {
+			throw new ArgumentNullException("outputStream");
+		}
+		this.outputStream = outputStream;
+		this.mappingIds.put(container, Integer.valueOf(this.nextMappingId++));
+		this.outputStream.write(MAGIC);
+		writeVarInt(VERSION);
+		flushBuffer();
+	}
+
+	/**
+	 * Closes the underlying output stream.
+	 *
+	 * @throws IOException if the stream cannot be closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		LOG.debug("Closing CSI writer after {} records", this.recordCount);
+		this.outputStream.close();
+	}
+
+	/**
+	 * Makes sure that {@link #buffer} has room for at least <code>required</code> more bytes.
+	 *
+	 * @param required the number of bytes about to be written.
+	 */
+	private void ensureCapacity(int required) {
+		int minimum = this.bufferLength + required;
+		if (minimum > this.buffer.length) {
+			byte[] newBuffer = new byte[Math.max(minimum, this.buffer.length * 2)];
+			System.arraycopy(this.buffer, 0, newBuffer, 0, this.bufferLength);
+			this.buffer = newBuffer;
+		}
+	}
+
+	/**
+	 * Writes the contents of {@link #buffer} to the output stream and empties it.
+	 *
+	 * @throws IOException if the underlying stream cannot be written to.
+	 */
+	private void flushBuffer() throws IOException {
+		this.outputStream.write(this.buffer, 0, this.bufferLength);
+		this.bufferLength = 0;
+	}
+
+	/**
+	 * Finds the position of <code>child</code> amongst the children of <code>parent</code>.
+	 *
+	 * @param parent the container that <code>child</code> belongs to.
+	 * @param child the mapping to find.
+	 * @return the zero-based index of <code>child</code>.
+	 */
+	private int getChildIndex(IMappingContainer parent, IMapping child) {
+		int index = 0;
+		for (IMapping candidate : parent) {
+			if (candidate == child) {
+				return index;
+			}
+			index++;
+		}
+		throw new BugException("Unable to find mapping %s within its parent %s", child, parent);
+	}
+
+	/**
+	 * Returns the number of records written so far.
+	 *
+	 * @return the number of calls made to {@link #writeRecord(IExtractionResultsContainer)}.
+	 */
+	public int getRecordCount() {
+		return this.recordCount;
+	}
+
+	/**
+	 * Encodes the children of a container (of any depth) to {@link #buffer}.
+	 *
+	 * @param container the results to encode.
+	 */
+	private void writeContainer(IExtractionResultsContainer container) {
+		IMappingContainer mapping = container.getMappingContainer();
+		List<List<IExtractionResults>> roots = container.getChildren();
+		writeVarInt(roots.size());
+		for (List<IExtractionResults> children : roots) {
+			writeVarInt(children.size());
+			for (IExtractionResults child : children) {
+				writeMappingRef(mapping, child.getMapping());
+				if (child instanceof IExtractionResultsContainer) {
+					writeContainer((IExtractionResultsContainer) child);
+				} else {
+					writeValues((IExtractionResultsValues) child);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes a reference to a mapping, defining it first if this is the first time it's been seen.
+	 *
+	 * @param parent the container that <code>mapping</code> belongs to, which must already have been defined.
+	 * @param mapping the mapping to refer to.
+	 */
+	private void writeMappingRef(IMappingContainer parent, IMapping mapping) {
+		Integer id = this.mappingIds.get(mapping);
+		if (id != null) {
+			writeVarInt(id.intValue() + 1);
+		} else {
+			writeVarInt(0);
+			writeVarInt(this.mappingIds.get(parent).intValue());
+			writeVarInt(getChildIndex(parent, mapping));
+			this.mappingIds.put(mapping, Integer.valueOf(this.nextMappingId++));
+		}
+	}
+
+	/**
+	 * Writes a single record to the CSI file.
+	 *
+	 * @param container the results of evaluating the top level container that this writer was created with. Must not be null.
+	 * @throws IOException if the record cannot be written to the underlying stream.
+	 */
+	public void writeRecord(IExtractionResultsContainer container) throws IOException {
+		// Encode the body first, then write it after its length
+		writeContainer(container);
+		int bodyLength = this.bufferLength;
+		writeVarInt(bodyLength);
+		int lengthLength = this.bufferLength - bodyLength;
+		this.outputStream.write(this.buffer, bodyLength, lengthLength);
+		this.outputStream.write(this.buffer, 0, bodyLength);
+		this.bufferLength = 0;
+		this.recordCount++;
+	}
+
+	/**
+	 * Encodes a string as UTF-8 to {@link #buffer}, preceded by its length.
+	 *
+	 * @param value the string to write. May be null.
+	 */
+	private void writeString(String value) {
+		if (value == null) {
+			writeVarInt(0);
+			return;
+		}
+		int length = getUtf8Length(value);
+		writeVarInt(length + 1);
+		ensureCapacity(length);
+		byte[] buf = this.buffer;
+		int pos = this.bufferLength;
+		int charCount = value.length();
+		for (int i = 0; i < charCount; i++) {
+			char ch = value.charAt(i);
+			if (ch < 0x80) {
+				buf[pos++] = (byte) ch;
+			} else if (ch < 0x800) {
+				buf[pos++] = (byte) (0xC0 | (ch >> 6));
+				buf[pos++] = (byte) (0x80 | (ch & 0x3F));
+			} else if (Character.isHighSurrogate(ch) && (i + 1 < charCount) && Character.isLowSurrogate(value.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(ch, value.charAt(++i));
+				buf[pos++] = (byte) (0xF0 | (codePoint >> 18));
+				buf[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+				buf[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+				buf[pos++] = (byte) (0x80 | (codePoint & 0x3F));
+			} else if (isSurrogate(ch)) {
+				buf[pos++] = (byte) '?';
+			} else {
+				buf[pos++] = (byte) (0xE0 | (ch >> 12));
+				buf[pos++] = (byte) (0x80 | ((ch >> 6) & 0x3F));
+				buf[pos++] = (byte) (0x80 | (ch & 0x3F));
+			}
+		}
+		this.bufferLength = pos;
+	}
+
+	/**
+	 * Encodes a set of values to {@link #buffer}.
+	 *
+	 * @param values the values to encode.
+	 */
+	private void writeValues(IExtractionResultsValues values) {
+		List<String> results = values.getResults();
+		int size = results.size();
+		writeVarInt(size);
+		for (int i = 0; i < size; i++) {
+			writeString(results.get(i));
+		}
+	}
+
+	/**
+	 * Encodes a non-negative integer to {@link #buffer}, using as few bytes as possible.
+	 *
+	 * @param value the value to encode. Must not be negative.
+	 */
+	private void writeVarInt(int value) {
+		ensureCapacity(5);
+		int remaining = value;
+		while ((remaining & ~0x7F) != 0) {
+			this.buffer[this.bufferLength++] = (byte) ((remaining & 0x7F) | 0x80);
+			remaining >>>= 7;
+		}
+		this.buffer[this.bufferLength++] = (byte) remaining;
+	}
+}
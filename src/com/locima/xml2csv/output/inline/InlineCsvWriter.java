@@ -1,26 +1,19 @@
 package com.locima.xml2csv.output.inline;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Stack;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.locima.xml2csv.configuration.IMapping;
 import com.locima.xml2csv.configuration.IMappingContainer;
-import com.locima.xml2csv.configuration.IValueMapping;
-import com.locima.xml2csv.extractor.AbstractExtractionContext;
-import com.locima.xml2csv.extractor.ContainerExtractionContext;
-import com.locima.xml2csv.extractor.MappingExtractionContext;
+import com.locima.xml2csv.configuration.MappingStatistics;
 //CHECKSTYLE:OFF Checkstyle bug, this import is used in javadoc comments.
 import com.locima.xml2csv.output.IExtractionResults;
 //CHECKSTYLE:ON
@@ -28,7 +21,6 @@ import com.locima.xml2csv.output.IExtractionResultsContainer;
 import com.locima.xml2csv.output.IOutputManager;
 import com.locima.xml2csv.output.IOutputWriter;
 import com.locima.xml2csv.output.OutputManagerException;
-import com.locima.xml2csv.output.OutputUtil;
 import com.locima.xml2csv.output.direct.DirectCsvWriter;
 import com.locima.xml2csv.util.FileUtility;
 
@@ -40,19 +32,19 @@ import com.locima.xml2csv.util.FileUtility;
  * we cannot write a CSV file directly. This {@link IOutputManager} does this by writing an intermediate file which is then converted to a CSV file
  * once the number of fields required is known.
  * <p>
- * This is done by simply deferring the final conversion of {@link AbstractExtractionContext} results to a CSV file by saving the serialized form of
- * the {@link AbstractExtractionContext} data in a "CSI" file. When all the inputs have been processed, we now know the highest number of iterations
- * any one {@link IMapping} instance has found during execution, and can now insert all the blank fields in the CSV that we need to keep all the data
- * aligned.
+ * This is done by simply deferring the final conversion of {@link IExtractionResults} to a CSV file by saving them in a "CSI" file, using the
+ * compact binary format written by {@link CsiWriter}. When all the inputs have been processed, we now know the highest number of iterations any one
+ * {@link IMapping} instance has found during execution, and can now insert all the blank fields in the CSV that we need to keep all the data aligned.
  */
 public class InlineCsvWriter implements IOutputWriter {
 
-	private static final String CONTAINER_NAME_PREFIX = "C_";
+	/**
+	 * The size of the buffers used when reading and writing the CSI file.
+	 */
+	private static final int CSI_BUFFER_SIZE = 65536;
 
 	private static final Logger LOG = LoggerFactory.getLogger(InlineCsvWriter.class);
 
-	private static final String VALUE_NAME_PREFIX = "V_";
-
 	/**
 	 * Records whether, when creating the CSV file, output should be appended to an existing file or create a new file or overwrite an existing file.
 	 */
@@ -68,9 +60,7 @@ public class InlineCsvWriter implements IOutputWriter {
 	/**
 	 * The writer object that can be used to write to {@link #csiOutputFile}.
 	 */
-	private ObjectOutputStream csiWriter;
-
-	private Map<String, IMapping> nameToMapping;
+	private CsiWriter csiWriter;
 
 	/**
 	 * The final CSV output file that will contain our desired output.
@@ -82,6 +72,11 @@ public class InlineCsvWriter implements IOutputWriter {
 	 */
 	private String outputName;
 
+	/**
+	 * The statistics for the current conversion, which are complete by the time that {@link #close()} converts the CSI file to CSV.
+	 */
+	private MappingStatistics statistics;
+
 	/**
 	 * Tidies up (i.e. deletes) all intermediate files. If this fails then only logging will be produced.
 	 */
@@ -89,7 +84,7 @@ public class InlineCsvWriter implements IOutputWriter {
 	public void abort() {
 		if (this.csiWriter != null) {
 			try {
-				OutputUtil.close(this.outputName, this.csiOutputFile.getAbsolutePath(), this.csiWriter);
+				closeCsiOutput();
 				this.csiOutputFile.delete();
 			} catch (OutputManagerException e) {
 				LOG.error("Unable to close and delete CSI writer during abort", e);
@@ -104,17 +99,46 @@ public class InlineCsvWriter implements IOutputWriter {
 	 */
 	@Override
 	public void close() throws OutputManagerException {
-		OutputUtil.close(this.outputName, this.csiOutputFile.getAbsolutePath(), this.csiWriter);
+		closeCsiOutput();
 		convertCsiToCsv();
 	}
 
+	/**
+	 * Closes a stream that is being abandoned because of an earlier error, logging rather than throwing any further error.
+	 *
+	 * @param stream the stream to close. May be null.
+	 */
+	private static void closeQuietly(Closeable stream) {
+		if (stream != null) {
+			try {
+				stream.close();
+			} catch (IOException ioe) {
+				LOG.warn("Unable to close stream after earlier error", ioe);
+			}
+		}
+	}
+
+	/**
+	 * Closes the CSI file that records have been written to.
+	 *
+	 * @throws OutputManagerException if the CSI file could not be closed.
+	 */
+	private void closeCsiOutput() throws OutputManagerException {
+		LOG.info("Closing {} ({}) after writing {} records", this.outputName, this.csiOutputFile.getAbsolutePath(), this.csiWriter.getRecordCount());
+		try {
+			this.csiWriter.close();
+		} catch (IOException ioe) {
+			throw new OutputManagerException(ioe, "Unable to close output stream %s", this.csiOutputFile.getAbsolutePath());
+		}
+	}
+
 	/**
 	 * Converts the intermediate CSI file written as the mapping evaluation was going on to it's final CSV form.
 	 * <p>
 	 * Algorithm as follows:
 	 * <ol>
 	 * <li>Create a DirectCsvWriter instance of this InlineCsvWriter.
-	 * <li>For each serialized AbstractExtractionContext instance written to the CSI file.</li>
+	 * <li>For each record written to the CSI file.</li>
 	 * <li>Read it</li>
 	 * <li>Pass it to a DirectCsvWriter instance.</li>
 	 * <li>Close the CSV file.</li>
@@ -125,18 +149,20 @@ public class InlineCsvWriter implements IOutputWriter {
 	private void convertCsiToCsv() throws OutputManagerException {
 		LOG.info("Converting output CSI file {} to output CSV", this.csiOutputFile.getAbsolutePath());
 
-		CsiInputStream csiInput = null;
-		csiInput = getCsiInput();
+		CsiReader csiInput = getCsiInput();
 
 		DirectCsvWriter csvWriter = new DirectCsvWriter();
-		csvWriter.initialise(this.outputDirectory, this.container, this.appendOutput);
+		csvWriter.initialise(this.outputDirectory, this.container, this.statistics, this.appendOutput);
 		try {
-			// Go through all the records, reading each snapshot AbstractExtractionContext state then passing it to the DirectCsvWriter
+			// Go through all the records, reading each one then passing it to the DirectCsvWriter
 			IExtractionResultsContainer cec = csiInput.getNextRecord();
 			while (cec != null) {
 				csvWriter.writeRecords(cec);
 				cec = csiInput.getNextRecord();
 			}
+		} catch (IOException ioe) {
+			throw new OutputManagerException(ioe, "Unable to read record %d from CSI file %s", csiInput.getReadCount(),
+							this.csiOutputFile.getAbsolutePath());
 		} finally {
 			// Close the CSI input stream, log any errors but don't throw as this doesn't impact the overall behaviour of the program.
 			if (csiInput != null) {
@@ -154,78 +180,50 @@ public class InlineCsvWriter implements IOutputWriter {
 	}
 
 	/**
-	 * Creates the output stream for the CSI file.
+	 * Creates the CSI file and a writer for it. The CSI file is always created from scratch, as <code>appendOutput</code> only applies to the final
+	 * CSV file.
 	 *
-	 * @return an output stream to write {@link IExtractionResults} instances to.
+	 * @return a writer for {@link IExtractionResults} instances.
 	 * @throws OutputManagerException if anything goes wrong creating the output stream.
 	 */
-	private ObjectOutputStream createCsiOutput() throws OutputManagerException {
+	private CsiWriter createCsiOutput() throws OutputManagerException {
 		File file = this.csiOutputFile;
 		LOG.info("Creating csiWriter for {}", file.getAbsolutePath());
+		FileOutputStream outputStream = null;
 		try {
-			ObjectOutputStream outputStream = new ObjectOutputStream(new GZIPOutputStream(new FileOutputStream(file, this.appendOutput)));
+			outputStream = new FileOutputStream(file, false);
+			CsiWriter writer = new CsiWriter(this.container, new BufferedOutputStream(outputStream, CSI_BUFFER_SIZE));
 			LOG.info("Successfully opened output file for csiWriter {}", file.getAbsolutePath());
-			return outputStream;
+			return writer;
 		} catch (IOException ioe) {
+			closeQuietly(outputStream);
 			// If we can't even create an output file, throw an exception up to abort
 			throw new OutputManagerException(ioe, "Unable to create output file %s", file.getAbsolutePath());
 		}
 	}
 
-	/**
-	 * Creates a mapping from an {@link IMapping} name to the {@link IMapping} instance. This is used by the {@link CsiInputStream} to allow
-	 * {@link ContainerExtractionContext} and {@link MappingExtractionContext} to restore the reference to the {@link IMapping} instance that they
-	 * related to (as we don't serialize {@link IMapping} instances, just the name).
-	 *
-	 * @return a map, never null, never empty.
-	 */
-	private Map<String, IMapping> createMappingMap() {
-		Map<String, IMapping> dic = new HashMap<String, IMapping>();
-		// Implemented with a tree iteration, no recursion
-		Stack<IMapping> toDo = new Stack<IMapping>();
-		toDo.push(this.container);
-		while (!toDo.empty()) {
-			IMapping current = toDo.pop();
-			if (current instanceof IValueMapping) {
-				dic.put(VALUE_NAME_PREFIX + ((IValueMapping) current).getName(), current);
-			} else {
-				IMappingContainer currentContainer = (IMappingContainer) current;
-				dic.put(CONTAINER_NAME_PREFIX + ((IMappingContainer) current).getName(), current);
-				for (IMapping child : currentContainer) {
-					toDo.add(child);
-				}
-			}
-		}
-		if (LOG.isTraceEnabled()) {
-			LOG.trace("Created Mapping Dictionary for InlineCsvWriter as follows:");
-			for (Entry<String, IMapping> x : dic.entrySet()) {
-				LOG.trace("\t{} = {}", x.getKey(), x.getValue());
-			}
-		}
-		return dic;
-	}
-
 	/**
 	 * Opens the CSI file for reading back (to create the CSV file).
 	 *
-	 * @return an input stream for the contexts stored in the CSI file.
-	 * @throws OutputManagerException if an unexpected error occurs whilst writing to the CSI file.
+	 * @return a reader for the records stored in the CSI file.
+	 * @throws OutputManagerException if an unexpected error occurs whilst opening the CSI file.
 	 */
-	private CsiInputStream getCsiInput() throws OutputManagerException {
-		this.nameToMapping = createMappingMap();
-
+	private CsiReader getCsiInput() throws OutputManagerException {
+		FileInputStream inputStream = null;
 		try {
-
 			LOG.info("Re-opening {} to read intermediate file", this.csiOutputFile.getAbsolutePath());
-			return new CsiInputStream(this.nameToMapping, new GZIPInputStream(new FileInputStream(this.csiOutputFile)));
+			inputStream = new FileInputStream(this.csiOutputFile);
+			return new CsiReader(this.container, new BufferedInputStream(inputStream, CSI_BUFFER_SIZE));
 		} catch (IOException e) {
-			throw new OutputManagerException(e, "Unable to open CSI file {} for reading.", this.csiOutputFile.getAbsolutePath());
+			closeQuietly(inputStream);
+			throw new OutputManagerException(e, "Unable to open CSI file %s for reading.", this.csiOutputFile.getAbsolutePath());
 		}
 	}
 
 	@Override
 	// CHECKSTYLE:OFF Field hiding is fine here because this is for initialising the obeject after a constructor call.
-	public void initialise(File outputDirectory, IMappingContainer container, boolean appendOutput) throws OutputManagerException {
+	public void initialise(File outputDirectory, IMappingContainer container, MappingStatistics statistics, boolean appendOutput)
+					throws OutputManagerException {
 		// CHECKSTYLE:ON
 		this.outputName = container.getName();
 		this.outputDirectory = outputDirectory;
@@ -233,6 +231,7 @@ public class InlineCsvWriter implements IOutputWriter {
 		String csiFileNameBasis = this.outputName;
 		this.csiOutputFile = new File(this.outputDirectory, FileUtility.convertToPOSIXCompliantFileName(csiFileNameBasis, ".csi", true));
 		this.container = container;
+		this.statistics = statistics;
 		this.csiWriter = createCsiOutput();
 
 		/* Append output is only relevant to the output CSV file, so store it away until required */
@@ -253,7 +252,7 @@ public class InlineCsvWriter implements IOutputWriter {
 	}
 
 	/**
-	 * Uses Java serialization to write out the <code>context</code> passed to the CSI file.
+	 * Writes the <code>context</code> passed to the CSI file.
 	 *
 	 * @param context write the records for this context to the CSI file.
 	 * @throws OutputManagerException if an unexpected error occurs whilst writing to the CSI file.
@@ -261,7 +260,7 @@ public class InlineCsvWriter implements IOutputWriter {
 	@Override
 	public void writeRecords(IExtractionResultsContainer context) throws OutputManagerException {
 		try {
-			this.csiWriter.writeObject(context);
+			this.csiWriter.writeRecord(context);
 		} catch (IOException e) {
 			throw new OutputManagerException(e, "Unable to write CEC to CSI file %s", this.csiOutputFile.getAbsolutePath());
 		}
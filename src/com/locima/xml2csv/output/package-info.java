@@ -5,7 +5,7 @@
  * instead use {@link com.locima.xml2csv.output.IExtractionResults}.
  * <p>
  * Most of the actual logic that drives the creation of CSV records is in the sub-package class
- * {@link com.locima.xml2csv.output.direct.DirectOutputRecordIterator}. {@link com.locima.xml2csv.output.GroupState} and
+ * {@link com.locima.xml2csv.output.direct.DirectOutputRecordIterator} and the output plan that it uses. {@link com.locima.xml2csv.output.GroupState} and
  * {@link com.locima.xml2csv.output.GreedyGroupState} provide supporting logic.  The other classes in here are either interfaces or
  * file management.
  */
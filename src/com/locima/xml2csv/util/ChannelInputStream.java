@@ -0,0 +1,87 @@
+package com.locima.xml2csv.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a file channel through a single, large, direct buffer (see {@link InputStrategy#LARGE_BUFFER}).
+ * <p>
+ * Not thread-safe; each input file is only ever read by one thread.
+ */
+class ChannelInputStream extends InputStream {
+
+	/**
+	 * Holds data read from {@link #channel} that hasn't been returned yet, between its position and limit.
+	 */
+	private ByteBuffer buffer;
+
+	/**
+	 * The channel to read from.
+	 */
+	private FileChannel channel;
+
+	/**
+	 * True once the end of {@link #channel} has been reached.
+	 */
+	private boolean endOfChannel;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param channel the channel to read from, which is closed when this stream is closed. Must not be null.
+	 * @param bufferSize the size of the direct buffer to read in to.
+	 */
+	public ChannelInputStream(FileChannel channel, int bufferSize) {
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocateDirect(bufferSize);
+		this.buffer.flip();
+	}
+
+	@Override
+	public int available() {
+		return this.buffer.remaining();
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.channel.close();
+	}
+
+	/**
+	 * Refills {@link #buffer} from {@link #channel} if it's empty.
+	 *
+	 * @return true if there's data in the buffer, false if the end of the channel has been reached.
+	 * @throws IOException if the channel can't be read.
+	 */
+	private boolean fill() throws IOException {
+		while (!this.buffer.hasRemaining()) {
+			if (this.endOfChannel) {
+				return false;
+			}
+			this.buffer.clear();
+			this.endOfChannel = this.channel.read(this.buffer) < 0;
+			this.buffer.flip();
+		}
+		return true;
+	}
+
+	@Override
+	public int read() throws IOException {
+		return fill() ? this.buffer.get() & 0xff : -1;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (!fill()) {
+			return -1;
+		}
+		int count = Math.min(len, this.buffer.remaining());
+		this.buffer.get(b, off, count);
+		return count;
+	}
+}
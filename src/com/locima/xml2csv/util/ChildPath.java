@@ -0,0 +1,272 @@
+package com.locima.xml2csv.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import net.sf.saxon.om.AxisInfo;
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.pattern.NodeKindTest;
+import net.sf.saxon.tree.iter.AxisIterator;
+import net.sf.saxon.type.Type;
+
+/**
+ * A parsed form of the simplest, and most common, kind of mapping XPath: a path of child element steps (see {@link SimplePath}), optionally
+ * followed by a single named attribute step or a <code>text()</code> step, e.g. <code>Name</code>, <code>Address/Line1</code>,
+ * <code>p:Address/@type</code>, <code>@id</code>, <code>Name/text()</code> or <code>/Family/Member</code>. The context item on its own,
+ * <code>.</code>, is also recognised, as a path with no steps.
+ * <p>
+ * Paths of this shape can only ever select nodes at a fixed depth below the context node (or the document node, if the path is absolute), so they
+ * can be evaluated by walking down the tree (see {@link #select(NodeInfo)}), without Saxon's XPath machinery, and the results will already be in
+ * document order without duplicates. Anything more complex is rejected by {@link #parse(String, Map)} returning null, so the caller uses Saxon
+ * instead.
+ */
+public class ChildPath {
+
+	/**
+	 * Matches a path that ends with a named attribute step, with an optional prefix. Attribute wildcards aren't supported, as the order that Saxon
+	 * returns several attributes of the same element in isn't defined.
+	 */
+	private static final Pattern ATTRIBUTE_STEP = Pattern.compile("^(?:(.*)/)?\\s*(?:attribute::|@)(?:([A-Za-z_][\\w.\\-]*):)?([A-Za-z_][\\w.\\-]*)$");
+
+	/**
+	 * Matches a path that ends with a <code>text()</code> step.
+	 */
+	private static final Pattern TEXT_STEP = Pattern.compile("^(?:(.*)/)?\\s*(?:child::)?text\\(\\s*\\)$");
+
+	/**
+	 * Parses an XPath expression in to a {@link ChildPath}, if it is simple enough.
+	 *
+	 * @param expression the XPath expression to parse. May be null.
+	 * @param namespaceMappings the namespace prefix to URI mappings in scope for the expression (see {@link SimplePath#parse(String, Map)}). May be
+	 *            null if there are no namespace mappings.
+	 * @return a parsed path, or null if the expression isn't a simple path (or uses a namespace prefix that isn't declared).
+	 */
+	public static ChildPath parse(String expression, Map<String, String> namespaceMappings) {
+		if (expression == null) {
+			return null;
+		}
+		String source = expression.trim();
+		if (".".equals(source)) {
+			return new ChildPath(expression, false, Collections.<SimplePath.Step> emptyList(), null, null, false);
+		}
+		String elementPath = source;
+		String attributeUri = null;
+		String attributeName = null;
+		boolean selectsText = false;
+		Matcher textMatcher = TEXT_STEP.matcher(source);
+		Matcher attributeMatcher = ATTRIBUTE_STEP.matcher(source);
+		if (textMatcher.matches()) {
+			elementPath = textMatcher.group(1);
+			selectsText = true;
+		} else if (attributeMatcher.matches()) {
+			elementPath = attributeMatcher.group(1);
+			String prefix = attributeMatcher.group(2);
+			attributeName = attributeMatcher.group(3);
+			if (prefix == null) {
+				// Unlike element names, unprefixed attribute names are never in the default namespace
+				attributeUri = "";
+			} else {
+				attributeUri = namespaceMappings == null ? null : namespaceMappings.get(prefix);
+				if (attributeUri == null) {
+					return null;
+				}
+			}
+		}
+		if (elementPath == null) {
+			return new ChildPath(expression, false, Collections.<SimplePath.Step> emptyList(), attributeUri, attributeName, selectsText);
+		}
+		// SimplePath rejects "//" and a lone "/", so absolute paths always have at least one element step
+		SimplePath path = SimplePath.parse(elementPath, namespaceMappings);
+		return path == null ? null : new ChildPath(expression, path.isAbsolute(), path.getSteps(), attributeUri, attributeName, selectsText);
+	}
+
+	/**
+	 * True if the path started with <code>/</code>, so {@link #steps} start from the document node rather than the context node.
+	 */
+	private boolean absolute;
+
+	/**
+	 * The local name of the attribute selected from each element found by {@link #steps}, or null if the elements themselves are selected.
+	 */
+	private String attributeName;
+
+	/**
+	 * The namespace URI of {@link #attributeName}, the empty string for no namespace, or null if there's no attribute step.
+	 */
+	private String attributeUri;
+
+	/**
+	 * True if the path ends with a <code>text()</code> step, so the text node children of each element found by {@link #steps} are selected.
+	 */
+	private boolean selectsText;
+
+	/**
+	 * The source expression, kept for logging.
+	 */
+	private String source;
+
+	/**
+	 * The child element steps, in order. May be empty.
+	 */
+	private List<SimplePath.Step> steps;
+
+	/**
+	 * Creates a new path; use {@link #parse(String, Map)} to create instances.
+	 *
+	 * @param source the source expression, kept for logging.
+	 * @param absolute true if the path started with <code>/</code>.
+	 * @param steps the child element steps, in order. May be empty.
+	 * @param attributeUri the namespace URI of the attribute step, or null if there's no attribute step.
+	 * @param attributeName the local name of the attribute step, or null if there's no attribute step.
+	 * @param selectsText true if the path ends with a <code>text()</code> step.
+	 */
+	private ChildPath(String source, boolean absolute, List<SimplePath.Step> steps, String attributeUri, String attributeName, boolean selectsText) {
+		this.source = source;
+		this.absolute = absolute;
+		this.steps = steps;
+		this.attributeUri = attributeUri;
+		this.attributeName = attributeName;
+		this.selectsText = selectsText;
+	}
+
+	/**
+	 * Retrieves the local name of the attribute selected from each element found by the element steps.
+	 *
+	 * @return the local name of the attribute, or null if this path selects elements rather than attributes.
+	 */
+	public String getAttributeName() {
+		return this.attributeName;
+	}
+
+	/**
+	 * Retrieves the namespace URI of the attribute selected from each element found by the element steps.
+	 *
+	 * @return the namespace URI, the empty string for no namespace, or null if this path selects elements rather than attributes.
+	 */
+	public String getAttributeUri() {
+		return this.attributeUri;
+	}
+
+	/**
+	 * Retrieves the source expression that this path was parsed from.
+	 *
+	 * @return the source expression that this path was parsed from.
+	 */
+	public String getSource() {
+		return this.source;
+	}
+
+	/**
+	 * Retrieves an unmodifiable list of the child element steps of this path.
+	 *
+	 * @return the child element steps, in order, never null but empty if this path selects the context node, one of its attributes or its text.
+	 */
+	public List<SimplePath.Step> getSteps() {
+		return this.steps;
+	}
+
+	/**
+	 * Determines whether this path starts from the document node, rather than the context node.
+	 *
+	 * @return true if the path started with <code>/</code>.
+	 */
+	public boolean isAbsolute() {
+		return this.absolute;
+	}
+
+	/**
+	 * Determines whether this path selects the text node children of the elements found by its element steps.
+	 *
+	 * @return true if the path ends with a <code>text()</code> step.
+	 */
+	public boolean isSelectingText() {
+		return this.selectsText;
+	}
+
+	/**
+	 * Finds the nodes selected by this path by walking down the tree from a context node, giving exactly the same nodes, in the same order, as
+	 * Saxon would by evaluating the source expression.
+	 *
+	 * @param contextNode the context node that a relative path is evaluated against. Must not be null.
+	 * @return the nodes found, in document order, or null if this path is absolute and <code>contextNode</code> isn't in a tree with a document node
+	 *         at its root (which is an error that should be left to Saxon to report).
+	 */
+	public List<NodeInfo> select(NodeInfo contextNode) {
+		NodeInfo start = contextNode;
+		if (this.absolute) {
+			start = contextNode.getRoot();
+			if (start.getNodeKind() != Type.DOCUMENT) {
+				return null;
+			}
+		}
+		List<NodeInfo> found = new ArrayList<NodeInfo>(1);
+		select(start, 0, found);
+		return found;
+	}
+
+	/**
+	 * Finds the nodes selected by the remaining steps of this path, beneath a node found by the previous step.
+	 *
+	 * @param node the node found by the previous step, or the starting node if <code>depth</code> is 0.
+	 * @param depth the index of the next step to match.
+	 * @param found the nodes found so far, which new nodes are added to.
+	 */
+	private void select(NodeInfo node, int depth, List<NodeInfo> found) {
+		if (depth < this.steps.size()) {
+			SimplePath.Step step = this.steps.get(depth);
+			AxisIterator<?> children = node.iterateAxis(AxisInfo.CHILD, NodeKindTest.ELEMENT);
+			NodeInfo child = children.next();
+			while (child != null) {
+				if (step.matches(child.getURI(), child.getLocalPart())) {
+					select(child, depth + 1, found);
+				}
+				child = children.next();
+			}
+		} else if (this.attributeName != null) {
+			AxisIterator<?> attributes = node.iterateAxis(AxisInfo.ATTRIBUTE, NodeKindTest.ATTRIBUTE);
+			NodeInfo attribute = attributes.next();
+			while (attribute != null) {
+				if (this.attributeName.equals(attribute.getLocalPart()) && this.attributeUri.equals(attribute.getURI())) {
+					found.add(attribute);
+					// An element can't have two attributes with the same name
+					break;
+				}
+				attribute = attributes.next();
+			}
+		} else if (this.selectsText) {
+			AxisIterator<?> textNodes = node.iterateAxis(AxisInfo.CHILD, NodeKindTest.TEXT);
+			NodeInfo textNode = textNodes.next();
+			while (textNode != null) {
+				found.add(textNode);
+				textNode = textNodes.next();
+			}
+		} else {
+			found.add(node);
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("ChildPath(\"");
+		sb.append(this.source);
+		sb.append("\", ");
+		if (this.absolute) {
+			sb.append('/');
+		}
+		sb.append(this.steps);
+		if (this.attributeName != null) {
+			sb.append(", @{");
+			sb.append(this.attributeUri);
+			sb.append('}');
+			sb.append(this.attributeName);
+		} else if (this.selectsText) {
+			sb.append(", text()");
+		}
+		sb.append(')');
+		return sb.toString();
+	}
+}
@@ -1,10 +1,20 @@
 package com.locima.xml2csv.util;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.zip.GZIPInputStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -215,8 +225,59 @@ public class FileUtility {
 		}
 	}
 
+	/**
+	 * Lazily filters a sequence of files, so that files rejected by <code>filter</code> are skipped as they are found (e.g. by a {@link FileWalker}
+	 * ) rather than after they have all been collected.
+	 *
+	 * @param files the files to filter. Must not be null.
+	 * @param filter the filter that files must be accepted by. Must not be null.
+	 * @return a sequence of the files that <code>filter</code> accepts, in the same order. Each iteration of it iterates <code>files</code> again.
+	 */
+	public static Iterable<File> filter(final Iterable<File> files, final FileFilter filter) {
+		return new Iterable<File>() {
+
+			@Override
+			public Iterator<File> iterator() {
+				final Iterator<File> source = files.iterator();
+				return new Iterator<File>() {
+
+					private File nextFile;
+
+					@Override
+					public boolean hasNext() {
+						while ((this.nextFile == null) && source.hasNext()) {
+							File candidate = source.next();
+							if (filter.accept(candidate)) {
+								this.nextFile = candidate;
+							}
+						}
+						return this.nextFile != null;
+					}
+
+					@Override
+					public File next() {
+						if (!hasNext()) {
+							throw new NoSuchElementException();
+						}
+						File file = this.nextFile;
+						this.nextFile = null;
+						return file;
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+	}
+
 	/**
 	 * Given a specification of a set of files, find all the matching files and return them.
+	 * <p>
+	 * This walks every directory before returning, so for large numbers of files use a {@link FileWalker} instead, which finds files as they are
+	 * needed.
 	 *
 	 * @param inputs a specification string that will match files.
 	 * @return A (possibly empty) list of files.
@@ -224,23 +285,108 @@ public class FileUtility {
 	public static List<File> getFiles(String[] inputs) {
 		LOG.debug("Searching for files that match {}", StringUtil.toString(inputs));
 		List<File> files = new ArrayList<File>();
+		FileWalker walker = new FileWalker(inputs);
+		try {
+			for (File file : walker) {
+				files.add(file);
+			}
+		} finally {
+			walker.close();
+		}
+		return files;
+	}
 
-		for (String inputString : inputs) {
+	/**
+	 * Determines whether a file is gzip compressed, based on its name.
+	 *
+	 * @param file the file to check. Must not be null.
+	 * @return true if the name of the file ends with <code>.gz</code>.
+	 */
+	public static boolean isGzipFile(File file) {
+		return file.getName().toLowerCase(Locale.ENGLISH).endsWith(".gz");
+	}
 
-			File file = new File(inputString);
-			if (!file.exists()) {
-				LOG.warn("No files exist that match: {}", inputString);
-			} else {
-				if (file.isDirectory()) {
-					LOG.info("Adding contents of directory: {}", inputString);
-					getFiles(files, file, true);
-				} else {
-					LOG.info("Adding single file: {}", inputString);
-					files.add(file);
-				}
+	/**
+	 * Determines whether a file is a zip archive whose entries should be treated as separate input files, based on its name.
+	 *
+	 * @param file the file to check. Must not be null.
+	 * @return true if the file is on disk (not itself an entry of an archive) and its name ends with <code>.zip</code>.
+	 */
+	public static boolean isZipArchive(File file) {
+		return !(file instanceof ZipEntryFile) && file.getName().toLowerCase(Locale.ENGLISH).endsWith(".zip");
+	}
+
+	/**
+	 * Opens an input file for reading, decompressing it on the fly if it's gzip compressed (see {@link #isGzipFile(File)}) or an entry of a zip
+	 * archive (see {@link ZipEntryFile}).
+	 * <p>
+	 * Files on disk are read using {@link InputOptions#DEFAULT}.
+	 *
+	 * @param file the file to open. Must not be null.
+	 * @return a buffered stream of the (decompressed) content of the file, which the caller must close. Never null.
+	 * @throws IOException if the file can't be opened, or isn't in gzip format when its name says it should be.
+	 */
+	public static InputStream openInput(File file) throws IOException {
+		return openInput(file, InputOptions.DEFAULT);
+	}
+
+	/**
+	 * Opens an input file for reading, decompressing it on the fly if it's gzip compressed (see {@link #isGzipFile(File)}) or an entry of a zip
+	 * archive (see {@link ZipEntryFile}).
+	 *
+	 * @param file the file to open. Must not be null.
+	 * @param options how to read the file from disk. Must not be null.
+	 * @return a buffered stream of the (decompressed) content of the file, which the caller must close. Never null.
+	 * @throws IOException if the file can't be opened, or isn't in gzip format when its name says it should be.
+	 */
+	public static InputStream openInput(File file, InputOptions options) throws IOException {
+		int bufferSize = options.getBufferSize();
+		InputStrategy strategy = options.getStrategy();
+		InputStream input;
+		boolean buffered;
+		if (file instanceof ZipEntryFile) {
+			input = ((ZipEntryFile) file).openStream();
+			buffered = false;
+		} else {
+			input = openStrategyInput(file, strategy, bufferSize);
+			buffered = strategy != InputStrategy.BUFFERED;
+		}
+		try {
+			if (isGzipFile(file)) {
+				// GZIPInputStream buffers the compressed data itself, so only the decompressed data needs further buffering
+				input = new GZIPInputStream(input, bufferSize);
+				buffered = false;
 			}
+			return buffered ? input : new BufferedInputStream(input, bufferSize);
+		} catch (IOException ioe) {
+			input.close();
+			throw ioe;
+		}
+	}
+
+	/**
+	 * Opens a file on disk for reading, without any buffering beyond that which the strategy provides.
+	 *
+	 * @param file the file to open. Must not be null.
+	 * @param strategy how to read the file. Must not be null.
+	 * @param bufferSize the size of buffer to use, for strategies that buffer the file themselves.
+	 * @return a stream of the raw content of the file, which the caller must close. Never null.
+	 * @throws IOException if the file can't be opened.
+	 */
+	static InputStream openStrategyInput(File file, InputStrategy strategy, int bufferSize) throws IOException {
+		if (strategy == InputStrategy.BUFFERED) {
+			return new FileInputStream(file);
+		}
+		FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+		try {
+			if (strategy == InputStrategy.LARGE_BUFFER) {
+				return new ChannelInputStream(channel, bufferSize);
+			}
+			return new MappedInputStream(channel, MappedInputStream.DEFAULT_REGION_SIZE);
+		} catch (IOException ioe) {
+			channel.close();
+			throw ioe;
 		}
-		return files;
 	}
 
 	/**
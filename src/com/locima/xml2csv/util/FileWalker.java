@@ -0,0 +1,420 @@
+package com.locima.xml2csv.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.locima.xml2csv.ArgumentException;
+
+/**
+ * Finds all the files that match a specification of input files and directories, lazily, so that files can be converted as soon as they are found
+ * rather than after a complete list of every input file has been built.
+ * <p>
+ * Each call to {@link #iterator()} starts a new walk. Directories are walked depth first, in the order that {@link File#list()} returns their
+ * entries, so files are returned in exactly the same order as {@link FileUtility#getFiles(String[])} used to return them. Only the listings of the
+ * directories between the current file and the root of the walk are held in memory, so memory use depends on the shape of the directory tree
+ * rather than the total number of files within it.
+ * <p>
+ * Listing a directory (and finding out which of its entries are subdirectories) is usually the slow part of a walk, especially on network storage.
+ * If an executor is configured (see {@link #setExecutor(ExecutorService)}) then the subdirectories of each directory entered are listed
+ * concurrently, ahead of the walk reaching them. The order in which files are returned is unaffected.
+ * <p>
+ * Zip archives (see {@link FileUtility#isZipArchive(File)}) are walked as if they were directories, returning each entry as a
+ * {@link ZipEntryFile}. Archives are kept open once their entries have been read, so {@link #close()} should be called once all the files
+ * returned have been read.
+ */
+public class FileWalker implements Iterable<File>, Closeable {
+
+	/**
+	 * A directory that the walk has entered, and the position within it.
+	 */
+	private static final class Frame {
+
+		/**
+		 * The index of the next entry of {@link #listing} to return or enter.
+		 */
+		private int index;
+
+		/**
+		 * The entries of the directory.
+		 */
+		private Listing listing;
+
+		/**
+		 * The tasks that list each entry of {@link #listing} that is a directory or zip archive. Entries that are files are null.
+		 */
+		private ListingTask[] subdirectoryTasks;
+
+		/**
+		 * Creates a new frame, positioned before the first entry.
+		 *
+		 * @param listing the entries of the directory.
+		 * @param subdirectoryTasks the tasks that list each entry that is a directory or zip archive.
+		 */
+		public Frame(Listing listing, ListingTask[] subdirectoryTasks) {
+			this.listing = listing;
+			this.subdirectoryTasks = subdirectoryTasks;
+		}
+	}
+
+	/**
+	 * The entries of a single directory or zip archive, and whether each one is a directory or zip archive that should be walked in to.
+	 */
+	private static final class Listing implements Callable<Listing> {
+
+		/**
+		 * The zip archive that was listed, or null if {@link #directory} is a directory.
+		 */
+		private ZipArchive archive;
+
+		/**
+		 * For each of {@link #entries}, true if it's a directory or zip archive, false if it's a file.
+		 */
+		private boolean[] containerFlags;
+
+		/**
+		 * The directory or zip archive to list.
+		 */
+		private File directory;
+
+		/**
+		 * The entries of the directory, excluding anything that is neither a file nor a directory, or the file entries of the zip archive.
+		 */
+		private List<File> entries;
+
+		/**
+		 * Creates a new, unlisted, instance.
+		 *
+		 * @param directory the directory or zip archive to list.
+		 */
+		public Listing(File directory) {
+			this.directory = directory;
+		}
+
+		/**
+		 * Lists the directory, finding out which entries are directories or zip archives.
+		 *
+		 * @return this instance.
+		 */
+		@Override
+		public Listing call() {
+			if (!this.directory.isDirectory()) {
+				return callArchive();
+			}
+			String[] names = this.directory.list();
+			if (names == null) {
+				LOG.warn("Unable to list the contents of directory {}", this.directory.getAbsolutePath());
+				names = new String[0];
+			}
+			this.entries = new ArrayList<File>(names.length);
+			this.containerFlags = new boolean[names.length];
+			for (String name : names) {
+				File entry = new File(this.directory, name);
+				if (entry.isFile()) {
+					this.containerFlags[this.entries.size()] = FileUtility.isZipArchive(entry);
+					this.entries.add(entry);
+				} else if (entry.isDirectory()) {
+					this.containerFlags[this.entries.size()] = true;
+					this.entries.add(entry);
+				}
+			}
+			return this;
+		}
+
+		/**
+		 * Lists the entries of a zip archive.
+		 *
+		 * @return this instance.
+		 */
+		private Listing callArchive() {
+			this.archive = new ZipArchive(this.directory);
+			try {
+				this.entries = new ArrayList<File>(this.archive.list());
+			} catch (IOException ioe) {
+				LOG.warn("Unable to list the contents of zip archive {}", this.directory.getAbsolutePath(), ioe);
+				this.entries = Collections.emptyList();
+			}
+			this.containerFlags = new boolean[this.entries.size()];
+			return this;
+		}
+	}
+
+	/**
+	 * Lists a directory, either on a pool thread ahead of the walk or on the walking thread when it reaches the directory.
+	 */
+	private final class ListingTask extends FutureTask<Listing> {
+
+		/**
+		 * True if this task was submitted to {@link FileWalker#executor}, so is counted by {@link FileWalker#submittedTaskCount}.
+		 */
+		private boolean submitted;
+
+		/**
+		 * Creates a new task.
+		 *
+		 * @param directory the directory or zip archive to list.
+		 */
+		public ListingTask(File directory) {
+			super(new Listing(directory));
+		}
+
+		@Override
+		protected void done() {
+			if (this.submitted) {
+				FileWalker.this.submittedTaskCount.decrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Returns files as they are found by a single walk.
+	 */
+	private final class WalkIterator implements Iterator<File> {
+
+		/**
+		 * The directories that the walk has entered, innermost first.
+		 */
+		private Deque<Frame> frames = new ArrayDeque<Frame>();
+
+		/**
+		 * The next file to return, or null if it hasn't been found yet.
+		 */
+		private File nextFile;
+
+		/**
+		 * The index of the next input in {@link FileWalker#inputs} to walk.
+		 */
+		private int nextInput;
+
+		/**
+		 * Enters a directory or zip archive, making its entries the next ones to be walked.
+		 *
+		 * @param task the task that lists the directory or zip archive, which may already have been run.
+		 */
+		private void enter(ListingTask task) {
+			Listing listing = runOrWait(task);
+			if (listing.archive != null) {
+				FileWalker.this.archives.add(listing.archive);
+			}
+			ListingTask[] subdirectoryTasks = new ListingTask[listing.entries.size()];
+			for (int i = 0; i < subdirectoryTasks.length; i++) {
+				if (listing.containerFlags[i]) {
+					subdirectoryTasks[i] = new ListingTask(listing.entries.get(i));
+					submit(subdirectoryTasks[i]);
+				}
+			}
+			this.frames.push(new Frame(listing, subdirectoryTasks));
+		}
+
+		/**
+		 * Walks forward until the next file is found.
+		 *
+		 * @return the next file, or null if the walk is complete.
+		 */
+		private File findNext() {
+			while (true) {
+				Frame frame = this.frames.peek();
+				if (frame == null) {
+					if (this.nextInput >= FileWalker.this.inputs.length) {
+						return null;
+					}
+					File input = FileWalker.this.inputs[this.nextInput++];
+					if (input.isDirectory()) {
+						LOG.info("Adding contents of directory: {}", input);
+						enter(new ListingTask(input));
+					} else if (input.isFile() && FileUtility.isZipArchive(input)) {
+						LOG.info("Adding contents of zip archive: {}", input);
+						enter(new ListingTask(input));
+					} else if (input.exists()) {
+						LOG.info("Adding single file: {}", input);
+						return input;
+					} else {
+						LOG.warn("No files exist that match: {}", input);
+					}
+				} else if (frame.index >= frame.listing.entries.size()) {
+					this.frames.pop();
+				} else {
+					int index = frame.index++;
+					if (frame.subdirectoryTasks[index] == null) {
+						return frame.listing.entries.get(index);
+					}
+					ListingTask task = frame.subdirectoryTasks[index];
+					// Allow the listing to be garbage collected once it has been walked
+					frame.subdirectoryTasks[index] = null;
+					enter(task);
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (this.nextFile == null) {
+				this.nextFile = findNext();
+			}
+			return this.nextFile != null;
+		}
+
+		@Override
+		public File next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			File file = this.nextFile;
+			this.nextFile = null;
+			return file;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException("Files can't be removed from a walk");
+		}
+	}
+
+	/**
+	 * The default maximum number of directory listings that may be queued or running on the executor at once.
+	 */
+	public static final int DEFAULT_MAX_PENDING_LISTINGS = 64;
+
+	private static final Logger LOG = LoggerFactory.getLogger(FileWalker.class);
+
+	/**
+	 * Waits for a listing task to complete, running it on the calling thread if no other thread has started it yet.
+	 *
+	 * @param task the task to wait for.
+	 * @return the listing.
+	 */
+	private static Listing runOrWait(ListingTask task) {
+		// Does nothing if the task has already been started by a pool thread
+		task.run();
+		try {
+			return task.get();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted whilst waiting for a directory listing", ie);
+		} catch (ExecutionException ee) {
+			Throwable cause = ee.getCause();
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw (RuntimeException) cause;
+		}
+	}
+
+	/**
+	 * The zip archives that have been listed by walks, so may have been opened to read their entries.
+	 */
+	private List<ZipArchive> archives = Collections.synchronizedList(new ArrayList<ZipArchive>());
+
+	/**
+	 * The pool used to list directories ahead of the walk, or null to list each directory when the walk reaches it.
+	 */
+	private ExecutorService executor;
+
+	/**
+	 * The files and directories to walk.
+	 */
+	private File[] inputs;
+
+	/**
+	 * The maximum number of listings that may be queued or running on {@link #executor} at once.
+	 */
+	private int maxPendingListings = DEFAULT_MAX_PENDING_LISTINGS;
+
+	/**
+	 * The number of listings currently queued or running on {@link #executor}.
+	 */
+	private AtomicInteger submittedTaskCount = new AtomicInteger();
+
+	/**
+	 * Creates a walker for a specification of input files and directories.
+	 *
+	 * @param inputs the names of files to return, and directories to walk recursively. Names that don't exist are logged and ignored. Must not be
+	 *            null.
+	 */
+	public FileWalker(String[] inputs) {
+		this.inputs = new File[inputs.length];
+		for (int i = 0; i < inputs.length; i++) {
+			this.inputs[i] = new File(inputs[i]);
+		}
+	}
+
+	/**
+	 * Closes all the zip archives whose entries have been returned by walks. If any of those entries are read afterwards then their archive is
+	 * opened again.
+	 */
+	@Override
+	public void close() {
+		synchronized (this.archives) {
+			for (ZipArchive archive : this.archives) {
+				archive.close();
+			}
+			this.archives.clear();
+		}
+	}
+
+	@Override
+	public Iterator<File> iterator() {
+		return new WalkIterator();
+	}
+
+	/**
+	 * Configures a pool of threads used to list directories ahead of the walk.
+	 *
+	 * @param executor the pool to use, or null (the default) to list each directory on the walking thread when it is reached. The caller remains
+	 *            responsible for shutting it down.
+	 */
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Configures the maximum number of directory listings that may be queued or running on the executor at once. Subdirectories that aren't listed
+	 * ahead of the walk because of this limit are listed on the walking thread when they are reached.
+	 *
+	 * @param maxPendingListings the maximum number of listings, must be at least 1. Defaults to {@link #DEFAULT_MAX_PENDING_LISTINGS}.
+	 */
+	public void setMaxPendingListings(int maxPendingListings) {
+		if (maxPendingListings < 1) {
+			throw new ArgumentException("maxPendingListings", "must be at least 1");
+		}
+		this.maxPendingListings = maxPendingListings;
+	}
+
+	/**
+	 * Submits a listing task to the executor, if there is one and it isn't already busy with {@link #maxPendingListings} others.
+	 *
+	 * @param task the task to submit.
+	 */
+	private void submit(ListingTask task) {
+		if ((this.executor == null) || (this.submittedTaskCount.incrementAndGet() > this.maxPendingListings)) {
+			if (this.executor != null) {
+				this.submittedTaskCount.decrementAndGet();
+			}
+			return;
+		}
+		task.submitted = true;
+		try {
+			this.executor.execute(task);
+		} catch (RejectedExecutionException ree) {
+			// The task will be run on the walking thread instead
+			task.submitted = false;
+			this.submittedTaskCount.decrementAndGet();
+		}
+	}
+}
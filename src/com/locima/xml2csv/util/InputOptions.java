@@ -0,0 +1,74 @@
+package com.locima.xml2csv.util;
+
+import com.locima.xml2csv.ArgumentException;
+import com.locima.xml2csv.ArgumentNullException;
+
+/**
+ * How input files are read from disk by {@link FileUtility#openInput(java.io.File, InputOptions)}.
+ * <p>
+ * Instances are immutable, and are passed to each conversion rather than set for the whole process, so that conversions running at the same time
+ * (e.g. in {@link com.locima.xml2csv.cmdline.ConversionServer}) can each use their own settings.
+ */
+public class InputOptions {
+
+	/**
+	 * The default size of the buffers used to read input files, 64KB.
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 65536;
+
+	/**
+	 * The default options: {@link InputStrategy#BUFFERED} with buffers of {@link #DEFAULT_BUFFER_SIZE} bytes.
+	 */
+	public static final InputOptions DEFAULT = new InputOptions(InputStrategy.BUFFERED, DEFAULT_BUFFER_SIZE);
+
+	/**
+	 * The size of the buffers used to read input files.
+	 */
+	private final int bufferSize;
+
+	/**
+	 * How input files are read from disk.
+	 */
+	private final InputStrategy strategy;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param strategy how input files are read from disk. Must not be null.
+	 * @param bufferSize the size of each buffer used to read input files, in bytes, must be at least 1. Larger buffers mean fewer, larger, reads
+	 *            from the operating system.
+	 */
+	public InputOptions(InputStrategy strategy, int bufferSize) {
+		if (strategy == null) {
+			throw new ArgumentNullException("strategy");
+		}
+		if (bufferSize < 1) {
+			throw new ArgumentException("bufferSize", "must be at least 1");
+		}
+		this.strategy = strategy;
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * Retrieves the size of the buffers used to read input files.
+	 *
+	 * @return the size of each buffer, in bytes.
+	 */
+	public int getBufferSize() {
+		return this.bufferSize;
+	}
+
+	/**
+	 * Retrieves how input files are read from disk.
+	 *
+	 * @return the strategy, never null.
+	 */
+	public InputStrategy getStrategy() {
+		return this.strategy;
+	}
+
+	@Override
+	public String toString() {
+		return "InputOptions(" + this.strategy + ", " + this.bufferSize + ")";
+	}
+}
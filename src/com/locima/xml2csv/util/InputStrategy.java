@@ -0,0 +1,39 @@
+package com.locima.xml2csv.util;
+
+/**
+ * The ways that {@link FileUtility#openInput(java.io.File, InputOptions)} can read input files from disk.
+ * <p>
+ * Which is fastest depends on the storage and the operating system, so measure before changing from the default ({@link #BUFFERED}).
+ * Compressed files are decompressed after being read using the selected strategy. Entries of zip archives are always read using
+ * {@link java.util.zip.ZipFile}, so are unaffected.
+ */
+public enum InputStrategy {
+
+	/**
+	 * Reads using a {@link java.io.FileInputStream} with a heap buffer of {@link InputOptions#getBufferSize()} bytes.
+	 */
+	BUFFERED,
+
+	/**
+	 * Reads using a {@link java.nio.channels.FileChannel} in to a direct buffer of {@link InputOptions#getBufferSize()} bytes, so that
+	 * each read from the operating system is large and isn't copied through an intermediate heap buffer.
+	 */
+	LARGE_BUFFER,
+
+	/**
+	 * Memory maps the file, region by region, so that the parser's reads are satisfied from the operating system's page cache without any system
+	 * calls.
+	 */
+	MEMORY_MAPPED;
+
+	/**
+	 * Finds a strategy by name, ignoring case and treating hyphens as underscores (e.g. <code>large-buffer</code>).
+	 *
+	 * @param name the name of the strategy. Must not be null.
+	 * @return the strategy, never null.
+	 * @throws IllegalArgumentException if there is no strategy with that name.
+	 */
+	public static InputStrategy parse(String name) {
+		return valueOf(name.trim().toUpperCase().replace('-', '_'));
+	}
+}
@@ -0,0 +1,73 @@
+package com.locima.xml2csv.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A thread-safe cache holding a fixed maximum number of entries, discarding the least recently used entry when a new one is added to a full cache.
+ * <p>
+ * This is used for caches that live as long as the process, which would otherwise grow without limit in a long-running process such as
+ * {@link com.locima.xml2csv.cmdline.ConversionServer}.
+ *
+ * @param <K> the type of the keys.
+ * @param <V> the type of the values.
+ */
+public class LruCache<K, V> {
+
+	/**
+	 * The cached entries, in order of least to most recently used.
+	 */
+	private Map<K, V> entries;
+
+	/**
+	 * Creates a new, empty, cache.
+	 *
+	 * @param maxSize the maximum number of entries to keep. Must be greater than zero.
+	 */
+	public LruCache(final int maxSize) {
+		// CHECKSTYLE:OFF Magic numbers are the defaults for LinkedHashMap, which I only need to specify to set access order
+		this.entries = new LinkedHashMap<K, V>(16, 0.75f, true) {
+			// CHECKSTYLE:ON
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	/**
+	 * Retrieves a cached value, marking it as the most recently used.
+	 *
+	 * @param key the key of the value to retrieve.
+	 * @return the cached value, or null if there isn't one.
+	 */
+	public synchronized V get(K key) {
+		return this.entries.get(key);
+	}
+
+	/**
+	 * Adds a value to the cache, unless there's already a value for the same key.
+	 *
+	 * @param key the key of the value to add.
+	 * @param value the value to add. Must not be null.
+	 * @return the value that was already cached, which is kept, or null if <code>value</code> was added.
+	 */
+	public synchronized V putIfAbsent(K key, V value) {
+		V existing = this.entries.get(key);
+		if (existing == null) {
+			this.entries.put(key, value);
+		}
+		return existing;
+	}
+
+	/**
+	 * Returns the number of entries currently cached.
+	 *
+	 * @return the number of entries currently cached, never more than the maximum size.
+	 */
+	public synchronized int size() {
+		return this.entries.size();
+	}
+}
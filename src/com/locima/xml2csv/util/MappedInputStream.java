@@ -0,0 +1,110 @@
+package com.locima.xml2csv.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Reads a file by memory mapping it one region at a time (see {@link InputStrategy#MEMORY_MAPPED}).
+ * <p>
+ * Files are mapped in regions, rather than all at once, so that files larger than 2GB (the largest buffer Java can map) can be read, and so that
+ * address space is only needed for the part of the file being read. Java provides no way to unmap a region, so each region is unmapped when it is
+ * garbage collected.
+ * <p>
+ * Not thread-safe; each input file is only ever read by one thread.
+ */
+class MappedInputStream extends InputStream {
+
+	/**
+	 * The default size of each region mapped, 64MB.
+	 */
+	public static final int DEFAULT_REGION_SIZE = 64 * 1024 * 1024;
+
+	/**
+	 * The channel being read.
+	 */
+	private FileChannel channel;
+
+	/**
+	 * The offset in {@link #channel} of the start of the next region to map.
+	 */
+	private long nextRegionOffset;
+
+	/**
+	 * The region currently being read, or null if no region has been mapped yet.
+	 */
+	private MappedByteBuffer region;
+
+	/**
+	 * The maximum size of each region mapped.
+	 */
+	private int regionSize;
+
+	/**
+	 * The size of {@link #channel}, when this stream was created.
+	 */
+	private long size;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param channel the channel to read from, which is closed when this stream is closed. Must not be null.
+	 * @param regionSize the maximum size of each region mapped. Must be positive.
+	 * @throws IOException if the size of the channel can't be found.
+	 */
+	public MappedInputStream(FileChannel channel, int regionSize) throws IOException {
+		this.channel = channel;
+		this.regionSize = regionSize;
+		this.size = channel.size();
+	}
+
+	@Override
+	public int available() {
+		return this.region == null ? 0 : this.region.remaining();
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.region = null;
+		this.channel.close();
+	}
+
+	/**
+	 * Maps the next region of {@link #channel} if the current one has been read completely.
+	 *
+	 * @return true if there's data in the current region, false if the end of the channel has been reached.
+	 * @throws IOException if the channel can't be mapped.
+	 */
+	private boolean fill() throws IOException {
+		if ((this.region != null) && this.region.hasRemaining()) {
+			return true;
+		}
+		if (this.nextRegionOffset >= this.size) {
+			return false;
+		}
+		long length = Math.min(this.regionSize, this.size - this.nextRegionOffset);
+		this.region = this.channel.map(MapMode.READ_ONLY, this.nextRegionOffset, length);
+		this.nextRegionOffset += length;
+		return true;
+	}
+
+	@Override
+	public int read() throws IOException {
+		return fill() ? this.region.get() & 0xff : -1;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (!fill()) {
+			return -1;
+		}
+		int count = Math.min(len, this.region.remaining());
+		this.region.get(b, off, count);
+		return count;
+	}
+}
@@ -0,0 +1,229 @@
+package com.locima.xml2csv.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A parsed form of a very restricted subset of XPath: a location path made up only of child axis steps, each with a name test (optionally a
+ * wildcard) and no predicates, e.g. <code>/people/person</code>, <code>root/p:basket</code> or <code>/a/*</code>.
+ * <p>
+ * Expressions of this shape can be matched against a stream of SAX events without building a tree, which is what allows callers to work out where
+ * things are in a document before (or without) Saxon ever seeing it. Anything more complex than this is rejected by {@link #parse(String, Map)}
+ * returning null, and it's then up to the caller to fall back to using Saxon.
+ */
+public class SimplePath {
+
+	/**
+	 * A single step within a {@link SimplePath}, consisting of a name test against a namespace URI and local name.
+	 */
+	public static class Step {
+
+		/**
+		 * The local name that an element must have to match, or null if any local name matches.
+		 */
+		private String localName;
+
+		/**
+		 * The namespace URI that an element must have to match, or null if any namespace matches. The empty string indicates no namespace.
+		 */
+		private String namespaceUri;
+
+		/**
+		 * Creates a new step.
+		 *
+		 * @param namespaceUri the namespace URI that an element must have to match, or null if any namespace matches. The empty string indicates no
+		 *            namespace.
+		 * @param localName the local name that an element must have to match, or null if any local name matches.
+		 */
+		public Step(String namespaceUri, String localName) {
+			this.namespaceUri = namespaceUri;
+			this.localName = localName;
+		}
+
+		/**
+		 * Retrieves the local name that an element must have to match.
+		 *
+		 * @return the local name that an element must have to match, or null if this step matches any local name.
+		 */
+		public String getLocalName() {
+			return this.localName;
+		}
+
+		/**
+		 * Retrieves the namespace URI that an element must have to match.
+		 *
+		 * @return the namespace URI, the empty string for no namespace, or null if this step matches any namespace.
+		 */
+		public String getNamespaceUri() {
+			return this.namespaceUri;
+		}
+
+		/**
+		 * Determines whether an element with the passed name is matched by this step.
+		 *
+		 * @param uri the namespace URI of the element, the empty string if the element is in no namespace. Must not be null.
+		 * @param name the local name of the element. Must not be null.
+		 * @return true if this step matches the element, false otherwise.
+		 */
+		public boolean matches(String uri, String name) {
+			return (this.localName == null || this.localName.equals(name)) && (this.namespaceUri == null || this.namespaceUri.equals(uri));
+		}
+
+		@Override
+		public String toString() {
+			return "{" + (this.namespaceUri == null ? "*" : this.namespaceUri) + "}" + (this.localName == null ? "*" : this.localName);
+		}
+	}
+
+	/**
+	 * Matches a single step, with an optional prefix and an optional explicit child axis. A name or prefix of <code>*</code> is a wildcard. Names
+	 * must start with a letter or underscore, so that abbreviated steps such as <code>.</code> and <code>..</code> aren't mistaken for names.
+	 */
+	private static final Pattern STEP_PATTERN = Pattern.compile("^(?:child::)?(?:([A-Za-z_][\\w.\\-]*|\\*):)?([A-Za-z_][\\w.\\-]*|\\*)$");
+
+	/**
+	 * Parses an XPath expression in to a {@link SimplePath}, if it is simple enough.
+	 *
+	 * @param expression the XPath expression to parse. May be null.
+	 * @param namespaceMappings the namespace prefix to URI mappings in scope for the expression. The default element namespace may be mapped to the
+	 *            prefix <code>""</code> or <code>null</code>. May be null if there are no namespace mappings.
+	 * @return a parsed path, or null if the expression isn't a simple path (or uses a namespace prefix that isn't declared).
+	 */
+	public static SimplePath parse(String expression, Map<String, String> namespaceMappings) {
+		if (expression == null) {
+			return null;
+		}
+		String path = expression.trim();
+		boolean absolute = path.startsWith("/");
+		if (absolute) {
+			path = path.substring(1);
+		}
+		if (path.length() == 0) {
+			return null;
+		}
+		List<Step> steps = new ArrayList<Step>();
+		for (String stepText : path.split("/", -1)) {
+			Matcher matcher = STEP_PATTERN.matcher(stepText.trim());
+			if (!matcher.matches()) {
+				return null;
+			}
+			String prefix = matcher.group(1);
+			String name = matcher.group(2);
+			String uri;
+			if ("*".equals(prefix)) {
+				uri = null;
+			} else if (prefix == null) {
+				// Unprefixed names use the default element namespace, if there is one; "*" without a prefix matches any namespace.
+				uri = "*".equals(name) ? null : getDefaultElementNamespace(namespaceMappings);
+			} else {
+				uri = namespaceMappings == null ? null : namespaceMappings.get(prefix);
+				if (uri == null) {
+					return null;
+				}
+			}
+			steps.add(new Step(uri, "*".equals(name) ? null : name));
+		}
+		return new SimplePath(expression, absolute, steps);
+	}
+
+	/**
+	 * Finds the default element namespace in the passed namespace mappings.
+	 *
+	 * @param namespaceMappings the namespace prefix to URI mappings. May be null.
+	 * @return the default element namespace URI, or the empty string if there isn't one.
+	 */
+	private static String getDefaultElementNamespace(Map<String, String> namespaceMappings) {
+		String uri = null;
+		if (namespaceMappings != null) {
+			uri = namespaceMappings.get("");
+			if (uri == null) {
+				uri = namespaceMappings.get(null);
+			}
+		}
+		return uri == null ? "" : uri;
+	}
+
+	/**
+	 * True if the expression started with <code>/</code>.
+	 */
+	private boolean absolute;
+
+	/**
+	 * The source expression, kept for logging.
+	 */
+	private String source;
+
+	/**
+	 * The steps that make up this path, in order.
+	 */
+	private List<Step> steps;
+
+	/**
+	 * Creates a new path; use {@link #parse(String, Map)} to create instances.
+	 *
+	 * @param source the source expression, kept for logging.
+	 * @param absolute true if the expression started with <code>/</code>.
+	 * @param steps the steps that make up this path, in order.
+	 */
+	private SimplePath(String source, boolean absolute, List<Step> steps) {
+		this.source = source;
+		this.absolute = absolute;
+		this.steps = Collections.unmodifiableList(steps);
+	}
+
+	/**
+	 * Retrieves the step at the given index.
+	 *
+	 * @param index the zero-based index of the step to retrieve.
+	 * @return the step at the given index.
+	 */
+	public Step getStep(int index) {
+		return this.steps.get(index);
+	}
+
+	/**
+	 * Retrieves the source expression that this path was parsed from.
+	 *
+	 * @return the source expression that this path was parsed from.
+	 */
+	public String getSource() {
+		return this.source;
+	}
+
+	/**
+	 * Retrieves an unmodifiable list of the steps that make up this path.
+	 *
+	 * @return an unmodifiable list of the steps that make up this path, never null or empty.
+	 */
+	public List<Step> getSteps() {
+		return this.steps;
+	}
+
+	/**
+	 * Determines whether this path started with <code>/</code>. Note that a relative path evaluated against a document node has the same result as
+	 * an absolute one.
+	 *
+	 * @return true if this path started with <code>/</code>.
+	 */
+	public boolean isAbsolute() {
+		return this.absolute;
+	}
+
+	/**
+	 * Retrieves the number of steps in this path.
+	 *
+	 * @return the number of steps in this path, always greater than zero.
+	 */
+	public int size() {
+		return this.steps.size();
+	}
+
+	@Override
+	public String toString() {
+		return "SimplePath(\"" + this.source + "\", " + this.steps + ")";
+	}
+}
@@ -0,0 +1,244 @@
+package com.locima.xml2csv.util;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Conservative, text-based static analysis of XPath expressions.
+ * <p>
+ * Saxon HE doesn't give me a supported way of asking questions about a compiled expression, so these methods look at the source instead. They are
+ * all conservative: if an expression might do the thing being asked about then the answer is that it does. False negatives only cost performance,
+ * whereas false positives would produce wrong output.
+ */
+public class XPathAnalyser {
+
+	/**
+	 * Matches axes and functions that can navigate to nodes outside of the subtree rooted at the context node.
+	 */
+	private static final Pattern ESCAPING_CONSTRUCTS = Pattern.compile("\\.\\.|\\b(?:parent|ancestor|ancestor-or-self|preceding|preceding-sibling|"
+					+ "following|following-sibling)\\s*::|\\b(?:root|id|idref|lang|base-uri|document-uri)\\s*\\(");
+
+	/**
+	 * Keywords which, when they are followed by whitespace and then a <code>/</code>, mean that the <code>/</code> starts a new absolute path.
+	 */
+	private static final Pattern KEYWORD_BEFORE_PATH = Pattern.compile("(?:^|\\W)(?:and|or|div|idiv|mod|in|return|satisfies|then|else|to|eq|ne|lt|"
+					+ "le|gt|ge|is|union|intersect|except|of)\\s+$");
+
+	/**
+	 * Functions that, when called with no arguments, don't read the string value of the context node.
+	 */
+	private static final Set<String> NO_ARGUMENT_FUNCTIONS = new HashSet<String>(Arrays.asList("true", "false", "name", "local-name",
+					"namespace-uri"));
+
+	/**
+	 * Characters that may appear in an expression that only reads attributes, other than within names, numbers and string literals.
+	 */
+	private static final String OPERATOR_CHARACTERS = "()=!<>+-,|";
+
+	/**
+	 * Keywords that may appear between the operands of an expression.
+	 */
+	private static final Set<String> OPERATOR_KEYWORDS = new HashSet<String>(Arrays.asList("and", "or", "div", "idiv", "mod", "eq", "ne", "lt",
+					"le", "gt", "ge", "then", "else", "to"));
+
+	/**
+	 * Characters which, when they immediately precede a <code>/</code> (ignoring whitespace), mean that the <code>/</code> starts a new absolute
+	 * path rather than separating two steps.
+	 * <p>
+	 * A <code>-</code> is always treated as subtraction, although it could be the end of an element name such as <code>a-</code>, as mistaking a
+	 * step for an absolute path only costs performance. A <code>*</code> is handled separately (see {@link #WILDCARD_PRECEDERS}).
+	 */
+	private static final String PATH_START_PRECEDERS = "([,|=<>!+-";
+
+	/**
+	 * Characters which, when they immediately precede a <code>*</code> (ignoring whitespace), mean that the <code>*</code> is a wildcard name test,
+	 * as in <code>a/*&#47;b</code> or <code>p:*</code>, rather than multiplication. A <code>*</code> after anything else, including a keyword such
+	 * as <code>and</code>, is treated as multiplication, so a <code>/</code> after it starts an absolute path.
+	 */
+	private static final String WILDCARD_PRECEDERS = "/:@([,|=<>!+-*";
+
+	/**
+	 * If an expression ends with a predicate, finds where that predicate starts.
+	 *
+	 * @param code an XPath expression with string literals removed (see {@link #removeStringLiterals(String)}).
+	 * @return the index of the <code>[</code> that starts the final predicate, or -1 if the expression doesn't end with a predicate.
+	 */
+	public static int findTrailingPredicate(String code) {
+		if (!code.endsWith("]")) {
+			return -1;
+		}
+		int nesting = 0;
+		for (int i = code.length() - 1; i >= 0; i--) {
+			char ch = code.charAt(i);
+			if (ch == ']') {
+				nesting++;
+			} else if (ch == '[') {
+				nesting--;
+				if (nesting == 0) {
+					return i;
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Determines whether an XPath expression, evaluated against a context element, could only ever read the attributes of that element (for
+	 * example <code>@type = 'A' and @version &gt; 2</code>).
+	 * <p>
+	 * The only node references allowed are attribute steps (<code>@name</code>) directly from the context node. Any path, wildcard, variable,
+	 * <code>.</code>, or function that reads the context node when called with no arguments (e.g. <code>string()</code>) means that the answer is
+	 * false.
+	 *
+	 * @param expression the XPath expression to analyse. Must not be null.
+	 * @return true if the expression only reads attributes of the context node, false if it might read anything else.
+	 */
+	public static boolean readsOnlyAttributes(String expression) {
+		String code = removeStringLiterals(expression);
+		int i = 0;
+		while (i < code.length()) {
+			char ch = code.charAt(i);
+			if (Character.isWhitespace(ch) || (OPERATOR_CHARACTERS.indexOf(ch) >= 0)) {
+				i++;
+			} else if ((ch == '"') || (ch == '\'')) {
+				// String literals are empty now, so the closing quote is the next character
+				i += 2;
+			} else if (Character.isDigit(ch)) {
+				while ((i < code.length()) && (Character.isDigit(code.charAt(i)) || (code.charAt(i) == '.'))) {
+					i++;
+				}
+			} else if (ch == '@') {
+				i = skipName(code, i + 1);
+				if (i < 0) {
+					return false;
+				}
+			} else if (Character.isLetter(ch) || (ch == '_')) {
+				int nameEnd = skipName(code, i);
+				String name = code.substring(i, nameEnd);
+				i = skipWhitespace(code, nameEnd);
+				if ((i < code.length()) && (code.charAt(i) == '(')) {
+					// A function call, which is only a problem if it has no arguments and reads the context node
+					if ((skipWhitespace(code, i + 1) < code.length()) && (code.charAt(skipWhitespace(code, i + 1)) == ')')
+									&& !NO_ARGUMENT_FUNCTIONS.contains(name)) {
+						return false;
+					}
+				} else if (!OPERATOR_KEYWORDS.contains(name)) {
+					// A child element name test
+					return false;
+				}
+			} else {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Skips over a name (optionally prefixed) starting at the position given.
+	 *
+	 * @param code the code containing the name.
+	 * @param start the position of the first character of the name.
+	 * @return the position after the name, or -1 if there isn't a name at <code>start</code>.
+	 */
+	private static int skipName(String code, int start) {
+		int i = start;
+		while ((i < code.length())
+						&& (Character.isLetterOrDigit(code.charAt(i)) || ("_-.:".indexOf(code.charAt(i)) >= 0))) {
+			i++;
+		}
+		return (i == start) ? -1 : i;
+	}
+
+	/**
+	 * Skips over any whitespace starting at the position given.
+	 *
+	 * @param code the code containing the whitespace.
+	 * @param start the position to start at.
+	 * @return the position of the first non-whitespace character at or after <code>start</code>, or the length of <code>code</code>.
+	 */
+	private static int skipWhitespace(String code, int start) {
+		int i = start;
+		while ((i < code.length()) && Character.isWhitespace(code.charAt(i))) {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * Determines whether an XPath expression, evaluated against a context node, could only ever select or read nodes in the subtree rooted at that
+	 * context node.
+	 * <p>
+	 * Expressions which use reverse or sibling axes, <code>..</code>, absolute paths, or functions such as <code>root()</code> and <code>id()</code>
+	 * are treated as escaping the subtree.
+	 *
+	 * @param expression the XPath expression to analyse. If null, true is returned as a missing expression can't escape anything.
+	 * @return true if the expression is confined to the context node's subtree, false if it might not be.
+	 */
+	public static boolean isConfinedToContextSubtree(String expression) {
+		if (expression == null) {
+			return true;
+		}
+		String code = removeStringLiterals(expression);
+		if (ESCAPING_CONSTRUCTS.matcher(code).find()) {
+			return false;
+		}
+		return !containsAbsolutePath(code);
+	}
+
+	/**
+	 * Determines whether the passed code (with string literals already removed) contains a path that starts at the document root.
+	 *
+	 * @param code XPath source with string literals removed.
+	 * @return true if any absolute path is found.
+	 */
+	private static boolean containsAbsolutePath(String code) {
+		char previous = '(';
+		boolean previousIsMultiply = false;
+		for (int i = 0; i < code.length(); i++) {
+			char ch = code.charAt(i);
+			if (ch == '/') {
+				if (previousIsMultiply || PATH_START_PRECEDERS.indexOf(previous) >= 0 || KEYWORD_BEFORE_PATH.matcher(code.substring(0, i)).find()) {
+					return true;
+				}
+			}
+			if (!Character.isWhitespace(ch)) {
+				previousIsMultiply = (ch == '*') && (WILDCARD_PRECEDERS.indexOf(previous) < 0);
+				previous = ch;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Removes the content of all string literals in an XPath expression, so that they can't be mistaken for code.
+	 *
+	 * @param expression an XPath expression. Must not be null.
+	 * @return the same expression with each string literal reduced to an empty literal.
+	 */
+	public static String removeStringLiterals(String expression) {
+		StringBuilder sb = new StringBuilder(expression.length());
+		char quote = 0;
+		for (int i = 0; i < expression.length(); i++) {
+			char ch = expression.charAt(i);
+			if (quote == 0) {
+				sb.append(ch);
+				if (ch == '"' || ch == '\'') {
+					quote = ch;
+				}
+			} else if (ch == quote) {
+				// Doubled quotes are an escaped quote within the literal, which works out the same as closing and re-opening the literal
+				sb.append(ch);
+				quote = 0;
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Prevents instantiation.
+	 */
+	private XPathAnalyser() {
+	}
+}
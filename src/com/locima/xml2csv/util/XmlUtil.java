@@ -1,8 +1,23 @@
 package com.locima.xml2csv.util;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import javax.xml.transform.stream.StreamSource;
+
+import net.sf.saxon.expr.Binding;
+import net.sf.saxon.expr.Expression;
+import net.sf.saxon.expr.StaticProperty;
+import net.sf.saxon.expr.parser.ExpressionTool;
 import net.sf.saxon.s9api.DocumentBuilder;
 import net.sf.saxon.s9api.ItemType;
 import net.sf.saxon.s9api.OccurrenceIndicator;
@@ -15,6 +30,9 @@ import net.sf.saxon.s9api.XdmNode;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
 
 import com.locima.xml2csv.BugException;
 import com.locima.xml2csv.XMLException;
@@ -37,8 +55,36 @@ public class XmlUtil {
 	 */
 	private static Processor processor = new Processor(false);
 
+	/**
+	 * The maximum number of XPath compilers kept by {@link #compilerCache}.
+	 */
+	private static final int MAX_CACHED_COMPILERS = 1000;
+
+	/**
+	 * The maximum number of compiled expressions kept by {@link #expressionCache}.
+	 */
+	private static final int MAX_CACHED_EXPRESSIONS = 20000;
+
+	/**
+	 * XPath compilers that have already been created, keyed by the namespace mappings and variables declared to them. This is bounded, as a
+	 * long-running server may compile any number of different configurations.
+	 */
+	private static LruCache<Tuple<Map<String, String>, Set<String>>, XPathCompiler> compilerCache =
+					new LruCache<Tuple<Map<String, String>, Set<String>>, XPathCompiler>(MAX_CACHED_COMPILERS);
+
+	/**
+	 * XPath expressions that have already been compiled, keyed by the expression and the same key as {@link #compilerCache}. Evicting an expression
+	 * only means it's compiled again the next time it's needed; configurations already using it keep their own reference.
+	 */
+	private static LruCache<Tuple<Tuple<Map<String, String>, Set<String>>, String>, XPathExecutable> expressionCache =
+					new LruCache<Tuple<Tuple<Map<String, String>, Set<String>>, String>, XPathExecutable>(MAX_CACHED_EXPRESSIONS);
+
 	/**
 	 * Creates an Saxon executable XPath expression based on the XPath and a set of namespace prefix to URI mappings.
+	 * <p>
+	 * Large configurations tend to use the same expressions over and over again, so compiled expressions are cached and the same instance is
+	 * returned for the same expression, namespace mappings and parameters (in any order). This is safe because {@link XPathExecutable} instances
+	 * are immutable; all evaluation state is held in the selectors loaded from them.
 	 *
 	 * @param namespaceMappings A mapping of namespace prefix to URI mappings. May be null if there are no namespaces involved.
 	 * @param xPathExpression An XPath expression to compile. Must be valid XPath.
@@ -48,30 +94,32 @@ public class XmlUtil {
 	 */
 	public static XPathExecutable createXPathExecutable(Map<String, String> namespaceMappings, String xPathExpression, String... parameters)
 					throws XMLException {
-		// Need to construct a new compiler because the set of namespaces is (potentially) unique to the expression.
-		// We could cache a set of compilers, but I doubt it's worth it.
-		XPathCompiler xPathCompiler = getProcessor().newXPathCompiler();
-		for (String parameter : parameters) {
-			try {
-				xPathCompiler.declareVariable(new QName(parameter), ItemType.STRING, OccurrenceIndicator.ZERO_OR_MORE);
-			} catch (SaxonApiException e) {
-				throw new BugException(e, "Unable to declare variable for \"%s\" variable to Saxon XPath Compiler", parameter);
-			}
-		}
-		if (namespaceMappings != null) {
-			for (Map.Entry<String, String> entry : namespaceMappings.entrySet()) {
-				String prefix = entry.getKey();
-				String uri = entry.getValue();
-				xPathCompiler.declareNamespace(prefix, uri);
-			}
+		// Take copies, as the caller's namespace map may well change after this call
+		Map<String, String> namespaces =
+						(namespaceMappings == null) ? Collections.<String, String> emptyMap() : new HashMap<String, String>(namespaceMappings);
+		Set<String> variables = new HashSet<String>(Arrays.asList(parameters));
+		Tuple<Map<String, String>, Set<String>> compilerKey = new Tuple<Map<String, String>, Set<String>>(namespaces, variables);
+		Tuple<Tuple<Map<String, String>, Set<String>>, String> expressionKey =
+						new Tuple<Tuple<Map<String, String>, Set<String>>, String>(compilerKey, xPathExpression);
+
+		XPathExecutable xPath = expressionCache.get(expressionKey);
+		if (xPath != null) {
+			LOG.trace("Re-using compiled XPath {}", xPathExpression);
+			return xPath;
 		}
 
+		XPathCompiler xPathCompiler = getXPathCompiler(compilerKey);
 		try {
-			XPathExecutable xPath = xPathCompiler.compile(xPathExpression);
-			return xPath;
+			// XPathCompiler instances aren't thread-safe, so make sure only one thread uses each at a time
+			synchronized (xPathCompiler) {
+				xPath = xPathCompiler.compile(xPathExpression);
+			}
 		} catch (SaxonApiException e) {
 			throw new XMLException(e, "Unable to compile invalid XPath: %s", xPathExpression);
 		}
+		// If another thread got there first, use its instance so that everyone shares the same one
+		XPathExecutable existing = expressionCache.putIfAbsent(expressionKey, xPath);
+		return existing == null ? xPath : existing;
 	}
 
 	/**
@@ -79,14 +127,63 @@ public class XmlUtil {
 	 *
 	 * @param namespaceMappings A mapping of namespace prefix to URI mappings. May be null if there are no namespaces involved.
 	 * @param xPathExpression An XPath expression to compile. Must be valid XPath or null. If null then null is returned.
-	 * @param variableNames a set of parameters to declare in the compiled XPath.
+	 * @param variableNames a set of parameters that may be used by the XPath. Only those that are actually referred to are declared in the compiled
+	 *            XPath, so only those need to be bound when it's evaluated.
 	 * @return a Saxon executable XPath expression, or null if <code>xPathExpression</code> is null.
 	 * @throws XMLException If there are any problems compiling <code>xPathExpression</code>.
 	 */
 	public static XPathValue createXPathValue(Map<String, String> namespaceMappings, String xPathExpression, String... variableNames)
 					throws XMLException {
-		return xPathExpression == null ? null : new XPathValue(xPathExpression, createXPathExecutable(namespaceMappings, xPathExpression,
-						variableNames));
+		if (xPathExpression == null) {
+			return null;
+		}
+		XPathExecutable xPath = createXPathExecutable(namespaceMappings, xPathExpression, variableNames);
+		String[] declaredNames = variableNames;
+		String[] referencedNames = getReferencedVariableNames(xPath);
+		if ((variableNames != null) && (referencedNames.length < variableNames.length)) {
+			// Saxon insists on a value for every declared variable, so recompile with only the ones that are used, which are then the only ones that
+			// need binding on each evaluation.
+			xPath = createXPathExecutable(namespaceMappings, xPathExpression, referencedNames);
+			declaredNames = referencedNames;
+		}
+		return new XPathValue(xPathExpression, xPath, declaredNames, ChildPath.parse(xPathExpression, namespaceMappings));
+	}
+
+	/**
+	 * Determines whether a compiled XPath expression gives the same result wherever it's evaluated within a document, because it doesn't refer to the
+	 * context item (other than to find the document node, as <code>/Family/Name</code> does), the context position or size, or any variables.
+	 * <p>
+	 * Variables are always the values found by sibling mappings, so they change with each mapping root.
+	 *
+	 * @param xPath the compiled expression to analyse. Must not be null.
+	 * @return true if the expression gives the same result for every context node in the same document.
+	 */
+	public static boolean isDocumentInvariant(XPathExecutable xPath) {
+		Expression expression = xPath.getUnderlyingExpression().getInternalExpression();
+		if ((expression.getDependencies() & (StaticProperty.DEPENDS_ON_NON_DOCUMENT_FOCUS | StaticProperty.DEPENDS_ON_LOCAL_VARIABLES)) != 0) {
+			return false;
+		}
+		return getReferencedVariableNames(xPath).length == 0;
+	}
+
+	/**
+	 * Finds the names of the variables that a compiled XPath expression actually refers to, which may be fewer than were declared when it was
+	 * compiled.
+	 *
+	 * @param xPath the compiled expression to analyse. Must not be null.
+	 * @return the local names of the referenced variables, each only once, in the order they're first referenced. Possibly empty, but never null.
+	 */
+	public static String[] getReferencedVariableNames(XPathExecutable xPath) {
+		List<Binding> bindings = new ArrayList<Binding>();
+		ExpressionTool.gatherReferencedVariables(xPath.getUnderlyingExpression().getInternalExpression(), bindings);
+		List<String> names = new ArrayList<String>(bindings.size());
+		for (Binding binding : bindings) {
+			String name = binding.getVariableQName().getLocalPart();
+			if (!names.contains(name)) {
+				names.add(name);
+			}
+		}
+		return names.toArray(new String[names.size()]);
 	}
 
 	/**
@@ -101,6 +198,35 @@ public class XmlUtil {
 		return createXPathValue(null, xPathExpression, variableNames);
 	}
 
+	/**
+	 * Returns an XPath compiler with the namespaces and variables specified by <code>compilerKey</code> declared, creating one if required.
+	 *
+	 * @param compilerKey the namespace prefix to URI mappings and the names of the variables that must be declared.
+	 * @return an XPath compiler, never null.
+	 */
+	private static XPathCompiler getXPathCompiler(Tuple<Map<String, String>, Set<String>> compilerKey) {
+		XPathCompiler xPathCompiler = compilerCache.get(compilerKey);
+		if (xPathCompiler != null) {
+			return xPathCompiler;
+		}
+		xPathCompiler = getProcessor().newXPathCompiler();
+		for (String parameter : compilerKey.getSecond()) {
+			try {
+				xPathCompiler.declareVariable(new QName(parameter), ItemType.STRING, OccurrenceIndicator.ZERO_OR_MORE);
+			} catch (SaxonApiException e) {
+				throw new BugException(e, "Unable to declare variable for \"%s\" variable to Saxon XPath Compiler", parameter);
+			}
+		}
+		for (Map.Entry<String, String> entry : compilerKey.getFirst().entrySet()) {
+			String prefix = entry.getKey();
+			String uri = entry.getValue();
+			xPathCompiler.declareNamespace(prefix, uri);
+		}
+		LOG.debug("Created new XPath compiler for namespaces {} and variables {}", compilerKey.getFirst(), compilerKey.getSecond());
+		XPathCompiler existing = compilerCache.putIfAbsent(compilerKey, xPathCompiler);
+		return existing == null ? xPathCompiler : existing;
+	}
+
 	/**
 	 * Returns the singleton instance.
 	 *
@@ -110,22 +236,91 @@ public class XmlUtil {
 		return processor;
 	}
 
+	/**
+	 * Returns the system identifier (URI) of an input file, used as the base URI of the document it contains.
+	 *
+	 * @param xmlFile the input file. Must not be null.
+	 * @return the URI of the file, or of the archive entry if <code>xmlFile</code> is a {@link ZipEntryFile}. Never null.
+	 */
+	public static String getSystemId(File xmlFile) {
+		return (xmlFile instanceof ZipEntryFile) ? ((ZipEntryFile) xmlFile).getSystemId() : xmlFile.toURI().toString();
+	}
+
 	/**
 	 * Loads the XML file specified and returns as a Saxon XML document.
+	 * <p>
+	 * Compressed files and zip archive entries are decompressed as they are parsed (see {@link FileUtility#openInput(File)}).
 	 *
 	 * @param xmlFile The XML file to read data from, must be a valid file.
 	 * @return The loaded XML document, never returns null.
 	 * @throws DataExtractorException If an error occurs during extraction of data from the XML.
 	 */
 	public static XdmNode loadXmlFile(File xmlFile) throws DataExtractorException {
+		return loadXmlFile(xmlFile, InputOptions.DEFAULT);
+	}
+
+	/**
+	 * Loads the XML file specified and returns as a Saxon XML document.
+	 * <p>
+	 * Compressed files and zip archive entries are decompressed as they are parsed (see {@link FileUtility#openInput(File, InputOptions)}).
+	 *
+	 * @param xmlFile The XML file to read data from, must be a valid file.
+	 * @param options how to read the file from disk. Must not be null.
+	 * @return The loaded XML document, never returns null.
+	 * @throws DataExtractorException If an error occurs during extraction of data from the XML.
+	 */
+	public static XdmNode loadXmlFile(File xmlFile, InputOptions options) throws DataExtractorException {
+		InputStream input = null;
 		try {
 			DocumentBuilder db = getProcessor().newDocumentBuilder();
 			LOG.debug("Loading and parsing XML file {}", xmlFile.getAbsolutePath());
-			XdmNode document = db.build(xmlFile);
+			input = FileUtility.openInput(xmlFile, options);
+			XdmNode document = db.build(new StreamSource(input, getSystemId(xmlFile)));
 			LOG.info("XML file {} loaded succesfully", xmlFile.getAbsolutePath());
 			return document;
 		} catch (SaxonApiException e) {
 			throw new DataExtractorException(e, "Unable to read XML file %s", xmlFile.getAbsolutePath());
+		} catch (IOException ioe) {
+			throw new DataExtractorException(ioe, "Unable to read XML file %s", xmlFile.getAbsolutePath());
+		} finally {
+			close(input, xmlFile);
+		}
+	}
+
+	/**
+	 * Parses an input file with a SAX parser, decompressing it on the fly if necessary (see {@link FileUtility#openInput(File, InputOptions)}). The
+	 * file is closed afterwards, even if the parse is abandoned part way through by the parser's handler throwing an exception.
+	 *
+	 * @param reader the parser to use, with its handlers already set. Must not be null.
+	 * @param xmlFile the file to parse. Must not be null.
+	 * @param options how to read the file from disk. Must not be null.
+	 * @throws IOException if the file can't be read.
+	 * @throws SAXException if the parser or its handlers report an error.
+	 */
+	public static void parse(XMLReader reader, File xmlFile, InputOptions options) throws IOException, SAXException {
+		InputStream input = FileUtility.openInput(xmlFile, options);
+		try {
+			InputSource source = new InputSource(input);
+			source.setSystemId(getSystemId(xmlFile));
+			reader.parse(source);
+		} finally {
+			close(input, xmlFile);
+		}
+	}
+
+	/**
+	 * Closes a stream opened to read an input file, logging rather than throwing any failure.
+	 *
+	 * @param input the stream to close, may be null.
+	 * @param xmlFile the file being read, only used for logging.
+	 */
+	private static void close(InputStream input, File xmlFile) {
+		if (input != null) {
+			try {
+				input.close();
+			} catch (IOException ioe) {
+				LOG.warn("Unable to close {}", xmlFile.getAbsolutePath(), ioe);
+			}
 		}
 	}
 
@@ -0,0 +1,128 @@
+package com.locima.xml2csv.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A zip archive whose entries are treated as separate input files (see {@link ZipEntryFile}).
+ * <p>
+ * The archive is opened when an entry is first read and kept open, so that reading thousands of entries doesn't read the archive's central
+ * directory thousands of times. {@link ZipFile} allows different entries to be read, and decompressed, by different threads at the same time.
+ * Call {@link #close()} once all the entries have been read; if an entry is read after that, the archive is opened again.
+ */
+class ZipArchive {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ZipArchive.class);
+
+	/**
+	 * The file containing the archive.
+	 */
+	private File file;
+
+	/**
+	 * The open archive, or null if it isn't currently open.
+	 */
+	private ZipFile zipFile;
+
+	/**
+	 * Creates a new, unopened, instance.
+	 *
+	 * @param file the file containing the archive. Must not be null.
+	 */
+	public ZipArchive(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Closes the archive, if it's open. Entry streams that are still open are closed as well.
+	 */
+	public synchronized void close() {
+		if (this.zipFile != null) {
+			try {
+				this.zipFile.close();
+			} catch (IOException ioe) {
+				LOG.warn("Unable to close zip archive {}", this.file.getAbsolutePath(), ioe);
+			}
+			this.zipFile = null;
+		}
+	}
+
+	/**
+	 * Returns the file containing the archive.
+	 *
+	 * @return the file containing the archive, never null.
+	 */
+	public File getFile() {
+		return this.file;
+	}
+
+	/**
+	 * Opens an entry of the archive for reading.
+	 *
+	 * @param entryName the name of the entry within the archive.
+	 * @return a stream of the decompressed content of the entry, never null.
+	 * @throws IOException if the archive can't be read, or doesn't contain the entry.
+	 */
+	public InputStream getInputStream(String entryName) throws IOException {
+		ZipFile archive = open();
+		ZipEntry entry = archive.getEntry(entryName);
+		if (entry == null) {
+			throw new IOException("Zip archive " + this.file.getAbsolutePath() + " does not contain " + entryName);
+		}
+		return archive.getInputStream(entry);
+	}
+
+	/**
+	 * Lists the entries of the archive that are files, in the order they appear in the archive's central directory.
+	 * <p>
+	 * The archive is closed afterwards, as entries are often filtered out or read much later.
+	 *
+	 * @return the entries of the archive, never null.
+	 * @throws IOException if the archive can't be read.
+	 */
+	public List<ZipEntryFile> list() throws IOException {
+		List<ZipEntryFile> entries = new ArrayList<ZipEntryFile>();
+		ZipFile archive = new ZipFile(this.file);
+		try {
+			Enumeration<? extends ZipEntry> zipEntries = archive.entries();
+			while (zipEntries.hasMoreElements()) {
+				ZipEntry zipEntry = zipEntries.nextElement();
+				if (!zipEntry.isDirectory()) {
+					entries.add(new ZipEntryFile(this, zipEntry));
+				}
+			}
+		} finally {
+			archive.close();
+		}
+		LOG.info("Found {} entries in zip archive {}", entries.size(), this.file);
+		return entries;
+	}
+
+	/**
+	 * Opens the archive, if it isn't open already.
+	 *
+	 * @return the open archive, never null.
+	 * @throws IOException if the archive can't be opened.
+	 */
+	private synchronized ZipFile open() throws IOException {
+		if (this.zipFile == null) {
+			LOG.debug("Opening zip archive {}", this.file);
+			this.zipFile = new ZipFile(this.file);
+		}
+		return this.zipFile;
+	}
+
+	@Override
+	public String toString() {
+		return "ZipArchive(" + this.file + ")";
+	}
+}
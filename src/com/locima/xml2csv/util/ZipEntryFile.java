@@ -0,0 +1,121 @@
+package com.locima.xml2csv.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * An entry of a zip archive, presented as a file so that it can be filtered and converted like any other input file.
+ * <p>
+ * The path of an entry is the path of its archive followed by the entry's name, as if the archive was a directory (e.g. the entry
+ * <code>orders/1.xml</code> of <code>/in/bundle.zip</code> has the path <code>/in/bundle.zip/orders/1.xml</code> and the name
+ * <code>1.xml</code>). This means that {@link com.locima.xml2csv.configuration.filter.FileNameInputFilter} filters entry names in the same way as
+ * file names. The entry doesn't exist on disk, so it must be read using {@link FileUtility#openInput(File)}, never using
+ * {@link java.io.FileInputStream} or its URI.
+ */
+public class ZipEntryFile extends File {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The archive that this entry belongs to.
+	 */
+	private transient ZipArchive archive;
+
+	/**
+	 * The name of the entry within the archive.
+	 */
+	private String entryName;
+
+	/**
+	 * The last modified time of the entry.
+	 */
+	private long lastModified;
+
+	/**
+	 * The uncompressed size of the entry, or -1 if unknown.
+	 */
+	private long size;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param archive the archive that the entry belongs to. Must not be null.
+	 * @param entry the entry. Must not be null.
+	 */
+	ZipEntryFile(ZipArchive archive, ZipEntry entry) {
+		super(archive.getFile(), entry.getName());
+		this.archive = archive;
+		this.entryName = entry.getName();
+		this.lastModified = entry.getTime();
+		this.size = entry.getSize();
+	}
+
+	@Override
+	public boolean canRead() {
+		return true;
+	}
+
+	@Override
+	public boolean exists() {
+		return true;
+	}
+
+	/**
+	 * Returns the zip archive that contains this entry.
+	 *
+	 * @return the zip archive, never null.
+	 */
+	public File getArchiveFile() {
+		return this.archive.getFile();
+	}
+
+	/**
+	 * Returns the name of this entry within its zip archive.
+	 *
+	 * @return the full name of the entry, including any directories within the archive.
+	 */
+	public String getEntryName() {
+		return this.entryName;
+	}
+
+	/**
+	 * Returns a URI that identifies this entry, for use as the system identifier of the document it contains.
+	 *
+	 * @return a <code>jar:</code> URI of the entry, never null.
+	 */
+	public String getSystemId() {
+		return "jar:" + this.archive.getFile().toURI() + "!/" + this.entryName;
+	}
+
+	@Override
+	public boolean isDirectory() {
+		return false;
+	}
+
+	@Override
+	public boolean isFile() {
+		return true;
+	}
+
+	@Override
+	public long lastModified() {
+		return this.lastModified;
+	}
+
+	@Override
+	public long length() {
+		return this.size;
+	}
+
+	/**
+	 * Opens this entry for reading.
+	 *
+	 * @return a stream of the decompressed content of this entry, never null.
+	 * @throws IOException if the entry can't be read.
+	 */
+	InputStream openStream() throws IOException {
+		return this.archive.getInputStream(this.entryName);
+	}
+}
@@ -0,0 +1,95 @@
+package com.locima.xml2csv;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.locima.xml2csv.configuration.MappingConfiguration;
+
+public class ConfigurationCacheTests {
+
+	private File configFile;
+
+	private TemporaryFolder folder;
+
+	private void copy(File source, File destination) throws IOException {
+		InputStream input = new FileInputStream(source);
+		try {
+			OutputStream output = new FileOutputStream(destination);
+			try {
+				byte[] buffer = new byte[4096];
+				int length;
+				while ((length = input.read(buffer)) >= 0) {
+					output.write(buffer, 0, length);
+				}
+			} finally {
+				output.close();
+			}
+		} finally {
+			input.close();
+		}
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		this.folder = new TemporaryFolder();
+		this.folder.create();
+		this.configFile = new File(this.folder.getRoot(), "Config.xml");
+		copy(TestHelpers.createFile("SimpleFamilyConfig.xml"), this.configFile);
+	}
+
+	@After
+	public void tearDown() {
+		this.folder.delete();
+	}
+
+	@Test
+	public void testChangedConfigurationIsReloaded() throws Exception {
+		List<File> configFiles = new ArrayList<File>();
+		configFiles.add(this.configFile);
+		ConfigurationCache cache = new ConfigurationCache();
+		MappingConfiguration first = cache.get(configFiles);
+		assertSame(first, cache.get(configFiles));
+
+		assertTrue(this.configFile.setLastModified(this.configFile.lastModified() - 60000));
+		MappingConfiguration second = cache.get(configFiles);
+		assertNotSame(first, second);
+		assertSame(second, cache.get(configFiles));
+
+		cache.clear();
+		assertNotSame(second, cache.get(configFiles));
+	}
+
+	@Test
+	public void testPivotConfigurationNotCached() throws Exception {
+		copy(TestHelpers.createFile("SimplePivotConfig.xml"), this.configFile);
+		List<File> configFiles = new ArrayList<File>();
+		configFiles.add(this.configFile);
+		ConfigurationCache cache = new ConfigurationCache();
+		MappingConfiguration first = cache.get(configFiles);
+		assertTrue(first.hasPivotMappings());
+		assertNotSame(first, cache.get(configFiles));
+	}
+
+	@Test(expected = ProgramException.class)
+	public void testInvalidConfiguration() throws Exception {
+		copy(TestHelpers.createFile("SimplePivotInput.xml"), this.configFile);
+		List<File> configFiles = new ArrayList<File>();
+		configFiles.add(this.configFile);
+		new ConfigurationCache().get(configFiles);
+	}
+}
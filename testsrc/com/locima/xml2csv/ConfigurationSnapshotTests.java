@@ -0,0 +1,185 @@
+package com.locima.xml2csv;
+
+import static com.locima.xml2csv.TestHelpers.assertCsvEquals;
+import static com.locima.xml2csv.TestHelpers.createFile;
+import static com.locima.xml2csv.TestHelpers.processFiles;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.locima.xml2csv.configuration.IMapping;
+import com.locima.xml2csv.configuration.IMappingContainer;
+import com.locima.xml2csv.configuration.Mapping;
+import com.locima.xml2csv.configuration.MappingConfiguration;
+import com.locima.xml2csv.configuration.PivotMapping;
+import com.locima.xml2csv.configuration.XPathValue;
+import com.locima.xml2csv.configuration.filter.AbstractFilter;
+import com.locima.xml2csv.configuration.filter.IInputFilter;
+
+public class ConfigurationSnapshotTests {
+
+	private TemporaryFolder folder;
+
+	private File snapshotFile;
+
+	private void copy(File source, File destination) throws IOException {
+		InputStream input = new FileInputStream(source);
+		try {
+			OutputStream output = new FileOutputStream(destination);
+			try {
+				byte[] buffer = new byte[4096];
+				int length;
+				while ((length = input.read(buffer)) >= 0) {
+					output.write(buffer, 0, length);
+				}
+			} finally {
+				output.close();
+			}
+		} finally {
+			input.close();
+		}
+	}
+
+	private void describe(StringBuilder sb, IMapping mapping) {
+		sb.append(mapping);
+		if (mapping instanceof Mapping) {
+			describe(sb, ((Mapping) mapping).getValueXPath());
+		} else if (mapping instanceof IMappingContainer) {
+			describe(sb, ((IMappingContainer) mapping).getMappingRoot());
+			if (mapping instanceof PivotMapping) {
+				PivotMapping pivot = (PivotMapping) mapping;
+				describe(sb, pivot.getKVPairRoot());
+				describe(sb, pivot.getKeyXPath());
+				describe(sb, pivot.getValueXPath());
+			}
+			for (IMapping child : (IMappingContainer) mapping) {
+				describe(sb, child);
+			}
+		}
+		sb.append('\n');
+	}
+
+	private String describe(MappingConfiguration config) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(new TreeMap<String, String>(config.getNamespaceMap()));
+		sb.append(config.getDefaultMultiValueBehaviour());
+		sb.append(config.getDefaultNameFormat());
+		describe(sb, config.getInputFilter());
+		sb.append('\n');
+		for (IMappingContainer container : config) {
+			describe(sb, container);
+		}
+		return sb.toString();
+	}
+
+	private void describe(StringBuilder sb, IInputFilter filter) {
+		sb.append(filter);
+		sb.append(filter.getAlwaysExecute());
+		sb.append('[');
+		for (IInputFilter nestedFilter : ((AbstractFilter) filter).getNestedFilters()) {
+			describe(sb, nestedFilter);
+		}
+		sb.append(']');
+	}
+
+	private void describe(StringBuilder sb, XPathValue xPath) {
+		sb.append(xPath);
+		if (xPath != null) {
+			sb.append(Arrays.toString(xPath.getVariableNames()));
+		}
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		this.folder = new TemporaryFolder();
+		this.folder.create();
+		this.snapshotFile = new File(this.folder.getRoot(), "config.snapshot");
+	}
+
+	@After
+	public void tearDown() {
+		this.folder.delete();
+	}
+
+	@Test
+	public void testChangedConfigurationInvalidatesSnapshot() throws Exception {
+		File configFile = new File(this.folder.getRoot(), "Config.xml");
+		copy(createFile("SimpleFamilyConfig.xml"), configFile);
+		List<File> configFiles = new ArrayList<File>();
+		configFiles.add(configFile);
+		Xml2Csv.compileConfiguration(configFiles, this.snapshotFile);
+		assertNotNull(ConfigurationSnapshot.read(this.snapshotFile, configFiles));
+
+		Writer writer = new FileWriter(configFile, true);
+		try {
+			writer.write("<!-- Changed -->");
+		} finally {
+			writer.close();
+		}
+		assertNull(ConfigurationSnapshot.read(this.snapshotFile, configFiles));
+
+		// Loading through a snapshot refreshes it
+		Xml2Csv.loadConfiguration(configFiles, this.snapshotFile);
+		assertNotNull(ConfigurationSnapshot.read(this.snapshotFile, configFiles));
+	}
+
+	@Test
+	public void testConversionFromSnapshot() throws Exception {
+		Xml2Csv converter = new Xml2Csv();
+		converter.setConfigurationSnapshot(this.snapshotFile);
+		// The first conversion writes the snapshot, the second uses it
+		for (int i = 0; i < 2; i++) {
+			TemporaryFolder outputFolder = processFiles(converter, "PeopleFilterConfig.xml", "Person1.xml", "Person2.xml", "Person3.xml");
+			assertTrue(this.snapshotFile.isFile());
+			assertCsvEquals("PeopleFiltered.csv", outputFolder.getRoot(), "PeopleFiltered.csv");
+			outputFolder.delete();
+			outputFolder = processFiles(converter, "FamilyConfigWithNamespaces.xml", "FamilyWithNamespaces.xml");
+			assertCsvEquals("FamilyMembersWithNamespaces.csv", outputFolder.getRoot(), "FamilyMembersWithNamespaces.csv");
+			outputFolder.delete();
+		}
+	}
+
+	@Test
+	public void testInvalidSnapshotIsIgnored() throws Exception {
+		List<File> configFiles = new ArrayList<File>();
+		configFiles.add(createFile("SimpleFamilyConfig.xml"));
+		assertNull(ConfigurationSnapshot.read(this.snapshotFile, configFiles));
+		copy(createFile("SimpleFamilyConfig.xml"), this.snapshotFile);
+		assertNull(ConfigurationSnapshot.read(this.snapshotFile, configFiles));
+	}
+
+	@Test
+	public void testSnapshotMatchesParsedConfiguration() throws Exception {
+		String[] configNames =
+						new String[] { "FamilyConfigWithNamespaces.xml", "HeavilyNestedConfig.xml", "PeopleFilterConfig.xml",
+										"PivotWithSiblingsConfig.xml", "SimpleFamilyConfigWithFilter.xml", "SimpleFamilyInlineConfig.xml" };
+		for (String configName : configNames) {
+			List<File> configFiles = new ArrayList<File>();
+			configFiles.add(createFile(configName));
+			MappingConfiguration parsed = Xml2Csv.loadConfiguration(configFiles);
+			ConfigurationSnapshot.write(parsed, configFiles, this.snapshotFile);
+			MappingConfiguration loaded = ConfigurationSnapshot.read(this.snapshotFile, configFiles);
+			assertNotNull(configName, loaded);
+			assertEquals(configName, describe(parsed), describe(loaded));
+		}
+	}
+}
@@ -0,0 +1,177 @@
+package com.locima.xml2csv;
+
+import static com.locima.xml2csv.TestHelpers.assertCsvEquals;
+import static com.locima.xml2csv.TestHelpers.createFile;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class InputManifestTests {
+
+	private TemporaryFolder folder;
+
+	private List<File> configFiles;
+
+	private File outputDirectory;
+
+	private File writeFile(String name, String content) throws Exception {
+		File file = new File(this.folder.getRoot(), name);
+		FileWriter writer = new FileWriter(file);
+		try {
+			writer.write(content);
+		} finally {
+			writer.close();
+		}
+		return file;
+	}
+
+	private List<File> getChangedFiles(boolean hashContent, File... inputFiles) throws Exception {
+		InputManifest manifest = InputManifest.load(this.outputDirectory, this.configFiles, hashContent);
+		List<File> changedFiles = new ArrayList<File>();
+		for (File changedFile : manifest.getChangedFiles(Arrays.asList(inputFiles))) {
+			changedFiles.add(changedFile);
+		}
+		manifest.save();
+		return changedFiles;
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		this.folder = new TemporaryFolder();
+		this.folder.create();
+		this.outputDirectory = this.folder.newFolder("output");
+		this.configFiles = new ArrayList<File>();
+		this.configFiles.add(writeFile("config.xml", "<MappingConfiguration/>"));
+	}
+
+	@After
+	public void tearDown() {
+		this.folder.delete();
+	}
+
+	@Test
+	public void testChangedFilesAreReturned() throws Exception {
+		File first = writeFile("first.xml", "<a/>");
+		File second = writeFile("second.xml", "<b/>");
+		assertEquals(Arrays.asList(first, second), getChangedFiles(false, first, second));
+		assertEquals(Collections.emptyList(), getChangedFiles(false, first, second));
+
+		writeFile("second.xml", "<bb/>");
+		File third = writeFile("third.xml", "<c/>");
+		assertEquals(Arrays.asList(second, third), getChangedFiles(false, first, second, third));
+		assertEquals(Collections.emptyList(), getChangedFiles(false, first, second, third));
+	}
+
+	@Test
+	public void testConfigurationChangeConvertsEverything() throws Exception {
+		File first = writeFile("first.xml", "<a/>");
+		assertEquals(Arrays.asList(first), getChangedFiles(false, first));
+		writeFile("config.xml", "<MappingConfiguration></MappingConfiguration>");
+		assertEquals(Arrays.asList(first), getChangedFiles(false, first));
+		assertEquals(Collections.emptyList(), getChangedFiles(false, first));
+	}
+
+	@Test
+	public void testHashIgnoresModificationTime() throws Exception {
+		File first = writeFile("first.xml", "<a/>");
+		assertEquals(Arrays.asList(first), getChangedFiles(true, first));
+		assertTrue(first.setLastModified(first.lastModified() - 60000));
+		assertEquals(Collections.emptyList(), getChangedFiles(true, first));
+
+		// Same size, different content
+		writeFile("first.xml", "<b/>");
+		assertTrue(first.setLastModified(first.lastModified() - 120000));
+		assertEquals(Arrays.asList(first), getChangedFiles(true, first));
+
+		// Without hashing, a new modification time is enough
+		assertTrue(first.setLastModified(first.lastModified() - 60000));
+		assertEquals(Arrays.asList(first), getChangedFiles(false, first));
+	}
+
+	@Test
+	public void testFailedIncrementalConversionIsNotDuplicated() throws Exception {
+		List<File> configs = new ArrayList<File>();
+		configs.add(createFile("SimpleFamilyConfig.xml"));
+		Xml2Csv converter = new Xml2Csv();
+		converter.setIncremental(true);
+		File first = writeFile("first.xml", "<family><name>First</name><address>1</address></family>");
+		converter.execute(configs, Arrays.asList(first), this.outputDirectory, false, true);
+
+		// The second file is converted and appended, then the third fails, so the second must be removed again
+		File second = writeFile("second.xml", "<family><name>Second</name><address>2</address></family>");
+		File third = writeFile("third.xml", "<family><name>Third</name>");
+		try {
+			converter.execute(configs, Arrays.asList(first, second, third), this.outputDirectory, false, true);
+			fail("Expected conversion of malformed file to fail");
+		} catch (ProgramException pe) {
+			// Expected
+		}
+		assertArrayEquals(new String[] { "Family,Address", "First,1" }, TestHelpers.loadFile(new File(this.outputDirectory, "Family.csv")));
+
+		writeFile("third.xml", "<family><name>Third</name><address>3</address></family>");
+		converter.execute(configs, Arrays.asList(first, second, third), this.outputDirectory, false, true);
+		assertArrayEquals(new String[] { "Family,Address", "First,1", "Second,2", "Third,3" }, TestHelpers.loadFile(new File(this.outputDirectory,
+						"Family.csv")));
+	}
+
+	@Test
+	public void testIncrementalConversion() throws Exception {
+		File input = writeFile("input.xml", joinLines(TestHelpers.loadFile(createFile("SimplePivotInput.xml"))));
+		List<File> configs = new ArrayList<File>();
+		configs.add(createFile("SimplePivotConfig.xml"));
+		Xml2Csv converter = new Xml2Csv();
+		converter.setIncremental(true);
+
+		converter.execute(configs, Arrays.asList(input), this.outputDirectory, false, true);
+		assertCsvEquals("SimplePivotOutput.csv", this.outputDirectory, "SimplePivotOutput.csv");
+		assertTrue(new File(this.outputDirectory, InputManifest.MANIFEST_FILE_NAME).exists());
+
+		// The input hasn't changed, so nothing is appended
+		converter.execute(configs, Arrays.asList(input), this.outputDirectory, false, true);
+		assertCsvEquals("SimplePivotOutput.csv", this.outputDirectory, "SimplePivotOutput.csv");
+	}
+
+	@Test
+	public void testIncrementalConversionAfterConfigurationChange() throws Exception {
+		File input = writeFile("input.xml", joinLines(TestHelpers.loadFile(createFile("SimplePivotInput.xml"))));
+		File config = writeFile("SimplePivotConfig.xml", joinLines(TestHelpers.loadFile(createFile("SimplePivotConfig.xml"))));
+		List<File> configs = new ArrayList<File>();
+		configs.add(config);
+		Xml2Csv converter = new Xml2Csv();
+		converter.setIncremental(true);
+		converter.execute(configs, Arrays.asList(input), this.outputDirectory, false, true);
+		assertCsvEquals("SimplePivotOutput.csv", this.outputDirectory, "SimplePivotOutput.csv");
+
+		// Every file is converted again, replacing the previous output rather than being appended to it
+		assertTrue(config.setLastModified(config.lastModified() - 60000));
+		InputManifest manifest = InputManifest.load(this.outputDirectory, configs, false);
+		assertTrue(manifest.isConfigurationChanged());
+		assertFalse(manifest.isContinuingPreviousRun());
+		converter.execute(configs, Arrays.asList(input), this.outputDirectory, false, true);
+		assertCsvEquals("SimplePivotOutput.csv", this.outputDirectory, "SimplePivotOutput.csv");
+		assertTrue(InputManifest.load(this.outputDirectory, configs, false).isContinuingPreviousRun());
+	}
+
+	private String joinLines(String[] lines) {
+		StringBuilder sb = new StringBuilder();
+		for (String line : lines) {
+			sb.append(line);
+			sb.append('\n');
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,155 @@
+package com.locima.xml2csv;
+
+import static com.locima.xml2csv.TestHelpers.assertCsvEquals;
+import static com.locima.xml2csv.TestHelpers.createFile;
+import static com.locima.xml2csv.TestHelpers.loadFile;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.locima.xml2csv.util.FileWalker;
+
+public class ParallelDocumentProcessorTests {
+
+	private static final int FILE_COUNT = 40;
+
+	private List<File> configFiles;
+
+	private TemporaryFolder inputFolder;
+
+	private List<File> inputFiles;
+
+	private File convert(Xml2Csv converter) throws Exception {
+		TemporaryFolder outputFolder = new TemporaryFolder();
+		outputFolder.create();
+		converter.execute(this.configFiles, this.inputFiles, outputFolder.getRoot(), false, true);
+		return new File(outputFolder.getRoot(), "People.csv");
+	}
+
+	private void copy(File file, OutputStream output) throws IOException {
+		InputStream input = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[4096];
+			int length;
+			while ((length = input.read(buffer)) >= 0) {
+				output.write(buffer, 0, length);
+			}
+		} finally {
+			input.close();
+		}
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		this.configFiles = new ArrayList<File>();
+		this.configFiles.add(createFile("PeopleConfig.xml"));
+		this.inputFolder = new TemporaryFolder();
+		this.inputFolder.create();
+		this.inputFiles = new ArrayList<File>();
+		for (int i = 0; i < FILE_COUNT; i++) {
+			File file = this.inputFolder.newFile("People" + i + ".xml");
+			FileWriter writer = new FileWriter(file);
+			writer.write("<people>");
+			// Vary the size of each file so that they complete in a different order to the one they were submitted in
+			for (int j = 0; j < ((FILE_COUNT - i) * 7) % 23 + 1; j++) {
+				writer.write(String.format("<person lastname=\"L%d\"><firstname>F%d</firstname><age>%d</age></person>", i, j, i * 100 + j));
+			}
+			writer.write("</people>");
+			writer.close();
+			this.inputFiles.add(file);
+		}
+	}
+
+	@After
+	public void tearDown() {
+		this.inputFolder.delete();
+	}
+
+	@Test
+	public void testCompressedInputsMatchPlainInputs() throws Exception {
+		File expected = convert(new Xml2Csv());
+
+		// The first half of the inputs go in to a zip archive, the rest are individually gzipped
+		int zipCount = FILE_COUNT / 2;
+		List<String> inputs = new ArrayList<String>();
+		File zip = this.inputFolder.newFile("People.zip");
+		ZipOutputStream zipOutput = new ZipOutputStream(new FileOutputStream(zip));
+		try {
+			for (int i = 0; i < zipCount; i++) {
+				zipOutput.putNextEntry(new ZipEntry("people/" + this.inputFiles.get(i).getName()));
+				copy(this.inputFiles.get(i), zipOutput);
+				zipOutput.closeEntry();
+			}
+		} finally {
+			zipOutput.close();
+		}
+		inputs.add(zip.getPath());
+		for (int i = zipCount; i < FILE_COUNT; i++) {
+			File gzip = this.inputFolder.newFile(this.inputFiles.get(i).getName() + ".gz");
+			OutputStream gzipOutput = new GZIPOutputStream(new FileOutputStream(gzip));
+			try {
+				copy(this.inputFiles.get(i), gzipOutput);
+			} finally {
+				gzipOutput.close();
+			}
+			inputs.add(gzip.getPath());
+		}
+
+		FileWalker walker = new FileWalker(inputs.toArray(new String[inputs.size()]));
+		try {
+			this.inputFiles.clear();
+			for (File file : walker) {
+				this.inputFiles.add(file);
+			}
+			assertEquals(FILE_COUNT, this.inputFiles.size());
+			Xml2Csv converter = new Xml2Csv();
+			converter.setThreadCount(4);
+			assertCsvEquals(expected, convert(converter));
+		} finally {
+			walker.close();
+		}
+	}
+
+	@Test
+	public void testOrderedOutputMatchesSingleThreaded() throws Exception {
+		File expected = convert(new Xml2Csv());
+		Xml2Csv converter = new Xml2Csv();
+		converter.setThreadCount(4);
+		assertCsvEquals(expected, convert(converter));
+	}
+
+	@Test
+	public void testUnorderedOutputContainsSameRecords() throws Exception {
+		String[] expected = loadFile(convert(new Xml2Csv()));
+		Xml2Csv converter = new Xml2Csv();
+		converter.setThreadCount(4);
+		converter.setPreserveInputOrder(false);
+		String[] actual = loadFile(convert(converter));
+		assertEquals("Field names must always be first", expected[0], actual[0]);
+		Arrays.sort(expected);
+		Arrays.sort(actual);
+		assertEquals(Arrays.asList(expected), Arrays.asList(actual));
+	}
+
+	@Test(expected = ArgumentException.class)
+	public void testInvalidThreadCount() {
+		new Xml2Csv().setThreadCount(0);
+	}
+}
@@ -0,0 +1,89 @@
+package com.locima.xml2csv;
+
+import static com.locima.xml2csv.TestHelpers.assertCsvEquals;
+import static com.locima.xml2csv.TestHelpers.createFile;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PipelinedDocumentProcessorTests {
+
+	private static final int FILE_COUNT = 40;
+
+	private List<File> configFiles;
+
+	private TemporaryFolder inputFolder;
+
+	private List<File> inputFiles;
+
+	private File convert(Xml2Csv converter) throws Exception {
+		TemporaryFolder outputFolder = new TemporaryFolder();
+		outputFolder.create();
+		converter.execute(this.configFiles, this.inputFiles, outputFolder.getRoot(), false, true);
+		return new File(outputFolder.getRoot(), "People.csv");
+	}
+
+	private Xml2Csv createPipelinedConverter(int threadCount, int queueDepth) {
+		Xml2Csv converter = new Xml2Csv();
+		converter.setThreadCount(threadCount);
+		converter.setPipelineQueueDepth(queueDepth);
+		return converter;
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		this.configFiles = new ArrayList<File>();
+		this.configFiles.add(createFile("PeopleConfig.xml"));
+		this.inputFolder = new TemporaryFolder();
+		this.inputFolder.create();
+		this.inputFiles = new ArrayList<File>();
+		for (int i = 0; i < FILE_COUNT; i++) {
+			File file = this.inputFolder.newFile("People" + i + ".xml");
+			FileWriter writer = new FileWriter(file);
+			writer.write("<people>");
+			// Vary the size of each file so that parsing completes in a different order to the one files were submitted in
+			for (int j = 0; j < ((FILE_COUNT - i) * 7) % 23 + 1; j++) {
+				writer.write(String.format("<person lastname=\"L%d\"><firstname>F%d</firstname><age>%d</age></person>", i, j, i * 100 + j));
+			}
+			writer.write("</people>");
+			writer.close();
+			this.inputFiles.add(file);
+		}
+	}
+
+	@After
+	public void tearDown() {
+		this.inputFolder.delete();
+	}
+
+	@Test
+	public void testOutputMatchesSingleThreaded() throws Exception {
+		File expected = convert(new Xml2Csv());
+		assertCsvEquals(expected, convert(createPipelinedConverter(1, 1)));
+		assertCsvEquals(expected, convert(createPipelinedConverter(3, 2)));
+		assertCsvEquals(expected, convert(createPipelinedConverter(4, 100)));
+	}
+
+	@Test(expected = ProgramException.class)
+	public void testParseFailureAbortsPipeline() throws Exception {
+		File file = this.inputFolder.newFile("Invalid.xml");
+		FileWriter writer = new FileWriter(file);
+		writer.write("<people><person>");
+		writer.close();
+		this.inputFiles.add(FILE_COUNT / 2, file);
+		convert(createPipelinedConverter(2, 3));
+	}
+
+	@Test(expected = ArgumentException.class)
+	public void testInvalidQueueDepth() {
+		new Xml2Csv().setPipelineQueueDepth(-1);
+	}
+}
@@ -187,7 +187,11 @@ public class TestHelpers {
 	}
 
 	public static TemporaryFolder processFiles(String configurationFile, String... inputFileNames) throws IOException, ProgramException {
-		new Program();
+		return processFiles(new Xml2Csv(), configurationFile, inputFileNames);
+	}
+
+	public static TemporaryFolder processFiles(Xml2Csv converter, String configurationFile, String... inputFileNames) throws IOException,
+					ProgramException {
 		List<File> configFiles = new ArrayList<File>();
 		configFiles.add(createFile(configurationFile));
 		List<File> xmlInputFiles = new ArrayList<File>();
@@ -198,7 +202,7 @@ public class TestHelpers {
 		TemporaryFolder outputFolder = new TemporaryFolder();
 		outputFolder.create();
 		File outputDirectory = outputFolder.getRoot();
-		new Xml2Csv().execute(configFiles, xmlInputFiles, outputDirectory, false, true);
+		converter.execute(configFiles, xmlInputFiles, outputDirectory, false, true);
 
 		return outputFolder;
 
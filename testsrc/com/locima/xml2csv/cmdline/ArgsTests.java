@@ -2,6 +2,13 @@ package com.locima.xml2csv.cmdline;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
 
 import org.apache.commons.cli.BasicParser;
 import org.apache.commons.cli.CommandLine;
@@ -30,6 +37,33 @@ public class ArgsTests {
 		return this.parser.parse(this.options, args);
 	}
 
+	@Test
+	public void testListenWithoutConfigFile() throws ParseException {
+		assertEquals("0", parse(createPName(Program.OPT_LISTEN), "0").getOptionValue(Program.OPT_LISTEN));
+	}
+
+	@Test
+	public void testMissingConfigFile() throws Exception {
+		ByteArrayOutputStream console = new ByteArrayOutputStream();
+		Program program = new Program(new File("."), new PrintStream(console, true, "UTF-8"), null);
+		assertFalse(program.execute(new String[] { "input.xml" }));
+		assertTrue(console.toString("UTF-8"), console.toString("UTF-8").contains("Missing required option: " + Program.OPT_CONFIG_FILE));
+	}
+
+	@Test
+	public void testParsePort() throws ParseException {
+		assertEquals(0, Program.parsePort("0"));
+		assertEquals(65535, Program.parsePort(" 65535 "));
+		for (String invalid : new String[] { "-1", "65536", "port" }) {
+			try {
+				Program.parsePort(invalid);
+				fail("Expected " + invalid + " to be rejected");
+			} catch (ParseException pe) {
+				assertTrue(pe.getMessage(), pe.getMessage().contains(invalid));
+			}
+		}
+	}
+
 	@Test
 	public void testSwitches() throws ParseException {
 		assertEquals(true,
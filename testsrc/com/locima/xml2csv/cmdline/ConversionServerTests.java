@@ -0,0 +1,147 @@
+package com.locima.xml2csv.cmdline;
+
+import static com.locima.xml2csv.TestHelpers.assertCsvEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.locima.xml2csv.TestHelpers;
+
+public class ConversionServerTests {
+
+	private TemporaryFolder outputFolder;
+
+	private ConversionServer server;
+
+	private int send(ByteArrayOutputStream console, String... args) throws Exception {
+		return send(ConversionServer.readToken(this.server.getTokenFile()), console, args);
+	}
+
+	private int send(String token, ByteArrayOutputStream console, String... args) throws Exception {
+		PrintStream printStream = new PrintStream(console, true, "UTF-8");
+		// Relative file names are resolved against the client's working directory, not the server's
+		return ConversionClient.send(this.server.getPort(), token, new File(TestHelpers.RES_DIR).getAbsoluteFile(), args, printStream);
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		this.outputFolder = new TemporaryFolder();
+		this.outputFolder.create();
+		this.server = new ConversionServer(0);
+		this.server.setMaxConcurrentJobs(2);
+		this.server.setTokenFile(new File(this.outputFolder.getRoot(), "server.token"));
+		this.server.start();
+		Thread thread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				ConversionServerTests.this.server.run();
+			}
+		});
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@After
+	public void tearDown() {
+		this.server.stop();
+		assertFalse(this.server.getTokenFile().exists());
+		this.outputFolder.delete();
+	}
+
+	@Test
+	public void testFailedJob() throws Exception {
+		ByteArrayOutputStream console = new ByteArrayOutputStream();
+		int status = send(console, "-c", "DoesNotExist.xml", "-o", this.outputFolder.getRoot().getAbsolutePath(), "SimplePivotInput.xml");
+		assertEquals(ConversionServer.STATUS_FAILURE, status);
+		assertTrue(console.toString("UTF-8"), console.toString("UTF-8").contains("DoesNotExist.xml"));
+	}
+
+	@Test
+	public void testJobs() throws Exception {
+		for (int i = 0; i < 3; i++) {
+			File outputDirectory = this.outputFolder.newFolder("Output" + i);
+			ByteArrayOutputStream console = new ByteArrayOutputStream();
+			int status = send(console, "-c", "SimplePivotConfig.xml", "-o", outputDirectory.getAbsolutePath(), "SimplePivotInput.xml");
+			assertEquals(console.toString("UTF-8"), ConversionServer.STATUS_SUCCESS, status);
+			assertCsvEquals("SimplePivotOutput.csv", outputDirectory, "SimplePivotOutput.csv");
+		}
+	}
+
+	@Test
+	public void testJobWithoutTokenRejected() throws Exception {
+		File outputDirectory = this.outputFolder.newFolder("Output");
+		String[] args = { "-c", "SimplePivotConfig.xml", "-o", outputDirectory.getAbsolutePath(), "SimplePivotInput.xml" };
+		String token = ConversionServer.readToken(this.server.getTokenFile());
+		for (String wrongToken : new String[] { "", token.substring(1), token + "0" }) {
+			ByteArrayOutputStream console = new ByteArrayOutputStream();
+			assertEquals(ConversionServer.STATUS_FAILURE, send(wrongToken, console, args));
+			assertTrue(console.toString("UTF-8"), console.toString("UTF-8").contains("Job rejected"));
+		}
+
+		// A client that doesn't know about tokens sends the working directory where the token should be
+		Socket socket = new Socket(InetAddress.getByName(null), this.server.getPort());
+		try {
+			Writer writer = new OutputStreamWriter(socket.getOutputStream(), "UTF-8");
+			writer.write("xml2csv job 1\n" + new File(TestHelpers.RES_DIR).getAbsolutePath() + "\n");
+			for (String arg : args) {
+				writer.write(arg + "\n");
+			}
+			writer.write("\n");
+			writer.flush();
+			String response = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8")).readLine();
+			assertTrue(response, response.startsWith("Unsupported protocol"));
+		} finally {
+			socket.close();
+		}
+		assertEquals(0, outputDirectory.list().length);
+	}
+
+	@Test
+	public void testPivotKeysNotSharedBetweenJobs() throws Exception {
+		File otherInput = this.outputFolder.newFile("OtherPivotInput.xml");
+		Writer writer = new OutputStreamWriter(new FileOutputStream(otherInput), "UTF-8");
+		try {
+			writer.write("<family><record><field name=\"suffix\" value=\"Sr\"/><field name=\"colour\" value=\"Red\"/>"
+							+ "<field name=\"name\" value=\"Bob\"/></record></family>");
+		} finally {
+			writer.close();
+		}
+		File otherOutputDirectory = this.outputFolder.newFolder("OtherOutput");
+		ByteArrayOutputStream console = new ByteArrayOutputStream();
+		int status = send(console, "-c", "SimplePivotConfig.xml", "-o", otherOutputDirectory.getAbsolutePath(), otherInput.getAbsolutePath());
+		assertEquals(console.toString("UTF-8"), ConversionServer.STATUS_SUCCESS, status);
+		String[] otherLines = TestHelpers.loadFile(new File(otherOutputDirectory, "SimplePivotOutput.csv"));
+		assertEquals("suffix,colour,name", otherLines[0]);
+
+		// The keys found by the first job, and the order they were found in, must not affect the fields of the second, which uses the same
+		// configuration
+		File outputDirectory = this.outputFolder.newFolder("Output");
+		console = new ByteArrayOutputStream();
+		status = send(console, "-c", "SimplePivotConfig.xml", "-o", outputDirectory.getAbsolutePath(), "SimplePivotInput.xml");
+		assertEquals(console.toString("UTF-8"), ConversionServer.STATUS_SUCCESS, status);
+		assertCsvEquals("SimplePivotOutput.csv", outputDirectory, "SimplePivotOutput.csv");
+	}
+
+	@Test
+	public void testServerCantBeStartedByJob() throws Exception {
+		ByteArrayOutputStream console = new ByteArrayOutputStream();
+		assertEquals(ConversionServer.STATUS_FAILURE, send(console, "-l", "1"));
+	}
+}
@@ -0,0 +1,114 @@
+package com.locima.xml2csv.configuration;
+
+import static com.locima.xml2csv.TestHelpers.addMapping;
+import static com.locima.xml2csv.TestHelpers.createDocument;
+import static com.locima.xml2csv.TestHelpers.loadMappingConfiguration;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.locima.xml2csv.extractor.XmlDataExtractor;
+import com.locima.xml2csv.output.BufferingOutputManager;
+
+public class MappingStatisticsTests {
+
+	@Test
+	public void testConcurrentRecordAndMerge() throws Exception {
+		final Mapping mapping = addMapping(null, "Test", 0, MultiValueBehaviour.GREEDY, ".", 0, 0);
+		final MappingStatistics total = new MappingStatistics();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 8; i++) {
+			final int threadIndex = i;
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					MappingStatistics local = new MappingStatistics();
+					for (int j = 0; j < 1000; j++) {
+						local.recordValueCount(mapping, (j * 8) + threadIndex);
+						total.recordValueCount(mapping, j);
+					}
+					total.merge(local);
+				}
+			});
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(7999, total.getHighestFoundValueCount(mapping));
+	}
+
+	@Test
+	public void testExtractorsAreIsolated() throws Exception {
+		MappingConfiguration config = loadMappingConfiguration("PeopleConfig.xml");
+		IMapping firstName = ((MappingList) config.getContainerByName("People")).get(1);
+
+		XmlDataExtractor first = new XmlDataExtractor();
+		first.setMappingConfiguration(config);
+		first.extractTo(createDocument("<people><person><firstname>A</firstname><firstname>B</firstname></person></people>"),
+						new BufferingOutputManager());
+		XmlDataExtractor second = new XmlDataExtractor();
+		second.setMappingConfiguration(config);
+		second.extractTo(createDocument("<people><person><firstname>C</firstname></person></people>"), new BufferingOutputManager());
+
+		assertEquals(2, first.getStatistics().getHighestFoundValueCount(firstName));
+		assertEquals(1, second.getStatistics().getHighestFoundValueCount(firstName));
+	}
+
+	@Test
+	public void testFieldCount() throws Exception {
+		Mapping lazy = addMapping(null, "Lazy", 0, MultiValueBehaviour.LAZY, ".", 0, 0);
+		Mapping greedy = addMapping(null, "Greedy", 0, MultiValueBehaviour.GREEDY, ".", 2, 0);
+		MappingStatistics statistics = new MappingStatistics();
+		assertEquals(1, statistics.getFieldCountForSingleRecord(lazy));
+		assertEquals(2, statistics.getFieldCountForSingleRecord(greedy));
+		statistics.recordValueCount(lazy, 5);
+		statistics.recordValueCount(greedy, 5);
+		assertEquals(1, statistics.getFieldCountForSingleRecord(lazy));
+		assertEquals(5, statistics.getFieldCountForSingleRecord(greedy));
+	}
+
+	@Test
+	public void testIdentityKeys() throws Exception {
+		Mapping first = addMapping(null, "Test", 0, MultiValueBehaviour.GREEDY, ".", 0, 0);
+		Mapping second = addMapping(null, "Test", 0, MultiValueBehaviour.GREEDY, ".", 0, 0);
+		assertEquals(first, second);
+		MappingStatistics statistics = new MappingStatistics();
+		statistics.recordValueCount(first, 3);
+		assertEquals(3, statistics.getHighestFoundValueCount(first));
+		assertEquals(0, statistics.getHighestFoundValueCount(second));
+	}
+
+	@Test
+	public void testMerge() throws Exception {
+		Mapping first = addMapping(null, "First", 0, MultiValueBehaviour.GREEDY, ".", 0, 0);
+		Mapping second = addMapping(null, "Second", 0, MultiValueBehaviour.GREEDY, ".", 0, 0);
+		MappingStatistics left = new MappingStatistics();
+		left.recordValueCount(first, 4);
+		left.recordValueCount(second, 1);
+		MappingStatistics right = new MappingStatistics();
+		right.recordValueCount(first, 2);
+		right.recordValueCount(second, 6);
+		left.merge(right);
+		assertEquals(4, left.getHighestFoundValueCount(first));
+		assertEquals(6, left.getHighestFoundValueCount(second));
+		assertEquals(2, right.getHighestFoundValueCount(first));
+	}
+
+	@Test
+	public void testRecordKeepsHighest() throws Exception {
+		Mapping mapping = addMapping(null, "Test", 0, MultiValueBehaviour.GREEDY, ".", 0, 0);
+		MappingStatistics statistics = new MappingStatistics();
+		assertEquals(0, statistics.getHighestFoundValueCount(mapping));
+		statistics.recordValueCount(mapping, 3);
+		statistics.recordValueCount(mapping, 1);
+		assertEquals(3, statistics.getHighestFoundValueCount(mapping));
+		statistics.recordValueCount(mapping, 7);
+		assertEquals(7, statistics.getHighestFoundValueCount(mapping));
+	}
+}
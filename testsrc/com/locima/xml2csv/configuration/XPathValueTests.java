@@ -0,0 +1,198 @@
+package com.locima.xml2csv.configuration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.sf.saxon.s9api.XPathSelector;
+import net.sf.saxon.s9api.XdmItem;
+import net.sf.saxon.s9api.XdmNode;
+
+import org.junit.Test;
+
+import com.locima.xml2csv.TestHelpers;
+import com.locima.xml2csv.util.XmlUtil;
+
+public class XPathValueTests {
+
+	private static final String MIXED_DOCUMENT = "<r xmlns:p=\"urn:p\" id=\"R1\" p:id=\"PR1\">Start<a type=\"first\"> A1 <!-- Comment -->"
+					+ "After comment<![CDATA[ <CDATA> ]]><b>B1</b>Between<b>B2</b><c/></a><p:a p:type=\"ns\"><b>PB1</b><p:b>PB2</p:b></p:a>"
+					+ "<a><b>B3</b><d><b>Deep</b></d></a><?pi Instruction?><e>E1</e>End</r>";
+
+	private static final String[] SIMPLE_EXPRESSIONS = new String[] { ".", "a", "a/b", "child::a/child::b", "*/b", "p:*", "p:a/p:b", "*:b",
+					"*/*", "a/@type", "a/attribute::type", "*/@p:type", "@id", "@p:id", "a/c", "missing", "a/missing/b", "a/d/b", " e ", "@missing",
+					"text()", "a/text()", "a/b/text()", "a/c/text()", "e/child::text()", "/r", "/r/a/b", "/r/@id", "/r/text()", "/*/*/b", "/missing" };
+
+	private static void assertSameAsSaxon(Map<String, String> namespaces, String expression, XdmNode contextNode) throws Exception {
+		XPathValue xPath = XmlUtil.createXPathValue(namespaces, expression);
+		List<XdmNode> directNodes = xPath.selectNodes(contextNode);
+		assertNotNull(expression, directNodes);
+		List<XdmItem> saxonNodes = new ArrayList<XdmItem>();
+		XPathSelector selector = xPath.evaluate(contextNode);
+		for (XdmItem item : selector) {
+			saxonNodes.add(item);
+		}
+		xPath.release(selector);
+		assertEquals(expression, saxonNodes, directNodes);
+		assertEquals(expression, getValues(xPath.evaluate(contextNode)), xPath.selectValues(contextNode));
+	}
+
+	private static List<String> getValues(XPathSelector selector) {
+		List<String> values = new ArrayList<String>();
+		for (XdmItem item : selector) {
+			values.add(item.getStringValue());
+		}
+		return values;
+	}
+
+	@Test
+	public void testDirectSelectionMatchesSaxon() throws Exception {
+		Map<String, String> namespaces = new HashMap<String, String>();
+		namespaces.put("p", "urn:p");
+		XdmNode doc = TestHelpers.createDocument(MIXED_DOCUMENT);
+		XdmNode root = (XdmNode) getFirstChild(doc);
+		for (String expression : SIMPLE_EXPRESSIONS) {
+			assertSameAsSaxon(namespaces, expression, root);
+		}
+		assertSameAsSaxon(namespaces, "r/a", doc);
+		assertSameAsSaxon(namespaces, "/r/a", (XdmNode) xPathNodes(root, "a/b").get(0));
+	}
+
+	@Test
+	public void testDirectSelectionWithDefaultNamespace() throws Exception {
+		Map<String, String> namespaces = new HashMap<String, String>();
+		namespaces.put("", "urn:d");
+		namespaces.put("p", "urn:p");
+		XdmNode doc = TestHelpers.createDocument("<r xmlns=\"urn:d\" xmlns:p=\"urn:p\"><a>D</a><p:a>P</p:a><a xmlns=\"\">None</a></r>");
+		for (String expression : new String[] { "/r/a", "/r/p:a", "/r/*", "/*:r/*:a", "/r/a/text()" }) {
+			assertSameAsSaxon(namespaces, expression, doc);
+		}
+	}
+
+	@Test
+	public void testComplexExpressionsAreNotSelectedDirectly() throws Exception {
+		XdmNode doc = TestHelpers.createDocument(MIXED_DOCUMENT);
+		String[] complexExpressions = new String[] { "//a", "/", "..", "a[1]", "a//b", "@*", "a/@*", "count(a)", "a | e", "a/comment()", "a/node()",
+						"/r/../r", "$v", "a/b/text()[1]", "text()/..", "string(a)" };
+		for (String expression : complexExpressions) {
+			XPathValue xPath = XmlUtil.createXPathValue(expression, "v");
+			assertNull(expression, xPath.getChildPath());
+			assertNull(expression, xPath.selectNodes(doc));
+			assertNull(expression, xPath.selectValues(doc));
+		}
+	}
+
+	@Test
+	public void testDocumentInvariance() throws Exception {
+		String[] invariant = new String[] { "/r", "/r/a/@id", "/r/a[1]", "/r/a[@id = 'x']/text()", "count(/r/a)", "'Constant'", "//a[last()]",
+						"concat(/r/@id, '-', /r/@name)", "/r/a[. = ../b]" };
+		for (String expression : invariant) {
+			assertTrue(expression, XmlUtil.createXPathValue(expression, "v").isDocumentInvariant());
+		}
+		String[] variant = new String[] { ".", "a", "@id", "text()", "..", "position()", "last()", "name()", "string()", "$v", "/r/a[@id = $v]",
+						"/r/a | b", "concat(/r/@id, a)" };
+		for (String expression : variant) {
+			assertFalse(expression, XmlUtil.createXPathValue(expression, "v").isDocumentInvariant());
+		}
+	}
+
+	@Test
+	public void testOnlyReferencedVariablesAreDeclared() throws Exception {
+		XPathValue xPath = XmlUtil.createXPathValue("concat($b, '-', $a, $b)", "a", "b", "c");
+		assertEquals("[b, a]", Arrays.toString(xPath.getReferencedVariableNames()));
+		assertEquals(2, xPath.getVariableNames().length);
+
+		xPath = XmlUtil.createXPathValue("a", "a", "b");
+		assertEquals(0, xPath.getReferencedVariableNames().length);
+		assertEquals(0, xPath.getVariableNames().length);
+		// Unreferenced variables don't need to be bound
+		XdmNode doc = TestHelpers.createDocument("<r><a>A</a></r>");
+		assertEquals("[A]", getValues(xPath.evaluate((XdmNode) getFirstChild(doc))).toString());
+	}
+
+	@Test
+	public void testNestedEvaluationDoesNotShareSelector() throws Exception {
+		XPathValue xPath = XmlUtil.createXPathValue("a");
+		XdmNode doc = TestHelpers.createDocument("<r><a><a>Inner</a></a></r>");
+		XPathSelector outer = xPath.evaluate((XdmNode) getFirstChild(doc));
+		XPathSelector inner = null;
+		for (XdmItem item : outer) {
+			inner = xPath.evaluate((XdmNode) item);
+			assertNotSame(outer, inner);
+			assertEquals("[Inner]", getValues(inner).toString());
+		}
+		xPath.release(inner);
+		xPath.release(outer);
+		// Only the first selector released is kept
+		assertSame(inner, xPath.evaluate(doc));
+	}
+
+	@Test
+	public void testReleasedSelectorIsReused() throws Exception {
+		XPathValue xPath = XmlUtil.createXPathValue("/r/a");
+		XdmNode doc1 = TestHelpers.createDocument("<r><a>One</a><a>Two</a></r>");
+		XdmNode doc2 = TestHelpers.createDocument("<r><a>Three</a></r>");
+
+		XPathSelector first = xPath.evaluate(doc1);
+		assertEquals("[One, Two]", getValues(first).toString());
+		xPath.release(first);
+
+		XPathSelector second = xPath.evaluate(doc2);
+		assertSame(first, second);
+		assertEquals("[Three]", getValues(second).toString());
+		xPath.release(second);
+	}
+
+	@Test
+	public void testSelectorsNotSharedBetweenThreads() throws Exception {
+		final XPathValue xPath = XmlUtil.createXPathValue("/r/a");
+		final XdmNode doc = TestHelpers.createDocument("<r><a>One</a></r>");
+		XPathSelector mainSelector = xPath.evaluate(doc);
+		xPath.release(mainSelector);
+
+		final XPathSelector[] otherSelector = new XPathSelector[1];
+		final Exception[] otherException = new Exception[1];
+		Thread other = new Thread() {
+			@Override
+			public void run() {
+				try {
+					otherSelector[0] = xPath.evaluate(doc);
+					xPath.release(otherSelector[0]);
+				} catch (Exception e) {
+					otherException[0] = e;
+				}
+			}
+		};
+		other.start();
+		other.join();
+		if (otherException[0] != null) {
+			throw otherException[0];
+		}
+		assertNotSame(mainSelector, otherSelector[0]);
+		assertSame(mainSelector, xPath.evaluate(doc));
+	}
+
+	private List<XdmItem> xPathNodes(XdmNode contextNode, String expression) throws Exception {
+		List<XdmItem> items = new ArrayList<XdmItem>();
+		for (XdmItem item : XmlUtil.createXPathValue(expression).evaluate(contextNode)) {
+			items.add(item);
+		}
+		return items;
+	}
+
+	private XdmItem getFirstChild(XdmNode doc) throws Exception {
+		XPathValue root = XmlUtil.createXPathValue("/r");
+		XPathSelector selector = root.evaluate(doc);
+		return selector.iterator().next();
+	}
+}
@@ -0,0 +1,126 @@
+package com.locima.xml2csv.configuration.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.locima.xml2csv.util.XmlUtil;
+
+public class XPathPrefixFilterTests {
+
+	private static final String[] DOCUMENTS = new String[] {
+					"<Order type=\"Retail\" version=\"2\"><Header><Status>OPEN</Status></Header><Lines><Line/></Lines></Order>",
+					"<Order type=\"Trade\"><Header><Status>CLOSED</Status></Header><Header><Status>OPEN</Status></Header></Order>",
+					"<Order><Lines/><Header status=\"OPEN\"><!-- No status element --></Header></Order>",
+					"<Invoice type=\"Retail\"><Header><Status>OPEN</Status></Header></Invoice>",
+					"<o:Order xmlns:o=\"http://example.com/order\" type=\"Retail\"><o:Header><o:Status>OPEN</o:Status></o:Header></o:Order>" };
+
+	private TemporaryFolder inputFolder;
+
+	private Map<String, String> namespaceMappings;
+
+	/**
+	 * Checks that the prefix filter agrees with a full evaluation of the same expression against every document.
+	 */
+	private void assertAgreesWithFullEvaluation(String expression) throws Exception {
+		XPathPrefixFilter prefixFilter = XPathPrefixFilter.create(this.namespaceMappings, expression);
+		assertNotNull("Expected " + expression + " to be supported", prefixFilter);
+		XPathInputFilter fullFilter = new XPathInputFilter(this.namespaceMappings, expression);
+		for (int i = 0; i < DOCUMENTS.length; i++) {
+			File file = createFile(i, DOCUMENTS[i]);
+			boolean expected = fullFilter.include(XmlUtil.loadXmlFile(file));
+			assertEquals(expression + " against " + DOCUMENTS[i], Boolean.valueOf(expected), prefixFilter.matches(file));
+			assertEquals(!expected, fullFilter.isExcludedByContentPrefix(file));
+		}
+	}
+
+	private File createFile(int index, String content) throws Exception {
+		File file = new File(this.inputFolder.getRoot(), "Input" + index + ".xml");
+		FileWriter writer = new FileWriter(file);
+		try {
+			writer.write(content);
+		} finally {
+			writer.close();
+		}
+		return file;
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		this.inputFolder = new TemporaryFolder();
+		this.inputFolder.create();
+		this.namespaceMappings = new HashMap<String, String>();
+		this.namespaceMappings.put("o", "http://example.com/order");
+	}
+
+	@After
+	public void tearDown() {
+		this.inputFolder.delete();
+	}
+
+	@Test
+	public void testAttributePredicates() throws Exception {
+		assertAgreesWithFullEvaluation("/Order[@type = 'Retail']");
+		assertAgreesWithFullEvaluation("/*[@type = \"Retail\" and @version > 1]");
+		assertAgreesWithFullEvaluation("/o:Order[@type='Retail']");
+		assertAgreesWithFullEvaluation("Order/Header[@status]");
+		assertAgreesWithFullEvaluation("/*[local-name() = 'Invoice' or not(@type)]");
+	}
+
+	@Test
+	public void testAttributeSteps() throws Exception {
+		assertAgreesWithFullEvaluation("/Order/@version");
+		assertAgreesWithFullEvaluation("/*/@*");
+		assertAgreesWithFullEvaluation("/Order/Header/@status");
+	}
+
+	@Test
+	public void testContentPredicates() throws Exception {
+		assertAgreesWithFullEvaluation("/Order/Header[Status = 'OPEN']");
+		assertAgreesWithFullEvaluation("/*/Header[Status]");
+		assertAgreesWithFullEvaluation("/o:Order/o:Header[o:Status = 'OPEN']");
+		assertAgreesWithFullEvaluation("/Order/Lines[not(*)]");
+	}
+
+	@Test
+	public void testPaths() throws Exception {
+		assertAgreesWithFullEvaluation("/Order");
+		assertAgreesWithFullEvaluation("/Order/Lines/Line");
+		assertAgreesWithFullEvaluation("/*/Header/Status");
+		assertAgreesWithFullEvaluation("/o:Order");
+	}
+
+	@Test
+	public void testStopsAtDocumentElement() throws Exception {
+		XPathPrefixFilter filter = XPathPrefixFilter.create(null, "/Order[@type = 'Retail']");
+		// The document isn't well formed after the document element has started, so would fail if parsed any further
+		assertFalse(filter.matches(createFile(0, "<Order type=\"Trade\"><Broken></Order>")).booleanValue());
+		assertTrue(filter.matches(createFile(1, "<Order type=\"Retail\"><Broken></Order>")).booleanValue());
+		assertFalse(filter.matches(createFile(2, "<Invoice><Broken></Invoice>")).booleanValue());
+		assertNull(filter.matches(createFile(3, "<Order type=\"Trade\"")));
+	}
+
+	@Test
+	public void testUnsupportedExpressions() throws Exception {
+		assertNull(XPathPrefixFilter.create(null, "//Order"));
+		assertNull(XPathPrefixFilter.create(null, "/Order/Header[1]"));
+		assertNull(XPathPrefixFilter.create(null, "/Order/Header[last()]"));
+		assertNull(XPathPrefixFilter.create(null, "/Order/Header[count(../Header)]"));
+		assertNull(XPathPrefixFilter.create(null, "/Order/Header[@version]/Status"));
+		assertNull(XPathPrefixFilter.create(null, "count(/Order/Header) > 1"));
+		assertNull(XPathPrefixFilter.create(null, "/Order[Header/Status = 'OPEN']"));
+		assertNull(XPathPrefixFilter.create(null, "/x:Order"));
+	}
+}
@@ -0,0 +1,135 @@
+package com.locima.xml2csv.extractor;
+
+import static com.locima.xml2csv.TestHelpers.assertCsvEquals;
+import static com.locima.xml2csv.TestHelpers.loadMappingConfiguration;
+import static com.locima.xml2csv.TestHelpers.processFiles;
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import net.sf.saxon.s9api.XdmNode;
+
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.locima.xml2csv.ArgumentException;
+import com.locima.xml2csv.TestHelpers;
+import com.locima.xml2csv.Xml2Csv;
+import com.locima.xml2csv.configuration.MappingConfiguration;
+import com.locima.xml2csv.generator.CorpusGenerator;
+import com.locima.xml2csv.output.OutputManager;
+import com.locima.xml2csv.util.XmlUtil;
+
+public class ConcurrentExtractionTests {
+
+	private File convert(MappingConfiguration config, XdmNode document, ExecutorService executor, int chunkSize) throws Exception {
+		return convert(config, document, executor, chunkSize, "HeavilyNestedInstance.csv");
+	}
+
+	private File convert(MappingConfiguration config, XdmNode document, ExecutorService executor, int chunkSize, String outputFileName)
+					throws Exception {
+		TemporaryFolder outputFolder = new TemporaryFolder();
+		outputFolder.create();
+		XmlDataExtractor extractor = new XmlDataExtractor();
+		extractor.setMappingConfiguration(config);
+		extractor.setExecutor(executor);
+		extractor.setMappingRootChunkSize(chunkSize);
+		OutputManager om = new OutputManager();
+		om.initialise(outputFolder.getRoot(), config, false);
+		extractor.extractTo(document, om);
+		om.getStatistics().merge(extractor.getStatistics());
+		om.close();
+		return new File(outputFolder.getRoot(), outputFileName);
+	}
+
+	private Xml2Csv createConverter(int threadCount, int extractionThreadCount) {
+		Xml2Csv converter = new Xml2Csv();
+		converter.setThreadCount(threadCount);
+		converter.setExtractionThreadCount(extractionThreadCount);
+		return converter;
+	}
+
+	@Test
+	public void testContainersEvaluatedConcurrently() throws Exception {
+		TemporaryFolder outputFolder = processFiles(createConverter(1, 4), "GroupDemoConfig.xml", "GroupDemo.xml");
+		assertCsvEquals("GroupDemo1.csv", outputFolder.getRoot(), "GroupDemo1.csv");
+		assertCsvEquals("GroupDemo2.csv", outputFolder.getRoot(), "GroupDemo2.csv");
+		assertCsvEquals("GroupDemo3.csv", outputFolder.getRoot(), "GroupDemo3.csv");
+		outputFolder.delete();
+	}
+
+	@Test
+	public void testContainersEvaluatedConcurrentlyWithFileWorkers() throws Exception {
+		// A single extraction pool thread shared by several file workers must not starve any of them
+		TemporaryFolder outputFolder = processFiles(createConverter(4, 2), "SimpleFamilyConfig.xml", "SimpleFamily1.xml", "SimpleFamily2.xml");
+		assertCsvEquals("SimpleFamilyOutput1.csv", outputFolder.getRoot(), "Family.csv");
+		assertCsvEquals("SimpleFamilyOutput2.csv", outputFolder.getRoot(), "People.csv");
+		outputFolder.delete();
+	}
+
+	@Test
+	public void testMappingRootsEvaluatedInChunks() throws Exception {
+		MappingConfiguration config = loadMappingConfiguration("HeavilyNestedConfig.xml");
+		CorpusGenerator generator = new CorpusGenerator(config);
+		generator.setFileSize(50000);
+		generator.setValueFanOut(3);
+		TemporaryFolder input = new TemporaryFolder();
+		input.create();
+		XdmNode document = XmlUtil.loadXmlFile(generator.generate(input.getRoot()).get(0));
+
+		File expected = convert(config, document, null, XmlDataExtractor.DEFAULT_MAPPING_ROOT_CHUNK_SIZE);
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			// Chunk sizes that don't divide the number of mapping roots exactly, as well as single root chunks
+			assertCsvEquals(expected, convert(config, document, executor, 1));
+			assertCsvEquals(expected, convert(config, document, executor, 7));
+		} finally {
+			executor.shutdownNow();
+			input.delete();
+		}
+	}
+
+	@Test
+	public void testPivotContainersEvaluatedConcurrently() throws Exception {
+		TemporaryFolder outputFolder = processFiles(createConverter(1, 2), "SimplePivotInContainerConfig.xml", "SimplePivotInput.xml");
+		TemporaryFolder expectedFolder = processFiles("SimplePivotInContainerConfig.xml", "SimplePivotInput.xml");
+		for (String name : expectedFolder.getRoot().list()) {
+			assertCsvEquals(new File(expectedFolder.getRoot(), name), new File(outputFolder.getRoot(), name));
+		}
+		outputFolder.delete();
+		expectedFolder.delete();
+	}
+
+	@Test
+	public void testPivotMappingRootsEvaluatedDeterministically() throws Exception {
+		// Every record has a key that no other record has, so the order of the fields depends on the order the records are evaluated in
+		StringBuilder input = new StringBuilder("<family>");
+		for (int i = 0; i < 200; i++) {
+			input.append(String.format("<record><field name='name' value='N%d'/><field name='key%d' value='V%d'/></record>", i, i, i));
+		}
+		input.append("</family>");
+		XdmNode document = TestHelpers.createDocument(input.toString());
+
+		File expected = convert(loadMappingConfiguration("SimplePivotInContainerConfig.xml"), document, null, 1, "SimplePivotOutput.csv");
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			for (int i = 0; i < 5; i++) {
+				MappingConfiguration config = loadMappingConfiguration("SimplePivotInContainerConfig.xml");
+				assertCsvEquals(expected, convert(config, document, executor, 1, "SimplePivotOutput.csv"));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test(expected = ArgumentException.class)
+	public void testInvalidChunkSize() {
+		new XmlDataExtractor().setMappingRootChunkSize(0);
+	}
+
+	@Test(expected = ArgumentException.class)
+	public void testInvalidExtractionThreadCount() {
+		new Xml2Csv().setExtractionThreadCount(0);
+	}
+}
@@ -0,0 +1,104 @@
+package com.locima.xml2csv.extractor;
+
+import static com.locima.xml2csv.TestHelpers.assertCsvEquals;
+import static com.locima.xml2csv.TestHelpers.loadMappingConfiguration;
+import static com.locima.xml2csv.TestHelpers.processFiles;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+
+import net.sf.saxon.s9api.XdmNode;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.locima.xml2csv.Xml2Csv;
+
+public class DocumentProjectionTests {
+
+	private TemporaryFolder inputFolder;
+
+	private void assertSameOutput(String configFile, String[] outputFiles, String... inputFiles) throws Exception {
+		assertNotNull("Expected " + configFile + " to be projectable", DocumentProjection.create(loadMappingConfiguration(configFile)));
+		Xml2Csv fullConverter = new Xml2Csv();
+		fullConverter.setDocumentProjection(false);
+		TemporaryFolder expected = processFiles(fullConverter, configFile, inputFiles);
+		TemporaryFolder actual = processFiles(configFile, inputFiles);
+		for (String outputFile : outputFiles) {
+			assertCsvEquals(new File(expected.getRoot(), outputFile), new File(actual.getRoot(), outputFile));
+		}
+		expected.delete();
+		actual.delete();
+	}
+
+	private File createFile(String name, String content) throws Exception {
+		File file = this.inputFolder.newFile(name);
+		FileWriter writer = new FileWriter(file);
+		try {
+			writer.write(content);
+		} finally {
+			writer.close();
+		}
+		return file;
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		this.inputFolder = new TemporaryFolder();
+		this.inputFolder.create();
+	}
+
+	@After
+	public void tearDown() {
+		this.inputFolder.delete();
+	}
+
+	@Test
+	public void testNotProjectable() throws Exception {
+		// Uses count(../record), which could read anything
+		assertNull(DocumentProjection.create(loadMappingConfiguration("PivotWithSiblingsConfig.xml")));
+	}
+
+	@Test
+	public void testSameOutput() throws Exception {
+		assertSameOutput("PeopleConfig.xml", new String[] { "People.csv" }, "People.xml");
+		assertSameOutput("HeavilyNestedConfig.xml", new String[] { "HeavilyNestedInstance.csv" }, "HeavilyNestedInstance.xml");
+		assertSameOutput("GroupDemoConfig.xml", new String[] { "GroupDemo1.csv", "GroupDemo2.csv", "GroupDemo3.csv" }, "GroupDemo.xml");
+		assertSameOutput("SimpleFamilyConfig.xml", new String[] { "Family.csv", "People.csv" }, "SimpleFamily1.xml", "SimpleFamily2.xml");
+		assertSameOutput("PeopleFilterConfig.xml", new String[] { "PeopleFiltered.csv" }, "Person1.xml", "Person2.xml", "Person3.xml");
+		assertSameOutput("SimplePivotConfig.xml", new String[] { "SimplePivotOutput.csv" }, "SimplePivotInput.xml");
+	}
+
+	@Test
+	public void testUnreachableNodesDiscarded() throws Exception {
+		DocumentProjection projection = DocumentProjection.create(loadMappingConfiguration("PeopleConfig.xml"));
+		File file =
+						createFile("People.xml", "<people><!-- Comment --><audit><entry>Created</entry></audit>"
+										+ "<person lastname=\"Smith\" id=\"1\"><attachment>QUJDREVG</attachment><firstname>Bob<b>by</b></firstname>"
+										+ "<age>30</age>Unused text</person></people>");
+		XdmNode document = projection.load(file);
+		String xml = document.toString();
+		assertFalse(xml, xml.contains("audit"));
+		assertFalse(xml, xml.contains("attachment"));
+		assertFalse(xml, xml.contains("Comment"));
+		assertFalse(xml, xml.contains("Unused text"));
+		// Attributes of kept elements are always kept, and the whole subtree of values is kept
+		assertTrue(xml, xml.contains("id=\"1\""));
+		assertTrue(xml, xml.contains("<firstname>Bob<b>by</b>"));
+		assertTrue(xml, xml.contains("<age>30</age>"));
+	}
+
+	@Test
+	public void testUnreachableDocumentElement() throws Exception {
+		DocumentProjection projection = DocumentProjection.create(loadMappingConfiguration("PeopleConfig.xml"));
+		XdmNode document = projection.load(createFile("Other.xml", "<other xmlns:a=\"urn:a\"><a:person/></other>"));
+		assertEquals("<other xmlns:a=\"urn:a\"/>", document.toString().trim());
+	}
+}
@@ -1,11 +1,17 @@
 package com.locima.xml2csv.extractor;
 
 import static com.locima.xml2csv.TestHelpers.addMapping;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.StringReader;
 import java.security.CodeSource;
 import java.text.MessageFormat;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -31,8 +37,10 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.locima.xml2csv.configuration.IValueMapping;
 import com.locima.xml2csv.configuration.MappingConfiguration;
 import com.locima.xml2csv.configuration.MappingList;
+import com.locima.xml2csv.configuration.MappingStatistics;
 import com.locima.xml2csv.configuration.MultiValueBehaviour;
 import com.locima.xml2csv.output.IExtractionResults;
 import com.locima.xml2csv.util.XmlUtil;
@@ -110,7 +118,7 @@ public class ExtractionContextTests {
 	}
 
 	private ContainerExtractionContext evaluate(MappingList mappings, XdmNode testDoc) throws DataExtractorException {
-		ContainerExtractionContext ctx = new ContainerExtractionContext(mappings, 0, 0);
+		ContainerExtractionContext ctx = new ContainerExtractionContext(mappings, new MappingStatistics(), 0, 0);
 		EvaluationContext eCtx = new EvaluationContext();
 		ctx.evaluate(testDoc, eCtx);
 		return ctx;
@@ -141,6 +149,58 @@ public class ExtractionContextTests {
 		assertMappingValues("ParentData2", new int[] { 1, 0, 0 }, ctx);
 	}
 
+	@Test
+	public void testDocumentInvariantMappingsAreShared() throws Exception {
+		MappingList parents = new MappingList();
+		parents.setName("Parents");
+		parents.setMappingRoot(XmlUtil.createXPathValue("/root/parent"));
+		parents.setMultiValueBehaviour(MultiValueBehaviour.LAZY);
+		addMapping(parents, "data", 1, "data");
+		addMapping(parents, "batch", 1, "/root/@batch");
+		addMapping(parents, "label", 1, "concat($batch, '-', data)");
+		assertFalse(((IValueMapping) parents.get(0)).isDocumentInvariant());
+		assertTrue(((IValueMapping) parents.get(1)).isDocumentInvariant());
+		assertFalse(((IValueMapping) parents.get(2)).isDocumentInvariant());
+
+		XdmNode testDoc = createFromString("<root batch='B1'><parent><data>One</data></parent><parent><data>Two</data></parent></root>");
+		ContainerExtractionContext ctx = evaluate(parents, testDoc);
+		assertMappingValues("One", new int[] { 0, 0, 0 }, ctx);
+		assertMappingValues("B1", new int[] { 0, 1, 0 }, ctx);
+		assertMappingValues("B1-One", new int[] { 0, 2, 0 }, ctx);
+		assertMappingValues("Two", new int[] { 1, 0, 0 }, ctx);
+		assertMappingValues("B1", new int[] { 1, 1, 0 }, ctx);
+		assertMappingValues("B1-Two", new int[] { 1, 2, 0 }, ctx);
+		List<String> firstBatch = ((MappingExtractionContext) ctx.getChildren().get(0).get(1)).getResults();
+		assertSame(firstBatch, ((MappingExtractionContext) ctx.getChildren().get(1).get(1)).getResults());
+
+		// Mapping roots found in different documents (as the streaming extractor does) mustn't share values
+		XdmNode otherDoc = createFromString("<root batch='B2'><parent><data>Three</data></parent></root>");
+		ctx.evaluateMappingRoot((XdmNode) parents.getMappingRoot().evaluate(otherDoc).iterator().next());
+		List<String> otherBatch = ((MappingExtractionContext) ctx.getChildren().get(2).get(1)).getResults();
+		assertNotSame(firstBatch, otherBatch);
+		assertEquals("B2", otherBatch.get(0));
+		assertMappingValues("B2-Three", new int[] { 2, 2, 0 }, ctx);
+	}
+
+	@Test
+	public void testSiblingVariablesAreBoundToFirstValue() throws Exception {
+		MappingList parents = new MappingList();
+		parents.setName("Parents");
+		parents.setMappingRoot(XmlUtil.createXPathValue("/root/parent"));
+		parents.setMultiValueBehaviour(MultiValueBehaviour.LAZY);
+		addMapping(parents, "data", 1, "data");
+		addMapping(parents, "missing", 1, "missing");
+		addMapping(parents, "label", 1, "concat($data, '-', $missing, '-', count(data))");
+		SiblingVariables siblingVariables = parents.getSiblingVariables();
+		assertEquals("[0, 1]", Arrays.toString(siblingVariables.getReferencedSlots(2)));
+		assertEquals(0, siblingVariables.getReferencedSlots(0).length);
+
+		XdmNode testDoc = createFromString("<root><parent><data>One</data><data>Two</data></parent><parent><data>Three</data></parent></root>");
+		ContainerExtractionContext ctx = evaluate(parents, testDoc);
+		assertMappingValues("One--2", new int[] { 0, 1, 0 }, ctx);
+		assertMappingValues("Three--1", new int[] { 1, 1, 0 }, ctx);
+	}
+
 	@Test
 	public void testMaxValueMapping() throws Exception {
 		MappingList mappings = new MappingList();
@@ -13,7 +13,6 @@ import com.locima.xml2csv.TestHelpers;
 import com.locima.xml2csv.XMLException;
 import com.locima.xml2csv.configuration.MappingConfiguration;
 import com.locima.xml2csv.inputparser.FileParserException;
-import com.locima.xml2csv.output.IOutputManager;
 import com.locima.xml2csv.output.OutputManager;
 import com.locima.xml2csv.output.OutputManagerException;
 import com.locima.xml2csv.util.XmlUtil;
@@ -39,11 +38,12 @@ public class ExtractorTests {
 
 		File inputFile = TestHelpers.createFile("HeavilyNestedInstance.xml");
 
-		IOutputManager om = new OutputManager();
+		OutputManager om = new OutputManager();
 		om.initialise(outputFolder.getRoot(), config, false);
 
 		extractor.extractTo(XmlUtil.loadXmlFile(inputFile), om);
 
+		om.getStatistics().merge(extractor.getStatistics());
 		om.close();
 
 		return outputFolder.getRoot();
@@ -0,0 +1,116 @@
+package com.locima.xml2csv.extractor;
+
+import static com.locima.xml2csv.TestHelpers.addMapping;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.sf.saxon.s9api.XPathSelector;
+import net.sf.saxon.s9api.XdmItem;
+import net.sf.saxon.s9api.XdmNode;
+
+import org.junit.Test;
+
+import com.locima.xml2csv.TestHelpers;
+import com.locima.xml2csv.configuration.MappingList;
+import com.locima.xml2csv.configuration.MappingStatistics;
+import com.locima.xml2csv.configuration.MultiValueBehaviour;
+import com.locima.xml2csv.configuration.XPathValue;
+import com.locima.xml2csv.output.IExtractionResults;
+import com.locima.xml2csv.util.XmlUtil;
+
+public class PathTrieTests {
+
+	private static final String DOCUMENT = "<r xmlns:p=\"urn:p\" id=\"R1\" p:id=\"PR1\">" + "<a type=\"first\"> A1 <b>B1</b><b>B2</b><c/></a>"
+					+ "<p:a p:type=\"ns\"><b>PB1</b><p:b>PB2</p:b></p:a>" + "<a><b>B3</b><d><b>Deep</b></d></a>" + "<e>E1</e>" + "</r>";
+
+	private static final String[] EXPRESSIONS = new String[] { "a", "a/b", "child::a/child::b", "*/b", "p:*", "p:a/p:b", "*:b", "*/*", "a/@type",
+					"*/@p:type", "@id", "@p:id", ".", "a/c", "missing", "a/missing/b", "a/d/b", "e", " e ", "@missing", "a/text()",
+					"text()", "a/b/text()", "e/child::text()" };
+
+	private static List<String> getValues(XPathSelector selector) {
+		List<String> values = new ArrayList<String>();
+		for (XdmItem item : selector) {
+			values.add(item.getStringValue());
+		}
+		return values;
+	}
+
+	private Map<String, String> getNamespaces() {
+		Map<String, String> namespaces = new HashMap<String, String>();
+		namespaces.put("p", "urn:p");
+		return namespaces;
+	}
+
+	private XdmNode getRoot() throws Exception {
+		XdmNode doc = TestHelpers.createDocument(DOCUMENT);
+		XPathSelector selector = XmlUtil.createXPathValue("/*").evaluate(doc);
+		return (XdmNode) selector.iterator().next();
+	}
+
+	/**
+	 * Checks that every path in the trie finds exactly the same values as Saxon does for the same expression.
+	 */
+	@Test
+	public void testSameResultsAsSaxon() throws Exception {
+		MappingList mappings = new MappingList();
+		List<XPathValue> xPaths = new ArrayList<XPathValue>();
+		for (int i = 0; i < EXPRESSIONS.length; i++) {
+			XPathValue xPath = XmlUtil.createXPathValue(getNamespaces(), EXPRESSIONS[i]);
+			xPaths.add(xPath);
+			addMapping(mappings, "Field" + i, 0, MultiValueBehaviour.LAZY, xPath, 0, 0);
+		}
+		PathTrie trie = mappings.getChildPathTrie();
+		assertEquals(EXPRESSIONS.length, trie.size());
+
+		XdmNode root = getRoot();
+		List<List<String>> trieValues = trie.evaluate(root);
+		for (int i = 0; i < EXPRESSIONS.length; i++) {
+			List<String> expected = getValues(xPaths.get(i).evaluate(root));
+			assertEquals(EXPRESSIONS[i], expected, trieValues.get(trie.getSlot(i)));
+		}
+	}
+
+	/**
+	 * Checks that expressions that the trie can't evaluate are left to Saxon, and that evaluating a container gives the same results either way.
+	 */
+	@Test
+	public void testUnsupportedExpressionsAreEvaluatedBySaxon() throws Exception {
+		String[] unsupported = new String[] { "/r/a", "a[1]", "..", "a/node()", "count(a)", "a//b", "@*", "$Field0", "a | e" };
+		MappingList mappings = new MappingList();
+		addMapping(mappings, "Field0", 0, MultiValueBehaviour.LAZY, "a", 0, 0);
+		List<String> siblingNames = new ArrayList<String>();
+		siblingNames.add("Field0");
+		for (int i = 0; i < unsupported.length; i++) {
+			XPathValue xPath = XmlUtil.createXPathValue(getNamespaces(), unsupported[i], siblingNames.toArray(new String[0]));
+			addMapping(mappings, "Unsupported" + i, 0, MultiValueBehaviour.LAZY, xPath, 0, 0);
+			siblingNames.add("Unsupported" + i);
+		}
+		addMapping(mappings, "Last", 0, MultiValueBehaviour.LAZY, "a/b", 0, 2);
+
+		PathTrie trie = mappings.getChildPathTrie();
+		assertEquals(2, trie.size());
+		assertEquals(0, trie.getSlot(0));
+		for (int i = 0; i < unsupported.length; i++) {
+			assertEquals(unsupported[i], -1, trie.getSlot(i + 1));
+		}
+		assertEquals(1, trie.getSlot(unsupported.length + 1));
+
+		XdmNode root = getRoot();
+		ContainerExtractionContext ctx = new ContainerExtractionContext(mappings, new MappingStatistics(), 0, 0);
+		ctx.evaluate(root, new EvaluationContext());
+		List<IExtractionResults> results = ctx.getChildren().get(0);
+		MappingExtractionContext first = (MappingExtractionContext) results.get(0);
+		assertEquals("A1 B1B2", first.getValueAt(0));
+		assertEquals("B3Deep", first.getValueAt(1));
+		MappingExtractionContext variable = (MappingExtractionContext) results.get(8);
+		assertEquals("Unsupported7", variable.getName());
+		assertEquals("A1 B1B2", variable.getValueAt(0));
+		MappingExtractionContext last = (MappingExtractionContext) results.get(results.size() - 1);
+		assertEquals(Arrays.asList("B1", "B2"), last.getResults());
+	}
+}
@@ -16,7 +16,6 @@ import com.locima.xml2csv.configuration.MappingConfiguration;
 import com.locima.xml2csv.configuration.MultiValueBehaviour;
 import com.locima.xml2csv.configuration.NameFormat;
 import com.locima.xml2csv.configuration.PivotMapping;
-import com.locima.xml2csv.output.IOutputManager;
 import com.locima.xml2csv.output.OutputManager;
 
 public class PivotExtractorTests {
@@ -51,7 +50,7 @@ public class PivotExtractorTests {
 		config.addContainer(pivot);
 
 		File outputDir = getTemporaryOutputFolder();
-		IOutputManager om = new OutputManager();
+		OutputManager om = new OutputManager();
 		om.initialise(outputDir, config, false);
 
 		XmlDataExtractor extractor = new XmlDataExtractor();
@@ -59,6 +58,7 @@ public class PivotExtractorTests {
 
 		extractor.extractTo(this.testDoc, om);
 
+		om.getStatistics().merge(extractor.getStatistics());
 		om.close();
 		assertCsvEquals("SimplePivotOutput.csv", outputDir, "pivot.csv");
 	}
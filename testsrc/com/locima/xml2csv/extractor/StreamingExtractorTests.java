@@ -0,0 +1,94 @@
+package com.locima.xml2csv.extractor;
+
+import static com.locima.xml2csv.TestHelpers.assertCsvEquals;
+import static com.locima.xml2csv.TestHelpers.createFile;
+import static com.locima.xml2csv.TestHelpers.loadFile;
+import static com.locima.xml2csv.TestHelpers.loadMappingConfiguration;
+import static com.locima.xml2csv.TestHelpers.processFiles;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Collections;
+
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.locima.xml2csv.XMLException;
+import com.locima.xml2csv.Xml2Csv;
+
+public class StreamingExtractorTests {
+
+	private Xml2Csv createStreamingConverter() {
+		Xml2Csv converter = new Xml2Csv();
+		converter.setStreaming(true);
+		return converter;
+	}
+
+	@Test
+	public void testGroups() throws Exception {
+		TemporaryFolder outputFolder = processFiles(createStreamingConverter(), "GroupDemoConfig.xml", "GroupDemo.xml");
+		assertCsvEquals("GroupDemo1.csv", outputFolder.getRoot(), "GroupDemo1.csv");
+		assertCsvEquals("GroupDemo2.csv", outputFolder.getRoot(), "GroupDemo2.csv");
+		assertCsvEquals("GroupDemo3.csv", outputFolder.getRoot(), "GroupDemo3.csv");
+	}
+
+	@Test
+	public void testNamespacesAndNestedRoots() throws Exception {
+		// Each family is also the parent of the mapping roots of the second container, so two captures are active at once
+		TemporaryFolder outputFolder = processFiles(createStreamingConverter(), "StreamingFamilyConfigWithNamespaces.xml", "FamilyWithNamespaces.xml");
+		assertCsvEquals("FamilyWithNamespaces.csv", outputFolder.getRoot(), "FamilyWithNamespaces.csv");
+		assertCsvEquals("StreamingFamilyMembersWithNamespaces.csv", outputFolder.getRoot(), "FamilyMembersWithNamespaces.csv");
+	}
+
+	@Test
+	public void testPeople() throws Exception {
+		TemporaryFolder outputFolder = processFiles(createStreamingConverter(), "PeopleConfig.xml", "People.xml");
+		assertCsvEquals("People.csv", outputFolder.getRoot(), "People.csv");
+	}
+
+	@Test
+	public void testStreamableConfiguration() throws Exception {
+		assertNull(StreamingXmlDataExtractor.getNonStreamableReason(loadMappingConfiguration("PeopleConfig.xml")));
+		assertNull(StreamingXmlDataExtractor.getNonStreamableReason(loadMappingConfiguration("StreamingFamilyConfigWithNamespaces.xml")));
+	}
+
+	@Test
+	public void testNonStreamableConfigurations() throws Exception {
+		// Parent axis in a child mapping
+		assertNotNull(StreamingXmlDataExtractor.getNonStreamableReason(loadMappingConfiguration("SimpleFamilyConfig.xml")));
+		// Document content filter
+		assertNotNull(StreamingXmlDataExtractor.getNonStreamableReason(loadMappingConfiguration("PeopleFilterConfig.xml")));
+		// Child mapping in the same group as the top-level container
+		assertNotNull(StreamingXmlDataExtractor.getNonStreamableReason(loadMappingConfiguration("FruitBasketConfig.xml")));
+		// Top-level pivot mapping
+		assertNotNull(StreamingXmlDataExtractor.getNonStreamableReason(loadMappingConfiguration("SimplePivotConfig.xml")));
+	}
+
+	@Test(expected = XMLException.class)
+	public void testRejectNonStreamableConfiguration() throws Exception {
+		processFiles(createStreamingConverter(), "SimpleFamilyConfig.xml", "SimpleFamily1.xml");
+	}
+
+	@Test
+	public void testRejectedConfigurationLeavesOutputUntouched() throws Exception {
+		TemporaryFolder outputFolder = new TemporaryFolder();
+		outputFolder.create();
+		File existingOutput = new File(outputFolder.getRoot(), "Family.csv");
+		FileWriter writer = new FileWriter(existingOutput);
+		writer.write("Existing output\n");
+		writer.close();
+		try {
+			createStreamingConverter().execute(Collections.singletonList(createFile("SimpleFamilyConfig.xml")),
+							Collections.singletonList(createFile("SimpleFamily1.xml")), outputFolder.getRoot(), false, true);
+			fail("Expected a non-streamable configuration to be rejected");
+		} catch (XMLException e) {
+			// Expected
+		}
+		assertArrayEquals(new String[] { "Existing output" }, loadFile(existingOutput));
+	}
+
+}
@@ -0,0 +1,134 @@
+package com.locima.xml2csv.generator;
+
+import static com.locima.xml2csv.TestHelpers.createFile;
+import static com.locima.xml2csv.TestHelpers.loadFile;
+import static com.locima.xml2csv.TestHelpers.loadMappingConfiguration;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.locima.xml2csv.ArgumentException;
+import com.locima.xml2csv.Xml2Csv;
+import com.locima.xml2csv.configuration.MappingConfiguration;
+
+public class CorpusGeneratorTests {
+
+	private TemporaryFolder inputFolder;
+
+	private TemporaryFolder outputFolder;
+
+	private String[] convert(String configFileName, List<File> inputFiles, String outputFileName) throws Exception {
+		List<File> configFiles = new ArrayList<File>();
+		configFiles.add(createFile(configFileName));
+		new Xml2Csv().execute(configFiles, inputFiles, this.outputFolder.getRoot(), false, true);
+		return loadFile(new File(this.outputFolder.getRoot(), outputFileName));
+	}
+
+	private byte[] generate(CorpusGenerator generator, int fileIndex) throws Exception {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		generator.generate(fileIndex, output);
+		return output.toByteArray();
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		this.inputFolder = new TemporaryFolder();
+		this.inputFolder.create();
+		this.outputFolder = new TemporaryFolder();
+		this.outputFolder.create();
+	}
+
+	@After
+	public void tearDown() {
+		this.inputFolder.delete();
+		this.outputFolder.delete();
+	}
+
+	@Test
+	public void testDeterministic() throws Exception {
+		MappingConfiguration config = loadMappingConfiguration("HeavilyNestedConfig.xml");
+		CorpusGenerator generator = new CorpusGenerator(config);
+		generator.setFileSize(10000);
+		generator.setSeed(42);
+		byte[] first = generate(generator, 0);
+		CorpusGenerator other = new CorpusGenerator(config);
+		other.setFileSize(10000);
+		other.setSeed(42);
+		assertArrayEquals(first, generate(other, 0));
+		assertFalse(Arrays.equals(first, generate(generator, 1)));
+		generator.setSeed(43);
+		assertFalse(Arrays.equals(first, generate(generator, 0)));
+	}
+
+	@Test
+	public void testFileCountAndSize() throws Exception {
+		CorpusGenerator generator = new CorpusGenerator(loadMappingConfiguration("PeopleConfig.xml"));
+		generator.setFileCount(3);
+		generator.setFileSize(50000);
+		generator.setNestingDepth(4);
+		List<File> files = generator.generate(this.inputFolder.getRoot());
+		assertEquals(3, files.size());
+		for (File file : files) {
+			assertTrue(file.length() >= 50000);
+		}
+	}
+
+	@Test
+	public void testGeneratedDocumentsProduceRecords() throws Exception {
+		CorpusGenerator generator = new CorpusGenerator(loadMappingConfiguration("PeopleConfig.xml"));
+		generator.setFileSize(5000);
+		generator.setValueFanOut(1);
+		generator.setNestingDepth(3);
+		String[] lines = convert("PeopleConfig.xml", generator.generate(this.inputFolder.getRoot()), "People.csv");
+		assertEquals("Last Name,First Name,Age", lines[0]);
+		assertTrue(lines.length > 10);
+		for (int i = 1; i < lines.length; i++) {
+			// Every field must have a value, so there can't be any empty fields
+			assertFalse(lines[i], lines[i].startsWith(",") || lines[i].endsWith(",") || lines[i].contains(",,"));
+		}
+	}
+
+	@Test
+	public void testNamespacesWithRandomisedPrefixes() throws Exception {
+		CorpusGenerator generator = new CorpusGenerator(loadMappingConfiguration("FamilyConfigWithNamespaces.xml"));
+		generator.setFileSize(5000);
+		generator.setRandomisePrefixes(true);
+		String document = new String(generate(generator, 0), "UTF-8");
+		assertTrue(document.contains("<ns"));
+		assertFalse(document.contains("<family:"));
+		List<File> files = generator.generate(this.inputFolder.getRoot());
+		String[] lines = convert("FamilyConfigWithNamespaces.xml", files, "FamilyMembersWithNamespaces.csv");
+		assertEquals("Family,Name,Age", lines[0]);
+		assertTrue(lines.length > 2);
+	}
+
+	@Test
+	public void testPivotKeyCardinality() throws Exception {
+		CorpusGenerator generator = new CorpusGenerator(loadMappingConfiguration("SimplePivotConfig.xml"));
+		generator.setFileSize(20000);
+		generator.setPivotKeyCardinality(4);
+		String[] lines = convert("SimplePivotConfig.xml", generator.generate(this.inputFolder.getRoot()), "SimplePivotOutput.csv");
+		String[] keys = lines[0].split(",");
+		assertEquals(4, keys.length);
+		for (String key : keys) {
+			assertTrue(key, key.startsWith("Key"));
+		}
+	}
+
+	@Test(expected = ArgumentException.class)
+	public void testInvalidFileCount() throws Exception {
+		new CorpusGenerator(loadMappingConfiguration("PeopleConfig.xml")).setFileCount(0);
+	}
+}
@@ -5,6 +5,7 @@ import static org.junit.Assert.assertNotNull;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 
@@ -83,6 +84,19 @@ public class XmlInputTests {
 		topLevelMappingList.get(2);
 	}
 
+	@Test
+	public void testNonAsciiVariableNames() throws Exception {
+		XmlFileParser parser = new XmlFileParser();
+		List<File> files = new ArrayList<File>();
+		files.add(TestHelpers.createFile("NonAsciiVariableConfig.xml"));
+		parser.load(files);
+		MappingList people = (MappingList) parser.getMappings().getContainerByName("People");
+		Mapping label = (Mapping) people.get(2);
+		assertEquals("[gr\u00f6\u00dfe, \u540d\u524d]", Arrays.toString(label.getValueXPath().getVariableNames()));
+		Mapping unused = (Mapping) people.get(3);
+		assertEquals(0, unused.getValueXPath().getVariableNames().length);
+	}
+
 	@Test
 	public void testNamespaces() throws Exception {
 		XmlFileParser parser = new XmlFileParser();
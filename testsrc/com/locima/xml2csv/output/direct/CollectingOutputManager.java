@@ -0,0 +1,38 @@
+package com.locima.xml2csv.output.direct;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.locima.xml2csv.configuration.MappingConfiguration;
+import com.locima.xml2csv.output.IExtractionResultsContainer;
+import com.locima.xml2csv.output.IOutputManager;
+
+/**
+ * Keeps all the results written to it.
+ */
+class CollectingOutputManager implements IOutputManager {
+
+	private List<IExtractionResultsContainer> results = new ArrayList<IExtractionResultsContainer>();
+
+	@Override
+	public void abort() {
+	}
+
+	@Override
+	public void close() {
+	}
+
+	public List<IExtractionResultsContainer> getResults() {
+		return this.results;
+	}
+
+	@Override
+	public void initialise(File outputDirectory, MappingConfiguration config, boolean appendOutput) {
+	}
+
+	@Override
+	public void writeRecords(String outputName, IExtractionResultsContainer extractionResults) {
+		this.results.add(extractionResults);
+	}
+}
@@ -0,0 +1,121 @@
+package com.locima.xml2csv.output.direct;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.locima.xml2csv.util.StringUtil;
+
+public class CsvRecordBufferTests {
+
+	/**
+	 * A writer that throws away everything written to it, without allocating anything.
+	 */
+	private static class NullWriter extends Writer {
+
+		private long charCount;
+
+		@Override
+		public void close() {
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+			this.charCount += len;
+		}
+	}
+
+	private List<List<String>> createTestRecords() {
+		List<List<String>> records = new ArrayList<List<String>>();
+		records.add(Arrays.asList("a", "b", "c"));
+		records.add(Arrays.asList(null, "", null));
+		records.add(Arrays.asList("\"", "\"a", "a\"b", ",", ",;,;", ";", "\n", "\n\r", "\n\"\n"));
+		records.add(Arrays.asList("Plain value", "Value, with comma", "Ends with quote\""));
+		records.add(new ArrayList<String>());
+		StringBuilder longValue = new StringBuilder();
+		for (int i = 0; i < 5000; i++) {
+			longValue.append(i % 7 == 0 ? '"' : 'x');
+		}
+		records.add(Arrays.asList(longValue.toString(), "short"));
+		return records;
+	}
+
+	@Test
+	public void testEscapingMatchesStringUtil() throws Exception {
+		CsvRecordBuffer buffer = new CsvRecordBuffer();
+		for (List<String> record : createTestRecords()) {
+			StringWriter writer = new StringWriter();
+			buffer.appendFields(record);
+			buffer.endRecord();
+			buffer.writeTo(writer);
+			assertEquals(StringUtil.toCsvRecord(record) + StringUtil.LINE_SEPARATOR, writer.toString());
+			assertEquals(0, buffer.length());
+		}
+	}
+
+	@Test
+	public void testMultipleRecordsInBuffer() throws Exception {
+		CsvRecordBuffer buffer = new CsvRecordBuffer();
+		buffer.appendField("a");
+		buffer.appendField(null);
+		buffer.endRecord();
+		buffer.appendField("b,c");
+		buffer.endRecord();
+		String separator = StringUtil.LINE_SEPARATOR;
+		assertEquals("a," + separator + "\"b,c\"" + separator, buffer.toString());
+		buffer.clear();
+		assertEquals("", buffer.toString());
+	}
+
+	@Test
+	public void testSteadyStateAllocatesNothing() throws Exception {
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(threadBean instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+		Assume.assumeTrue(allocationBean.isThreadAllocatedMemorySupported());
+		allocationBean.setThreadAllocatedMemoryEnabled(true);
+
+		List<List<String>> records = createTestRecords();
+		CsvRecordBuffer buffer = new CsvRecordBuffer();
+		NullWriter writer = new NullWriter();
+		final int warmUpIterations = 1000;
+		final int measuredIterations = 20000;
+
+		// Let the buffer grow to fit the longest record
+		writeAll(records, buffer, writer, warmUpIterations);
+
+		long threadId = Thread.currentThread().getId();
+		long before = allocationBean.getThreadAllocatedBytes(threadId);
+		writeAll(records, buffer, writer, measuredIterations);
+		long allocated = allocationBean.getThreadAllocatedBytes(threadId) - before;
+
+		assertTrue(writer.charCount > 0);
+		// Allow a little for the measurement itself, which is far less than a single byte per record
+		assertTrue("Allocated " + allocated + " bytes writing " + (measuredIterations * records.size()) + " records", allocated < 1024);
+	}
+
+	private void writeAll(List<List<String>> records, CsvRecordBuffer buffer, Writer writer, int iterations) throws Exception {
+		int recordCount = records.size();
+		for (int iteration = 0; iteration < iterations; iteration++) {
+			for (int i = 0; i < recordCount; i++) {
+				buffer.appendFields(records.get(i));
+				buffer.endRecord();
+				buffer.writeTo(writer);
+			}
+		}
+	}
+}
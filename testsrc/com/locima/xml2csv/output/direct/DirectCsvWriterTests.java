@@ -0,0 +1,106 @@
+package com.locima.xml2csv.output.direct;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.LoggerFactory;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+
+import com.locima.xml2csv.TestHelpers;
+import com.locima.xml2csv.configuration.IMappingContainer;
+import com.locima.xml2csv.configuration.MappingConfiguration;
+import com.locima.xml2csv.extractor.XmlDataExtractor;
+import com.locima.xml2csv.output.IExtractionResultsContainer;
+import com.locima.xml2csv.util.XmlUtil;
+
+public class DirectCsvWriterTests {
+
+	@Rule
+	public TemporaryFolder outputFolder = new TemporaryFolder();
+
+	private File createPeopleFile(int personCount) throws Exception {
+		File peopleFile = this.outputFolder.newFile("People.xml");
+		FileWriter writer = new FileWriter(peopleFile);
+		try {
+			writer.write("<people>\n");
+			for (int i = 0; i < personCount; i++) {
+				writer.write(String.format("<person lastname=\"Last%1$d\"><firstname>First %1$d</firstname><age>%1$d</age></person>\n", i));
+			}
+			writer.write("</people>\n");
+		} finally {
+			writer.close();
+		}
+		return peopleFile;
+	}
+
+	/**
+	 * Writing extracted results should only allocate the group states needed to iterate over each set of results, rather than any strings or lists
+	 * for each record or field.
+	 */
+	@Test
+	public void testSteadyStateAllocation() throws Exception {
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(threadBean instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+		Assume.assumeTrue(allocationBean.isThreadAllocatedMemorySupported());
+		allocationBean.setThreadAllocatedMemoryEnabled(true);
+
+		final int recordCount = 500;
+		MappingConfiguration config = TestHelpers.loadMappingConfiguration("PeopleConfig.xml");
+		IMappingContainer container = config.getContainerByName("People");
+		XmlDataExtractor extractor = new XmlDataExtractor();
+		extractor.setMappingConfiguration(config);
+		CollectingOutputManager outputManager = new CollectingOutputManager();
+		extractor.extractTo(XmlUtil.loadXmlFile(createPeopleFile(recordCount)), outputManager);
+		assertEquals(1, outputManager.getResults().size());
+		IExtractionResultsContainer results = outputManager.getResults().get(0);
+
+		File csvDirectory = this.outputFolder.newFolder("output");
+		DirectCsvWriter writer = new DirectCsvWriter();
+		writer.initialise(csvDirectory, container, extractor.getStatistics(), false);
+		final int warmUpIterations = 100;
+		final int measuredIterations = 1000;
+		// Tests log at trace level, which would swamp the measurement, so measure with logging disabled as it is by default
+		Logger logger = (Logger) LoggerFactory.getLogger("com.locima.xml2csv");
+		Level originalLevel = logger.getLevel();
+		logger.setLevel(Level.OFF);
+		try {
+			for (int i = 0; i < warmUpIterations; i++) {
+				writer.writeRecords(results);
+			}
+
+			long threadId = Thread.currentThread().getId();
+			long before = allocationBean.getThreadAllocatedBytes(threadId);
+			for (int i = 0; i < measuredIterations; i++) {
+				writer.writeRecords(results);
+			}
+			long allocated = allocationBean.getThreadAllocatedBytes(threadId) - before;
+
+			// Finding the group states means walking every result, which takes a few references each, but escaping even a single field would take more
+			long allocatedPerRecord = allocated / ((long) measuredIterations * recordCount);
+			assertTrue("Allocated " + allocated + " bytes writing " + (measuredIterations * recordCount) + " records", allocatedPerRecord < 64);
+		} finally {
+			logger.setLevel(originalLevel);
+			writer.close();
+		}
+
+		String[] actual = TestHelpers.loadFile(new File(csvDirectory, "People.csv"));
+		assertEquals("Last Name,First Name,Age", actual[0]);
+		assertEquals(1 + (recordCount * (warmUpIterations + measuredIterations)), actual.length);
+		for (int i = 1; i < actual.length; i++) {
+			int person = (i - 1) % recordCount;
+			assertEquals(String.format("Last%1$d,First %1$d,%1$d", person), actual[i]);
+		}
+	}
+}
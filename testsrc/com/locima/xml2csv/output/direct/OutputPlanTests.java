@@ -0,0 +1,57 @@
+package com.locima.xml2csv.output.direct;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.locima.xml2csv.TestHelpers;
+import com.locima.xml2csv.configuration.IMappingContainer;
+import com.locima.xml2csv.configuration.MappingConfiguration;
+import com.locima.xml2csv.extractor.XmlDataExtractor;
+import com.locima.xml2csv.output.IExtractionResultsContainer;
+import com.locima.xml2csv.util.XmlUtil;
+
+public class OutputPlanTests {
+
+	private List<String> createRecords(OutputPlan plan, List<IExtractionResultsContainer> results) throws Exception {
+		List<String> lines = new ArrayList<String>();
+		CsvRecordBuffer buffer = new CsvRecordBuffer();
+		for (IExtractionResultsContainer result : results) {
+			DirectOutputRecordIterator iterator = new DirectOutputRecordIterator(plan, result);
+			while (iterator.hasNext()) {
+				buffer.appendFields(iterator.next());
+				StringWriter writer = new StringWriter();
+				buffer.writeTo(writer);
+				lines.add(writer.toString());
+			}
+		}
+		return lines;
+	}
+
+	/**
+	 * Pivot mappings gain children as keys are found, so a plan compiled before extraction must be recompiled before it's used.
+	 */
+	@Test
+	public void testPlanRecompiledWhenPivotKeysFound() throws Exception {
+		MappingConfiguration config = TestHelpers.loadMappingConfiguration("SimplePivotConfig.xml");
+		IMappingContainer container = config.getContainerByName("SimplePivotOutput");
+		XmlDataExtractor extractor = new XmlDataExtractor();
+		extractor.setMappingConfiguration(config);
+		OutputPlan plan = new OutputPlan(container, extractor.getStatistics());
+
+		CollectingOutputManager outputManager = new CollectingOutputManager();
+		extractor.extractTo(XmlUtil.loadXmlFile(TestHelpers.createFile("SimplePivotInput.xml")), outputManager);
+
+		List<String> expected = new ArrayList<String>();
+		String[] expectedLines = TestHelpers.loadFile(TestHelpers.createFile("SimplePivotOutput.csv"));
+		for (int i = 1; i < expectedLines.length; i++) {
+			expected.add(expectedLines[i]);
+		}
+		assertEquals(expected, createRecords(plan, outputManager.getResults()));
+		assertEquals(expected, createRecords(new OutputPlan(container, extractor.getStatistics()), outputManager.getResults()));
+	}
+}
@@ -0,0 +1,151 @@
+package com.locima.xml2csv.output.inline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.locima.xml2csv.configuration.IMapping;
+import com.locima.xml2csv.configuration.Mapping;
+import com.locima.xml2csv.configuration.MappingList;
+import com.locima.xml2csv.configuration.PivotMapping;
+import com.locima.xml2csv.output.IExtractionResults;
+import com.locima.xml2csv.output.IExtractionResultsContainer;
+import com.locima.xml2csv.output.IExtractionResultsValues;
+
+public class CsiTests {
+
+	private MappingList createMappingList(String name, String... fieldNames) {
+		MappingList container = new MappingList();
+		container.setName(name);
+		for (String fieldName : fieldNames) {
+			Mapping mapping = new Mapping();
+			mapping.setParent(container);
+			mapping.setName(fieldName);
+			container.add(mapping);
+		}
+		return container;
+	}
+
+	private IExtractionResultsContainer createRecord(MappingList top, PivotMapping pivot, String... values) {
+		List<List<IExtractionResults>> roots = new ArrayList<List<IExtractionResults>>();
+		List<IExtractionResults> children = new ArrayList<IExtractionResults>();
+		children.add(new CsiValueResults((Mapping) top.get(0), Arrays.asList(values)));
+		List<List<IExtractionResults>> pivotRoots = new ArrayList<List<IExtractionResults>>();
+		List<IExtractionResults> pivotChildren = new ArrayList<IExtractionResults>();
+		pivotChildren.add(new CsiValueResults(pivot.getPivotKeyMapping(values[0]), Arrays.asList(values[0])));
+		pivotRoots.add(pivotChildren);
+		children.add(new CsiContainerResults(pivot, pivotRoots));
+		roots.add(children);
+		roots.add(new ArrayList<IExtractionResults>());
+		return new CsiContainerResults(top, roots);
+	}
+
+	private MappingList createTopLevel(PivotMapping pivot) {
+		MappingList top = createMappingList("Top", "Values");
+		pivot.setName("Pivot");
+		pivot.setParent(top);
+		top.add(pivot);
+		return top;
+	}
+
+	private void assertRecordsEqual(IExtractionResultsContainer expected, IExtractionResultsContainer actual) {
+		assertSame(expected.getMapping(), actual.getMapping());
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			List<IExtractionResults> expectedChildren = expected.getResultsSetAt(i);
+			List<IExtractionResults> actualChildren = actual.getResultsSetAt(i);
+			assertEquals(expectedChildren.size(), actualChildren.size());
+			for (int j = 0; j < expectedChildren.size(); j++) {
+				IExtractionResults expectedChild = expectedChildren.get(j);
+				IExtractionResults actualChild = actualChildren.get(j);
+				if (expectedChild instanceof IExtractionResultsContainer) {
+					assertRecordsEqual((IExtractionResultsContainer) expectedChild, (IExtractionResultsContainer) actualChild);
+				} else {
+					assertSame(expectedChild.getMapping(), actualChild.getMapping());
+					assertEquals(((IExtractionResultsValues) expectedChild).getResults(), ((IExtractionResultsValues) actualChild).getResults());
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		PivotMapping pivot = new PivotMapping();
+		MappingList top = createTopLevel(pivot);
+
+		StringBuilder longValue = new StringBuilder();
+		for (int i = 0; i < 10000; i++) {
+			longValue.append((char) ('a' + (i % 26)));
+		}
+		String[] manyValues = new String[300];
+		for (int i = 0; i < manyValues.length; i++) {
+			manyValues[i] = "Value" + i;
+		}
+
+		List<IExtractionResultsContainer> records = new ArrayList<IExtractionResultsContainer>();
+		records.add(createRecord(top, pivot, "Key1", null, ""));
+		records.add(createRecord(top, pivot, "Key2", "\u00e9\u20ac\ud83d\ude00", "\ud800 unpaired"));
+		records.add(createRecord(top, pivot, "Key1", longValue.toString()));
+		records.add(createRecord(top, pivot, manyValues));
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		CsiWriter writer = new CsiWriter(top, bytes);
+		for (IExtractionResultsContainer record : records) {
+			writer.writeRecord(record);
+		}
+		writer.close();
+		assertEquals(records.size(), writer.getRecordCount());
+
+		CsiReader reader = new CsiReader(top, new ByteArrayInputStream(bytes.toByteArray()));
+		for (IExtractionResultsContainer expected : records) {
+			IExtractionResultsContainer actual = reader.getNextRecord();
+			if (expected == records.get(1)) {
+				// Unpaired surrogates can't be represented in UTF-8, so are replaced
+				IExtractionResultsValues values = (IExtractionResultsValues) actual.getResultsSetAt(0).get(0);
+				assertEquals(Arrays.asList("Key2", "\u00e9\u20ac\ud83d\ude00", "? unpaired"), values.getResults());
+			} else {
+				assertRecordsEqual(expected, actual);
+			}
+		}
+		assertNull(reader.getNextRecord());
+		assertEquals(records.size(), reader.getReadCount());
+		reader.close();
+
+		// Mapping IDs are assigned once, so should resolve to the same pivot key mapping every time.
+		IMapping key1 = pivot.getPivotKeyMapping("Key1");
+		reader = new CsiReader(top, new ByteArrayInputStream(bytes.toByteArray()));
+		IExtractionResultsContainer first = reader.getNextRecord();
+		reader.getNextRecord();
+		IExtractionResultsContainer third = reader.getNextRecord();
+		assertSame(key1, ((IExtractionResultsContainer) first.getResultsSetAt(0).get(1)).getResultsSetAt(0).get(0).getMapping());
+		assertSame(key1, ((IExtractionResultsContainer) third.getResultsSetAt(0).get(1)).getResultsSetAt(0).get(0).getMapping());
+		reader.close();
+	}
+
+	@Test(expected = IOException.class)
+	public void testInvalidHeader() throws Exception {
+		new CsiReader(createMappingList("Top"), new ByteArrayInputStream(new byte[] {(byte) 0xAC, (byte) 0xED, 0, 5}));
+	}
+
+	@Test(expected = IOException.class)
+	public void testTruncatedRecord() throws Exception {
+		PivotMapping pivot = new PivotMapping();
+		MappingList top = createTopLevel(pivot);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		CsiWriter writer = new CsiWriter(top, bytes);
+		writer.writeRecord(createRecord(top, pivot, "Key1", "Value"));
+		writer.close();
+		byte[] truncated = Arrays.copyOf(bytes.toByteArray(), bytes.size() - 2);
+		CsiReader reader = new CsiReader(top, new ByteArrayInputStream(truncated));
+		reader.getNextRecord();
+	}
+}
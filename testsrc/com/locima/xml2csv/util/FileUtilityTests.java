@@ -1,12 +1,23 @@
 package com.locima.xml2csv.util;
 
 import static com.locima.xml2csv.TestHelpers.assertSameContents;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
 
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
@@ -33,6 +44,39 @@ public class FileUtilityTests {
 		return files;
 	}
 
+	private File createContentFile(File parent, String name, byte[] content) throws IOException {
+		File file = new File(parent, name);
+		OutputStream output = new FileOutputStream(file);
+		try {
+			if (FileUtility.isGzipFile(file)) {
+				output = new GZIPOutputStream(output);
+			}
+			output.write(content);
+		} finally {
+			output.close();
+		}
+		return file;
+	}
+
+	private byte[] readAll(InputStream input) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		try {
+			// Mix single byte and block reads, with odd sized blocks, to cross buffer and region boundaries at different offsets
+			byte[] block = new byte[1237];
+			int b;
+			while ((b = input.read()) >= 0) {
+				output.write(b);
+				int length = input.read(block);
+				if (length > 0) {
+					output.write(block, 0, length);
+				}
+			}
+		} finally {
+			input.close();
+		}
+		return output.toByteArray();
+	}
+
 	private File createTempDir() throws IOException {
 		TemporaryFolder outputFolder = new TemporaryFolder();
 		outputFolder.create();
@@ -42,6 +86,23 @@ public class FileUtilityTests {
 
 	}
 
+	@Test
+	public void compressedFileNamesTest() {
+		Locale defaultLocale = Locale.getDefault();
+		// Lower casing "I" in Turkish doesn't yield "i", so this checks the file extensions are matched regardless of the default locale
+		Locale.setDefault(new Locale("tr", "TR"));
+		try {
+			assertTrue(FileUtility.isGzipFile(new File("input.xml.gz")));
+			assertTrue(FileUtility.isGzipFile(new File("INPUT.XML.GZ")));
+			assertFalse(FileUtility.isGzipFile(new File("input.xml")));
+			assertTrue(FileUtility.isZipArchive(new File("inputs.zip")));
+			assertTrue(FileUtility.isZipArchive(new File("INPUTS.ZIP")));
+			assertFalse(FileUtility.isZipArchive(new File("inputs.gz")));
+		} finally {
+			Locale.setDefault(defaultLocale);
+		}
+	}
+
 	@Test
 	public void getFilesDirectoryTest() throws IOException {
 		File root = createTempDir();
@@ -69,4 +130,23 @@ public class FileUtilityTests {
 		expected.addAll(createFile(root, "Child3.txt"));
 		assertSameContents(expected, FileUtility.getFiles(root, false));
 	}
+
+	@Test
+	public void inputStrategiesReadSameContentTest() throws IOException {
+		File root = createTempDir();
+		byte[] content = new byte[300000];
+		new Random(1).nextBytes(content);
+		File plain = createContentFile(root, "Input.xml", content);
+		File gzip = createContentFile(root, "Input.xml.gz", content);
+		File empty = createContentFile(root, "Empty.xml", new byte[0]);
+		for (InputStrategy strategy : InputStrategy.values()) {
+			for (int bufferSize : new int[] { 7, InputOptions.DEFAULT_BUFFER_SIZE }) {
+				InputOptions options = new InputOptions(strategy, bufferSize);
+				assertArrayEquals(strategy.toString(), content, readAll(FileUtility.openInput(plain, options)));
+				assertArrayEquals(strategy.toString(), content, readAll(FileUtility.openInput(gzip, options)));
+				assertArrayEquals(strategy.toString(), new byte[0], readAll(FileUtility.openInput(empty, options)));
+			}
+		}
+		assertArrayEquals(content, readAll(new MappedInputStream(new RandomAccessFile(plain, "r").getChannel(), 1000)));
+	}
 }
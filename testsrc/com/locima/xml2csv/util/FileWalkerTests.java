@@ -0,0 +1,172 @@
+package com.locima.xml2csv.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.locima.xml2csv.configuration.filter.FileNameInputFilter;
+
+public class FileWalkerTests {
+
+	private TemporaryFolder folder;
+
+	private void addFilesRecursively(List<File> files, File directory) {
+		for (File fileOrDirectory : directory.listFiles()) {
+			if (fileOrDirectory.isFile()) {
+				files.add(fileOrDirectory);
+			} else {
+				addFilesRecursively(files, fileOrDirectory);
+			}
+		}
+	}
+
+	private List<File> collect(Iterable<File> files) {
+		List<File> list = new ArrayList<File>();
+		for (File file : files) {
+			list.add(file);
+		}
+		return list;
+	}
+
+	private void createTree(File directory, int depth) throws IOException {
+		for (int i = 0; i < 3; i++) {
+			assertTrue(new File(directory, "File" + i + ".xml").createNewFile());
+		}
+		if (depth > 0) {
+			for (int i = 0; i < 4; i++) {
+				File subdirectory = new File(directory, "Dir" + i);
+				assertTrue(subdirectory.mkdir());
+				createTree(subdirectory, depth - 1);
+			}
+		}
+		// Empty directories must not stop the walk
+		assertTrue(new File(directory, "Empty").mkdir());
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		this.folder = new TemporaryFolder();
+		this.folder.create();
+		createTree(this.folder.getRoot(), 3);
+	}
+
+	@After
+	public void tearDown() {
+		this.folder.delete();
+	}
+
+	@Test
+	public void testConcurrentListingPreservesOrder() throws Exception {
+		List<File> expected = new ArrayList<File>();
+		addFilesRecursively(expected, this.folder.getRoot());
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			FileWalker walker = new FileWalker(new String[] { this.folder.getRoot().getPath() });
+			walker.setExecutor(executor);
+			walker.setMaxPendingListings(3);
+			assertEquals(expected, collect(walker));
+			// Each iteration is a new walk
+			assertEquals(expected, collect(walker));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private File createZip(File directory, String name, String... entryNames) throws IOException {
+		File file = new File(directory, name);
+		ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file));
+		try {
+			for (String entryName : entryNames) {
+				zip.putNextEntry(new ZipEntry(entryName));
+				if (!entryName.endsWith("/")) {
+					zip.write(("<entry name=\"" + entryName + "\"/>").getBytes("UTF-8"));
+				}
+				zip.closeEntry();
+			}
+		} finally {
+			zip.close();
+		}
+		return file;
+	}
+
+	@Test
+	public void testFilter() throws Exception {
+		FileWalker walker = new FileWalker(new String[] { this.folder.getRoot().getPath() });
+		Iterable<File> filtered = FileUtility.filter(walker, new FileFilter() {
+
+			@Override
+			public boolean accept(File file) {
+				return file.getName().equals("File1.xml");
+			}
+		});
+		List<File> files = collect(filtered);
+		assertEquals(1 + 4 + 16 + 64, files.size());
+		for (File file : files) {
+			assertEquals("File1.xml", file.getName());
+		}
+	}
+
+	@Test
+	public void testSameAsRecursiveListing() throws Exception {
+		File root = this.folder.getRoot();
+		File single = new File(root, "File0.xml");
+		List<File> expected = new ArrayList<File>();
+		expected.add(single);
+		addFilesRecursively(expected, new File(root, "Dir2"));
+
+		FileWalker walker =
+						new FileWalker(new String[] { single.getPath(), new File(root, "DoesNotExist").getPath(), new File(root, "Dir2").getPath() });
+		assertEquals(expected, collect(walker));
+		assertEquals(expected, FileUtility.getFiles(new String[] { single.getPath(), new File(root, "Dir2").getPath() }));
+
+		Iterator<File> iterator = new FileWalker(new String[] { new File(root, "Empty").getPath() }).iterator();
+		assertFalse(iterator.hasNext());
+	}
+
+	@Test
+	public void testZipEntriesAreWalked() throws Exception {
+		File directory = new File(this.folder.getRoot(), "Empty");
+		File zip = createZip(directory, "Bundle.zip", "orders/", "orders/1.xml", "orders/2.xml", "3.xml");
+		assertTrue(new File(directory, "NotAZip.zip").mkdir());
+
+		FileWalker walker = new FileWalker(new String[] { directory.getPath(), zip.getPath() });
+		List<File> files = collect(walker);
+		// Once when walking the directory, once as an input in its own right
+		assertEquals(6, files.size());
+		ZipEntryFile first = (ZipEntryFile) files.get(0);
+		assertEquals("1.xml", first.getName());
+		assertEquals("orders/1.xml", first.getEntryName());
+		assertEquals(zip, first.getArchiveFile());
+		assertEquals(new File(zip, "orders/1.xml").getAbsolutePath(), first.getAbsolutePath());
+		assertEquals("<entry name=\"orders/1.xml\"/>".length(), first.length());
+		assertTrue(first.isFile());
+
+		FileNameInputFilter filter = new FileNameInputFilter("^[12]\\.xml$", true);
+		assertTrue(filter.include(first));
+		assertFalse(filter.include(files.get(2)));
+
+		assertTrue(XmlUtil.loadXmlFile(files.get(1)).toString().contains("orders/2.xml"));
+		walker.close();
+		// Entries can still be read after the walker has closed their archive
+		assertEquals("jar:" + zip.toURI() + "!/3.xml", XmlUtil.getSystemId(files.get(5)));
+		assertTrue(XmlUtil.loadXmlFile(files.get(5)).toString().contains("3.xml"));
+	}
+}
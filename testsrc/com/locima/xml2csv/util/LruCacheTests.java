@@ -0,0 +1,32 @@
+package com.locima.xml2csv.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class LruCacheTests {
+
+	@Test
+	public void testLeastRecentlyUsedIsEvicted() {
+		LruCache<String, String> cache = new LruCache<String, String>(2);
+		assertNull(cache.putIfAbsent("a", "A"));
+		assertNull(cache.putIfAbsent("b", "B"));
+		// Using "a" makes "b" the least recently used
+		assertEquals("A", cache.get("a"));
+		assertNull(cache.putIfAbsent("c", "C"));
+		assertEquals(2, cache.size());
+		assertNull(cache.get("b"));
+		assertEquals("A", cache.get("a"));
+		assertEquals("C", cache.get("c"));
+	}
+
+	@Test
+	public void testExistingValueIsKept() {
+		LruCache<String, String> cache = new LruCache<String, String>(2);
+		assertNull(cache.putIfAbsent("a", "A"));
+		assertEquals("A", cache.putIfAbsent("a", "Other"));
+		assertEquals("A", cache.get("a"));
+		assertEquals(1, cache.size());
+	}
+}
@@ -0,0 +1,27 @@
+package com.locima.xml2csv.util;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class XPathAnalyserTests {
+
+	@Test
+	public void testConfinedExpressions() {
+		String[] confined = new String[] { "a", "a/b", "*/b", "a/*/b", "p:*/b", "child::*/b", "@*", "a[@id = */c]", "count(*/b) * 2",
+						"@amount - @offset", "a-b/c", "2 * a/b", "'/a' = a", "a[. = '..']" };
+		for (String expression : confined) {
+			assertTrue(expression, XPathAnalyser.isConfinedToContextSubtree(expression));
+		}
+	}
+
+	@Test
+	public void testEscapingExpressions() {
+		String[] escaping = new String[] { "/a", "..", "a/../b", "a | /b", "a = /b", "2 * /a", "2*/a", "a */a", "b[1 - /a]",
+						"@amount - /Batch/@offset", "1-/a", "a idiv /b", "a and /b", "parent::a", "root()", "(/a)" };
+		for (String expression : escaping) {
+			assertFalse(expression, XPathAnalyser.isConfinedToContextSubtree(expression));
+		}
+	}
+}
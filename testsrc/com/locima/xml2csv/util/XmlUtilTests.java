@@ -0,0 +1,60 @@
+package com.locima.xml2csv.util;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import net.sf.saxon.s9api.XPathExecutable;
+
+import org.junit.Test;
+
+import com.locima.xml2csv.XMLException;
+
+public class XmlUtilTests {
+
+	@Test
+	public void testCompiledExpressionsAreCached() throws Exception {
+		XPathExecutable first = XmlUtil.createXPathExecutable(null, "/Family/Person");
+		assertSame(first, XmlUtil.createXPathExecutable(null, "/Family/Person"));
+		assertSame(first, XmlUtil.createXPathExecutable(new HashMap<String, String>(), "/Family/Person"));
+		assertNotSame(first, XmlUtil.createXPathExecutable(null, "/Family/Person/Name"));
+	}
+
+	@Test
+	public void testNamespacesAreCopied() throws Exception {
+		Map<String, String> namespaces = new HashMap<String, String>();
+		namespaces.put("a", "http://example.com/a");
+		XPathExecutable first = XmlUtil.createXPathExecutable(namespaces, "/a:Family");
+
+		// Changing the namespace that a prefix refers to must result in a new compilation
+		namespaces.put("a", "http://example.com/b");
+		XPathExecutable second = XmlUtil.createXPathExecutable(namespaces, "/a:Family");
+		assertNotSame(first, second);
+
+		Map<String, String> original = new HashMap<String, String>();
+		original.put("a", "http://example.com/a");
+		assertSame(first, XmlUtil.createXPathExecutable(original, "/a:Family"));
+	}
+
+	@Test
+	public void testVariablesArePartOfKey() throws Exception {
+		XPathExecutable withVariables = XmlUtil.createXPathExecutable(null, "/Family[@Name=$Surname]", "Surname", "Forename");
+		assertSame(withVariables, XmlUtil.createXPathExecutable(null, "/Family[@Name=$Surname]", "Forename", "Surname"));
+		assertNotSame(withVariables, XmlUtil.createXPathExecutable(null, "/Family[@Name=$Surname]", "Surname"));
+	}
+
+	@Test
+	public void testInvalidExpressionsAreNotCached() throws Exception {
+		for (int i = 0; i < 2; i++) {
+			try {
+				XmlUtil.createXPathExecutable(null, "/Family[");
+				fail("Expected XMLException");
+			} catch (XMLException e) {
+				// Expected
+			}
+		}
+	}
+}